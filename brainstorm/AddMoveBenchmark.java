@@ -0,0 +1,87 @@
+package brainstorm;
+
+import java.util.Random;
+
+/**
+ * Measures how the cost of adding and moving Nodes changes with the size
+ * of the tree. The same number of adds and moves is timed on trees of
+ * 1,000 Nodes up to the largest size, ten times bigger each step. Neither
+ * should get much slower as the tree grows; a linear membership check
+ * would make the largest tree about a thousand times slower than the
+ * smallest.
+ * <br>
+ * Run with an optional argument giving the largest tree (1,000,000 Nodes
+ * by default). Give the JVM enough heap for it.
+ */
+public final class AddMoveBenchmark {
+
+    /**
+     * How many adds, each followed by a move, are timed on each tree.
+     */
+    private static final int OPS = 20000;
+
+    /**
+     * How many times the operations are timed on each tree. The best time
+     * is kept, so a garbage collection doesn't count against the larger
+     * trees.
+     */
+    private static final int ROUNDS = 3;
+
+    /**
+     * This class only holds static methods.
+     */
+    private AddMoveBenchmark() { }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args An optional number of Nodes for the largest tree.
+     */
+    public static void main(final String[] args) {
+        int largest = 1000000;
+        if (args.length > 0) {
+            largest = Integer.parseInt(args[0]);
+        }
+
+        System.out.println("  nodes  add+move(ns)  slowdown");
+        double base = 0;
+        for (int size = 1000; size <= largest; size *= 10) {
+            Node[] nodes = new Node[size];
+            BPlusTree tree = buildTree(nodes);
+            Random rand = new Random(size);
+            double nsPerOp = Double.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                System.gc();
+                long start = System.nanoTime();
+                for (int i = 0; i < OPS; i++) {
+                    Node child = new Node("", "");
+                    tree.add(nodes[rand.nextInt(size)], child);
+                    tree.move(nodes[rand.nextInt(size)], child);
+                }
+                nsPerOp = Math.min(nsPerOp,
+                                   (System.nanoTime() - start) / (double) OPS);
+            }
+            if (size == 1000) {
+                base = nsPerOp;
+            }
+            System.out.printf("%7d  %12.1f  %7.2fx%n", size, nsPerOp,
+                              nsPerOp / base);
+        }
+    }
+
+    /**
+     * Builds a tree where every Node has up to eight children.
+     *
+     * @param nodes An array which receives every Node of the tree.
+     * @return The tree.
+     */
+    private static BPlusTree buildTree(final Node[] nodes) {
+        BPlusTree tree = new BPlusTree();
+        nodes[0] = tree.getRoot();
+        for (int i = 1; i < nodes.length; i++) {
+            nodes[i] = new Node("", "");
+            tree.add(nodes[(i - 1) / 8], nodes[i]);
+        }
+        return tree;
+    }
+}
@@ -0,0 +1,308 @@
+package brainstorm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A table of ancestors, built by binary lifting, which answers whether one
+ * Node of a tree is above another and where two Nodes' paths to the root
+ * meet in O(log n) time, however deep the tree is.
+ * <br>
+ * Every Node is given a row holding its depth and its ancestors 1, 2, 4,
+ * 8 and so on levels up. Any ancestor can then be reached by jumping
+ * through at most one entry per bit of the distance to it, and the meeting
+ * point of two paths is found by jumping both Nodes up together by
+ * shrinking powers of two for as long as they don't meet.
+ * <br>
+ * Building the table takes O(n log n) time. Adding or moving a branch
+ * only changes the ancestors of the Nodes in that branch, so their rows
+ * are filled in again straight away, parents first, in O(m log n) time
+ * for a branch of m Nodes. A branch so big that this would cost about as
+ * much as a rebuild marks the table as stale instead, and it is rebuilt
+ * the next time it is needed. Rows of Nodes which have left the tree are
+ * left alone until then, so callers must check that Nodes are in the tree
+ * before asking about them.
+ */
+public class AncestorIndex {
+
+    /**
+     * The row of each Node in the table.
+     */
+    private Map<Node, Integer> rows;
+
+    /**
+     * The Node in each row.
+     */
+    private Node[] nodes;
+
+    /**
+     * The depth of the Node in each row, where the root has depth 0.
+     */
+    private int[] depths;
+
+    /**
+     * The row of the ancestor 2^k levels above the Node in each row, as
+     * up[k][row]. The root is its own ancestor at every level.
+     */
+    private int[][] up;
+
+    /**
+     * The number of rows in use.
+     */
+    private int count;
+
+    /**
+     * Whether the table no longer matches the tree.
+     */
+    private boolean stale;
+
+    /**
+     * Creates an empty table, which is stale until it is first built.
+     */
+    public AncestorIndex() {
+        rows = new IdentityHashMap<Node, Integer>();
+        nodes = new Node[0];
+        depths = new int[0];
+        up = new int[1][0];
+        stale = true;
+    }
+
+    /**
+     * Returns true if the table must be rebuilt before it can be used.
+     *
+     * @return true if the table is stale, false otherwise.
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * Marks the table as no longer matching the tree.
+     */
+    public void invalidate() {
+        stale = true;
+    }
+
+    /**
+     * Retrieves the number of rows in the table, including those of Nodes
+     * which have left the tree since it was built.
+     *
+     * @return The number of rows.
+     */
+    public int getRowCount() {
+        return count;
+    }
+
+    /**
+     * Rebuilds the table from a tree.
+     *
+     * @param root The root of the tree.
+     */
+    public void rebuild(final Node root) {
+        rows.clear();
+        count = 0;
+        int maxDepth = 0;
+
+        // Walk down the tree, so every Node's parent has a row before the
+        // Node does.
+        List<Node> order = new ArrayList<Node>();
+        order.add(root);
+        for (int i = 0; i < order.size(); i++) {
+            order.addAll(order.get(i).getChildrenView());
+        }
+        int size = order.size();
+        if (nodes.length < size) {
+            nodes = new Node[size + size / 2];
+            depths = new int[nodes.length];
+        }
+        for (int i = 0; i < size; i++) {
+            Node n = order.get(i);
+            Integer parentRow = rows.get(n.getParent());
+            int parent = parentRow == null ? i : parentRow;
+            nodes[i] = n;
+            depths[i] = parentRow == null ? 0 : depths[parent] + 1;
+            maxDepth = Math.max(maxDepth, depths[i]);
+            rows.put(n, i);
+        }
+        Arrays.fill(nodes, size, nodes.length, null);
+        count = size;
+
+        // Leave room for the tree to grow twice as deep before a new leaf
+        // is too deep for the table.
+        int levels = 33 - Integer.numberOfLeadingZeros(2 * maxDepth + 1);
+        up = new int[levels][nodes.length];
+        for (int i = 0; i < size; i++) {
+            Integer parentRow = rows.get(nodes[i].getParent());
+            up[0][i] = parentRow == null ? i : parentRow;
+        }
+        for (int k = 1; k < levels; k++) {
+            int[] half = up[k - 1];
+            int[] full = up[k];
+            for (int i = 0; i < size; i++) {
+                full[i] = half[half[i]];
+            }
+        }
+        stale = false;
+    }
+
+    /**
+     * Fills in the row of a Node which has just been added to the tree, or
+     * moved within it, without any children.
+     *
+     * @param leaf The Node.
+     */
+    public void leafAdded(final Node leaf) {
+        if (!stale && !fill(leaf)) {
+            stale = true;
+        }
+    }
+
+    /**
+     * Fills in the rows of a branch which has just been added to the tree,
+     * or moved within it, such as the children a removed Node gave to its
+     * parent. Only the rows of the branch change. If the branch holds more
+     * than half as many Nodes as the table has rows, the table is marked
+     * as stale instead, since rebuilding it would cost about the same.
+     *
+     * @param base The base Node of the branch.
+     */
+    public void branchAdded(final Node base) {
+        if (stale) {
+            return;
+        }
+        int limit = count / 2;
+        int filled = 0;
+        Iterator<Node> it = TreeTraversal.preOrder(base, true);
+        while (it.hasNext()) {
+            if (++filled > limit || !fill(it.next())) {
+                stale = true;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Fills in the row of a Node whose parent's row is up to date.
+     *
+     * @param n The Node.
+     * @return false if its parent has no row or the Node is too deep for
+     * the table, so the table must be rebuilt.
+     */
+    private boolean fill(final Node n) {
+        Integer parentRow = rows.get(n.getParent());
+        if (parentRow == null) {
+            return false;
+        }
+        int parent = parentRow;
+        int depth = depths[parent] + 1;
+        if ((long) depth >= 1L << up.length) {
+            // Too deep to reach the root with the levels the table has.
+            return false;
+        }
+        Integer existing = rows.get(n);
+        int row;
+        if (existing != null) {
+            row = existing;
+        } else {
+            if (count == nodes.length) {
+                grow();
+            }
+            row = count++;
+            rows.put(n, row);
+            nodes[row] = n;
+        }
+        depths[row] = depth;
+        up[0][row] = parent;
+        for (int k = 1; k < up.length; k++) {
+            up[k][row] = up[k - 1][up[k - 1][row]];
+        }
+        return true;
+    }
+
+    /**
+     * Retrieves the depth of a Node, which is 0 for the root. The table must
+     * not be stale, and the Node must be in the tree.
+     *
+     * @param n The Node.
+     * @return The number of levels between the Node and the root.
+     */
+    public int depth(final Node n) {
+        return depths[rows.get(n)];
+    }
+
+    /**
+     * Returns true if one Node is an ancestor of another. The table must not
+     * be stale, and both Nodes must be in the tree.
+     *
+     * @param ancestor The possible ancestor.
+     * @param descendant The possible descendant.
+     * @return true if ancestor is above descendant, false otherwise.
+     */
+    public boolean isAncestor(final Node ancestor, final Node descendant) {
+        int a = rows.get(ancestor);
+        int d = rows.get(descendant);
+        return depths[a] < depths[d] && lift(d, depths[d] - depths[a]) == a;
+    }
+
+    /**
+     * Finds the deepest Node which is an ancestor of both of two Nodes, or
+     * is one of them. The table must not be stale, and both Nodes must be
+     * in the tree.
+     *
+     * @param first One Node.
+     * @param second The other Node.
+     * @return The lowest common ancestor of the two Nodes.
+     */
+    public Node commonAncestor(final Node first, final Node second) {
+        int a = rows.get(first);
+        int b = rows.get(second);
+        if (depths[a] > depths[b]) {
+            a = lift(a, depths[a] - depths[b]);
+        } else {
+            b = lift(b, depths[b] - depths[a]);
+        }
+        if (a == b) {
+            return nodes[a];
+        }
+        for (int k = up.length - 1; k >= 0; k--) {
+            if (up[k][a] != up[k][b]) {
+                a = up[k][a];
+                b = up[k][b];
+            }
+        }
+        return nodes[up[0][a]];
+    }
+
+    /**
+     * Finds the ancestor of the Node in a row a number of levels up.
+     *
+     * @param row The row of the Node.
+     * @param levels How far up to go, no further than the root.
+     * @return The row of the ancestor.
+     */
+    private int lift(final int row, final int levels) {
+        int r = row;
+        for (int k = 0; (levels >> k) != 0; k++) {
+            if ((levels >> k & 1) != 0) {
+                r = up[k][r];
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Makes room for more rows.
+     */
+    private void grow() {
+        int capacity = Math.max(16, nodes.length * 2);
+        nodes = Arrays.copyOf(nodes, capacity);
+        depths = Arrays.copyOf(depths, capacity);
+        for (int k = 0; k < up.length; k++) {
+            up[k] = Arrays.copyOf(up[k], capacity);
+        }
+    }
+}
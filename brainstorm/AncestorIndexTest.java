@@ -0,0 +1,170 @@
+package brainstorm;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * This class contains the JUnit tests for the AncestorIndex class.
+ *
+ */
+public class AncestorIndexTest {
+
+    /**
+     * This test adds leaves and branches, moves, removes and deletes nodes
+     * at random, and checks ancestor, common ancestor, distance and path
+     * queries against walks up the parents.
+     *
+     * Tests the following methods:
+     * BPlusTree.isAncestor(Node, Node)
+     * BPlusTree.findCommonAncestor(Node, Node)
+     * BPlusTree.getDistance(Node, Node)
+     * BPlusTree.getPath(Node, Node)
+     */
+    @Test
+    public void testRandomEdits1() {
+        Random rand = new Random(350);
+        BPlusTree tree = new BPlusTree("R", "");
+        List<Node> nodes = new ArrayList<Node>();
+        nodes.add(tree.getRoot());
+
+        for (int step = 0; step < 5000; step++) {
+            Node n = nodes.get(rand.nextInt(nodes.size()));
+            Node other = nodes.get(rand.nextInt(nodes.size()));
+            int action = rand.nextInt(10);
+            if (action < 5 || nodes.size() < 20) {
+                Node leaf = new Node("n" + step, "");
+                tree.add(n, leaf);
+                nodes.add(leaf);
+            } else if (action == 5) {
+                Node branch = new Node("b" + step, "");
+                branch.addChild(new Node("c" + step, ""));
+                tree.add(n, branch);
+                nodes.add(branch);
+                nodes.add(branch.getChild(0));
+            } else if (action < 8) {
+                tree.move(other, n);
+            } else if (n != tree.getRoot() && action == 8) {
+                tree.remove(n);
+            } else if (n != tree.getRoot()) {
+                tree.deleteBranch(n);
+            }
+            if (!tree.contains(n)) {
+                nodes.clear();
+                nodes.addAll(tree.getAllNodes());
+                nodes.add(tree.getRoot());
+            }
+
+            for (int q = 0; q < 3; q++) {
+                Node a = nodes.get(rand.nextInt(nodes.size()));
+                Node b = nodes.get(rand.nextInt(nodes.size()));
+                check(tree, a, b);
+            }
+        }
+    }
+
+    /**
+     * This test moves a branch, hoists the children of a removed node and
+     * wraps them again, and checks that the table follows each change
+     * without needing to be rebuilt.
+     *
+     * Tests the following methods:
+     * AncestorIndex.branchAdded(Node)
+     * AncestorIndex.isAncestor(Node, Node)
+     * AncestorIndex.commonAncestor(Node, Node)
+     * AncestorIndex.depth(Node)
+     */
+    @Test
+    public void testBranchMoves1() {
+        Node root = new Node("R", "");
+        Node[] nodes = new Node[64];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new Node("n" + i, "");
+            (i == 0 ? root : nodes[(i - 1) / 2]).addChild(nodes[i]);
+        }
+        AncestorIndex index = new AncestorIndex();
+        index.rebuild(root);
+
+        // the branch of node 3, which holds 7 and 15, moves under 12
+        nodes[12].addChild(nodes[3]);
+        index.branchAdded(nodes[3]);
+        assertTrue(!index.isStale());
+        assertEquals(5, index.depth(nodes[3]));
+        assertEquals(7, index.depth(nodes[15]));
+        assertTrue(index.isAncestor(nodes[2], nodes[15]));
+        assertTrue(!index.isAncestor(nodes[1], nodes[15]));
+        assertTrue(index.commonAncestor(nodes[15], nodes[11]) == nodes[5]);
+
+        // node 5 is removed, and its children 11 and 12 take its place
+        Node parent = nodes[5].getParent();
+        int place = parent.indexOfChild(nodes[5]);
+        nodes[5].hoistChildren();
+        for (Node child: parent.getChildrenView()) {
+            index.branchAdded(child);
+        }
+        assertTrue(!index.isStale());
+        assertEquals(3, index.depth(nodes[12]));
+        assertEquals(6, index.depth(nodes[15]));
+        assertTrue(index.commonAncestor(nodes[15], nodes[11]) == nodes[2]);
+
+        // and is put back
+        parent.wrapChildren(place, 2, nodes[5]);
+        index.branchAdded(nodes[5]);
+        assertTrue(!index.isStale());
+        assertEquals(7, index.depth(nodes[15]));
+        assertTrue(index.commonAncestor(nodes[15], nodes[11]) == nodes[5]);
+
+        // a branch as big as the rest of the tree isn't worth filling in
+        Node hub = new Node("hub", "");
+        for (int i = 0; i < 40; i++) {
+            hub.addChild(new Node("h" + i, ""));
+        }
+        root.addChild(hub);
+        index.branchAdded(hub);
+        assertTrue(index.isStale());
+    }
+
+    /**
+     * Checks the queries for one pair of nodes against walks up their
+     * parents.
+     *
+     * @param tree The tree holding the nodes.
+     * @param a One node.
+     * @param b The other node.
+     */
+    private void check(final BPlusTree tree, final Node a, final Node b) {
+        List<Node> upA = new ArrayList<Node>();
+        for (Node p = a; p != null; p = p.getParent()) {
+            upA.add(p);
+        }
+        List<Node> upB = new ArrayList<Node>();
+        for (Node p = b; p != null; p = p.getParent()) {
+            upB.add(p);
+        }
+        Node common = null;
+        int i = upA.size() - 1;
+        int j = upB.size() - 1;
+        while (i >= 0 && j >= 0 && upA.get(i) == upB.get(j)) {
+            common = upA.get(i);
+            i--;
+            j--;
+        }
+        assertTrue(tree.findCommonAncestor(a, b) == common);
+        assertEquals(i + j + 2, tree.getDistance(a, b));
+        assertEquals(a != b && common == a, tree.isAncestor(a, b));
+
+        List<Node> path = tree.getPath(a, b);
+        assertEquals(i + j + 3, path.size());
+        assertTrue(path.get(0) == a);
+        assertTrue(path.get(i + 1) == common);
+        assertTrue(path.get(path.size() - 1) == b);
+        for (int k = 1; k < path.size(); k++) {
+            assertTrue(path.get(k).getParent() == path.get(k - 1)
+                       || path.get(k - 1).getParent() == path.get(k));
+        }
+    }
+}
@@ -5,7 +5,6 @@ import java.awt.Dimension;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 
 import javax.imageio.ImageIO;
@@ -16,12 +15,11 @@ import javax.swing.filechooser.FileFilter;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Lock;
 
 /**
  * A Singleton class that performs tasks of controlling the application.
@@ -68,6 +66,19 @@ public final class ApplicationController {
      */
     private File currentFile;
     
+    /**
+     * The buffer saves are written through, kept from one save to the
+     * next.
+     */
+    private byte[] saveBuffer = new byte[JsonWriter.DEFAULT_BUFFER_SIZE];
+    
+    /**
+     * Whether the current file is a binary archive rather than a JSON one,
+     * so it is saved, and saved as, the way it was opened. New files are
+     * saved as binary archives, which are smaller and quicker to load.
+     */
+    private boolean binaryFile = true;
+    
     /**
      * Private constructor for the singleton class.
      */
@@ -135,6 +146,7 @@ public final class ApplicationController {
         
         if (result == JOptionPane.YES_OPTION) {
             currentFile = null;
+            binaryFile = true;
             TreeController.getInstance().associateTree(new BPlusTree());
         }
     }
@@ -189,158 +201,67 @@ public final class ApplicationController {
     
     /**
      * Private helper function that saves the workspace under the file contained
-     * in currentFile.
+     * in currentFile, as a binary or JSON archive as binaryFile says.
      * 
      * @param fileName The File that the the current tree is written into.
      */
     private void saveWorkspace(final File fileName) {
         BPlusTree temp = TreeController.getInstance().getTree();
+        Lock lock = temp.readLock();
+        try {
+            // a file opened lazily is read in full before it is written
+            temp.loadAll();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        lock.lock();
         try {
-            OutputStreamWriter file = new OutputStreamWriter(
-                                       new FileOutputStream(fileName), "utf-8");
-            writeToJSON(file, temp);
-            file.flush();
-            file.close();
+            OutputStream out = new FileOutputStream(fileName);
+            if (binaryFile) {
+                try {
+                    BinaryArchive.write(out, temp, saveBuffer);
+                } finally {
+                    out.close();
+                }
+            } else {
+                JsonWriter json = new JsonWriter(out, saveBuffer);
+                try {
+                    TreeArchive.write(json, temp);
+                } finally {
+                    json.close();
+                }
+            }
 		} catch (IOException e) {
 			e.printStackTrace();
+		} finally {
+			lock.unlock();
 		}
     }
     
     /**
-     * Utility function to help writing saves into JSON.
-     * 
-     * @param file The file to write the JSON to.
-     * @param tree The tree to change into a JSON.
-     * 
-     * @throws IOException If the 
-     */
-    private void writeToJSON(final OutputStreamWriter file,
-                             final BPlusTree tree) throws IOException {
-    	
-    	file.write("{\"" + tree.getRoot().getName() + "\":");
-    	file.write("{\"Children\":[");
-    	int i = 0;
-    	for (Node node : tree.getRoot().getChildren()) {
-    		writeChildren(file, node, i, tree.getRoot().getNumChildren());
-    		i++;
-    	}
-    	
-    	file.write("]}");
-    	file.write("}");
-    }
-    
-    /**
-     * Recursively writes the children of a particular Node into the output
-     * file.
-     * 
-     * @param file The output file.
-     * @param node The base Node of the branch being written.
-     * @param index When writing to an array, the index of the array.
-     * @param size When writing to an array, the size of the array.
-     * 
-     * @throws IOException Throws IOException because this is writing to a file.
-     */
-    private void writeChildren(final OutputStreamWriter file, final Node node,
-                        final int index, final int size) throws IOException {
-    	//begin writing node
-    	
-    	file.write("{");
-		file.write("\"Name\":\"" + node.getName() + "\",");
-		file.write("\"Content\":\"" + node.getContent() + "\",");
-		file.write("\"Bounds\":\"" + node.getBounds() + "\",");
-		
-		//call for printing child
-		file.write("\"Children\":[");
-		if (node.getNumChildren() > 0) {
-			
-			int i = 0;
-			for (Node childNode : node.getChildren()) {
-    			try {
-    				writeChildren(file, childNode, i,
-    				              node.getNumChildren());
-    				} catch (IOException e) {
-	    				e.printStackTrace();
-	    		}
-    			i++;
-			}
-		}
-		file.write("]");
-		
-		//finish writing node
-		file.write("}");
-		if (index != size - 1) {
-			file.write(",");
-		}
-    }
-    
-    /**
-     * Open file.
+     * Open file. Binary and JSON archives are told apart by their first
+     * bytes, and binaryFile is set to match. A binary archive is opened
+     * lazily, so only the top of the tree is read until more is needed.
      * 
      * @param selectedFile The file to open.
      * 
      * @return BPlusTree with contents of load file
      * 
-     * @throws Exception This throws an exception.
-     */
-    private BPlusTree openfile(final File selectedFile) throws Exception { 
-    	
-    	 BPlusTree tree = new BPlusTree();
-    	
-    	 Object obj = new JSONParser().parse(new InputStreamReader(
-                                   new FileInputStream(selectedFile), "utf-8"));
-    	 JSONObject jo = (JSONObject) obj;
-    	 
-    	 JSONObject root = (JSONObject) jo.get("Root");
-    	 JSONArray children = (JSONArray) root.get("Children");
-    	 
-    	 for (Object joNode : children) {
-    		 tree.add(parseNode(joNode));
-    	 }
-    	 
-    	 // We need to refresh the tree's list of nodes because we didn't use
-    	 // the tree's add function inside of the recursive parseNode function
-    	 tree.refreshNodeList();
-    	 
-//    	 tree.printTree();
-    	 
-    	 return tree;
-    	 
-    }
-    
-    /**
-     * Recursive function to open nodes with children.
-     * 
-     * @param input The object to parse into a Node.
-     * @return The Node parsed from the input.
+     * @throws IOException If the file can't be read or isn't an archive.
      */
-    private Node parseNode(final Object input) {
-    	 Node node = new Node();
-		 String domain;
-    	 Rectangle rect = new Rectangle();
-		 
-		 node.setName((String) ((JSONObject) input).get("Name"));
-		 node.setContent((String) ((JSONObject) input).get("Content"));
-		 domain = ((String) ((JSONObject) input).get("Bounds"));
-		// Parse Domain
-		 String[] corrd = domain.split("[\\[,\\]=]"); 
-		 rect.setBounds(
-				 Integer.parseInt(corrd[2]),
-				 Integer.parseInt(corrd[4]),
-				 Integer.parseInt(corrd[6]),
-				 Integer.parseInt(corrd[8]) 
-		 ); 
-		 node.setBounds(rect);
-		 
-		 JSONObject listKids = (JSONObject) input;
-	   	 JSONArray children = (JSONArray) listKids.get("Children");
-	   	 
-	   	 if (children.size() > 0) {
-	   		for (Object joNode : children) {
-	    		 node.addChild(parseNode(joNode));
-	    	 }
-	   	 }
-    	
-    	return (Node) node; 
+    BPlusTree openfile(final File selectedFile) throws IOException { 
+    	FileChannel channel = FileChannel.open(selectedFile.toPath(),
+    	                                       StandardOpenOption.READ);
+    	try {
+    	    binaryFile = BinaryArchive.isArchive(channel);
+    	    if (binaryFile) {
+    	        return BinaryArchive.open(channel);
+    	    }
+    	    return TreeArchive.read(Channels.newInputStream(channel));
+    	} finally {
+    	    channel.close();
+    	}
     }
     
     /**
@@ -0,0 +1,345 @@
+package brainstorm;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+/**
+ * Compares loading an archive with TreeArchive.read(), which builds the
+ * Nodes straight from a stream of tokens, against the loader the
+ * application had before it, which parsed the whole file into json-simple
+ * objects and then walked those, and against loading a binary archive
+ * with BinaryArchive.read(), and opening it lazily with
+ * BinaryArchive.open(), which only reads the top of the tree. A large
+ * random tree is saved to temporary files, the old loader's in the old
+ * format, and each way of loading it is timed, along with the most heap
+ * it needed at once. Saving the tree as JSON and as a binary archive is
+ * timed too.
+ * <br>
+ * Run with an optional argument giving the number of Nodes in the tree
+ * (200,000 by default). Give the JVM enough heap for the old loader, and
+ * run each way in its own JVM by passing "baseline", "stream", "binary"
+ * or "lazy" as a second argument for the fairest figures.
+ */
+public final class ArchiveLoadBenchmark {
+
+    /**
+     * How many times each way is run before timing starts.
+     */
+    private static final int WARMUP = 10;
+
+    /**
+     * How many timed runs each measurement is the average of.
+     */
+    private static final int RUNS = 10;
+
+    /**
+     * This class only holds static methods.
+     */
+    private ArchiveLoadBenchmark() { }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args An optional number of Nodes for the tree, and an
+     * optional "baseline", "stream", "binary" or "lazy" to run only one
+     * way.
+     * @throws Exception If the file can't be written or read.
+     */
+    public static void main(final String[] args) throws Exception {
+        int size = 200000;
+        if (args.length > 0) {
+            size = Integer.parseInt(args[0]);
+        }
+        String only = args.length > 1 ? args[1] : null;
+
+        BPlusTree tree = buildTree(size);
+        File file = File.createTempFile("benchmark", ".bstrm");
+        file.deleteOnExit();
+        File binary = File.createTempFile("benchmark", ".bstrm");
+        binary.deleteOnExit();
+        File old = File.createTempFile("benchmark", ".bstrm");
+        old.deleteOnExit();
+        saveBaseline(tree, old);
+        long jsonSave = save(tree, file, false);
+        long binarySave = save(tree, binary, true);
+        System.out.println("Nodes: " + size + ", JSON file: "
+                + file.length() / 1024 + " KB, binary file: "
+                + binary.length() / 1024 + " KB");
+        System.out.printf("save(ms): JSON %.1f, binary %.1f%n",
+                jsonSave / 1e6, binarySave / 1e6);
+        System.out.println("loader    load(ms)  peak heap(MB)");
+
+        if (only == null || only.equals("baseline")) {
+            measure("baseline", old, "baseline");
+        }
+        if (only == null || only.equals("stream")) {
+            measure("stream", file, "stream");
+        }
+        if (only == null || only.equals("binary")) {
+            measure("binary", binary, "binary");
+        }
+        if (only == null || only.equals("lazy")) {
+            measure("lazy", binary, "lazy");
+        }
+    }
+
+    /**
+     * Times saving a tree one way, after warming up.
+     *
+     * @param tree The tree to save.
+     * @param file The file to save it to.
+     * @param binary true to save a binary archive, false a JSON one.
+     * @return The average time of a save in nanoseconds.
+     * @throws Exception If the file can't be written.
+     */
+    private static long save(final BPlusTree tree, final File file,
+                             final boolean binary) throws Exception {
+        long total = 0;
+        for (int i = 0; i < WARMUP + RUNS; i++) {
+            long start = System.nanoTime();
+            OutputStream out = new FileOutputStream(file);
+            if (binary) {
+                BinaryArchive.write(out, tree);
+                out.close();
+            } else {
+                JsonWriter json = new JsonWriter(out);
+                TreeArchive.write(json, tree);
+                json.close();
+            }
+            if (i >= WARMUP) {
+                total += System.nanoTime() - start;
+            }
+        }
+        return total / RUNS;
+    }
+
+    /**
+     * Times one way of loading a file, and prints the time and peak heap.
+     *
+     * @param label The name of the way.
+     * @param file The file to load.
+     * @param way "baseline", "stream", "binary" or "lazy".
+     * @throws Exception If the file can't be read.
+     */
+    private static void measure(final String label, final File file,
+                                final String way) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            load(file, way);
+        }
+        long total = 0;
+        long peak = 0;
+        for (int i = 0; i < RUNS; i++) {
+            System.gc();
+            long before = resetPeak();
+            long start = System.nanoTime();
+            BPlusTree tree = load(file, way);
+            total += System.nanoTime() - start;
+            peak = Math.max(peak, peakHeap() - before);
+            if (tree.size() < 1) {
+                throw new IllegalStateException("nothing loaded");
+            }
+        }
+        System.out.printf("%-8s  %8.1f  %13.1f%n", label,
+                total / 1e6 / RUNS, peak / 1048576.0);
+    }
+
+    /**
+     * Loads a file one way or the other.
+     *
+     * @param file The file to load.
+     * @param way "baseline", "stream", "binary" or "lazy".
+     * @return The tree.
+     * @throws Exception If the file can't be read.
+     */
+    private static BPlusTree load(final File file, final String way)
+                                  throws Exception {
+        if (way.equals("binary") || way.equals("lazy")) {
+            FileChannel channel = FileChannel.open(file.toPath(),
+                                                   StandardOpenOption.READ);
+            try {
+                if (way.equals("lazy")) {
+                    return BinaryArchive.open(channel);
+                }
+                return BinaryArchive.read(channel);
+            } finally {
+                channel.close();
+            }
+        }
+        boolean stream = way.equals("stream");
+        InputStream in = new FileInputStream(file);
+        try {
+            return stream ? TreeArchive.read(in) : loadBaseline(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Sets the peak usage of every heap pool back to its current usage.
+     *
+     * @return The heap in use now.
+     */
+    private static long resetPeak() {
+        long used = 0;
+        for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                used += pool.getUsage().getUsed();
+            }
+        }
+        return used;
+    }
+
+    /**
+     * Adds up the peak usage of every heap pool since resetPeak().
+     *
+     * @return The peak heap in use.
+     */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Saves a tree the way the application used to, before archives had a
+     * version: every Node's name, content and bounds as text, with the
+     * bounds written by Rectangle.toString().
+     *
+     * @param tree The tree to save.
+     * @param file The file to save it to.
+     * @throws Exception If the file can't be written.
+     */
+    private static void saveBaseline(final BPlusTree tree, final File file)
+                                     throws Exception {
+        JsonWriter json = new JsonWriter(new FileOutputStream(file));
+        json.beginObject();
+        json.name(tree.getRoot().getName());
+        json.beginObject();
+        json.name("Children");
+        json.beginArray();
+        for (Node n: tree.getRoot().getChildrenView()) {
+            writeBaseline(json, n);
+        }
+        json.endArray();
+        json.endObject();
+        json.endObject();
+        json.close();
+    }
+
+    /**
+     * Writes a branch the way the application used to.
+     *
+     * @param json The writer of the file.
+     * @param node The base Node of the branch.
+     * @throws Exception If the file can't be written.
+     */
+    private static void writeBaseline(final JsonWriter json, final Node node)
+                                      throws Exception {
+        json.beginObject();
+        json.name("Name");
+        json.value(node.getName());
+        json.name("Content");
+        json.value(node.getContent());
+        json.name("Bounds");
+        json.value(String.valueOf(node.getBounds()));
+        json.name("Children");
+        json.beginArray();
+        for (Node child: node.getChildrenView()) {
+            writeBaseline(json, child);
+        }
+        json.endArray();
+        json.endObject();
+    }
+
+    /**
+     * Loads an archive the way the application used to, in
+     * ApplicationController.openfile(): the whole file is parsed into
+     * json-simple objects, each branch is built from those objects with
+     * Node.addChild(), the branches are added to the tree, and then the
+     * tree's list of Nodes is refreshed.
+     *
+     * @param in The stream to read.
+     * @return The tree.
+     * @throws Exception If the stream can't be read or parsed.
+     */
+    private static BPlusTree loadBaseline(final InputStream in)
+                                          throws Exception {
+        BPlusTree tree = new BPlusTree();
+        Object obj = new JSONParser().parse(
+                new InputStreamReader(in, "utf-8"));
+        JSONObject root = (JSONObject) ((JSONObject) obj).get("Root");
+        for (Object joNode: (JSONArray) root.get("Children")) {
+            tree.add(parseNode(joNode));
+        }
+        tree.refreshNodeList();
+        return tree;
+    }
+
+    /**
+     * Builds a branch of Nodes from its json-simple object, the way the
+     * application used to.
+     *
+     * @param input The object of the base Node of the branch.
+     * @return The base Node of the branch, with all of its descendants.
+     */
+    private static Node parseNode(final Object input) {
+        JSONObject jo = (JSONObject) input;
+        Node node = new Node();
+        node.setName((String) jo.get("Name"));
+        node.setContent((String) jo.get("Content"));
+        String[] corrd = ((String) jo.get("Bounds")).split("[\\[,\\]=]");
+        node.setBounds(new Rectangle(Integer.parseInt(corrd[2]),
+                                     Integer.parseInt(corrd[4]),
+                                     Integer.parseInt(corrd[6]),
+                                     Integer.parseInt(corrd[8])));
+        for (Object joNode: (JSONArray) jo.get("Children")) {
+            node.addChild(parseNode(joNode));
+        }
+        return node;
+    }
+
+    /**
+     * Builds a random tree with a mix of wide and deep branches.
+     *
+     * @param size The number of Nodes, not counting the root.
+     * @return The tree.
+     */
+    private static BPlusTree buildTree(final int size) {
+        String[] words = {"idea", "budget", "plan", "risk", "goal", "team",
+                          "cost", "design", "review", "launch"};
+        Random rand = new Random(350);
+        BPlusTree tree = new BPlusTree();
+        Node[] nodes = new Node[size + 1];
+        nodes[0] = tree.getRoot();
+        for (int i = 1; i <= size; i++) {
+            String name = words[rand.nextInt(words.length)] + " " + i;
+            String content = words[rand.nextInt(words.length)] + " and "
+                    + words[rand.nextInt(words.length)];
+            nodes[i] = new Node(name, content);
+            nodes[i].setBounds(new Rectangle(rand.nextInt(5000),
+                    rand.nextInt(5000), 100, 100));
+            tree.add(nodes[rand.nextInt(i)], nodes[i]);
+        }
+        return tree;
+    }
+}
@@ -0,0 +1,561 @@
+package brainstorm;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A binary archive which has been opened for reading, as laid out by
+ * BinaryArchive. Opening one checks the archive's checksum and reads its
+ * header, but none of its Nodes, and the strings of the string table are
+ * only decoded when a Node which uses them is read.
+ * <br>
+ * The Nodes can be read all at once with readAll(), or a branch at a time
+ * by way of the archive's branch index. The branch index gives, for each
+ * Node with children, where the records of its descendants start and end
+ * and the bounds they cover, so one Node's children can be read without
+ * reading anything else. The source keeps track of the Nodes it has made
+ * whose children haven't been read yet.
+ * <br>
+ * A source isn't safe to use from more than one thread at once. The tree
+ * which owns it only uses it while holding its write lock.
+ */
+final class ArchiveSource {
+
+    /**
+     * The archive, from its start up to the end of the last section before
+     * the checksum.
+     */
+    private final ByteBuffer body;
+
+    /**
+     * The number of Nodes in the archive, not counting the root.
+     */
+    private final int count;
+
+    /**
+     * Where each string of the string table starts in the archive.
+     */
+    private final int[] stringStarts;
+
+    /**
+     * The number of bytes each string of the string table takes.
+     */
+    private final int[] stringLengths;
+
+    /**
+     * The strings which have been decoded so far.
+     */
+    private final String[] strings;
+
+    /**
+     * Room for the characters of a string being decoded.
+     */
+    private char[] chars = new char[64];
+
+    /**
+     * Where the first Node's record starts.
+     */
+    private final int recordsStart;
+
+    /**
+     * Where the last Node's record ends.
+     */
+    private final int recordsEnd;
+
+    /**
+     * The largest id of any Node in the archive.
+     */
+    private long maxId;
+
+    /**
+     * For each Node with children in pre-order, starting with the root,
+     * where the records of its descendants start.
+     */
+    private int[] branchStarts;
+
+    /**
+     * For each Node with children, where the records of its descendants
+     * end.
+     */
+    private int[] branchEnds;
+
+    /**
+     * For each Node with children, the bounds covered by it and all of its
+     * descendants.
+     */
+    private Rectangle[] branchBounds;
+
+    /**
+     * The Nodes made from this archive whose children haven't been read
+     * yet, with the place of each in the branch index.
+     */
+    private final Map<Node, Integer> unloaded =
+            new IdentityHashMap<Node, Integer>();
+
+    /**
+     * Opens an archive held in a buffer, from the buffer's position to its
+     * limit. The buffer is kept, and read from whenever Nodes are, so it
+     * must not be changed afterwards.
+     *
+     * @param buffer The buffer holding the archive.
+     * @throws IOException If the buffer doesn't hold a binary archive this
+     * version can read.
+     */
+    ArchiveSource(final ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        byte[] magic = BinaryArchive.MAGIC;
+        int end = buffer.limit() - BinaryArchive.CHECKSUM_BYTES;
+        if (end - start < magic.length) {
+            throw new IOException("not a binary archive");
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (buffer.get(start + i) != magic[i]) {
+                throw new IOException("not a binary archive");
+            }
+        }
+        body = buffer.duplicate();
+        body.limit(end);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        if ((int) crc.getValue() != buffer.getInt(end)) {
+            throw new IOException("archive is damaged: bad checksum");
+        }
+
+        body.position(start + magic.length);
+        try {
+            long version = readVarint();
+            if (version != BinaryArchive.VERSION) {
+                throw new IOException("unknown binary archive version "
+                                      + version);
+            }
+            end -= BinaryArchive.INDEX_PLACE_BYTES
+                   + BinaryArchive.STRINGS_PLACE_BYTES;
+            if (end < body.position()) {
+                throw new IOException("archive ended early");
+            }
+            int stringsStart = start + body.getInt(end);
+            int indexStart = start + body.getInt(
+                    end + BinaryArchive.STRINGS_PLACE_BYTES);
+            body.limit(end);
+            // every Node takes at least 4 bytes
+            count = readInt(body.remaining() / 4);
+            recordsStart = body.position();
+            if (stringsStart < recordsStart || stringsStart > indexStart
+                    || indexStart > end) {
+                throw new IOException("bad string table place");
+            }
+            recordsEnd = stringsStart;
+            body.position(stringsStart);
+            // every string takes at least 1 byte
+            int size = readInt(body.remaining());
+            stringStarts = new int[size];
+            stringLengths = new int[size];
+            strings = new String[size];
+            for (int i = 0; i < size; i++) {
+                stringLengths[i] = readInt(body.remaining());
+                stringStarts[i] = body.position();
+                if (stringLengths[i] > body.remaining()) {
+                    throw new IOException("archive ended early");
+                }
+                body.position(stringStarts[i] + stringLengths[i]);
+            }
+            if (body.position() != indexStart) {
+                throw new IOException("bad branch index place");
+            }
+            readIndex();
+            if (body.hasRemaining()) {
+                throw new IOException("archive has extra bytes");
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("archive ended early");
+        }
+    }
+
+    /**
+     * Reads the branch index.
+     *
+     * @throws IOException If the index isn't written properly.
+     */
+    private void readIndex() throws IOException {
+        maxId = readVarint();
+        // every entry takes at least 6 bytes
+        int size = readInt(body.remaining() / 6);
+        if (size == 0) {
+            throw new IOException("bad branch index");
+        }
+        branchStarts = new int[size];
+        branchEnds = new int[size];
+        branchBounds = new Rectangle[size];
+        branchStarts[0] = recordsStart;
+        branchEnds[0] = recordsStart + readInt(recordsEnd - recordsStart);
+        branchBounds[0] = new Rectangle(readZigzag(), readZigzag(),
+                                        readZigzag(), readZigzag());
+        if (branchEnds[0] != recordsEnd) {
+            throw new IOException("bad branch index");
+        }
+        // the entries which contain the start of the next one
+        int[] open = new int[16];
+        int depth = 1;
+        for (int i = 1; i < size; i++) {
+            int last = branchStarts[i - 1];
+            int start = last + readInt(recordsEnd - last);
+            if (start == last) {
+                throw new IOException("bad branch index");
+            }
+            while (depth > 0 && branchEnds[open[depth - 1]] <= start) {
+                depth--;
+            }
+            if (depth == 0) {
+                throw new IOException("bad branch index");
+            }
+            int parent = open[depth - 1];
+            int end = branchEnds[parent] - readInt(branchEnds[parent] - start);
+            Rectangle around = branchBounds[parent];
+            branchStarts[i] = start;
+            branchEnds[i] = end;
+            branchBounds[i] = new Rectangle(around.x + readZigzag(),
+                                            around.y + readZigzag(),
+                                            around.width + readZigzag(),
+                                            around.height + readZigzag());
+            if (depth == open.length) {
+                open = Arrays.copyOf(open, depth * 2);
+            }
+            open[depth++] = i;
+        }
+    }
+
+    /**
+     * Gives the largest id of any Node in the archive.
+     *
+     * @return The largest id, or 0 if the archive has no Nodes.
+     */
+    long getMaxId() {
+        return maxId;
+    }
+
+    /**
+     * Reads every Node of the archive.
+     *
+     * @return The root's children, each with all of its descendants.
+     * @throws IOException If the Nodes aren't written properly.
+     */
+    List<Node> readAll() throws IOException {
+        List<Node> top = new ArrayList<Node>();
+        int read = readRun(recordsStart, recordsEnd, top);
+        if (read != count) {
+            throw new IOException("archive holds " + read + " Nodes, not "
+                                  + count);
+        }
+        return top;
+    }
+
+    /**
+     * Notes that the children of a Node haven't been read yet. This is
+     * how the root of the tree being loaded is tied to the archive, whose
+     * first branch is the root's.
+     *
+     * @param root The Node standing for the archive's root.
+     */
+    void markUnloaded(final Node root) {
+        unloaded.put(root, 0);
+    }
+
+    /**
+     * Gives whether the children of a Node have been read, or were never
+     * in the archive.
+     *
+     * @param n The Node.
+     * @return false if the Node has children in the archive which haven't
+     * been read yet.
+     */
+    boolean isLoaded(final Node n) {
+        return !unloaded.containsKey(n);
+    }
+
+    /**
+     * Gives the Nodes whose children haven't been read yet.
+     *
+     * @return A new list of the Nodes.
+     */
+    List<Node> getUnloaded() {
+        return new ArrayList<Node>(unloaded.keySet());
+    }
+
+    /**
+     * Gives the bounds covered by a Node and all of its descendants in the
+     * archive, for a Node whose children haven't been read yet.
+     *
+     * @param n The Node.
+     * @return The bounds, or null if the Node's children have been read.
+     */
+    Rectangle getUnloadedBounds(final Node n) {
+        Integer place = unloaded.get(n);
+        return place == null ? null : branchBounds[place];
+    }
+
+    /**
+     * Reads the children of a Node, but none of their descendants. Each
+     * child which has children of its own is noted as not loaded yet.
+     *
+     * @param n The Node, whose children haven't been read yet.
+     * @return The children in order, not yet given to the Node.
+     * @throws IOException If the Nodes aren't written properly.
+     */
+    List<Node> readChildren(final Node n) throws IOException {
+        Integer place = unloaded.get(n);
+        List<Node> children = new ArrayList<Node>();
+        if (place == null) {
+            return children;
+        }
+        int end = branchEnds[place];
+        int at = branchStarts[place];
+        try {
+            while (at < end) {
+                body.position(at);
+                // The distance to the parent only matters when a whole run
+                // of records is read.
+                readVarint();
+                Node child = readNode();
+                children.add(child);
+                at = body.position();
+                int branch = Arrays.binarySearch(branchStarts, at);
+                if (branch >= 0) {
+                    // skip the child's descendants, to be read later
+                    if (branchEnds[branch] > end) {
+                        throw new IOException("bad branch index");
+                    }
+                    unloaded.put(child, branch);
+                    at = branchEnds[branch];
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("archive ended early");
+        }
+        if (at != end) {
+            throw new IOException("bad branch index");
+        }
+        unloaded.remove(n);
+        return children;
+    }
+
+    /**
+     * Reads all of the descendants of a Node.
+     *
+     * @param n The Node, whose children haven't been read yet.
+     * @return The children in order, each with all of its descendants, not
+     * yet given to the Node.
+     * @throws IOException If the Nodes aren't written properly.
+     */
+    List<Node> readBranch(final Node n) throws IOException {
+        Integer place = unloaded.get(n);
+        List<Node> children = new ArrayList<Node>();
+        if (place != null) {
+            readRun(branchStarts[place], branchEnds[place], children);
+            unloaded.remove(n);
+        }
+        return children;
+    }
+
+    /**
+     * Reads a run of records, which hold a branch's descendants in
+     * pre-order, each giving how many records back its parent is.
+     *
+     * @param start Where the first record starts.
+     * @param end Where the last record ends.
+     * @param top Where to put the Nodes whose parent is the base of the
+     * branch, which comes just before the run.
+     * @return The number of Nodes read.
+     * @throws IOException If the Nodes aren't written properly.
+     */
+    private int readRun(final int start, final int end, final List<Node> top)
+                        throws IOException {
+        List<Node> nodes = new ArrayList<Node>();
+        // the base of the branch, which isn't read again
+        nodes.add(null);
+        body.position(start);
+        try {
+            while (body.position() < end) {
+                int i = nodes.size();
+                int parent = i - readInt(i);
+                if (parent == i) {
+                    throw new IOException("Node " + i + " has a bad parent");
+                }
+                Node node = readNode();
+                nodes.add(node);
+                if (parent == 0) {
+                    top.add(node);
+                } else {
+                    nodes.get(parent).addChild(node);
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("archive ended early");
+        }
+        if (body.position() != end) {
+            throw new IOException("bad branch index");
+        }
+        return nodes.size() - 1;
+    }
+
+    /**
+     * Reads the fields of a Node's record, after the distance to its
+     * parent.
+     *
+     * @return The Node.
+     * @throws IOException If the record isn't written properly.
+     */
+    private Node readNode() throws IOException {
+        Node node = new Node();
+        long id = readVarint();
+        // the id is doubled, plus one for a Node without bounds
+        boolean bounded = (id & 1) == 0;
+        id >>>= 1;
+        if (id > 0) {
+            // otherwise the tree gives it a new id when it's added
+            node.setId(id);
+        }
+        node.setName(string(readInt(strings.length)));
+        node.setContent(string(readInt(strings.length)));
+        if (bounded) {
+            node.setBounds(new Rectangle(readZigzag(), readZigzag(),
+                                         readZigzag(), readZigzag()));
+        } else {
+            node.setBounds(null);
+        }
+        return node;
+    }
+
+    /**
+     * Looks up a place in the string table, decoding the string the first
+     * time it is needed.
+     *
+     * @param place The place, counting from 1, or 0 for null.
+     * @return The string.
+     * @throws IOException If the string isn't UTF-8.
+     */
+    private String string(final int place) throws IOException {
+        if (place == 0) {
+            return null;
+        }
+        String s = strings[place - 1];
+        if (s == null) {
+            s = decode(stringStarts[place - 1], stringLengths[place - 1]);
+            strings[place - 1] = s;
+        }
+        return s;
+    }
+
+    /**
+     * Reads a varint.
+     *
+     * @return The number.
+     * @throws IOException If the varint is too long.
+     */
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = body.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("varint too long");
+    }
+
+    /**
+     * Reads a varint which must be no more than a given limit.
+     *
+     * @param most The largest value allowed.
+     * @return The number.
+     * @throws IOException If the number is too big.
+     */
+    private int readInt(final int most) throws IOException {
+        long value = readVarint();
+        if (value < 0 || value > most) {
+            throw new IOException("number out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Reads a zigzag encoded whole number.
+     *
+     * @return The number.
+     * @throws IOException If the number is out of range.
+     */
+    private int readZigzag() throws IOException {
+        long value = readVarint();
+        if (value < 0 || value > 0xFFFFFFFFL) {
+            throw new IOException("number out of range: " + value);
+        }
+        int v = (int) value;
+        return v >>> 1 ^ -(v & 1);
+    }
+
+    /**
+     * Decodes a string without moving the position of the archive.
+     *
+     * @param start Where the string starts.
+     * @param length The number of bytes of the string.
+     * @return The string.
+     * @throws IOException If the bytes aren't UTF-8.
+     */
+    private String decode(final int start, final int length)
+                          throws IOException {
+        if (chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+        int n = 0;
+        int i = start;
+        int end = start + length;
+        while (i < end) {
+            int b = body.get(i++);
+            if (b >= 0) {
+                chars[n++] = (char) b;
+                continue;
+            }
+            int more;
+            int c;
+            if ((b & 0xE0) == 0xC0) {
+                more = 1;
+                c = b & 0x1F;
+            } else if ((b & 0xF0) == 0xE0) {
+                more = 2;
+                c = b & 0x0F;
+            } else if ((b & 0xF8) == 0xF0) {
+                more = 3;
+                c = b & 0x07;
+            } else {
+                throw new IOException("bad UTF-8 in string table");
+            }
+            if (i + more > end) {
+                throw new IOException("bad UTF-8 in string table");
+            }
+            for (int k = 0; k < more; k++) {
+                int next = body.get(i++);
+                if ((next & 0xC0) != 0x80) {
+                    throw new IOException("bad UTF-8 in string table");
+                }
+                c = c << 6 | next & 0x3F;
+            }
+            if (c > Character.MAX_CODE_POINT) {
+                throw new IOException("bad UTF-8 in string table");
+            } else if (c >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                chars[n++] = Character.highSurrogate(c);
+                chars[n++] = Character.lowSurrogate(c);
+            } else {
+                chars[n++] = (char) c;
+            }
+        }
+        return new String(chars, 0, n);
+    }
+}
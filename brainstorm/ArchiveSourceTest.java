@@ -0,0 +1,144 @@
+package brainstorm;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.junit.Test;
+
+/**
+ * This class contains the JUnit tests for the ArchiveSource class.
+ *
+ */
+public class ArchiveSourceTest {
+
+    /**
+     * This test reads an archive a branch at a time, and checks that each
+     * Node's children come without their descendants, that the bounds of
+     * the branches left to read are known, and that a whole branch can be
+     * read at once.
+     *
+     * Tests the following methods:
+     * ArchiveSource.readChildren(Node)
+     * ArchiveSource.readBranch(Node)
+     * ArchiveSource.getUnloadedBounds(Node)
+     */
+    @Test
+    public void testReadChildren1() throws IOException {
+        BPlusTree tree = new BPlusTree();
+        Node a = new Node("a", "");
+        Node b = new Node("b", "");
+        Node c = new Node("c", "");
+        Node d = new Node("d", "");
+        a.setBounds(new Rectangle(0, 0, 10, 10));
+        b.setBounds(new Rectangle(-50, 20, 10, 10));
+        c.setBounds(new Rectangle(500, 600, 10, 10));
+        tree.add(a);
+        tree.add(a, b);
+        tree.add(b, c);
+        tree.add(d);
+
+        ArchiveSource source = new ArchiveSource(save(tree));
+        assertEquals(d.getId(), source.getMaxId());
+        Node root = new Node();
+        source.markUnloaded(root);
+        assertTrue(!source.isLoaded(root));
+        List<Node> top = source.readChildren(root);
+        assertTrue(source.isLoaded(root));
+        assertEquals(2, top.size());
+        Node a2 = top.get(0);
+        assertEquals("a", a2.getName());
+        assertEquals("d", top.get(1).getName());
+        assertEquals(0, a2.getNumChildren());
+        assertTrue(!source.isLoaded(a2));
+        assertTrue(source.isLoaded(top.get(1)));
+        assertEquals(1, source.getUnloaded().size());
+        assertEquals(new Rectangle(-50, 0, 560, 610),
+                     source.getUnloadedBounds(a2));
+
+        List<Node> branch = source.readBranch(a2);
+        assertEquals(1, branch.size());
+        assertEquals("b", branch.get(0).getName());
+        assertEquals(c.getId(), branch.get(0).getChild(0).getId());
+        assertEquals(new Rectangle(500, 600, 10, 10),
+                     branch.get(0).getChild(0).getBounds());
+        assertTrue(source.getUnloaded().isEmpty());
+        assertEquals(null, source.getUnloadedBounds(a2));
+        assertEquals(0, source.readChildren(a2).size());
+    }
+
+    /**
+     * This test checks that archives of any other version are refused,
+     * and that a damaged branch index is refused.
+     *
+     * Tests the following methods:
+     * ArchiveSource.ArchiveSource(ByteBuffer)
+     */
+    @Test
+    public void testVersions1() throws IOException {
+        BPlusTree saved = new BPlusTree();
+        Node a = new Node("a", "");
+        saved.add(a);
+        saved.add(a, new Node("b", ""));
+        ByteBuffer archive = save(saved);
+        byte[] good = new byte[archive.remaining()];
+        archive.get(good);
+        for (int version: new int[] {0, BinaryArchive.VERSION + 1}) {
+            byte[] other = good.clone();
+            other[BinaryArchive.MAGIC.length] = (byte) version;
+            try {
+                new ArchiveSource(ByteBuffer.wrap(withChecksum(other)));
+                assertTrue("accepted version " + version, false);
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("version"));
+            }
+        }
+        // the start of the index is kept just before the checksum
+        int index = ByteBuffer.wrap(good).getInt(good.length - 8);
+        // the number of entries, the root's entry and the index's start
+        int[] places = {index + 1, index + 2, good.length - 5};
+        for (int place: places) {
+            byte[] bad = good.clone();
+            bad[place] += 3;
+            try {
+                new ArchiveSource(ByteBuffer.wrap(withChecksum(bad)));
+                assertTrue("accepted a change at " + place, false);
+            } catch (IOException e) {
+                assertTrue(e.getMessage() != null);
+            }
+        }
+    }
+
+    /**
+     * Helper function which saves a tree into memory.
+     *
+     * @param tree The tree.
+     * @return A buffer holding the archive.
+     * @throws IOException If the tree can't be written.
+     */
+    private ByteBuffer save(final BPlusTree tree) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryArchive.write(bytes, tree);
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    /**
+     * Helper function which puts the right checksum on the end of an
+     * archive.
+     *
+     * @param archive The archive, with room for the checksum at its end.
+     * @return The archive with the checksum put right.
+     */
+    private byte[] withChecksum(final byte[] archive) {
+        CRC32 crc = new CRC32();
+        crc.update(archive, 0, archive.length - 4);
+        ByteBuffer.wrap(archive).putInt(archive.length - 4,
+                                        (int) crc.getValue());
+        return archive;
+    }
+}
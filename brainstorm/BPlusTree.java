@@ -1,13 +1,61 @@
 package brainstorm;
+import java.awt.EventQueue;
+import java.awt.Rectangle;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * This is a basic tree container that holds the nodes of
  * a tree. It has a number of methods for manipulating the
  * nodes of the tree in a more convenient way than the 
  * nodes themselves present.
+ * <br>
+ * A tree may be shared between threads, such as the Swing event thread
+ * making edits while an autosave or exporter reads in the background.
+ * Every change made through BPlusTree or through a Node of the tree holds
+ * the tree's write lock, and the queries of BPlusTree hold its read lock,
+ * so any number of readers can run at once but never while a change is
+ * half made. A reader which walks the Nodes itself, or uses one of the
+ * iterators, must hold readLock() for the whole walk, or work from a
+ * snapshot() instead. A thread holding the read lock must not make
+ * changes, as the read lock can't be turned into the write lock.
+ * <br>
+ * Listeners added with addTreeListener() are told which Nodes were added,
+ * removed, moved, renamed or otherwise changed. The changes are gathered
+ * up while they are made and handed out together a little later, so a
+ * burst of changes such as typing into a Node costs one notification.
+ * <br>
+ * A tree opened lazily from a binary archive, by BinaryArchive.open(),
+ * holds only the Nodes read from the archive so far. A Node whose children
+ * haven't been read yet shows no children, and isBranchLoaded() is false
+ * for it. Its children are read by loadChildren(), or by loadBranchesIn()
+ * once the area they cover comes into view, and everything left is read
+ * by loadAll(). The queries of the tree, such as size() and search(),
+ * only cover the Nodes read so far. Reading Nodes from the archive isn't
+ * recorded in the history, and listeners are told the Nodes were added.
+ * <br>
+ * The search, title and spatial indexes are only built when they are
+ * first queried, and are then kept up to date as the tree changes, so a
+ * tree which is never searched doesn't pay for them. A batch of changes
+ * drops them, and they are built again by the next query that needs them.
  * 
  * @author Brian Gilbert
  * @author Chad Vredvald
@@ -21,11 +69,125 @@ public class BPlusTree {
     private Node root;
     
     /**
-     * A private list of all nodes in this tree. This allows quick lookup
-     * of information within the tree without needing to traverse the tree
-     * recursively.
+     * A private index of all nodes in this tree except the root. This allows
+     * quick lookup of information within the tree without needing to traverse
+     * the tree recursively. Node does not override equals() or hashCode(), so
+     * the set is keyed on object identity and membership checks take constant
+     * time no matter how big the tree is. The set also remembers the order in
+     * which the nodes were added.
      */
-    private List<Node> childrenOfRoot;
+    private Set<Node> childrenOfRoot;
+    
+    /**
+     * A word and substring index over the names and contents of every
+     * Node in the tree, including the root, or null until a search needs
+     * it.
+     */
+    private SearchIndex searchIndex;
+    
+    /**
+     * A B+ tree which orders every Node in the tree, including the root,
+     * by title, or null until a title query needs it.
+     */
+    private TitleIndex titleIndex;
+    
+    /**
+     * The most entries per page of the title index when it is built.
+     */
+    private int titleFanout = TitleIndex.DEFAULT_FANOUT;
+    
+    /**
+     * An R-tree over the bounds of every Node in the tree, including the
+     * root, or null until an area or point query needs it.
+     */
+    private SpatialIndex spatialIndex;
+    
+    /**
+     * A table of the ancestors of every Node, for ancestor and common
+     * ancestor queries. It is rebuilt only when a query finds it stale.
+     */
+    private AncestorIndex ancestorIndex = new AncestorIndex();
+    
+    /**
+     * The undo and redo history of the changes made to this tree.
+     */
+    private EditHistory history;
+    
+    /**
+     * The number of calls to beginBatch() which haven't been matched by
+     * commitBatch().
+     */
+    private int batchDepth;
+    
+    /**
+     * Every Node in the tree, including the root, keyed on its id.
+     */
+    private LongNodeMap nodesById;
+    
+    /**
+     * The id that will be given to the next Node to join the tree without
+     * one. It is always greater than every id in the tree.
+     */
+    private long nextId = 1;
+    
+    /**
+     * The archive the rest of the tree is still to be read from, or null
+     * if the tree wasn't opened lazily or has been read in full.
+     */
+    private ArchiveSource source;
+    
+    /**
+     * Keeps readers of the tree out while it is being changed.
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    
+    /**
+     * Held while a reader brings a cache of the tree up to date, such as
+     * the snapshots, the ancestor table or the branch summaries of the
+     * Nodes, or hands out the pending change events, since other readers
+     * may be doing the same at the same time.
+     */
+    private final Object cacheLock = new Object();
+    
+    /**
+     * The listeners which are told about changes to the tree.
+     */
+    private final List<TreeListener> listeners =
+            new CopyOnWriteArrayList<TreeListener>();
+    
+    /**
+     * The changes which haven't been handed to the listeners yet, keyed by
+     * the Node that changed, in the order the Nodes first changed.
+     */
+    private Map<Node, TreeEvent> pendingEvents =
+            new LinkedHashMap<Node, TreeEvent>();
+    
+    /**
+     * Whether the task which hands out the pending changes has been given
+     * to the dispatcher and hasn't run yet.
+     */
+    private boolean deliveryScheduled;
+    
+    /**
+     * Runs the task which hands out the pending changes, some time after
+     * the first of them is made.
+     */
+    private Executor dispatcher = new Executor() {
+        @Override
+        public void execute(final Runnable task) {
+            EventQueue.invokeLater(task);
+        }
+    };
+    
+    /**
+     * The task which hands out the pending changes.
+     */
+    private final Runnable delivery = new Runnable() {
+        @Override
+        public void run() {
+            flushEvents();
+        }
+    };
 
     /**
      * A constructor that allows the user to build a tree by providing
@@ -36,7 +198,10 @@ public class BPlusTree {
      */
     public BPlusTree(final String name, final String data) {
         root = new Node(name, data);
-        childrenOfRoot = new ArrayList<Node>();
+        childrenOfRoot = new LinkedHashSet<Node>();
+        nodesById = new LongNodeMap();
+        history = new EditHistory(this);
+        attach(root);
     }
     
     /**
@@ -45,7 +210,10 @@ public class BPlusTree {
      */
     public BPlusTree() {
         root = new Node("Root", "Brainstorming Tree");
-        childrenOfRoot = new ArrayList<Node>();
+        childrenOfRoot = new LinkedHashSet<Node>();
+        nodesById = new LongNodeMap();
+        history = new EditHistory(this);
+        attach(root);
     }
     
     /**
@@ -56,7 +224,50 @@ public class BPlusTree {
      */
     public BPlusTree(final Node rootNode) {
         root = rootNode;
-        childrenOfRoot = new ArrayList<Node>();
+        childrenOfRoot = new LinkedHashSet<Node>();
+        nodesById = new LongNodeMap();
+        history = new EditHistory(this);
+        if (root != null) {
+            attach(root);
+            for (Node n: root.getAllDescendants()) {
+                childrenOfRoot.add(n);
+                attach(n);
+            }
+        }
+    }
+    
+    /**
+     * Retrieves the lock which readers of the tree hold, so that the tree
+     * can't change under them. It is held by the queries of this class,
+     * and should be held around any walk over the Nodes of the tree that
+     * may run alongside changes on another thread.
+     * 
+     * @return The read lock of the tree.
+     */
+    public Lock readLock() {
+        return lock.readLock();
+    }
+    
+    /**
+     * Retrieves the lock which is held while the tree is changed. It is
+     * taken by every change, and can be held around several changes so
+     * that readers never see some of them without the rest.
+     * 
+     * @return The write lock of the tree.
+     */
+    public Lock writeLock() {
+        return lock.writeLock();
+    }
+    
+    /**
+     * Retrieves the object that readers synchronize on while bringing a
+     * cache of the tree up to date. It must only be used while the read
+     * lock is held.
+     * 
+     * @return The cache lock.
+     */
+    Object getCacheLock() {
+        return cacheLock;
     }
     
     /**
@@ -68,6 +279,15 @@ public class BPlusTree {
         return root;
     }
     
+    /**
+     * Access method for the undo and redo history of the tree.
+     * 
+     * @return The history of changes made to this tree.
+     */
+    public EditHistory getHistory() {
+        return history;
+    }
+    
     /**
      * Adds node to the first available slot among parent's children.
      * <br>
@@ -81,23 +301,62 @@ public class BPlusTree {
      * @return Whether or not the add was successful.
      */
     public boolean add(final Node parent, final Node child) {
-        if (parent == null || child == null) {
-            return false;
-        }
-        
-        if (this.contains(parent)) {
-            boolean successful = parent.addChild(child);
-            if (successful) {
-                // addChild was successful. Add the child to our private list of
-                // Nodes for quick reference in the future.
-                childrenOfRoot.add(child);
+        lock.writeLock().lock();
+        try {
+            if (parent == null || child == null) {
+                return false;
+            }
+
+            if (this.contains(child)) {
+                // Already in the tree, so this is really a move.
+                return this.move(parent, child);
+            }
+
+            if (this.contains(parent)
+                    && attachBranch(parent, child, parent.getNumChildren())) {
+                history.added(parent, child, parent.getNumChildren() - 1);
                 return true;
             }
+
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Adds a branch which isn't in the tree under a parent which is, and
+     * indexes it. The change isn't recorded in the history.
+     * 
+     * @param parent The parent Node which will receive the branch.
+     * @param child The base Node of the branch.
+     * @param index The index the branch will have among the parent's
+     * children.
+     * @return Whether or not the add was successful.
+     */
+    boolean attachBranch(final Node parent, final Node child,
+                         final int index) {
+        if (parent.addChild(index, child)) {
+            // addChild was successful. Add the child, and anything it
+            // brought along with it, to our private index of Nodes for
+            // quick reference in the future.
+            indexBranch(child);
+            return true;
         }
-        
         return false;
     }
     
+    /**
+     * Unhooks a branch from its parent and forgets about it. The branch is
+     * kept whole. The change isn't recorded in the history.
+     * 
+     * @param branch The base Node of the branch.
+     */
+    void detachBranch(final Node branch) {
+        unindexBranch(branch);
+        branch.getParent().removeChild(branch);
+    }
+    
     /**
      * Adds node as a child of the root node. This function calls the
      * add(parent, child) method to perform the addition.
@@ -113,6 +372,350 @@ public class BPlusTree {
         return this.add(root, child);
     }
     
+    /**
+     * Starts a batch of changes. The first change made before the matching
+     * commitBatch() drops the search, title and spatial indexes, and every
+     * change made is gathered into a single step of the undo history. Use
+     * this around a large number of changes so the indexes are built once
+     * by the next query that needs them instead of updated for every Node.
+     * Calls can be nested.
+     * The write lock is held from here until the matching commitBatch(),
+     * so other threads never see part of a batch, and both calls must be
+     * made on the same thread.
+     */
+    public void beginBatch() {
+        lock.writeLock().lock();
+        batchDepth++;
+        history.beginGroup();
+    }
+    
+    /**
+     * Ends a beginBatch() call.
+     */
+    public void commitBatch() {
+        if (batchDepth == 0 || !lock.isWriteLockedByCurrentThread()) {
+            return;
+        }
+        try {
+            history.endGroup();
+            batchDepth--;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Ties this new tree to an archive to be read lazily, and reads the top
+     * levels of the tree from it, breadth first, until about the given
+     * number of Nodes have been read. Nodes whose children are left in the
+     * archive can be read later.
+     * 
+     * @param archive The archive, none of whose Nodes have been read.
+     * @param nodes About how many Nodes to read now.
+     * @throws IOException If the Nodes aren't written properly.
+     */
+    void openLazily(final ArchiveSource archive, final int nodes)
+                    throws IOException {
+        lock.writeLock().lock();
+        try {
+            source = archive;
+            archive.markUnloaded(root);
+            // Nodes made later mustn't take the ids of Nodes still to come.
+            nextId = Math.max(nextId, archive.getMaxId() + 1);
+            List<Node> level = new ArrayList<Node>();
+            level.add(root);
+            int read = 0;
+            beginBatch();
+            try {
+                for (int i = 0; i < level.size() && read < nodes; i++) {
+                    Node n = level.get(i);
+                    read += readChildren(n);
+                    for (Node child: n.getChildrenView()) {
+                        if (!archive.isLoaded(child)) {
+                            level.add(child);
+                        }
+                    }
+                }
+            } finally {
+                commitBatch();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Tells whether the children of a Node have all been read, when the
+     * tree was opened lazily from an archive.
+     * 
+     * @param n The Node.
+     * @return false if the Node has children in the archive which haven't
+     * been read yet.
+     */
+    public boolean isBranchLoaded(final Node n) {
+        lock.readLock().lock();
+        try {
+            return source == null || source.isLoaded(n);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Reads the children of a Node from the archive the tree was opened
+     * from lazily, if they haven't been read yet, and adds them to the
+     * Node. Their own children are left to be read later.
+     * 
+     * @param n The Node.
+     * @return The number of Nodes read.
+     * @throws IOException If the Nodes aren't written properly.
+     */
+    public int loadChildren(final Node n) throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (source == null || !contains(n)) {
+                return 0;
+            }
+            return readChildren(n);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Reads every branch whose area overlaps the given area from the
+     * archive the tree was opened from lazily, such as the part of the
+     * document which is in view. Each Node whose children haven't been
+     * read, and whose branch overlaps the area, has its children read, and
+     * so on down, so the time this takes depends on how much of the tree
+     * is in the area rather than on the size of the archive.
+     * 
+     * @param area The area.
+     * @return The number of Nodes read.
+     * @throws IOException If the Nodes aren't written properly.
+     */
+    public int loadBranchesIn(final Rectangle area) throws IOException {
+        lock.writeLock().lock();
+        try {
+            int read = 0;
+            boolean found = source != null;
+            while (found) {
+                found = false;
+                for (Node n: source.getUnloaded()) {
+                    Rectangle box = source.getUnloadedBounds(n);
+                    if (contains(n) && box.intersects(area)) {
+                        read += readChildren(n);
+                        found = true;
+                    }
+                }
+            }
+            return read;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Reads everything left in the archive the tree was opened from
+     * lazily, such as before the tree is saved. Branches which were
+     * removed from the tree before they were read are left out.
+     * 
+     * @return The number of Nodes read.
+     * @throws IOException If the Nodes aren't written properly.
+     */
+    public int loadAll() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (source == null) {
+                return 0;
+            }
+            int read = 0;
+            beginBatch();
+            history.pause();
+            try {
+                for (Node n: source.getUnloaded()) {
+                    if (contains(n)) {
+                        for (Node child: source.readBranch(n)) {
+                            attachBranch(n, child, n.getNumChildren());
+                            read += child.getDescendantCount() + 1;
+                        }
+                    }
+                }
+            } finally {
+                history.resume();
+                commitBatch();
+            }
+            source = null;
+            return read;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Reads the children of a Node from the archive and adds them to it,
+     * without recording the change in the history. The caller holds the
+     * write lock.
+     * 
+     * @param n The Node, which is in the tree.
+     * @return The number of Nodes read.
+     * @throws IOException If the Nodes aren't written properly.
+     */
+    private int readChildren(final Node n) throws IOException {
+        List<Node> children = source.readChildren(n);
+        history.pause();
+        try {
+            for (Node child: children) {
+                attachBranch(n, child, n.getNumChildren());
+            }
+        } finally {
+            history.resume();
+        }
+        return children.size();
+    }
+    
+    /**
+     * Adds several branches under the same parent as one change. Everything
+     * is checked before anything is changed, so either all of the branches
+     * are added or none are.
+     * <br>
+     * returns false if parent is not in the tree, or if any child is null,
+     * already in the tree, listed twice, or inside another listed branch
+     * 
+     * @param parent The parent Node which will receive the children.
+     * @param children The base Nodes of the branches to add, in order.
+     * @return Whether or not the add was successful.
+     */
+    public boolean addAll(final Node parent,
+                          final Collection<Node> children) {
+        lock.writeLock().lock();
+        try {
+            if (parent == null || children == null || !this.contains(parent)) {
+                return false;
+            }
+            Set<Node> listed = Collections.newSetFromMap(
+                    new IdentityHashMap<Node, Boolean>(children.size()));
+            for (Node child: children) {
+                if (child == null || this.contains(child)
+                        || !listed.add(child)) {
+                    return false;
+                }
+            }
+            for (Node child: children) {
+                for (Node p = child.getParent(); p != null; p = p.getParent()) {
+                    if (listed.contains(p)) {
+                        return false;
+                    }
+                }
+            }
+
+            beginBatch();
+            try {
+                for (Node child: children) {
+                    attachBranch(parent, child, parent.getNumChildren());
+                    history.added(parent, child, parent.getNumChildren() - 1);
+                }
+            } finally {
+                commitBatch();
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Moves several Nodes to the same new parent as one change. Everything
+     * is checked before anything is changed, so either all of the Nodes
+     * are moved or none are. The Nodes keep the order they are listed in.
+     * <br>
+     * returns false if newParent or any child is not in the tree, or if any
+     * child is the root, newParent, or an ancestor of newParent
+     * 
+     * @param newParent The children's new parent.
+     * @param children The Nodes to be moved.
+     * @return true if the move was successful, false otherwise.
+     */
+    public boolean moveAll(final Node newParent,
+                           final Collection<Node> children) {
+        lock.writeLock().lock();
+        try {
+            if (newParent == null || children == null
+                    || !this.contains(newParent)) {
+                return false;
+            }
+            for (Node child: children) {
+                if (child == null || child == root || child == newParent
+                        || !this.contains(child)
+                        || child.isAncestorOf(newParent)) {
+                    return false;
+                }
+            }
+
+            beginBatch();
+            try {
+                for (Node child: children) {
+                    Node oldParent = child.getParent();
+                    int oldIndex = oldParent.indexOfChild(child);
+                    moveTo(newParent, child, Integer.MAX_VALUE);
+                    history.moved(child, oldParent, oldIndex,
+                                  newParent.getNumChildren() - 1);
+                }
+            } finally {
+                commitBatch();
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Removes several Nodes as one change, giving the children of each to
+     * its parent as remove(Node) does. Everything is checked before
+     * anything is changed, so either all of the Nodes are removed or none
+     * are.
+     * <br>
+     * returns false if any Node is null, the root, not in the tree, or
+     * listed twice
+     * 
+     * @param nodes The Nodes to be removed.
+     * @return Whether or not the method was successful.
+     */
+    public boolean removeAll(final Collection<Node> nodes) {
+        lock.writeLock().lock();
+        try {
+            if (nodes == null) {
+                return false;
+            }
+            Set<Node> listed = Collections.newSetFromMap(
+                    new IdentityHashMap<Node, Boolean>(nodes.size()));
+            for (Node n: nodes) {
+                if (n == null || n == root || !this.contains(n)
+                        || !listed.add(n)) {
+                    return false;
+                }
+            }
+            for (Node n: nodes) {
+                if (!readBeforeRemoving(n)) {
+                    return false;
+                }
+            }
+
+            beginBatch();
+            try {
+                for (Node n: nodes) {
+                    remove(n);
+                }
+            } finally {
+                commitBatch();
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
     /**
      * Moves a node to a new parent if both nodes are already in the tree.
      * 
@@ -121,28 +724,58 @@ public class BPlusTree {
      * @return true if the move was successful, false otherwise.
      */
     public boolean move(final Node newParent, final Node child) {
-        if (newParent == null || child == null) {
+        lock.writeLock().lock();
+        try {
+            if (newParent == null || child == null) {
+                return false;
+            }
+
+            if (newParent == child || child.isAncestorOf(newParent)) {
+                // A node can't be moved underneath itself.
+                return false;
+            }
+
+            if (this.contains(newParent) && this.contains(child)) {
+                Node oldParent = child.getParent();
+                int oldIndex = oldParent.indexOfChild(child);
+                if (moveTo(newParent, child, Integer.MAX_VALUE)) {
+                    history.moved(child, oldParent, oldIndex,
+                                  newParent.getNumChildren() - 1);
+                    return true;
+                }
+            }
             return false;
+        } finally {
+            lock.writeLock().unlock();
         }
-        
-        if (this.contains(newParent) && this.contains(child)) {
-            Node oldParent = child.getParent();
-            if (oldParent.removeChild(child)) {
+    }
+    
+    /**
+     * Moves a Node of the tree to a place among a new parent's children.
+     * The change isn't recorded in the history.
+     * 
+     * @param newParent The child's new parent.
+     * @param child The node to be moved.
+     * @param index The index the child will have among the new parent's
+     * children.
+     * @return true if the move was successful, false otherwise.
+     */
+    boolean moveTo(final Node newParent, final Node child, final int index) {
+        Node oldParent = child.getParent();
+        int oldIndex = oldParent.indexOfChild(child);
+        if (oldParent.removeChild(child)) {
+            // Success!
+            if (newParent.addChild(index, child)) {
                 // Success!
-                if (newParent.addChild(child)) {
-                    // Success!
-                    return true;
-                } else {
-                    // Failure! ... Let's give the child back so it doesn't
-                    // become an orphan.
-                    oldParent.addChild(child);
-                    return false;
-                }
+                return true;
             } else {
-                // Failure!
+                // Failure! ... Let's give the child back so it doesn't
+                // become an orphan.
+                oldParent.addChild(oldIndex, child);
                 return false;
             }
         } else {
+            // Failure!
             return false;
         }
     }
@@ -159,7 +792,12 @@ public class BPlusTree {
      * @return A List of all descendants of the argument
      */
     public List<Node> getAllNodes() {
-        return new ArrayList<Node>(childrenOfRoot);
+        lock.readLock().lock();
+        try {
+            return new ArrayList<Node>(childrenOfRoot);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
@@ -175,7 +813,12 @@ public class BPlusTree {
      * @return A List of all descendants of the argument
      */
     public List<Node> getAllNodesInOrder() {
-        return getAllDescendants(root);
+        lock.readLock().lock();
+        try {
+            return getAllDescendants(root);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
     
     /**
@@ -189,138 +832,1028 @@ public class BPlusTree {
      * @return A List of all descendants of the argument
      */
     private List<Node> getAllDescendants(final Node parent) {
-        List<Node> retVal = new ArrayList<Node>();
-        for (Node n: parent.getChildren()) {
-            retVal.add(n);
-            retVal.addAll(getAllDescendants(n));
-        }
-        return retVal;
+        return parent.getAllDescendants();
     }
-
+    
     /**
-     * Returns true if the node is anywhere to be found in this tree. This
-     * routine is frequently used to make sure a parent node is part of this
-     * tree before adding a child node.
+     * Walks every Node of the tree, starting with the root, so that every
+     * Node comes before its children. Nothing is copied and the walk keeps
+     * its own stack, so any size or depth of tree can be walked. The tree
+     * must not change during the walk.
      * 
-     * @param n The Node to be searched for in the tree.
-     * @return true if the node is in the tree, false otherwise.
+     * @return An Iterator over the tree in pre-order.
      */
-    public boolean contains(final Node n) {
-        if (root == null) {
-            // No root means tree is empty, so it can't possibly contain n
-            return false;
-        } else if (root.equals(n)) {
-            return true;
-        } else {
-            return childrenOfRoot.contains(n);
-        }
+    public Iterator<Node> preOrderIterator() {
+        return TreeTraversal.preOrder(root, true);
     }
     
     /**
-     * <p>Delete child and its descendants from the tree.</p>
-     * <p><b>WARNING!</b> This method does not delete associated controller
-     * and view classes. Should only be used in a system that contains only
-     * model classes.<p>
-     * 
-     * returns true upon deletion
-     * <br>
-     * returns false if parent is null
-     * 
-     * @param tbd The Node to be deleted.
+     * Walks every Node of the tree so that every Node comes after its
+     * descendants. The root is last. The tree must not change during the
+     * walk.
      * 
-     * @return Whether the deletion was successful.
+     * @return An Iterator over the tree in post-order.
      */
-    public boolean deleteBranch(final Node tbd) {
-    	
-    	if (tbd == null) {
-    		return false;
-    	} else {
-    		//remove all links between the node and its parent
-	    	tbd.getParent().removeChild(tbd);
-	    	tbd.setParent(null);
-	    	
-	    	//delete the node's children
-	    	for (Node child: tbd.getChildren()) {
-	    		deleteBranch(child);
-	    	}
-	    	
-	    	return true;
-    	}
-    	
+    public Iterator<Node> postOrderIterator() {
+        return TreeTraversal.postOrder(root, true);
     }
     
     /**
-     * Removes this selected node from the tree, which assigns all children
-     * of the node to the node's parent.
+     * Walks every Node of the tree one level at a time, starting with the
+     * root. The tree must not change during the walk.
      * 
-     * @param n The Node to be removed from the tree.
-     * @return Whether or not the method was successful.
+     * @return An Iterator over the tree in breadth-first order.
      */
-    public boolean remove(final Node n) {
-        if (n == null || n == root || !this.contains(n)) {
+    public Iterator<Node> breadthFirstIterator() {
+        return TreeTraversal.breadthFirst(root, true);
+    }
+    
+    /**
+     * Returns a sequential Stream of every Node of the tree in pre-order,
+     * starting with the root. The Stream reads the tree lazily as it is
+     * consumed, so the tree must not change until the Stream is finished.
+     * 
+     * @return A Stream over the Nodes of the tree.
+     */
+    public Stream<Node> stream() {
+        Spliterator<Node> split = Spliterators.spliterator(
+                preOrderIterator(), size(), Spliterator.ORDERED
+                | Spliterator.DISTINCT | Spliterator.NONNULL);
+        return StreamSupport.stream(split, false);
+    }
+
+    /**
+     * Returns true if the node is anywhere to be found in this tree. This
+     * routine is frequently used to make sure a parent node is part of this
+     * tree before adding a child node. It runs in constant time.
+     * 
+     * @param n The Node to be searched for in the tree.
+     * @return true if the node is in the tree, false otherwise.
+     */
+    public boolean contains(final Node n) {
+        lock.readLock().lock();
+        try {
+            if (root == null) {
+                // No root means tree is empty, so it can't possibly contain n
+                return false;
+            } else if (root == n) {
+                return true;
+            } else {
+                return childrenOfRoot.contains(n);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Returns the number of Nodes in the tree, including the root node.
+     * 
+     * @return The number of Nodes in the tree.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            if (root == null) {
+                return 0;
+            }
+            return childrenOfRoot.size() + 1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Returns the number of levels below the root node, which is 0 if the
+     * root has no children.
+     * 
+     * @return The height of the tree.
+     */
+    public int getHeight() {
+        return root == null ? 0 : root.getBranchHeight();
+    }
+    
+    /**
+     * Returns the smallest box around the bounds of every Node in the tree,
+     * which is the area the whole tree takes up on screen.
+     * 
+     * @return The box, or null if no Node has bounds.
+     */
+    public Rectangle getBounds() {
+        return root == null ? null : root.getBranchBounds();
+    }
+    
+    /**
+     * Adds a Node and all of its descendants to the private index of Nodes.
+     * 
+     * @param branch The base Node of the branch to be indexed.
+     */
+    private void indexBranch(final Node branch) {
+        if (childrenOfRoot.add(branch)) {
+            attach(branch);
+        }
+        branch.visitDescendants(new NodeVisitor() {
+            @Override
+            public boolean visit(final Node n) {
+                if (childrenOfRoot.add(n)) {
+                    attach(n);
+                }
+                return true;
+            }
+        });
+    }
+    
+    /**
+     * Removes a Node and all of its descendants from the private index
+     * of Nodes.
+     * 
+     * @param branch The base Node of the branch to be removed from the index.
+     */
+    private void unindexBranch(final Node branch) {
+        if (childrenOfRoot.remove(branch)) {
+            detach(branch);
+        }
+        branch.visitDescendants(new NodeVisitor() {
+            @Override
+            public boolean visit(final Node n) {
+                if (childrenOfRoot.remove(n)) {
+                    detach(n);
+                }
+                return true;
+            }
+        });
+    }
+    
+    /**
+     * Adds a single Node to the tree-level indexes, other than the list of
+     * Nodes, and tells the Node that it now belongs to this tree.
+     * 
+     * @param n The Node which has joined the tree.
+     */
+    private void attach(final Node n) {
+        record(n);
+        n.setTree(this);
+        assignId(n);
+        if (batchDepth > 0) {
+            dropIndexes();
+            return;
+        }
+        if (searchIndex != null) {
+            searchIndex.add(n);
+        }
+        if (titleIndex != null) {
+            titleIndex.add(n);
+        }
+        if (spatialIndex != null) {
+            spatialIndex.add(n);
+        }
+    }
+    
+    /**
+     * Removes a single Node from the tree-level indexes, other than the
+     * list of Nodes, and tells the Node it no longer belongs to this tree.
+     * 
+     * @param n The Node which has left the tree.
+     */
+    private void detach(final Node n) {
+        if (nodesById.get(n.getId()) == n) {
+            nodesById.remove(n.getId());
+        }
+        if (batchDepth > 0) {
+            dropIndexes();
+        } else {
+            if (searchIndex != null) {
+                searchIndex.remove(n);
+            }
+            if (titleIndex != null) {
+                titleIndex.remove(n);
+            }
+            if (spatialIndex != null) {
+                spatialIndex.remove(n);
+            }
+        }
+        record(n);
+        n.setTree(null);
+    }
+    
+    /**
+     * Enters a Node which has joined the tree into the map of ids. A Node
+     * keeps the id it already has, such as one read from a saved file or
+     * given before it was removed, unless the id is taken by another Node
+     * of this tree, in which case it is given a new one.
+     * 
+     * @param n The Node which has joined the tree.
+     */
+    private void assignId(final Node n) {
+        long id = n.getId();
+        Node holder = nodesById.get(id);
+        if (holder == n) {
+            return;
+        }
+        if (id <= 0 || holder != null) {
+            id = nextId;
+            n.setId(id);
+        }
+        nextId = Math.max(nextId, id + 1);
+        nodesById.put(id, n);
+    }
+    
+    /**
+     * Finds the Node of this tree with the given id. This takes constant
+     * time no matter how big the tree is.
+     * 
+     * @param id The id of the Node.
+     * @return The Node with that id, or null if there isn't one in the tree.
+     */
+    public Node findById(final long id) {
+        lock.readLock().lock();
+        try {
+            return nodesById.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Drops the search, title and spatial indexes, so that each is built
+     * again from the Nodes of the tree when it is next queried.
+     */
+    private void dropIndexes() {
+        searchIndex = null;
+        titleIndex = null;
+        spatialIndex = null;
+    }
+    
+    /**
+     * Retrieves the search index, building it first if it was dropped or
+     * hasn't been needed yet. The caller holds the write lock, or the read
+     * lock and the cache lock.
+     * 
+     * @return The search index.
+     */
+    private SearchIndex searchIndex() {
+        if (searchIndex == null) {
+            SearchIndex built = new SearchIndex();
+            built.add(root);
+            for (Node n: childrenOfRoot) {
+                built.add(n);
+            }
+            searchIndex = built;
+        }
+        return searchIndex;
+    }
+    
+    /**
+     * Retrieves the title index, building it first if it was dropped or
+     * hasn't been needed yet. The caller holds the write lock, or the read
+     * lock and the cache lock.
+     * 
+     * @return The title index.
+     */
+    private TitleIndex titleIndex() {
+        if (titleIndex == null) {
+            TitleIndex built = new TitleIndex(titleFanout);
+            built.add(root);
+            for (Node n: childrenOfRoot) {
+                built.add(n);
+            }
+            titleIndex = built;
+        }
+        return titleIndex;
+    }
+    
+    /**
+     * Retrieves the spatial index, building it first if it was dropped or
+     * hasn't been needed yet. The caller holds the write lock, or the read
+     * lock and the cache lock.
+     * 
+     * @return The spatial index.
+     */
+    private SpatialIndex spatialIndex() {
+        if (spatialIndex == null) {
+            SpatialIndex built = new SpatialIndex();
+            built.add(root);
+            for (Node n: childrenOfRoot) {
+                built.add(n);
+            }
+            spatialIndex = built;
+        }
+        return spatialIndex;
+    }
+    
+    /**
+     * Called by a Node of this tree after its name has changed, so the
+     * indexes can be updated.
+     * 
+     * @param n The renamed Node.
+     * @param oldName The Node's previous name.
+     */
+    void nodeRenamed(final Node n, final String oldName) {
+        if (batchDepth > 0) {
+            dropIndexes();
+        } else {
+            if (searchIndex != null) {
+                searchIndex.nameChanged(n, oldName);
+            }
+            if (titleIndex != null) {
+                titleIndex.update(n);
+            }
+        }
+        history.renamed(n, oldName);
+        if (!listeners.isEmpty() && !pendingEvents.containsKey(n)) {
+            record(n).oldName = oldName;
+        }
+    }
+    
+    /**
+     * Called by a Node of this tree after its content has changed, so the
+     * indexes can be updated.
+     * 
+     * @param n The changed Node.
+     * @param oldContent The Node's previous content.
+     */
+    void nodeContentChanged(final Node n, final String oldContent) {
+        if (batchDepth > 0) {
+            dropIndexes();
+        } else if (searchIndex != null) {
+            searchIndex.contentChanged(n, oldContent);
+        }
+        history.contentChanged(n, oldContent);
+        if (!listeners.isEmpty() && !pendingEvents.containsKey(n)) {
+            record(n).oldContent = oldContent;
+        }
+    }
+    
+    /**
+     * Called by a Node of this tree after its bounds have changed, so the
+     * spatial index can be updated and the change recorded.
+     * 
+     * @param n The moved or resized Node.
+     * @param oldBounds The Node's previous bounds.
+     */
+    void nodeBoundsChanged(final Node n, final Rectangle oldBounds) {
+        if (batchDepth > 0) {
+            dropIndexes();
+        } else if (spatialIndex != null) {
+            spatialIndex.update(n);
+        }
+        history.boundsChanged(n, oldBounds);
+        if (!listeners.isEmpty() && !pendingEvents.containsKey(n)) {
+            // bounds changed in place can't be told apart from the new ones
+            TreeEvent e = record(n);
+            e.oldBounds = oldBounds == null || oldBounds == n.getBounds()
+                          ? null : new Rectangle(oldBounds);
+        }
+    }
+    
+    /**
+     * Called by a Node of this tree before a child is taken from among its
+     * children, or otherwise given a new parent, so the child's old place
+     * is known when the listeners are told it moved.
+     * 
+     * @param child The child which is about to move.
+     */
+    void nodeMoving(final Node child) {
+        TreeEvent e = record(child);
+        if (e != null) {
+            e.moved = true;
+        }
+    }
+    
+    /**
+     * Adds a listener to be told about changes to the tree. Changes are
+     * handed out in batches by the dispatcher, which by default runs them
+     * on the AWT event thread once the event that made them has been
+     * handled.
+     * 
+     * @param listener The listener.
+     */
+    public void addTreeListener(final TreeListener listener) {
+        if (listener != null) {
+            listeners.add(listener);
+        }
+    }
+    
+    /**
+     * Stops a listener being told about changes to the tree.
+     * 
+     * @param listener The listener.
+     */
+    public void removeTreeListener(final TreeListener listener) {
+        listeners.remove(listener);
+    }
+    
+    /**
+     * Sets what runs the task which tells the listeners about changes.
+     * The task is handed over when the first change after a notification
+     * is made, and must be run later rather than straight away, since the
+     * change is still being made at the time. Any changes made before the
+     * task runs are handed out along with the first one, so a dispatcher
+     * which waits for the next frame to be drawn gives one notification
+     * per frame.
+     * 
+     * @param dispatcher The dispatcher.
+     */
+    public void setEventDispatcher(final Executor dispatcher) {
+        if (dispatcher != null) {
+            this.dispatcher = dispatcher;
+        }
+    }
+    
+    /**
+     * Tells the listeners about every change made since they were last
+     * told, without waiting for the dispatcher. The listeners are called
+     * on this thread, which must not be holding the read lock unless it
+     * also holds the write lock.
+     */
+    public void flushEvents() {
+        List<TreeEvent> events = new ArrayList<TreeEvent>();
+        lock.readLock().lock();
+        try {
+            synchronized (cacheLock) {
+                deliveryScheduled = false;
+                if (pendingEvents.isEmpty()) {
+                    return;
+                }
+                for (TreeEvent e: pendingEvents.values()) {
+                    if (e.settle()) {
+                        events.add(e);
+                    }
+                }
+                pendingEvents = new LinkedHashMap<Node, TreeEvent>();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (!events.isEmpty()) {
+            List<TreeEvent> view = Collections.unmodifiableList(events);
+            for (TreeListener listener: listeners) {
+                listener.treeChanged(view);
+            }
+        }
+    }
+    
+    /**
+     * Finds the pending change of a Node which is about to change, and
+     * starts one if there isn't one yet. Nothing is recorded while there
+     * are no listeners.
+     * 
+     * @param n The Node.
+     * @return The pending change, or null if there are no listeners.
+     */
+    private TreeEvent record(final Node n) {
+        if (listeners.isEmpty()) {
+            return null;
+        }
+        TreeEvent e = pendingEvents.get(n);
+        if (e == null) {
+            e = new TreeEvent(this, n);
+            pendingEvents.put(n, e);
+            if (!deliveryScheduled) {
+                deliveryScheduled = true;
+                dispatcher.execute(delivery);
+            }
+        }
+        return e;
+    }
+    
+    /**
+     * Returns true if both nodes are in this tree and <i>ancestor</i> is
+     * found among the parents, grandparents, etc of <i>descendant</i>.
+     * This takes O(log n) time while the ancestor table is up to date.
+     * Otherwise the parents of <i>descendant</i> are walked, which for a
+     * single check is no slower than rebuilding the table.
+     * 
+     * @param ancestor The possible ancestor.
+     * @param descendant The possible descendant.
+     * @return true if ancestor is an ancestor of descendant, false otherwise.
+     */
+    public boolean isAncestor(final Node ancestor, final Node descendant) {
+        lock.readLock().lock();
+        try {
+            synchronized (cacheLock) {
+                if (ancestor == null || descendant == null
+                        || !this.contains(descendant)
+                        || !this.contains(ancestor)) {
+                    return false;
+                }
+                if (ancestorIndex.isStale()) {
+                    return ancestor.isAncestorOf(descendant);
+                }
+                return ancestorIndex.isAncestor(ancestor, descendant);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Finds the deepest Node which is an ancestor of both nodes, or is one
+     * of them, such as the Node to group a selection under. This takes
+     * O(log n) time, plus the time to rebuild the ancestor table if the
+     * shape of the tree has changed since it was last used.
+     * 
+     * @param first One Node.
+     * @param second The other Node.
+     * @return The lowest common ancestor, or null if either Node isn't in
+     * this tree.
+     */
+    public Node findCommonAncestor(final Node first, final Node second) {
+        lock.readLock().lock();
+        try {
+            synchronized (cacheLock) {
+                if (!ancestorsReady(first, second)) {
+                    return null;
+                }
+                return ancestorIndex.commonAncestor(first, second);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Counts the links between two nodes, going up from the first to their
+     * common ancestor and down to the second. This takes O(log n) time,
+     * plus the time to rebuild the ancestor table if needed.
+     * 
+     * @param first One Node.
+     * @param second The other Node.
+     * @return The number of links between the Nodes, or -1 if either Node
+     * isn't in this tree.
+     */
+    public int getDistance(final Node first, final Node second) {
+        lock.readLock().lock();
+        try {
+            synchronized (cacheLock) {
+                if (!ancestorsReady(first, second)) {
+                    return -1;
+                }
+                Node common = ancestorIndex.commonAncestor(first, second);
+                return ancestorIndex.depth(first) + ancestorIndex.depth(second)
+                       - 2 * ancestorIndex.depth(common);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Lists the nodes on the way from one node to another, going up from
+     * the first to their common ancestor and down to the second. The
+     * common ancestor is found from the ancestor table, so this takes time
+     * proportional to the length of the path.
+     * 
+     * @param first The Node to start from.
+     * @param second The Node to finish at.
+     * @return The Nodes of the path, including both ends, or an empty List
+     * if either Node isn't in this tree.
+     */
+    public List<Node> getPath(final Node first, final Node second) {
+        lock.readLock().lock();
+        try {
+            synchronized (cacheLock) {
+                List<Node> path = new ArrayList<Node>();
+                if (!ancestorsReady(first, second)) {
+                    return path;
+                }
+                Node common = ancestorIndex.commonAncestor(first, second);
+                for (Node n = first; n != common; n = n.getParent()) {
+                    path.add(n);
+                }
+                path.add(common);
+                int turn = path.size();
+                for (Node n = second; n != common; n = n.getParent()) {
+                    path.add(n);
+                }
+                Collections.reverse(path.subList(turn, path.size()));
+                return path;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Makes sure two nodes are in this tree and the ancestor table is up to
+     * date, rebuilding it if needed.
+     * 
+     * @param first One Node.
+     * @param second The other Node.
+     * @return true if the table can be asked about both Nodes, false if
+     * either isn't in this tree.
+     */
+    private boolean ancestorsReady(final Node first, final Node second) {
+        if (first == null || second == null || !this.contains(first)
+                || !this.contains(second)) {
             return false;
         }
-        
-        for (Node child: n.getChildren()) {
-            if (!this.move(n.getParent(), child)) {
-                // We had a problem moving a node. Abort!
+        if (ancestorIndex.isStale()) {
+            ancestorIndex.rebuild(root);
+        }
+        return true;
+    }
+    
+    /**
+     * Called by a Node of this tree after a child has been added to it, or
+     * given to it by a removed Node, so the ancestor table can be kept up
+     * to date. Only the rows of the child's branch are filled in again.
+     * 
+     * @param child The added child.
+     */
+    void nodeAdded(final Node child) {
+        ancestorIndex.branchAdded(child);
+        // Rows of Nodes which have left are only dropped by a rebuild, so
+        // don't let them outnumber the Nodes still here.
+        if (ancestorIndex.getRowCount() > 2 * size() + 64) {
+            ancestorIndex.invalidate();
+        }
+    }
+    
+    /**
+     * <p>Delete child and its descendants from the tree. One walk of the
+     * branch takes every Node out of the list of Nodes and the search and
+     * title indexes, so this takes time proportional to the size of the
+     * branch. The branch is then unhooked from its parent but kept whole,
+     * so nothing is left pointing into the tree from the deleted Nodes, and
+     * nothing in the tree points at them apart from the undo history, which
+     * lets go of them once the edit is forgotten.</p>
+     * <p><b>WARNING!</b> This method does not delete associated controller
+     * and view classes. Use TreeController.deleteBranch() when the tree is
+     * shown in the GUI.<p>
+     * 
+     * returns true upon deletion
+     * <br>
+     * returns false if tbd is null, is the root, or is not in this tree
+     * 
+     * @param tbd The Node to be deleted.
+     * 
+     * @return Whether the deletion was successful.
+     */
+    public boolean deleteBranch(final Node tbd) {
+        lock.writeLock().lock();
+        try {
+            if (tbd == null || tbd == root || !this.contains(tbd)) {
                 return false;
+            } else {
+                // forget about the whole branch, then unhook it
+                Node parent = tbd.getParent();
+                int index = parent.indexOfChild(tbd);
+                int before = this.size();
+                detachBranch(tbd);
+                history.deleted(parent, tbd, index, before - this.size());
+                return true;
             }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Removes this selected node from the tree, which assigns all children
+     * of the node to the node's parent. The children take the node's place
+     * among the parent's children, in the same order. This takes time
+     * proportional to the number of children and siblings.
+     * 
+     * @param n The Node to be removed from the tree.
+     * @return Whether or not the method was successful.
+     */
+    public boolean remove(final Node n) {
+        lock.writeLock().lock();
+        try {
+            if (n == null || n == root || !this.contains(n)
+                    || !readBeforeRemoving(n)) {
+                return false;
+            }
+
+            Node parent = n.getParent();
+            int index = parent.indexOfChild(n);
+            int hoisted = n.getNumChildren();
+            if (removeHoisting(n)) {
+                history.removed(n, parent, index, hoisted);
+                return true;
+            }
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Reads the children of a Node about to be removed from the archive the
+     * tree was opened from lazily, if they haven't been read yet, so that
+     * they are given to its parent rather than lost with it. The caller
+     * holds the write lock.
+     * 
+     * @param n The Node, which is in the tree.
+     * @return false if the children couldn't be read.
+     */
+    private boolean readBeforeRemoving(final Node n) {
+        if (source == null || source.isLoaded(n)) {
+            return true;
+        }
+        try {
+            readChildren(n);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * Removes a Node from the tree and gives its children to its parent,
+     * in the Node's place. The change isn't recorded in the history.
+     * 
+     * @param n The Node to be removed from the tree.
+     * @return Whether or not the method was successful.
+     */
+    boolean removeHoisting(final Node n) {
+        if (!n.hoistChildren()) {
+            return false;
         }
-        n.setParent(null);
         this.childrenOfRoot.remove(n);
+        detach(n);
         return true;
     }
     
     /**
-     * Searches the tree for the a Node whose Title matches the argument.
+     * Reverses removeHoisting(), putting a Node back in its old place and
+     * taking back the children it gave to its parent. The change isn't
+     * recorded in the history.
      * 
-     * It calls a helper function which uses root
-     * to help keep the root private from other classes.
+     * @param n The removed Node.
+     * @param parent The parent it was removed from.
+     * @param index Its old index among the parent's children.
+     * @param hoisted The number of children it gave to the parent, which
+     * must still be in its old place among the parent's children.
+     */
+    void unremove(final Node n, final Node parent, final int index,
+                  final int hoisted) {
+        parent.wrapChildren(index, hoisted, n);
+        childrenOfRoot.add(n);
+        attach(n);
+    }
+    
+    /**
+     * Searches the tree for the a Node whose content matches the argument
+     * exactly. The answer comes from the tree's search index, so the tree
+     * is not walked.
+     * <br>
+     * If there are two matching nodes, the one that joined the tree first
+     * is returned.
      * 
-     * @param title The title of the desired Node
+     * @param title The content of the desired Node
      * 
-     * @return The first Node with the desired title. If no Node has that
-     * title, then null is returned.
+     * @return The first Node with the desired content. If no Node has that
+     * content, then null is returned.
      */
     public Node search(final String title) {
-    	return searchHelper(root, title);
+        lock.readLock().lock();
+        try {
+            synchronized (cacheLock) {
+                return searchIndex().findContent(title);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
     }
     
     /**
-     * This helper function searches the branch of the tree, starting from
-     * the passed Node <i>it</i>, to find the matching node.
-     * <br>
-     * If there is no matching node, null is returned.
+     * Finds every Node whose name or content contains the text anywhere,
+     * ignoring case.
+     * 
+     * @param text The text to search for.
+     * @return A List of the matching Nodes.
+     */
+    public List<Node> searchText(final String text) {
+        lock.readLock().lock();
+        try {
+            synchronized (cacheLock) {
+                return searchIndex().findSubstring(text);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Finds every Node with a word in its name or content that starts with
+     * the prefix, ignoring case.
+     * 
+     * @param prefix The start of the word to search for.
+     * @return A List of the matching Nodes.
+     */
+    public List<Node> searchPrefix(final String prefix) {
+        lock.readLock().lock();
+        try {
+            synchronized (cacheLock) {
+                return searchIndex().findPrefix(prefix);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Finds every Node that matches all of the words of the query. Each
+     * query word matches any word in the Node's name or content that starts
+     * with it, ignoring case, so a half-typed last word still matches.
+     * 
+     * @param query The words to search for.
+     * @return A List of the matching Nodes.
+     */
+    public List<Node> searchTerms(final String query) {
+        lock.readLock().lock();
+        try {
+            synchronized (cacheLock) {
+                return searchIndex().findAllTerms(query);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Takes a snapshot of the tree which bulk queries can then run over on
+     * several threads at once. See TreeQuery.
+     * 
+     * @return A TreeQuery over the tree as it is now.
+     */
+    public TreeQuery query() {
+        return new TreeQuery(this);
+    }
+
+    /**
+     * Takes an immutable snapshot of the whole tree, which can be read on
+     * another thread while this tree keeps being edited. Parts of the tree
+     * which haven't changed since the last snapshot are shared with it, so
+     * this costs nothing if nothing changed and otherwise only copies the
+     * Nodes between each edit and the root. See NodeSnapshot.
      * <br>
-     * If there are two matching nodes, the first found node
-     * is the node which is returned.
-     * 
-     * @param ancestor The root of the branch to be searched.
-     * @param title The title of the node being searched for.
-     * 
-     * @return The first Node with the desired title. If no Node has that
-     * title among ancestor's descendants, then null is returned.
-     */
-    private Node searchHelper(final Node ancestor, final String title) {
-    	Node tmp;
-    	// First, check if this is our match
-    	if (ancestor.getContent().equals(title)) {
-    		return ancestor;
-    	} else {
-    		// Now let's check all of the ancestor's children
-    	    for (Node child: ancestor.getChildren()) {
-    		    tmp = searchHelper(child, title);
-    		    // If the searchHelper found a match, return that.
-    		    if (tmp != null) {
-    		        return tmp;
-				}
-    		    // Otherwise, keep looking
-    		}
-    	}
-    	// If we got here, then neither ancestor, nor any of its
-    	// descendant were a match for the string, so return null
-    	return null;
+     * This must be called on the thread that edits the tree.
+     *
+     * @return The frozen copy of the root.
+     */
+    public NodeSnapshot snapshot() {
+        lock.readLock().lock();
+        try {
+            synchronized (cacheLock) {
+                return NodeSnapshot.freeze(root);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Finds every Node whose title is exactly the argument. The answer
+     * comes from the tree's title index, so the tree is not walked.
+     * 
+     * @param title The title to look for.
+     * @return A List of the Nodes with that title.
+     */
+    public List<Node> findTitle(final String title) {
+        lock.readLock().lock();
+        try {
+            synchronized (cacheLock) {
+                return titleIndex().find(title);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Finds every Node whose title starts with the prefix, ignoring case,
+     * in alphabetical order.
+     * 
+     * @param prefix The start of the titles to look for.
+     * @return A List of the matching Nodes in title order.
+     */
+    public List<Node> findTitlePrefix(final String prefix) {
+        lock.readLock().lock();
+        try {
+            synchronized (cacheLock) {
+                return titleIndex().findPrefix(prefix);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Finds every Node whose title is alphabetically at or after
+     * <i>from</i> and before <i>to</i>, ignoring case.
+     * 
+     * @param from The first title to include.
+     * @param to The title to stop before, or null to include every title
+     * after <i>from</i>.
+     * @return A List of the matching Nodes in title order.
+     */
+    public List<Node> findTitleRange(final String from, final String to) {
+        lock.readLock().lock();
+        try {
+            synchronized (cacheLock) {
+                return titleIndex().findRange(from, to);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Finds every Node whose bounds touch an area, such as the part of the
+     * tree showing on screen or the box dragged out by the mouse.
+     * 
+     * @param area The area to look in.
+     * @return A List of the Nodes touching the area, in no particular order.
+     */
+    public List<Node> findInArea(final Rectangle area) {
+        lock.readLock().lock();
+        try {
+            synchronized (cacheLock) {
+                return spatialIndex().intersecting(area);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Finds every Node whose bounds hold a point.
+     * 
+     * @param x The x coordinate of the point.
+     * @param y The y coordinate of the point.
+     * @return A List of the Nodes under the point, in no particular order.
+     */
+    public List<Node> findAt(final int x, final int y) {
+        lock.readLock().lock();
+        try {
+            synchronized (cacheLock) {
+                return spatialIndex().containing(x, y);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Finds the Node whose bounds are closest to a point.
+     * 
+     * @param x The x coordinate of the point.
+     * @param y The y coordinate of the point.
+     * @return The nearest Node, which holds the point if any Node does.
+     */
+    public Node findNearest(final int x, final int y) {
+        lock.readLock().lock();
+        try {
+            synchronized (cacheLock) {
+                return spatialIndex().nearest(x, y);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Returns every Node in the tree, including the root, in alphabetical
+     * order of title. The Nodes are read straight from the title index
+     * without being sorted. The tree must not change while the result is
+     * being walked.
+     * 
+     * @return The Nodes of the tree in title order.
+     */
+    public Iterable<Node> titleOrder() {
+        lock.readLock().lock();
+        try {
+            synchronized (cacheLock) {
+                return titleIndex();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Rebuilds the title index with a different fan-out. A larger fan-out
+     * makes the index shallower at the cost of wider pages.
+     * 
+     * @param fanout The most entries per page of the title index. Must be
+     * at least 3.
+     */
+    public void setTitleIndexFanout(final int fanout) {
+        lock.writeLock().lock();
+        try {
+            if (fanout < 3) {
+                throw new IllegalArgumentException(
+                        "Fan-out must be at least 3");
+            }
+            titleFanout = fanout;
+            titleIndex = null;
+            titleIndex();
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
     
     /**
@@ -334,55 +1867,106 @@ public class BPlusTree {
      * @return Whether or not the print was successful
      */
     public boolean printTree() {
-        if (root == null) {
-            return false;
+        lock.readLock().lock();
+        try {
+            if (root == null) {
+                return false;
+            }
+
+            printBranch(root, System.out);
+
+            return true;
+        } finally {
+            lock.readLock().unlock();
         }
-        
-        printBranch(root, "", "    ", System.out);
-        
-        return true;
     }
     
     /**
      * A helper function which helps print all of the Nodes in the tree
      * in a format that can be easily understood. The information is 
      * printed to a PrintStream (typically Standard Out).
+     * <br>
+     * The branch is walked with an explicit stack holding, for each Node on
+     * the path down to the current Node, the structure drawn in front of
+     * that Node's children and the next child to print.
      * 
-     * @param parent The current position of printing.
-     * @param treeStructure The structure of the tree up to this point.
-     * @param next The next part of the treeStructure to add before
-     * recursively calling this function on all of parent's children.
+     * @param branch The base Node of the branch to print.
      * @param stream The output stream where the tree is being printed.
      */
-    private void printBranch(final Node parent, final String treeStructure,
-                             final String next, final PrintStream stream) {
-        // Print the parent of this branch
-        if (stream != null) {
-            stream.println(treeStructure + "|--> " + parent.toString());
-        } else {
-            System.out.println(treeStructure + "|--> " + parent.toString());
+    private void printBranch(final Node branch, final PrintStream stream) {
+        PrintStream out = stream;
+        if (out == null) {
+            out = System.out;
         }
         
-        // Then print all of its babies at one more depth than this
-        int i;
-        // The first children all have trailing "sticks"
-        // for all descendants to carry
-        for (i = 0; i < parent.getNumChildren() - 1; i++) {
-            printBranch(parent.getChild(i), treeStructure
-                        + next, "|    ", stream);
-        }
-        // The last child doesn't display a "stick"
-        if (i < parent.getNumChildren()) {
-            printBranch(parent.getChild(i), treeStructure
-                        + next, "     ", stream);
+        List<Node> path = new ArrayList<Node>();
+        List<String> structure = new ArrayList<String>();
+        List<Integer> nextChild = new ArrayList<Integer>();
+        
+        // Print the base of this branch
+        out.println("|--> " + branch.toString());
+        path.add(branch);
+        structure.add("    ");
+        nextChild.add(0);
+        
+        while (!path.isEmpty()) {
+            int top = path.size() - 1;
+            Node parent = path.get(top);
+            int i = nextChild.get(top);
+            if (i == parent.getNumChildren()) {
+                path.remove(top);
+                structure.remove(top);
+                nextChild.remove(top);
+                continue;
+            }
+            nextChild.set(top, i + 1);
+            
+            // Print the next of its babies at one more depth than this
+            Node child = parent.getChild(i);
+            String treeStructure = structure.get(top);
+            out.println(treeStructure + "|--> " + child.toString());
+            path.add(child);
+            // The first children all have trailing "sticks"
+            // for all descendants to carry, but the last child doesn't
+            // display a "stick"
+            if (i < parent.getNumChildren() - 1) {
+                structure.add(treeStructure + "|    ");
+            } else {
+                structure.add(treeStructure + "     ");
+            }
+            nextChild.add(0);
         }
     }
 
     /**
      * This will update the childrenOfRoot list to include all nodes in the
-     * tree.
+     * tree, such as after Nodes were given children without going through
+     * the tree. The ids are brought up to date, and the indexes are built
+     * again when next queried. Nothing is recorded in the history and the
+     * listeners aren't told, since nothing about the Nodes has changed.
      */
     public void refreshNodeList() {
-        childrenOfRoot = this.getAllNodesInOrder();
+        lock.writeLock().lock();
+        try {
+            Set<Node> found =
+                    new LinkedHashSet<Node>(this.getAllNodesInOrder());
+            for (Node n: childrenOfRoot) {
+                if (!found.contains(n)) {
+                    n.setTree(null);
+                }
+            }
+            childrenOfRoot = found;
+            nodesById.clear();
+            dropIndexes();
+            ancestorIndex.invalidate();
+            root.setTree(this);
+            assignId(root);
+            for (Node n: childrenOfRoot) {
+                n.setTree(this);
+                assignId(n);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 }
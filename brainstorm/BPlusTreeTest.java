@@ -0,0 +1,709 @@
+package brainstorm;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.junit.Test;
+
+/**
+ * This class contains the JUnit tests for the BPlusTree class.
+ *
+ */
+public class BPlusTreeTest {
+
+    /**
+     * This test makes sure the tree knows which nodes it holds after
+     * adds, moves, removes and branch deletes.
+     *
+     * Tests the following methods:
+     * BPlusTree.add(Node, Node)
+     * BPlusTree.move(Node, Node)
+     * BPlusTree.remove(Node)
+     * BPlusTree.deleteBranch(Node)
+     * BPlusTree.contains(Node)
+     */
+    @Test
+    public void testContains1() {
+        BPlusTree tree = new BPlusTree();
+        Node a = new Node("A", "");
+        Node b = new Node("B", "");
+        Node c = new Node("C", "");
+        Node outsider = new Node("Outsider", "");
+
+        assertTrue(tree.add(a));
+        assertTrue(tree.add(a, b));
+        assertTrue(tree.add(b, c));
+        assertTrue(tree.contains(tree.getRoot()));
+        assertTrue(tree.contains(c));
+        assertFalse(tree.contains(outsider));
+        assertFalse(tree.move(outsider, c));
+
+        assertTrue(tree.move(tree.getRoot(), c));
+        assertTrue(tree.contains(c));
+
+        assertTrue(tree.remove(a));
+        assertFalse(tree.contains(a));
+        assertTrue(tree.contains(b));
+        assertEquals(3, tree.size());
+
+        assertTrue(tree.deleteBranch(b));
+        assertFalse(tree.contains(b));
+        assertFalse(tree.deleteBranch(b));
+        assertEquals(2, tree.size());
+    }
+
+    /**
+     * This test makes sure that a branch built before being added to the
+     * tree is indexed along with its base node.
+     *
+     * Tests the following methods:
+     * BPlusTree.add(Node)
+     * BPlusTree.contains(Node)
+     */
+    @Test
+    public void testContains2() {
+        BPlusTree tree = new BPlusTree();
+        Node parent = new Node("Parent", "");
+        Node child = new Node("Child", "");
+        parent.addChild(child);
+
+        assertTrue(tree.add(parent));
+        assertTrue(tree.contains(child));
+        assertTrue(tree.deleteBranch(parent));
+        assertFalse(tree.contains(child));
+    }
+
+    /**
+     * This test makes sure the search index answers substring, prefix and
+     * multi-word queries, and follows renames and removals.
+     *
+     * Tests the following methods:
+     * BPlusTree.search(String)
+     * BPlusTree.searchText(String)
+     * BPlusTree.searchPrefix(String)
+     * BPlusTree.searchTerms(String)
+     */
+    @Test
+    public void testSearch1() {
+        BPlusTree tree = new BPlusTree();
+        Node a = new Node("Solar power", "Panels on the roof");
+        Node b = new Node("Wind power", "Turbines");
+        Node c = new Node("Budget", "Roof repairs");
+        tree.add(a);
+        tree.add(b);
+        tree.add(a, c);
+
+        assertEquals(c, tree.search("Roof repairs"));
+        assertEquals(2, tree.searchText("power").size());
+        assertEquals(2, tree.searchText("OOF").size());
+        assertEquals(1, tree.searchText("ur").size());
+        assertEquals(2, tree.searchPrefix("roof").size());
+        assertEquals(1, tree.searchTerms("sol roo").size());
+        assertEquals(0, tree.searchTerms("wind roof").size());
+
+        b.setName("Hydro");
+        assertEquals(1, tree.searchText("power").size());
+        assertEquals(b, tree.searchPrefix("hyd").get(0));
+
+        tree.deleteBranch(a);
+        assertEquals(0, tree.searchPrefix("roof").size());
+        assertEquals(null, tree.search("Roof repairs"));
+    }
+
+    /**
+     * This test makes sure that a Node which uses the same word in its
+     * name and its content can't be found once it is deleted or removed.
+     *
+     * Tests the following methods:
+     * BPlusTree.deleteBranch(Node)
+     * BPlusTree.remove(Node)
+     * BPlusTree.searchText(String)
+     * BPlusTree.searchPrefix(String)
+     * BPlusTree.searchTerms(String)
+     */
+    @Test
+    public void testSearch2() {
+        BPlusTree tree = new BPlusTree();
+        Node a = new Node("hello", "hello world");
+        Node b = new Node();
+        tree.add(a);
+        tree.add(b);
+        assertEquals(1, tree.searchText("hello").size());
+        assertEquals(1, tree.searchPrefix("insert").size());
+
+        tree.deleteBranch(a);
+        assertEquals(0, tree.searchText("hello").size());
+        assertEquals(0, tree.searchText("ell").size());
+        assertEquals(0, tree.searchPrefix("hel").size());
+        assertEquals(0, tree.searchTerms("hello world").size());
+
+        tree.remove(b);
+        assertEquals(0, tree.searchText("insert").size());
+        assertEquals(0, tree.searchPrefix("insert").size());
+        assertEquals(0, tree.searchTerms("insert").size());
+    }
+
+    /**
+     * This test checks the order of the three kinds of walk over a small
+     * tree, and that the Stream sees every node.
+     *
+     * Tests the following methods:
+     * BPlusTree.preOrderIterator()
+     * BPlusTree.postOrderIterator()
+     * BPlusTree.breadthFirstIterator()
+     * BPlusTree.stream()
+     */
+    @Test
+    public void testTraversal1() {
+        BPlusTree tree = new BPlusTree("R", "");
+        Node a = new Node("A", "");
+        Node b = new Node("B", "");
+        Node c = new Node("C", "");
+        Node d = new Node("D", "");
+        tree.add(a);
+        tree.add(a, c);
+        tree.add(a, d);
+        tree.add(b);
+
+        assertEquals("RACDB", names(tree.preOrderIterator()));
+        assertEquals("CDABR", names(tree.postOrderIterator()));
+        assertEquals("RABCD", names(tree.breadthFirstIterator()));
+        assertEquals(5, tree.stream().count());
+    }
+
+    /**
+     * This test builds an outline which is far deeper than the call stack
+     * could handle with recursion, and walks it every way.
+     *
+     * Tests the following methods:
+     * BPlusTree.getAllNodesInOrder()
+     * BPlusTree.postOrderIterator()
+     * BPlusTree.stream()
+     * BPlusTree.deleteBranch(Node)
+     */
+    @Test
+    public void testDeepTree1() {
+        final int depth = 100000;
+        BPlusTree tree = new BPlusTree();
+        Node parent = tree.getRoot();
+        Node top = null;
+        for (int i = 0; i < depth; i++) {
+            Node child = new Node("Level " + i, "");
+            tree.add(parent, child);
+            if (top == null) {
+                top = child;
+            }
+            parent = child;
+        }
+
+        assertEquals(depth, tree.getAllNodesInOrder().size());
+        assertEquals(parent, tree.postOrderIterator().next());
+        assertEquals(depth + 1, tree.stream().count());
+        assertEquals(depth, tree.getHeight());
+        assertTrue(tree.deleteBranch(top));
+        assertEquals(1, tree.size());
+        assertEquals(0, tree.getHeight());
+    }
+
+    /**
+     * This test runs parallel queries over a tree which is big enough to
+     * be split between threads, and checks them against a plain walk. It
+     * also checks that the snapshot isn't affected by later edits, and
+     * that Nodes without bounds can be queried.
+     *
+     * Tests the following methods:
+     * TreeQuery.count(Predicate)
+     * TreeQuery.collect(Node, Predicate)
+     * TreeQuery.mapReduce(Node, Function, Object, BinaryOperator)
+     * TreeQuery.branchSize(Node)
+     */
+    @Test
+    public void testQuery1() {
+        Node[] nodes = new Node[50000];
+        BPlusTree tree = buildTree(nodes);
+        for (int i = 1; i < nodes.length; i++) {
+            nodes[i].setName(i % 7 == 0 ? "seven" : "other");
+        }
+        nodes[3].setBounds(null);
+        Predicate<NodeSnapshot> isSeven =
+                new Predicate<NodeSnapshot>() {
+            @Override
+            public boolean test(final NodeSnapshot n) {
+                return n.getName().equals("seven");
+            }
+        };
+
+        TreeQuery query = tree.query();
+        nodes[1].setName("seven");
+        assertEquals((nodes.length - 1) / 7, query.count(isSeven));
+        assertEquals(nodes[3], query.collect(
+                new Predicate<NodeSnapshot>() {
+                    @Override
+                    public boolean test(final NodeSnapshot n) {
+                        return n.getBounds() == null;
+                    }
+                }).get(0));
+
+        int expected = 0;
+        Iterator<Node> it = TreeTraversal.preOrder(nodes[1], true);
+        while (it.hasNext()) {
+            if (it.next().getName().equals("seven")) {
+                expected++;
+            }
+        }
+        assertEquals(expected - 1, query.collect(nodes[1], isSeven).size());
+        assertEquals(nodes[1].getAllDescendants().size() + 1,
+                     query.branchSize(nodes[1]));
+        assertEquals(Integer.valueOf(nodes.length), query.mapReduce(null,
+                new Function<NodeSnapshot, Integer>() {
+                    @Override
+                    public Integer apply(final NodeSnapshot n) {
+                        return 1;
+                    }
+                }, 0, new BinaryOperator<Integer>() {
+                    @Override
+                    public Integer apply(final Integer a, final Integer b) {
+                        return a + b;
+                    }
+                }));
+    }
+
+    /**
+     * This test takes snapshots between edits and checks that old
+     * snapshots keep their contents, and that branches which weren't
+     * edited are shared between snapshots.
+     *
+     * Tests the following methods:
+     * BPlusTree.snapshot()
+     * NodeSnapshot.getChild(int)
+     * NodeSnapshot.size()
+     */
+    @Test
+    public void testSnapshot1() {
+        BPlusTree tree = new BPlusTree("R", "");
+        Node a = new Node("A", "");
+        Node b = new Node("B", "");
+        Node c = new Node("C", "");
+        tree.add(a);
+        tree.add(b);
+        tree.add(a, c);
+
+        NodeSnapshot first = tree.snapshot();
+        assertEquals(4, first.size());
+        assertTrue(first == tree.snapshot());
+
+        c.setName("C2");
+        NodeSnapshot second = tree.snapshot();
+        assertEquals("C", first.getChild(0).getChild(0).getName());
+        assertEquals("C2", second.getChild(0).getChild(0).getName());
+        assertTrue(first.getChild(1) == second.getChild(1));
+
+        tree.move(b, a);
+        NodeSnapshot third = tree.snapshot();
+        assertEquals(1, third.getNumChildren());
+        assertTrue(second.getChild(0) == third.getChild(0).getChild(0));
+        assertEquals(2, second.getNumChildren());
+
+        tree.deleteBranch(a);
+        assertEquals(2, tree.snapshot().size());
+        assertEquals(4, third.size());
+
+        Node d = new Node("D", "");
+        d.setBounds(null);
+        tree.add(d);
+        NodeSnapshot fourth = tree.snapshot();
+        int last = fourth.getNumChildren() - 1;
+        assertEquals(null, fourth.getChild(last).getBounds());
+        d.setBounds(new Rectangle(1, 2, 3, 4));
+        assertEquals(new Rectangle(1, 2, 3, 4),
+                     tree.snapshot().getChild(last).getBounds());
+        assertEquals(null, fourth.getChild(last).getBounds());
+    }
+
+    /**
+     * This test removes a Node with children, which its parent takes, and
+     * checks that snapshots taken after the removal and after undoing it
+     * show the tree as it is.
+     *
+     * Tests the following methods:
+     * BPlusTree.snapshot()
+     * BPlusTree.remove(Node)
+     * Node.wrapChildren(int, int, Node)
+     */
+    @Test
+    public void testSnapshot2() {
+        BPlusTree tree = new BPlusTree("R", "");
+        Node hub = new Node("hub", "");
+        tree.add(hub);
+        tree.add(hub, new Node("A", ""));
+        tree.add(hub, new Node("B", ""));
+        tree.add(new Node("C", ""));
+
+        tree.remove(hub);
+        NodeSnapshot removed = tree.snapshot();
+        assertEquals(3, removed.getNumChildren());
+        tree.getHistory().undo();
+        NodeSnapshot restored = tree.snapshot();
+        assertTrue(removed != restored);
+        assertEquals(2, restored.getNumChildren());
+        assertEquals("hub", restored.getChild(0).getName());
+        assertEquals(2, restored.getChild(0).getNumChildren());
+        assertEquals(5, restored.size());
+
+        tree.getHistory().redo();
+        assertEquals(3, tree.snapshot().getNumChildren());
+    }
+
+    /**
+     * This test adds, moves and removes many nodes at once, checks that a
+     * bad batch changes nothing, that the indexes catch up when the batch
+     * ends, and that one undo takes back a whole batch.
+     *
+     * Tests the following methods:
+     * BPlusTree.addAll(Node, Collection)
+     * BPlusTree.moveAll(Node, Collection)
+     * BPlusTree.removeAll(Collection)
+     */
+    @Test
+    public void testBatch1() {
+        BPlusTree tree = new BPlusTree("R", "");
+        Node hub = new Node("hub", "");
+        tree.add(hub);
+        List<Node> leaves = new ArrayList<Node>();
+        for (int i = 0; i < 10000; i++) {
+            leaves.add(new Node("leaf", "" + i));
+        }
+
+        leaves.add(leaves.get(0));
+        assertFalse(tree.addAll(hub, leaves));
+        assertEquals(2, tree.size());
+        leaves.remove(leaves.size() - 1);
+
+        assertTrue(tree.addAll(hub, leaves));
+        assertEquals(10002, tree.size());
+        assertEquals(10000, tree.findTitle("leaf").size());
+        assertTrue(tree.search("9999") == leaves.get(9999));
+
+        Node other = new Node("other", "");
+        tree.add(other);
+        assertFalse(tree.moveAll(leaves.get(0), Arrays.asList(hub)));
+        assertTrue(tree.moveAll(other, leaves.subList(0, 5000)));
+        assertEquals(5000, other.getNumChildren());
+        assertTrue(leaves.get(4999) == other.getChild(4999));
+
+        assertTrue(tree.removeAll(Arrays.asList(hub, other)));
+        assertEquals(10001, tree.size());
+        assertEquals(10000, tree.getRoot().getNumChildren());
+        assertEquals(0, tree.findTitle("hub").size());
+
+        assertTrue(tree.getHistory().undo());
+        assertEquals(10003, tree.size());
+        assertEquals(5000, hub.getNumChildren());
+        assertTrue(tree.getHistory().undo());
+        assertEquals(10000, hub.getNumChildren());
+        assertTrue(tree.getHistory().undo());
+        assertTrue(tree.getHistory().undo());
+        assertEquals(2, tree.size());
+        assertEquals(0, tree.findTitle("leaf").size());
+    }
+
+    /**
+     * This test removes a node with a great many children, and checks the
+     * children take its place among its siblings in the same order, and
+     * that undo puts them back under it.
+     *
+     * Tests the following methods:
+     * BPlusTree.remove(Node)
+     * Node.hoistChildren()
+     * Node.wrapChildren(int, int, Node)
+     */
+    @Test
+    public void testRemoveHub1() {
+        BPlusTree tree = new BPlusTree("R", "");
+        Node first = new Node("first", "");
+        Node hub = new Node("hub", "");
+        Node last = new Node("last", "");
+        tree.add(first);
+        tree.add(hub);
+        tree.add(last);
+        List<Node> spokes = new ArrayList<Node>();
+        for (int i = 0; i < 200000; i++) {
+            spokes.add(new Node("spoke", ""));
+        }
+        tree.addAll(hub, spokes);
+
+        assertTrue(tree.remove(hub));
+        Node root = tree.getRoot();
+        assertEquals(200002, root.getNumChildren());
+        assertTrue(root.getChild(0) == first);
+        assertTrue(root.getChild(1) == spokes.get(0));
+        assertTrue(root.getChild(200000) == spokes.get(199999));
+        assertTrue(root.getChild(200001) == last);
+        assertTrue(spokes.get(5).getParent() == root);
+        assertEquals(null, hub.getParent());
+        assertEquals(0, hub.getNumChildren());
+
+        assertTrue(tree.getHistory().undo());
+        assertEquals(3, root.getNumChildren());
+        assertTrue(root.getChild(1) == hub);
+        assertEquals(200000, hub.getNumChildren());
+        assertTrue(spokes.get(5).getParent() == hub);
+        assertEquals(200004, tree.size());
+    }
+
+    /**
+     * This test deletes a branch of a larger tree and checks that none of
+     * its nodes can be found through any of the tree's indexes, while the
+     * rest of the tree still can.
+     *
+     * Tests the following methods:
+     * BPlusTree.deleteBranch(Node)
+     */
+    @Test
+    public void testDeleteBranch1() {
+        Node[] nodes = new Node[5000];
+        BPlusTree tree = buildTree(nodes);
+        for (int i = 1; i < nodes.length; i++) {
+            nodes[i].setName("name" + i);
+            nodes[i].setContent("content" + i);
+        }
+        Node branch = nodes[2];
+        List<Node> dead = branch.getAllDescendants();
+        dead.add(branch);
+        int before = tree.size();
+
+        assertTrue(tree.deleteBranch(branch));
+        assertEquals(before - dead.size(), tree.size());
+        assertEquals(before - dead.size(), tree.getAllNodes().size() + 1);
+        for (Node n: dead) {
+            assertFalse(tree.contains(n));
+            assertEquals(null, n.getTree());
+            assertEquals(0, tree.findTitle(n.getName()).size());
+            assertEquals(null, tree.search(n.getContent()));
+        }
+        assertEquals(null, branch.getParent());
+        assertTrue(tree.search("content3") == nodes[3]);
+        assertEquals(before - dead.size(), tree.snapshot().size());
+    }
+
+    /**
+     * This test checks that every node of a tree can be found by its id,
+     * that a node keeps its id when it is removed and put back, and that
+     * a node joining with an id already in use is given a new one.
+     *
+     * Tests the following methods:
+     * BPlusTree.findById(long)
+     * Node.getId()
+     */
+    @Test
+    public void testIds1() {
+        Node[] nodes = new Node[1000];
+        BPlusTree tree = buildTree(nodes);
+        for (Node n: nodes) {
+            assertTrue(n.getId() > 0);
+            assertTrue(tree.findById(n.getId()) == n);
+        }
+
+        long id = nodes[2].getId();
+        assertTrue(tree.deleteBranch(nodes[2]));
+        assertEquals(null, tree.findById(id));
+        assertEquals(null, tree.findById(nodes[17].getId()));
+        assertTrue(tree.getHistory().undo());
+        assertEquals(id, nodes[2].getId());
+        assertTrue(tree.findById(id) == nodes[2]);
+        assertTrue(tree.findById(nodes[17].getId()) == nodes[17]);
+
+        Node copy = new Node("copy", "");
+        copy.setId(id);
+        assertTrue(tree.add(copy));
+        assertTrue(copy.getId() != id);
+        assertTrue(tree.findById(id) == nodes[2]);
+        assertTrue(tree.findById(copy.getId()) == copy);
+        assertEquals(null, tree.findById(0));
+    }
+
+    /**
+     * This test edits a tree on two threads while four more read it at the
+     * same time, by walking snapshots, walking the tree under its read
+     * lock and running searches, and checks that no thread fails and that
+     * every walk sees a whole tree.
+     *
+     * Tests the following methods:
+     * BPlusTree.readLock()
+     * BPlusTree.writeLock()
+     * BPlusTree.snapshot()
+     * BPlusTree.findCommonAncestor(Node, Node)
+     * Node.getDescendantCount()
+     */
+    @Test
+    public void testConcurrent1() throws InterruptedException {
+        final BPlusTree tree = new BPlusTree("R", "");
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        final AtomicBoolean done = new AtomicBoolean();
+        List<Thread> writers = new ArrayList<Thread>();
+        List<Thread> readers = new ArrayList<Thread>();
+
+        for (int w = 0; w < 2; w++) {
+            final int seed = w;
+            writers.add(new Thread(new Runnable() {
+                public void run() {
+                    Random rand = new Random(seed);
+                    List<Node> mine = new ArrayList<Node>();
+                    Node hub = new Node("hub" + seed, "");
+                    tree.add(hub);
+                    mine.add(hub);
+                    for (int step = 0; step < 4000; step++) {
+                        Node n = mine.get(rand.nextInt(mine.size()));
+                        int action = rand.nextInt(10);
+                        if (action < 4 || mine.size() < 10) {
+                            Node child = new Node("x" + step, "s" + seed);
+                            child.setBounds(new Rectangle(
+                                    rand.nextInt(1000), rand.nextInt(1000),
+                                    20, 20));
+                            tree.add(n, child);
+                            mine.add(child);
+                        } else if (action < 6) {
+                            tree.move(mine.get(rand.nextInt(mine.size())),
+                                      n);
+                        } else if (action < 7 && n != hub) {
+                            tree.remove(n);
+                            mine.remove(n);
+                        } else if (action < 8) {
+                            n.setName("y" + step);
+                        } else {
+                            n.setBounds(new Rectangle(rand.nextInt(1000),
+                                    rand.nextInt(1000), 20, 20));
+                        }
+                    }
+                }
+            }));
+        }
+        for (int r = 0; r < 4; r++) {
+            final int seed = 10 + r;
+            readers.add(new Thread(new Runnable() {
+                public void run() {
+                    Random rand = new Random(seed);
+                    while (!done.get()) {
+                        NodeSnapshot snap = tree.snapshot();
+                        assertEquals(snap.size(), countSnapshot(snap));
+
+                        Lock lock = tree.readLock();
+                        lock.lock();
+                        try {
+                            int count = 0;
+                            Iterator<Node> it = tree.preOrderIterator();
+                            while (it.hasNext()) {
+                                it.next();
+                                count++;
+                            }
+                            assertEquals(tree.size(), count);
+                            assertEquals(tree.size() - 1,
+                                    tree.getRoot().getDescendantCount());
+                            List<Node> all = tree.getAllNodes();
+                            all.add(tree.getRoot());
+                            Node a = all.get(rand.nextInt(all.size()));
+                            Node b = all.get(rand.nextInt(all.size()));
+                            Node common = tree.findCommonAncestor(a, b);
+                            assertTrue(common == a
+                                       || tree.isAncestor(common, a));
+                        } finally {
+                            lock.unlock();
+                        }
+                        tree.searchText("s" + (seed % 2));
+                        tree.findInArea(new Rectangle(rand.nextInt(1000),
+                                rand.nextInt(1000), 100, 100));
+                    }
+                }
+            }));
+        }
+
+        Thread.UncaughtExceptionHandler handler =
+                new Thread.UncaughtExceptionHandler() {
+            public void uncaughtException(final Thread t, final Throwable e) {
+                synchronized (failures) {
+                    failures.add(e);
+                }
+            }
+        };
+        for (Thread t: readers) {
+            t.setUncaughtExceptionHandler(handler);
+            t.start();
+        }
+        for (Thread t: writers) {
+            t.setUncaughtExceptionHandler(handler);
+            t.start();
+        }
+        for (Thread t: writers) {
+            t.join();
+        }
+        done.set(true);
+        for (Thread t: readers) {
+            t.join();
+        }
+
+        assertEquals("[]", failures.toString());
+        assertEquals(tree.size() - 1, tree.getAllNodesInOrder().size());
+        assertEquals(tree.size(), tree.snapshot().size());
+        assertEquals(tree.size() - 1, tree.getRoot().getDescendantCount());
+        for (Node n: tree.getAllNodes()) {
+            assertTrue(tree.findById(n.getId()) == n);
+        }
+    }
+
+    /**
+     * Helper function which counts the nodes of a snapshot by walking it.
+     *
+     * @param snap The snapshot.
+     * @return The number of nodes in the snapshot.
+     */
+    private static int countSnapshot(final NodeSnapshot snap) {
+        int count = 1;
+        for (int i = 0; i < snap.getNumChildren(); i++) {
+            count += countSnapshot(snap.getChild(i));
+        }
+        return count;
+    }
+
+    /**
+     * Helper function which joins the names of the nodes of a walk.
+     *
+     * @param it The walk.
+     * @return The names of the nodes, one after another.
+     */
+    private String names(final Iterator<Node> it) {
+        StringBuilder sb = new StringBuilder();
+        while (it.hasNext()) {
+            sb.append(it.next().getName());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Helper function which builds a tree where every node has up to
+     * eight children.
+     *
+     * @param nodes An array which receives every node of the tree.
+     * @return The built tree.
+     */
+    private BPlusTree buildTree(final Node[] nodes) {
+        BPlusTree tree = new BPlusTree();
+        nodes[0] = tree.getRoot();
+        for (int i = 1; i < nodes.length; i++) {
+            nodes[i] = new Node("", "");
+            tree.add(nodes[(i - 1) / 8], nodes[i]);
+        }
+        return tree;
+    }
+}
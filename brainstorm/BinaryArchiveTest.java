@@ -0,0 +1,303 @@
+package brainstorm;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.zip.CRC32;
+
+import org.junit.Test;
+
+/**
+ * This class contains the JUnit tests for the BinaryArchive class.
+ *
+ */
+public class BinaryArchiveTest {
+
+    /**
+     * This test saves a tree with awkward strings and bounds to a file and
+     * loads it back, and checks that every Node comes back in the same
+     * place with the same fields and id.
+     *
+     * Tests the following methods:
+     * BinaryArchive.write(OutputStream, BPlusTree)
+     * BinaryArchive.isArchive(FileChannel)
+     * BinaryArchive.read(FileChannel)
+     */
+    @Test
+    public void testRoundTrip1() throws IOException {
+        BPlusTree tree = new BPlusTree();
+        Node a = new Node("caf\u00e9 \ud83d\ude00", "lone \ud800 half \udfff");
+        Node b = new Node(null, "\u0000\u20ac\u4e2d");
+        Node c = new Node("", null);
+        a.setBounds(new Rectangle(Integer.MIN_VALUE, -1, 0, Integer.MAX_VALUE));
+        tree.add(a);
+        tree.add(a, b);
+        tree.add(b, c);
+        tree.add(a, new Node("same", "same"));
+        tree.add(new Node("same", "same"));
+        Node bare = new Node("no bounds", "");
+        bare.setBounds(null);
+        tree.add(b, bare);
+
+        File file = File.createTempFile("archive", ".bstrm");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        BinaryArchive.write(out, tree, new byte[32]);
+        out.close();
+        FileChannel channel = FileChannel.open(file.toPath(),
+                                               StandardOpenOption.READ);
+        BPlusTree loaded;
+        try {
+            assertTrue(BinaryArchive.isArchive(channel));
+            loaded = BinaryArchive.read(channel);
+        } finally {
+            channel.close();
+        }
+
+        assertEquals(tree.size(), loaded.size());
+        Iterator<Node> expected = tree.preOrderIterator();
+        Iterator<Node> actual = loaded.preOrderIterator();
+        while (expected.hasNext()) {
+            Node e = expected.next();
+            Node n = actual.next();
+            assertEquals(e.getNumChildren(), n.getNumChildren());
+            if (e != tree.getRoot()) {
+                assertEquals(e.getName(), n.getName());
+                assertEquals(e.getContent(), n.getContent());
+                assertEquals(e.getBounds(), n.getBounds());
+                assertEquals(e.getId(), n.getId());
+                assertTrue(loaded.findById(n.getId()) == n);
+            }
+        }
+        assertTrue(loaded.search("same") != null);
+        assertTrue(!loaded.getHistory().canUndo());
+    }
+
+    /**
+     * This test saves and loads a deep tree, and checks that repeated
+     * strings are only stored once. Every Node of the tree has a child, so
+     * each takes an entry in the branch index as well as its record.
+     *
+     * Tests the following methods:
+     * BinaryArchive.write(OutputStream, BPlusTree)
+     * BinaryArchive.read(ByteBuffer)
+     */
+    @Test
+    public void testDeepTree1() throws IOException {
+        String text = "repeated";
+        BPlusTree tree = new BPlusTree();
+        Node parent = tree.getRoot();
+        for (int i = 0; i < 50000; i++) {
+            Node n = new Node(text, text);
+            tree.add(parent, n);
+            parent = n;
+        }
+        byte[] bytes = save(tree);
+        assertTrue(bytes.length < 50000 * 18);
+        BPlusTree loaded = BinaryArchive.read(ByteBuffer.wrap(bytes));
+        assertEquals(50001, loaded.size());
+        assertEquals(50000, loaded.getHeight());
+        assertTrue(loaded.search(text) != null);
+    }
+
+    /**
+     * This test checks that damaged, cut short and newer archives, and
+     * files which aren't binary archives, are refused.
+     *
+     * Tests the following methods:
+     * BinaryArchive.read(ByteBuffer)
+     */
+    @Test
+    public void testBadFiles1() throws IOException {
+        BPlusTree tree = new BPlusTree();
+        Node a = new Node("a", "b");
+        tree.add(a);
+        tree.add(a, new Node("c", "d"));
+        byte[] good = save(tree);
+        assertEquals(2, BinaryArchive.read(ByteBuffer.wrap(good))
+                     .getAllNodes().size());
+
+        byte[] damaged = good.clone();
+        damaged[damaged.length / 2] ^= 1;
+        byte[] newer = good.clone();
+        newer[4] = (byte) (BinaryArchive.VERSION + 1);
+        byte[][] bad = {
+            damaged, Arrays.copyOf(good, good.length - 1),
+            Arrays.copyOf(good, 6), withChecksum(newer),
+            withChecksum(Arrays.copyOf(good, good.length - 2)),
+            "{\"Root\": {\"Children\": []}}".getBytes("UTF-8")
+        };
+        for (byte[] b: bad) {
+            try {
+                BinaryArchive.read(ByteBuffer.wrap(b));
+                assertTrue("accepted " + Arrays.toString(b), false);
+            } catch (IOException e) {
+                assertTrue(e.getMessage() != null);
+            }
+        }
+    }
+
+    /**
+     * This test opens a large archive lazily, and checks that only the top
+     * of the tree is read at first, that branches are read when asked for
+     * or when they come into an area, and that reading the rest gives back
+     * the whole tree with the same ids.
+     *
+     * Tests the following methods:
+     * BinaryArchive.open(ByteBuffer)
+     * BPlusTree.isBranchLoaded(Node)
+     * BPlusTree.loadChildren(Node)
+     * BPlusTree.loadBranchesIn(Rectangle)
+     * BPlusTree.loadAll()
+     */
+    @Test
+    public void testLazyOpen1() throws IOException {
+        BPlusTree tree = new BPlusTree();
+        addLevels(tree, tree.getRoot(), 0, 4);
+        int total = tree.size();
+        BPlusTree loaded = BinaryArchive.open(ByteBuffer.wrap(save(tree)));
+        assertTrue(loaded.size() > BinaryArchive.TOP_NODES);
+        assertTrue(loaded.size() < total);
+        assertTrue(!loaded.getHistory().canUndo());
+
+        Node last = loaded.getRoot().getChild(9).getChild(9).getChild(9);
+        assertTrue(!loaded.isBranchLoaded(last));
+        assertEquals(0, last.getNumChildren());
+        assertEquals(10, loaded.loadChildren(last));
+        assertTrue(loaded.isBranchLoaded(last));
+        assertEquals(10, last.getNumChildren());
+        assertEquals(0, loaded.loadChildren(last));
+        assertTrue(!loaded.getHistory().canUndo());
+
+        // everything under the root's last child lies in this area
+        int before = loaded.size();
+        loaded.loadBranchesIn(new Rectangle(9000, 0, 999, 100));
+        Node branch = loaded.getRoot().getChild(9);
+        assertEquals(1111, branch.getDescendantCount() + 1);
+        Node outside = loaded.getRoot().getChild(8).getChild(9).getChild(9);
+        assertTrue(!loaded.isBranchLoaded(outside));
+        assertTrue(loaded.size() > before);
+
+        // a new Node doesn't take the id of one still in the archive
+        Node made = new Node("new", "");
+        loaded.add(made);
+        assertTrue(made.getId() > tree.getRoot().getChild(9).getChild(9)
+                   .getChild(9).getChild(9).getId());
+        loaded.remove(made);
+        assertEquals(total - loaded.size(), loaded.loadAll());
+        assertTrue(loaded.isBranchLoaded(outside));
+        assertEquals(10, outside.getNumChildren());
+        assertEquals(total, loaded.size());
+        Iterator<Node> expected = tree.preOrderIterator();
+        Iterator<Node> actual = loaded.preOrderIterator();
+        while (expected.hasNext()) {
+            Node e = expected.next();
+            Node n = actual.next();
+            assertEquals(e.getNumChildren(), n.getNumChildren());
+            if (e != tree.getRoot()) {
+                assertEquals(e.getName(), n.getName());
+                assertEquals(e.getBounds(), n.getBounds());
+                assertEquals(e.getId(), n.getId());
+                assertTrue(loaded.findById(n.getId()) == n);
+            }
+        }
+        assertEquals(0, loaded.loadAll());
+    }
+
+    /**
+     * This test removes a Node whose children haven't been read yet from a
+     * tree opened lazily, and checks that its children, and everything
+     * under them, are given to its parent rather than lost.
+     *
+     * Tests the following methods:
+     * BPlusTree.remove(Node)
+     * BPlusTree.removeAll(Collection)
+     * BPlusTree.loadAll()
+     */
+    @Test
+    public void testLazyRemove1() throws IOException {
+        BPlusTree tree = new BPlusTree();
+        addLevels(tree, tree.getRoot(), 0, 4);
+        int total = tree.size();
+        BPlusTree loaded = BinaryArchive.open(ByteBuffer.wrap(save(tree)));
+        Node last = loaded.getRoot().getChild(9).getChild(9).getChild(9);
+        Node other = loaded.getRoot().getChild(9).getChild(9).getChild(8);
+        assertTrue(!loaded.isBranchLoaded(last));
+        assertTrue(!loaded.isBranchLoaded(other));
+        Node parent = last.getParent();
+
+        assertTrue(loaded.remove(last));
+        assertEquals(19, parent.getNumChildren());
+        assertTrue(loaded.removeAll(Arrays.asList(other)));
+        assertEquals(28, parent.getNumChildren());
+        loaded.loadAll();
+        assertEquals(total - 2, loaded.size());
+
+        loaded.getHistory().undo();
+        loaded.getHistory().undo();
+        assertEquals(total, loaded.size());
+        assertEquals(10, last.getNumChildren());
+        assertEquals(10, other.getNumChildren());
+    }
+
+    /**
+     * Helper function which gives a Node ten children, each with ten
+     * children, and so on down for a number of levels. Every Node under
+     * the root's i-th child lies between x = 1000 * i and 1000 * i + 999.
+     *
+     * @param tree The tree.
+     * @param parent The Node to add children to.
+     * @param x Where the parent's branch starts across.
+     * @param levels How many levels to add.
+     */
+    private void addLevels(final BPlusTree tree, final Node parent,
+                           final int x, final int levels) {
+        if (levels == 0) {
+            return;
+        }
+        int width = levels == 4 ? 1000 : 1;
+        for (int i = 0; i < 10; i++) {
+            Node n = new Node("n" + levels, "");
+            n.setBounds(new Rectangle(x + width * i, levels, 1, 1));
+            tree.add(parent, n);
+            addLevels(tree, n, x + width * i, levels - 1);
+        }
+    }
+
+    /**
+     * Helper function which saves a tree into memory.
+     *
+     * @param tree The tree.
+     * @return The bytes of the archive.
+     * @throws IOException If the tree can't be written.
+     */
+    private byte[] save(final BPlusTree tree) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryArchive.write(bytes, tree);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Helper function which puts the right checksum on the end of an
+     * archive which has been changed.
+     *
+     * @param archive The archive, with a checksum which may be wrong.
+     * @return The archive with the checksum put right.
+     */
+    private byte[] withChecksum(final byte[] archive) {
+        CRC32 crc = new CRC32();
+        crc.update(archive, 0, archive.length - 4);
+        ByteBuffer.wrap(archive).putInt(archive.length - 4,
+                                        (int) crc.getValue());
+        return archive;
+    }
+}
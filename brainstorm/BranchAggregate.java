@@ -0,0 +1,329 @@
+package brainstorm;
+
+import java.awt.Rectangle;
+
+/**
+ * The summary of a Node's branch that the Node keeps up to date as the
+ * tree changes: how many Nodes it has, how many levels deep it goes and
+ * the smallest box around all of their bounds.
+ * <br>
+ * A branch's summary is built from contributions: the Node itself
+ * contributes a height of 0 and its own bounds, and each child
+ * contributes its height plus one and its own branch's box. Alongside the
+ * height and each edge of the box the summary counts how many
+ * contributions reach it. When a contribution is lost the height or edge
+ * it reached only needs working out again from scratch if it was the last
+ * one, so in a wide branch where many children sit level with each other
+ * losing one of them costs constant time.
+ */
+final class BranchAggregate {
+
+    /**
+     * The number of Nodes in the branch.
+     */
+    int size = 1;
+
+    /**
+     * The number of levels below the Node.
+     */
+    int height;
+
+    /**
+     * Whether any Node of the branch has bounds.
+     */
+    boolean hasBox;
+
+    /**
+     * The left edge of the box.
+     */
+    int minX;
+
+    /**
+     * The top edge of the box.
+     */
+    int minY;
+
+    /**
+     * The right edge of the box.
+     */
+    int maxX;
+
+    /**
+     * The bottom edge of the box.
+     */
+    int maxY;
+
+    /**
+     * The number of contributions reaching the height, counting the Node's
+     * own.
+     */
+    private int atHeight = 1;
+
+    /**
+     * The number of contributions reaching the left edge.
+     */
+    private int atMinX;
+
+    /**
+     * The number of contributions reaching the top edge.
+     */
+    private int atMinY;
+
+    /**
+     * The number of contributions reaching the right edge.
+     */
+    private int atMaxX;
+
+    /**
+     * The number of contributions reaching the bottom edge.
+     */
+    private int atMaxY;
+
+    /**
+     * Whether a contribution changed in a way that couldn't be taken away,
+     * so that only rescan() can bring the summary up to date.
+     */
+    private boolean stale;
+
+    /**
+     * Creates the summary of a branch holding a single Node.
+     *
+     * @param bounds The bounds of the Node, or null.
+     */
+    BranchAggregate(final Rectangle bounds) {
+        gain(0, bounds);
+    }
+
+    /**
+     * Creates a copy of a summary.
+     *
+     * @param other The summary to copy.
+     */
+    BranchAggregate(final BranchAggregate other) {
+        copy(other);
+    }
+
+    /**
+     * Makes this summary a copy of another.
+     *
+     * @param other The summary to copy.
+     */
+    void copy(final BranchAggregate other) {
+        size = other.size;
+        height = other.height;
+        hasBox = other.hasBox;
+        minX = other.minX;
+        minY = other.minY;
+        maxX = other.maxX;
+        maxY = other.maxY;
+        atHeight = other.atHeight;
+        atMinX = other.atMinX;
+        atMinY = other.atMinY;
+        atMaxX = other.atMaxX;
+        atMaxY = other.atMaxY;
+        stale = other.stale;
+    }
+
+    /**
+     * Returns true if this summary has the same height and box as another,
+     * in which case the summaries above it have nothing to change.
+     *
+     * @param other The other summary.
+     * @return true if the height and box match, false otherwise.
+     */
+    boolean sameShape(final BranchAggregate other) {
+        return height == other.height && hasBox == other.hasBox
+               && (!hasBox || (minX == other.minX && minY == other.minY
+                               && maxX == other.maxX && maxY == other.maxY));
+    }
+
+    /**
+     * Retrieves the box of the branch.
+     *
+     * @return A new Rectangle holding the box, or null if no Node of the
+     * branch has bounds.
+     */
+    Rectangle getBox() {
+        return hasBox ? new Rectangle(minX, minY, maxX - minX, maxY - minY)
+                      : null;
+    }
+
+    /**
+     * Takes in a child's branch as a contribution.
+     *
+     * @param child The summary of the child's branch.
+     */
+    void gainChild(final BranchAggregate child) {
+        gain(child.height + 1, child.hasBox, child.minX, child.minY,
+             child.maxX, child.maxY);
+    }
+
+    /**
+     * Takes away a contribution from a child's branch.
+     *
+     * @param child The summary the child's branch had when it contributed.
+     */
+    void loseChild(final BranchAggregate child) {
+        lose(child.height + 1, child.hasBox, child.minX, child.minY,
+             child.maxX, child.maxY);
+    }
+
+    /**
+     * Takes in a contribution from a single box.
+     *
+     * @param h The height contributed.
+     * @param b The box contributed, or null.
+     */
+    void gain(final int h, final Rectangle b) {
+        if (b == null) {
+            gain(h, false, 0, 0, 0, 0);
+        } else {
+            gain(h, true, b.x, b.y, b.x + b.width, b.y + b.height);
+        }
+    }
+
+    /**
+     * Takes away a contribution from a single box.
+     *
+     * @param h The height contributed.
+     * @param b The box contributed, or null.
+     */
+    void lose(final int h, final Rectangle b) {
+        if (b == null) {
+            lose(h, false, 0, 0, 0, 0);
+        } else {
+            lose(h, true, b.x, b.y, b.x + b.width, b.y + b.height);
+        }
+    }
+
+    /**
+     * Returns true if a contribution that reached the height or an edge of
+     * the box has been lost with nothing else left reaching it, so that
+     * the summary must be worked out again with rescan().
+     *
+     * @return true if the summary is out of date, false otherwise.
+     */
+    boolean isStale() {
+        return stale || atHeight <= 0 || (hasBox && (atMinX <= 0 || atMinY <= 0
+                                            || atMaxX <= 0 || atMaxY <= 0));
+    }
+
+    /**
+     * Marks the summary as out of date, for when a contribution has
+     * changed in a way that can't be taken away, such as bounds changed in
+     * place.
+     */
+    void markStale() {
+        stale = true;
+    }
+
+    /**
+     * Works out the height and box again from the Node's own bounds and
+     * its children's summaries. This takes time proportional to the number
+     * of children.
+     *
+     * @param n The Node whose summary this is.
+     * @param children The Node's children.
+     */
+    void rescan(final Node n, final Iterable<Node> children) {
+        height = 0;
+        atHeight = 0;
+        hasBox = false;
+        stale = false;
+        gain(0, n.getBounds());
+        for (Node child: children) {
+            gainChild(child.getAggregate());
+        }
+    }
+
+    /**
+     * Takes in a contribution.
+     *
+     * @param h The height contributed.
+     * @param box Whether a box is contributed.
+     * @param x1 The left edge of the box.
+     * @param y1 The top edge of the box.
+     * @param x2 The right edge of the box.
+     * @param y2 The bottom edge of the box.
+     */
+    private void gain(final int h, final boolean box, final int x1,
+                      final int y1, final int x2, final int y2) {
+        if (h > height) {
+            height = h;
+            atHeight = 1;
+        } else if (h == height) {
+            atHeight++;
+        }
+        if (!box) {
+            return;
+        }
+        if (!hasBox) {
+            hasBox = true;
+            minX = x1;
+            minY = y1;
+            maxX = x2;
+            maxY = y2;
+            atMinX = 1;
+            atMinY = 1;
+            atMaxX = 1;
+            atMaxY = 1;
+            return;
+        }
+        if (x1 < minX) {
+            minX = x1;
+            atMinX = 1;
+        } else if (x1 == minX) {
+            atMinX++;
+        }
+        if (y1 < minY) {
+            minY = y1;
+            atMinY = 1;
+        } else if (y1 == minY) {
+            atMinY++;
+        }
+        if (x2 > maxX) {
+            maxX = x2;
+            atMaxX = 1;
+        } else if (x2 == maxX) {
+            atMaxX++;
+        }
+        if (y2 > maxY) {
+            maxY = y2;
+            atMaxY = 1;
+        } else if (y2 == maxY) {
+            atMaxY++;
+        }
+    }
+
+    /**
+     * Takes away a contribution, which must have been taken in before.
+     *
+     * @param h The height contributed.
+     * @param box Whether a box was contributed.
+     * @param x1 The left edge of the box.
+     * @param y1 The top edge of the box.
+     * @param x2 The right edge of the box.
+     * @param y2 The bottom edge of the box.
+     */
+    private void lose(final int h, final boolean box, final int x1,
+                      final int y1, final int x2, final int y2) {
+        if (h == height) {
+            atHeight--;
+        }
+        if (!box || !hasBox) {
+            return;
+        }
+        if (x1 == minX) {
+            atMinX--;
+        }
+        if (y1 == minY) {
+            atMinY--;
+        }
+        if (x2 == maxX) {
+            atMaxX--;
+        }
+        if (y2 == maxY) {
+            atMaxY--;
+        }
+    }
+}
@@ -0,0 +1,661 @@
+package brainstorm;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The list of a Node's children. Most Nodes have only a few children, so
+ * they are kept in an ArrayList. Once a Node has more than TREE_THRESHOLD
+ * children, the list switches to a balanced tree ordered by position (a
+ * treap, where every entry also has a random priority that keeps the tree
+ * balanced). Each entry knows its parent entry, and each child knows its
+ * entry, so finding a child's index, removing a child and adding one at any
+ * position all take time proportional to the log of the number of
+ * children instead of shifting or scanning the whole list. The list goes
+ * back to an ArrayList when it shrinks below ARRAY_THRESHOLD.
+ * <br>
+ * Nodes don't override equals(), so a child is looked up by identity.
+ */
+class ChildList extends AbstractList<Node> {
+
+    /**
+     * Lists longer than this are kept as a tree.
+     */
+    static final int TREE_THRESHOLD = 256;
+
+    /**
+     * Tree lists shorter than this go back to being ArrayLists. This is
+     * well below TREE_THRESHOLD so that a list whose size hovers around
+     * one threshold doesn't keep switching.
+     */
+    static final int ARRAY_THRESHOLD = 64;
+
+    /**
+     * The children while the list is short, or null while it is a tree.
+     */
+    private ArrayList<Node> array = new ArrayList<Node>(5);
+
+    /**
+     * The top entry of the tree while the list is long.
+     */
+    private Slot top;
+
+    /**
+     * The entry for one child while the list is a tree.
+     */
+    static final class Slot {
+
+        /**
+         * The child.
+         */
+        private Node node;
+
+        /**
+         * The entries before and after this one, below it in the tree.
+         */
+        private Slot left, right;
+
+        /**
+         * The entry above this one, or null for the top entry.
+         */
+        private Slot up;
+
+        /**
+         * The number of entries at or below this one.
+         */
+        private int size = 1;
+
+        /**
+         * The random priority. Every entry has a higher priority than the
+         * entries below it.
+         */
+        private final int priority = ThreadLocalRandom.current().nextInt();
+
+        /**
+         * Creates an entry for a child.
+         *
+         * @param node The child.
+         */
+        private Slot(final Node node) {
+            this.node = node;
+            node.setChildSlot(this);
+        }
+    }
+
+    @Override
+    public int size() {
+        if (array != null) {
+            return array.size();
+        }
+        return top.size;
+    }
+
+    @Override
+    public Node get(final int index) {
+        if (array != null) {
+            return array.get(index);
+        }
+        return slotAt(index).node;
+    }
+
+    @Override
+    public Node set(final int index, final Node n) {
+        if (array != null) {
+            return array.set(index, n);
+        }
+        Slot s = slotAt(index);
+        Node old = s.node;
+        old.setChildSlot(null);
+        s.node = n;
+        n.setChildSlot(s);
+        return old;
+    }
+
+    @Override
+    public void add(final int index, final Node n) {
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+        modCount++;
+        if (array != null) {
+            array.add(index, n);
+            if (array.size() > TREE_THRESHOLD) {
+                toTree();
+            }
+            return;
+        }
+        Slot s = new Slot(n);
+        Slot[] parts = split(top, index);
+        top = merge(merge(parts[0], s), parts[1]);
+        top.up = null;
+    }
+
+    @Override
+    public boolean addAll(final int index,
+                          final Collection<? extends Node> nodes) {
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+        if (nodes.isEmpty()) {
+            return false;
+        }
+        modCount++;
+        if (array != null) {
+            array.addAll(index, nodes);
+            if (array.size() > TREE_THRESHOLD) {
+                toTree();
+            }
+            return true;
+        }
+        // Build a tree of the new children in one go and splice it in,
+        // rather than adding them one at a time.
+        Slot run = build(new ArrayList<Node>(nodes));
+        Slot[] parts = split(top, index);
+        top = merge(merge(parts[0], run), parts[1]);
+        top.up = null;
+        return true;
+    }
+
+    @Override
+    public Node remove(final int index) {
+        if (array != null) {
+            modCount++;
+            return array.remove(index);
+        }
+        Slot s = slotAt(index);
+        Node n = s.node;
+        unlink(s);
+        return n;
+    }
+
+    @Override
+    public boolean remove(final Object o) {
+        if (array != null) {
+            int index = indexOf(o);
+            if (index < 0) {
+                return false;
+            }
+            modCount++;
+            array.remove(index);
+            return true;
+        }
+        Slot s = slotOf(o);
+        if (s == null) {
+            return false;
+        }
+        unlink(s);
+        return true;
+    }
+
+    @Override
+    protected void removeRange(final int from, final int to) {
+        if (from >= to) {
+            return;
+        }
+        modCount++;
+        if (array != null) {
+            array.subList(from, to).clear();
+            return;
+        }
+        Slot[] head = split(top, from);
+        Slot[] tail = split(head[1], to - from);
+        forget(tail[0]);
+        top = merge(head[0], tail[1]);
+        if (top == null) {
+            array = new ArrayList<Node>(5);
+            return;
+        }
+        top.up = null;
+        shrinkIfSmall();
+    }
+
+    @Override
+    public void clear() {
+        modCount++;
+        if (array != null) {
+            array.clear();
+            return;
+        }
+        forget(top);
+        top = null;
+        array = new ArrayList<Node>(5);
+    }
+
+    @Override
+    public int indexOf(final Object o) {
+        if (array != null) {
+            // Nodes are compared by identity, so don't call equals().
+            for (int i = 0; i < array.size(); i++) {
+                if (array.get(i) == o) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        Slot s = slotOf(o);
+        if (s == null) {
+            return -1;
+        }
+        int index = size(s.left);
+        for (Slot cur = s; cur.up != null; cur = cur.up) {
+            if (cur.up.right == cur) {
+                index += size(cur.up.left) + 1;
+            }
+        }
+        return index;
+    }
+
+    @Override
+    public int lastIndexOf(final Object o) {
+        // A Node is never listed twice.
+        return indexOf(o);
+    }
+
+    @Override
+    public boolean contains(final Object o) {
+        if (array != null) {
+            return indexOf(o) >= 0;
+        }
+        return slotOf(o) != null;
+    }
+
+    @Override
+    public Iterator<Node> iterator() {
+        if (array != null) {
+            return super.iterator();
+        }
+        return new TreeIterator();
+    }
+
+    /**
+     * Returns whether the list is kept as a tree at the moment.
+     *
+     * @return true if the list is a tree, false if it is an ArrayList.
+     */
+    boolean isTree() {
+        return array == null;
+    }
+
+    /**
+     * Finds the entry at a position.
+     *
+     * @param index The position.
+     * @return The entry.
+     */
+    private Slot slotAt(final int index) {
+        if (index < 0 || index >= top.size) {
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+        Slot s = top;
+        int i = index;
+        while (true) {
+            int leftSize = size(s.left);
+            if (i < leftSize) {
+                s = s.left;
+            } else if (i == leftSize) {
+                return s;
+            } else {
+                i -= leftSize + 1;
+                s = s.right;
+            }
+        }
+    }
+
+    /**
+     * Finds the entry of a child of this list.
+     *
+     * @param o The possible child.
+     * @return Its entry, or null if it isn't in this list.
+     */
+    private Slot slotOf(final Object o) {
+        if (!(o instanceof Node)) {
+            return null;
+        }
+        Slot s = ((Node) o).getChildSlot();
+        if (s == null) {
+            return null;
+        }
+        Slot cur = s;
+        while (cur.up != null) {
+            cur = cur.up;
+        }
+        return cur == top ? s : null;
+    }
+
+    /**
+     * Takes an entry out of the tree by joining the entries below it in
+     * its place.
+     *
+     * @param s The entry.
+     */
+    private void unlink(final Slot s) {
+        modCount++;
+        Slot joined = merge(s.left, s.right);
+        Slot p = s.up;
+        if (joined != null) {
+            joined.up = p;
+        }
+        if (p == null) {
+            top = joined;
+        } else if (p.left == s) {
+            p.left = joined;
+        } else {
+            p.right = joined;
+        }
+        for (Slot q = p; q != null; q = q.up) {
+            q.size--;
+        }
+        s.node.setChildSlot(null);
+        s.left = null;
+        s.right = null;
+        s.up = null;
+        if (top == null) {
+            array = new ArrayList<Node>(5);
+        } else {
+            shrinkIfSmall();
+        }
+    }
+
+    /**
+     * Splits a tree in two by position.
+     *
+     * @param t The top of the tree, or null.
+     * @param count The number of entries that go in the first part.
+     * @return The tops of the first and second parts, either of which may
+     * be null.
+     */
+    private static Slot[] split(final Slot t, final int count) {
+        if (t == null) {
+            return new Slot[] {null, null};
+        }
+        Slot[] parts;
+        if (size(t.left) >= count) {
+            parts = split(t.left, count);
+            t.left = parts[1];
+            if (t.left != null) {
+                t.left.up = t;
+            }
+            pull(t);
+            parts[1] = t;
+        } else {
+            parts = split(t.right, count - size(t.left) - 1);
+            t.right = parts[0];
+            if (t.right != null) {
+                t.right.up = t;
+            }
+            pull(t);
+            parts[0] = t;
+        }
+        if (parts[0] != null) {
+            parts[0].up = null;
+        }
+        if (parts[1] != null) {
+            parts[1].up = null;
+        }
+        return parts;
+    }
+
+    /**
+     * Joins two trees, with every entry of the first coming before every
+     * entry of the second.
+     *
+     * @param a The top of the first tree, or null.
+     * @param b The top of the second tree, or null.
+     * @return The top of the joined tree.
+     */
+    private static Slot merge(final Slot a, final Slot b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            a.right.up = a;
+            pull(a);
+            return a;
+        }
+        b.left = merge(a, b.left);
+        b.left.up = b;
+        pull(b);
+        return b;
+    }
+
+    /**
+     * Builds a tree from a list of Nodes in one pass. Each Node is given
+     * an entry and the entries are arranged by priority using a stack of
+     * the entries down the right-hand edge of the tree built so far.
+     *
+     * @param nodes The Nodes, in order.
+     * @return The top of the new tree, or null if there are no Nodes.
+     */
+    private static Slot build(final ArrayList<Node> nodes) {
+        Slot[] edge = new Slot[32];
+        int depth = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            Slot s = new Slot(nodes.get(i));
+            Slot last = null;
+            while (depth > 0 && edge[depth - 1].priority < s.priority) {
+                last = edge[--depth];
+            }
+            s.left = last;
+            if (last != null) {
+                last.up = s;
+            }
+            if (depth > 0) {
+                edge[depth - 1].right = s;
+                s.up = edge[depth - 1];
+            }
+            if (depth == edge.length) {
+                edge = Arrays.copyOf(edge, depth * 2);
+            }
+            edge[depth++] = s;
+        }
+        if (depth == 0) {
+            return null;
+        }
+        fixSizes(edge[0]);
+        return edge[0];
+    }
+
+    /**
+     * Works out the size of every entry of a tree, children before
+     * parents, without calling itself.
+     *
+     * @param root The top of the tree.
+     */
+    private static void fixSizes(final Slot root) {
+        Slot cur = root;
+        Slot prev = null;
+        while (cur != null) {
+            Slot next;
+            if (prev == cur.up) {
+                // Arrived from above, so go down the left side first.
+                if (cur.left != null) {
+                    next = cur.left;
+                } else if (cur.right != null) {
+                    next = cur.right;
+                } else {
+                    next = cur.up;
+                }
+            } else if (prev == cur.left && cur.right != null) {
+                next = cur.right;
+            } else {
+                next = cur.up;
+            }
+            if (next == cur.up) {
+                // Both sides are done.
+                pull(cur);
+            }
+            prev = cur;
+            cur = next;
+        }
+    }
+
+    /**
+     * Turns an ArrayList into a tree.
+     */
+    private void toTree() {
+        ArrayList<Node> nodes = array;
+        array = null;
+        top = build(nodes);
+    }
+
+    /**
+     * Turns a tree which has become small back into an ArrayList.
+     */
+    private void shrinkIfSmall() {
+        if (top.size >= ARRAY_THRESHOLD) {
+            return;
+        }
+        ArrayList<Node> nodes = new ArrayList<Node>(Math.max(5, top.size));
+        for (Slot s = leftmost(top); s != null; s = successor(s)) {
+            nodes.add(s.node);
+        }
+        forget(top);
+        top = null;
+        array = nodes;
+    }
+
+    /**
+     * Clears the entries of a tree out of their Nodes.
+     *
+     * @param t The top of the tree, which has nothing above it, or null.
+     */
+    private static void forget(final Slot t) {
+        if (t == null) {
+            return;
+        }
+        for (Slot s = leftmost(t); s != null; s = successor(s)) {
+            s.node.setChildSlot(null);
+        }
+    }
+
+    /**
+     * Works out the size of an entry from the entries below it.
+     *
+     * @param s The entry.
+     */
+    private static void pull(final Slot s) {
+        s.size = 1 + size(s.left) + size(s.right);
+    }
+
+    /**
+     * Returns the size of a possibly missing tree.
+     *
+     * @param s The top of the tree, or null.
+     * @return Its number of entries.
+     */
+    private static int size(final Slot s) {
+        return s == null ? 0 : s.size;
+    }
+
+    /**
+     * Finds the first entry of a tree.
+     *
+     * @param t The top of the tree.
+     * @return The first entry.
+     */
+    private static Slot leftmost(final Slot t) {
+        Slot s = t;
+        while (s.left != null) {
+            s = s.left;
+        }
+        return s;
+    }
+
+    /**
+     * Finds the entry after another one.
+     *
+     * @param s The entry.
+     * @return The next entry, or null if s is the last.
+     */
+    private static Slot successor(final Slot s) {
+        if (s.right != null) {
+            return leftmost(s.right);
+        }
+        Slot cur = s;
+        while (cur.up != null && cur.up.right == cur) {
+            cur = cur.up;
+        }
+        return cur.up;
+    }
+
+    /**
+     * Walks the tree in order by following parent and child links, which
+     * takes constant time per child on average.
+     */
+    private final class TreeIterator implements Iterator<Node> {
+
+        /**
+         * The position of the child next() returns next.
+         */
+        private int cursor;
+
+        /**
+         * The entry of the child next() returns next, or null if it has to
+         * be looked up again.
+         */
+        private Slot nextSlot = top == null ? null : leftmost(top);
+
+        /**
+         * The position of the child next() returned last, or -1.
+         */
+        private int lastIndex = -1;
+
+        /**
+         * The modification count the list should still have.
+         */
+        private int expected = modCount;
+
+        @Override
+        public boolean hasNext() {
+            return cursor < size();
+        }
+
+        @Override
+        public Node next() {
+            if (modCount != expected) {
+                throw new ConcurrentModificationException();
+            }
+            if (cursor >= size()) {
+                throw new NoSuchElementException();
+            }
+            Node n;
+            if (isTree()) {
+                if (nextSlot == null) {
+                    nextSlot = slotAt(cursor);
+                }
+                n = nextSlot.node;
+                nextSlot = successor(nextSlot);
+            } else {
+                // The list went back to an ArrayList during a remove().
+                n = array.get(cursor);
+            }
+            lastIndex = cursor++;
+            return n;
+        }
+
+        @Override
+        public void remove() {
+            if (lastIndex < 0) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expected) {
+                throw new ConcurrentModificationException();
+            }
+            ChildList.this.remove(lastIndex);
+            cursor = lastIndex;
+            lastIndex = -1;
+            nextSlot = null;
+            expected = modCount;
+        }
+    }
+}
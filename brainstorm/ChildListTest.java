@@ -0,0 +1,137 @@
+package brainstorm;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * This class contains the JUnit tests for the ChildList class.
+ *
+ */
+public class ChildListTest {
+
+    /**
+     * This test makes random inserts, removes and range removes on a list
+     * whose size wanders back and forth across both thresholds, and checks
+     * it against an ArrayList after every few steps.
+     *
+     * Tests the following methods:
+     * ChildList.add(int, Node)
+     * ChildList.addAll(int, Collection)
+     * ChildList.remove(int)
+     * ChildList.remove(Object)
+     * ChildList.indexOf(Object)
+     * ChildList.iterator()
+     */
+    @Test
+    public void testRandomEdits1() {
+        Random rand = new Random(350);
+        ChildList list = new ChildList();
+        List<Node> expected = new ArrayList<Node>();
+        boolean wasTree = false;
+
+        for (int step = 0; step < 20000; step++) {
+            // Grow for a while, then shrink, so both thresholds are crossed.
+            boolean grow = (step / 2500) % 2 == 0;
+            int action = rand.nextInt(10);
+            if (grow ? action < 6 : action < 2) {
+                Node n = new Node("n" + step, "");
+                int index = rand.nextInt(expected.size() + 1);
+                list.add(index, n);
+                expected.add(index, n);
+            } else if (action == 6 && grow) {
+                List<Node> run = new ArrayList<Node>();
+                for (int i = rand.nextInt(40); i > 0; i--) {
+                    run.add(new Node("r" + step, ""));
+                }
+                int index = rand.nextInt(expected.size() + 1);
+                list.addAll(index, run);
+                expected.addAll(index, run);
+            } else if (expected.isEmpty()) {
+                continue;
+            } else if (action % 3 == 0) {
+                int index = rand.nextInt(expected.size());
+                assertTrue(list.remove(index) == expected.remove(index));
+            } else if (action % 3 == 1) {
+                Node n = expected.remove(rand.nextInt(expected.size()));
+                assertTrue(list.remove(n));
+                assertFalse(list.remove(n));
+            } else {
+                int from = rand.nextInt(expected.size());
+                int to = Math.min(expected.size(),
+                                  from + rand.nextInt(30));
+                list.subList(from, to).clear();
+                expected.subList(from, to).clear();
+            }
+            wasTree |= list.isTree();
+
+            if (step % 100 == 0) {
+                check(list, expected);
+            }
+        }
+        check(list, expected);
+        assertTrue(wasTree);
+    }
+
+    /**
+     * This test removes and reinserts children of a node with a very large
+     * number of children and checks their order and indexes.
+     *
+     * Tests the following methods:
+     * Node.addChild(int, Node)
+     * Node.removeChild(Node)
+     * Node.indexOfChild(Node)
+     */
+    @Test
+    public void testWideNode1() {
+        Node hub = new Node("hub", "");
+        List<Node> expected = new ArrayList<Node>();
+        for (int i = 0; i < 100000; i++) {
+            Node n = new Node("" + i, "");
+            hub.addChild(n);
+            expected.add(n);
+        }
+        for (int i = 0; i < 100000; i += 7) {
+            Node n = expected.get(i);
+            assertEquals(i, hub.indexOfChild(n));
+        }
+        // Move every tenth child to the front, which is cheap for a tree.
+        for (int i = 0; i < 100000; i += 10) {
+            Node n = expected.get(i);
+            assertTrue(hub.removeChild(n));
+            assertEquals(-1, hub.indexOfChild(n));
+            assertTrue(hub.addChild(0, n));
+        }
+        assertEquals(100000, hub.getNumChildren());
+        assertTrue(hub.getChild(0) == expected.get(99990));
+        assertEquals(10000, hub.indexOfChild(expected.get(1)));
+        assertTrue(hub.getChild(9999) == expected.get(0));
+    }
+
+    /**
+     * Checks that a ChildList holds the same Nodes as a plain list, in the
+     * same order.
+     *
+     * @param list The list under test.
+     * @param expected The Nodes it should hold.
+     */
+    private void check(final ChildList list, final List<Node> expected) {
+        assertEquals(expected.size(), list.size());
+        Iterator<Node> it = list.iterator();
+        for (int i = 0; i < expected.size(); i++) {
+            Node n = expected.get(i);
+            assertTrue(it.next() == n);
+            if (i % 13 == 0) {
+                assertTrue(list.get(i) == n);
+                assertEquals(i, list.indexOf(n));
+            }
+        }
+        assertFalse(it.hasNext());
+    }
+}
@@ -0,0 +1,938 @@
+package brainstorm;
+
+import java.awt.Rectangle;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The undo and redo history of a BPlusTree. Every change made through the
+ * tree, and every change to the name, content or bounds of one of its
+ * Nodes, is recorded as a small edit which knows how to reverse itself.
+ * An edit holds only the Nodes it touched and the values it replaced, never
+ * a copy of the tree, so undoing or redoing one takes time proportional to
+ * the size of that change.
+ * <br>
+ * Typing into a Node makes a change for every key. Changes to the same
+ * field of the same Node which come within a short time of each other are
+ * merged into a single edit, so one undo takes back a whole burst of
+ * typing.
+ * <br>
+ * The history keeps a rough count of the memory its edits hold on to. When
+ * that goes over the budget, the oldest edits are forgotten.
+ * <br>
+ * Edits undo correctly only if the tree is changed through BPlusTree and
+ * the Node setters. Changing the children of a Node in the tree directly
+ * bypasses the history.
+ */
+public class EditHistory {
+
+    /**
+     * The default memory budget, in bytes.
+     */
+    public static final long DEFAULT_BUDGET = 8L << 20;
+
+    /**
+     * The default time, in milliseconds, within which edits to the same
+     * field of a Node are merged.
+     */
+    public static final long DEFAULT_COALESCE_MILLIS = 1000;
+
+    /**
+     * The rough size of an edit, not counting the text or Nodes it holds.
+     */
+    private static final int EDIT_COST = 48;
+
+    /**
+     * The rough size of a Node kept alive by the history.
+     */
+    private static final int NODE_COST = 256;
+
+    /**
+     * The tree whose history this is.
+     */
+    private final BPlusTree tree;
+
+    /**
+     * The edits that can be undone, with the newest last.
+     */
+    private final ArrayDeque<Edit> undoStack = new ArrayDeque<Edit>();
+
+    /**
+     * The edits that can be redone, with the next one to redo last.
+     */
+    private final ArrayDeque<Edit> redoStack = new ArrayDeque<Edit>();
+
+    /**
+     * The rough number of bytes held by both stacks.
+     */
+    private long used;
+
+    /**
+     * The most bytes the stacks may hold.
+     */
+    private long budget = DEFAULT_BUDGET;
+
+    /**
+     * The time within which edits to the same field are merged.
+     */
+    private long coalesceMillis = DEFAULT_COALESCE_MILLIS;
+
+    /**
+     * Whether the history is undoing or redoing an edit, during which the
+     * changes it makes are not recorded.
+     */
+    private boolean applying;
+
+    /**
+     * For each thread which has paused the history, the number of its
+     * calls to pause() which haven't been matched by resume().
+     */
+    private final Map<Thread, Integer> paused =
+            new IdentityHashMap<Thread, Integer>();
+
+    /**
+     * The number of calls to beginGroup() which haven't been matched by
+     * endGroup().
+     */
+    private int groupDepth;
+
+    /**
+     * The edits recorded since the outermost beginGroup(), or null if no
+     * group is open.
+     */
+    private Group openGroup;
+
+    /**
+     * Creates an empty history for a tree.
+     *
+     * @param tree The tree whose history this is.
+     */
+    EditHistory(final BPlusTree tree) {
+        this.tree = tree;
+    }
+
+    /**
+     * Returns whether there is an edit to undo.
+     *
+     * @return true if undo() would do something.
+     */
+    public boolean canUndo() {
+        tree.readLock().lock();
+        try {
+            return !undoStack.isEmpty();
+        } finally {
+            tree.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns whether there is an edit to redo.
+     *
+     * @return true if redo() would do something.
+     */
+    public boolean canRedo() {
+        tree.readLock().lock();
+        try {
+            return !redoStack.isEmpty();
+        } finally {
+            tree.readLock().unlock();
+        }
+    }
+
+    /**
+     * Undoes the newest edit.
+     *
+     * @return true if an edit was undone, false if there was none.
+     */
+    public boolean undo() {
+        tree.writeLock().lock();
+        try {
+            Edit e = undoStack.pollLast();
+            if (e == null) {
+                return false;
+            }
+            applying = true;
+            try {
+                e.undo();
+            } finally {
+                applying = false;
+            }
+            redoStack.addLast(e);
+            return true;
+        } finally {
+            tree.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Redoes the edit which was undone last.
+     *
+     * @return true if an edit was redone, false if there was none.
+     */
+    public boolean redo() {
+        tree.writeLock().lock();
+        try {
+            Edit e = redoStack.pollLast();
+            if (e == null) {
+                return false;
+            }
+            applying = true;
+            try {
+                e.redo();
+            } finally {
+                applying = false;
+            }
+            undoStack.addLast(e);
+            return true;
+        } finally {
+            tree.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forgets every edit.
+     */
+    public void clear() {
+        tree.writeLock().lock();
+        try {
+            undoStack.clear();
+            redoStack.clear();
+            used = 0;
+        } finally {
+            tree.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stops recording the changes made by the calling thread until it
+     * calls resume(). Calls can be nested. Use this while changes are made
+     * that the user shouldn't be able to undo, such as when a file is
+     * loaded. Changes made by other threads meanwhile are still recorded.
+     */
+    public void pause() {
+        tree.writeLock().lock();
+        try {
+            Thread t = Thread.currentThread();
+            Integer count = paused.get(t);
+            paused.put(t, count == null ? 1 : count + 1);
+        } finally {
+            tree.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Starts recording the calling thread's changes again after pause().
+     */
+    public void resume() {
+        tree.writeLock().lock();
+        try {
+            Thread t = Thread.currentThread();
+            Integer count = paused.get(t);
+            if (count != null && count > 1) {
+                paused.put(t, count - 1);
+            } else {
+                paused.remove(t);
+            }
+        } finally {
+            tree.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Starts gathering the changes that follow into a single edit, which
+     * is undone and redone as a whole. Calls can be nested; the group ends
+     * at the outermost endGroup().
+     */
+    void beginGroup() {
+        if (groupDepth++ == 0) {
+            openGroup = new Group();
+        }
+    }
+
+    /**
+     * Ends a beginGroup() call. When the outermost group ends, the changes
+     * gathered are added to the history as one edit.
+     */
+    void endGroup() {
+        if (groupDepth > 0 && --groupDepth == 0) {
+            Group g = openGroup;
+            openGroup = null;
+            if (!g.edits.isEmpty()) {
+                g.close();
+                push(g);
+            }
+        }
+    }
+
+    /**
+     * Sets the most memory the history may hold on to. The oldest edits
+     * are forgotten right away if it is already over.
+     *
+     * @param bytes The budget, in rough bytes.
+     */
+    public void setBudget(final long bytes) {
+        tree.writeLock().lock();
+        try {
+            this.budget = bytes;
+            trim();
+        } finally {
+            tree.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the most memory the history may hold on to.
+     *
+     * @return The budget, in rough bytes.
+     */
+    public long getBudget() {
+        tree.readLock().lock();
+        try {
+            return budget;
+        } finally {
+            tree.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the rough amount of memory the history holds on to now.
+     *
+     * @return The number of rough bytes in use.
+     */
+    public long getUsed() {
+        tree.readLock().lock();
+        try {
+            return used;
+        } finally {
+            tree.readLock().unlock();
+        }
+    }
+
+    /**
+     * Sets how close together edits to the same field of a Node must be to
+     * be merged. Zero turns merging off.
+     *
+     * @param millis The time in milliseconds.
+     */
+    public void setCoalesceMillis(final long millis) {
+        tree.writeLock().lock();
+        try {
+            this.coalesceMillis = millis;
+        } finally {
+            tree.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Records that a Node was added to the tree.
+     *
+     * @param parent The Node it was added under.
+     * @param child The base of the added branch.
+     * @param index The index it was added at.
+     */
+    void added(final Node parent, final Node child, final int index) {
+        record(new Added(parent, child, index));
+    }
+
+    /**
+     * Records that a Node was moved to a new parent.
+     *
+     * @param child The Node that moved.
+     * @param oldParent Its parent before the move.
+     * @param oldIndex Its index among the old parent's children.
+     * @param newIndex Its index among the new parent's children.
+     */
+    void moved(final Node child, final Node oldParent, final int oldIndex,
+               final int newIndex) {
+        record(new Moved(child, oldParent, oldIndex, newIndex));
+    }
+
+    /**
+     * Records that a branch was deleted from the tree.
+     *
+     * @param parent The parent the branch was under.
+     * @param branch The base of the branch.
+     * @param index The index of the branch among the parent's children.
+     * @param size The number of Nodes in the branch.
+     */
+    void deleted(final Node parent, final Node branch, final int index,
+                 final int size) {
+        record(new Deleted(parent, branch, index, size));
+    }
+
+    /**
+     * Records that a Node was removed and its children given to its parent.
+     *
+     * @param n The removed Node.
+     * @param parent Its parent.
+     * @param index Its index among its parent's children.
+     * @param hoisted The number of children it had.
+     */
+    void removed(final Node n, final Node parent, final int index,
+                 final int hoisted) {
+        record(new Removed(n, parent, index, hoisted));
+    }
+
+    /**
+     * Records that the name of a Node changed.
+     *
+     * @param n The Node.
+     * @param oldName Its name before the change.
+     */
+    void renamed(final Node n, final String oldName) {
+        if (!Objects.equals(oldName, n.getName())) {
+            record(new TextChanged(n, true, oldName, n.getName()));
+        }
+    }
+
+    /**
+     * Records that the content of a Node changed.
+     *
+     * @param n The Node.
+     * @param oldContent Its content before the change.
+     */
+    void contentChanged(final Node n, final String oldContent) {
+        if (!Objects.equals(oldContent, n.getContent())) {
+            record(new TextChanged(n, false, oldContent, n.getContent()));
+        }
+    }
+
+    /**
+     * Records that the bounds of a Node changed.
+     *
+     * @param n The Node.
+     * @param oldBounds Its bounds before the change.
+     */
+    void boundsChanged(final Node n, final Rectangle oldBounds) {
+        if (!Objects.equals(oldBounds, n.getBounds())) {
+            record(new BoundsChanged(n, oldBounds, n.getBounds()));
+        }
+    }
+
+    /**
+     * Adds an edit to the history, merging it into the newest edit if it
+     * can be, and throws away anything that could have been redone.
+     *
+     * @param e The new edit.
+     */
+    private void record(final Edit e) {
+        if (applying || (!paused.isEmpty()
+                         && paused.containsKey(Thread.currentThread()))) {
+            return;
+        }
+        for (Edit r: redoStack) {
+            used -= r.cost();
+        }
+        redoStack.clear();
+
+        if (openGroup != null) {
+            openGroup.add(e);
+        } else {
+            push(e);
+        }
+    }
+
+    /**
+     * Adds an edit to the top of the undo stack, merging it into the
+     * newest edit if it can be.
+     *
+     * @param e The new edit.
+     */
+    private void push(final Edit e) {
+        Edit last = undoStack.peekLast();
+        if (last != null) {
+            long before = last.cost();
+            if (last.absorb(e)) {
+                used += last.cost() - before;
+                trim();
+                return;
+            }
+        }
+        undoStack.addLast(e);
+        used += e.cost();
+        trim();
+    }
+
+    /**
+     * Forgets the oldest edits until the history is within its budget. The
+     * newest edit is always kept.
+     */
+    private void trim() {
+        while (used > budget && undoStack.size() > 1) {
+            used -= undoStack.pollFirst().cost();
+        }
+    }
+
+    /**
+     * The rough size of a String held by an edit.
+     *
+     * @param s The String, or null.
+     * @return The rough number of bytes.
+     */
+    private static int textCost(final String s) {
+        return s == null ? 0 : 40 + 2 * s.length();
+    }
+
+    /**
+     * One reversible change to the tree.
+     */
+    private abstract class Edit {
+
+        /**
+         * Reverses the change.
+         */
+        abstract void undo();
+
+        /**
+         * Makes the change again.
+         */
+        abstract void redo();
+
+        /**
+         * Returns the rough memory the edit holds on to.
+         *
+         * @return The rough number of bytes.
+         */
+        abstract long cost();
+
+        /**
+         * Merges a newer edit into this one if they belong together.
+         *
+         * @param next The newer edit.
+         * @return true if it was merged and needn't be kept on its own.
+         */
+        boolean absorb(final Edit next) {
+            return false;
+        }
+    }
+
+    /**
+     * A run of edits which are undone and redone together.
+     */
+    private final class Group extends Edit {
+
+        /**
+         * The edits, oldest first.
+         */
+        private final List<Edit> edits = new ArrayList<Edit>();
+
+        /**
+         * The total cost of the edits, worked out once the group is closed.
+         */
+        private long total;
+
+        /**
+         * Adds an edit to the group, merging it into the last one if it
+         * can be.
+         *
+         * @param e The edit.
+         */
+        private void add(final Edit e) {
+            if (edits.isEmpty() || !edits.get(edits.size() - 1).absorb(e)) {
+                edits.add(e);
+            }
+        }
+
+        /**
+         * Adds up the cost of the edits once no more will be added.
+         */
+        private void close() {
+            total = EDIT_COST;
+            for (Edit e: edits) {
+                total += e.cost();
+            }
+        }
+
+        @Override
+        void undo() {
+            for (int i = edits.size() - 1; i >= 0; i--) {
+                edits.get(i).undo();
+            }
+        }
+
+        @Override
+        void redo() {
+            for (Edit e: edits) {
+                e.redo();
+            }
+        }
+
+        @Override
+        long cost() {
+            return total;
+        }
+    }
+
+    /**
+     * A branch was added to the tree.
+     */
+    private final class Added extends Edit {
+
+        /**
+         * The parent the branch was added under.
+         */
+        private final Node parent;
+
+        /**
+         * The base of the branch.
+         */
+        private final Node child;
+
+        /**
+         * The index the branch was added at.
+         */
+        private final int index;
+
+        /**
+         * Creates the edit.
+         *
+         * @param parent The parent the branch was added under.
+         * @param child The base of the branch.
+         * @param index The index the branch was added at.
+         */
+        private Added(final Node parent, final Node child, final int index) {
+            this.parent = parent;
+            this.child = child;
+            this.index = index;
+        }
+
+        @Override
+        void undo() {
+            tree.detachBranch(child);
+        }
+
+        @Override
+        void redo() {
+            tree.attachBranch(parent, child, index);
+        }
+
+        @Override
+        long cost() {
+            return EDIT_COST;
+        }
+    }
+
+    /**
+     * A Node was moved to a new parent.
+     */
+    private final class Moved extends Edit {
+
+        /**
+         * The Node that moved.
+         */
+        private final Node child;
+
+        /**
+         * Its parent before the move.
+         */
+        private final Node oldParent;
+
+        /**
+         * Its index among the old parent's children.
+         */
+        private final int oldIndex;
+
+        /**
+         * Its parent after the move.
+         */
+        private final Node newParent;
+
+        /**
+         * Its index among the new parent's children.
+         */
+        private final int newIndex;
+
+        /**
+         * Creates the edit, after the move has been made.
+         *
+         * @param child The Node that moved.
+         * @param oldParent Its parent before the move.
+         * @param oldIndex Its index among the old parent's children.
+         * @param newIndex Its index among the new parent's children.
+         */
+        private Moved(final Node child, final Node oldParent,
+                      final int oldIndex, final int newIndex) {
+            this.child = child;
+            this.oldParent = oldParent;
+            this.oldIndex = oldIndex;
+            this.newParent = child.getParent();
+            this.newIndex = newIndex;
+        }
+
+        @Override
+        void undo() {
+            tree.moveTo(oldParent, child, oldIndex);
+        }
+
+        @Override
+        void redo() {
+            tree.moveTo(newParent, child, newIndex);
+        }
+
+        @Override
+        long cost() {
+            return EDIT_COST;
+        }
+    }
+
+    /**
+     * A branch was deleted from the tree. The edit keeps the branch whole
+     * so that it can be put back.
+     */
+    private final class Deleted extends Edit {
+
+        /**
+         * The parent the branch was under.
+         */
+        private final Node parent;
+
+        /**
+         * The base of the branch.
+         */
+        private final Node branch;
+
+        /**
+         * The index of the branch among the parent's children.
+         */
+        private final int index;
+
+        /**
+         * The number of Nodes in the branch.
+         */
+        private final int size;
+
+        /**
+         * Creates the edit.
+         *
+         * @param parent The parent the branch was under.
+         * @param branch The base of the branch.
+         * @param index The index of the branch among the parent's children.
+         * @param size The number of Nodes in the branch.
+         */
+        private Deleted(final Node parent, final Node branch, final int index,
+                        final int size) {
+            this.parent = parent;
+            this.branch = branch;
+            this.index = index;
+            this.size = size;
+        }
+
+        @Override
+        void undo() {
+            tree.attachBranch(parent, branch, index);
+        }
+
+        @Override
+        void redo() {
+            tree.detachBranch(branch);
+        }
+
+        @Override
+        long cost() {
+            return EDIT_COST + (long) NODE_COST * size;
+        }
+    }
+
+    /**
+     * A Node was removed and its children were given to its parent.
+     */
+    private final class Removed extends Edit {
+
+        /**
+         * The removed Node.
+         */
+        private final Node n;
+
+        /**
+         * Its parent.
+         */
+        private final Node parent;
+
+        /**
+         * Its index among its parent's children.
+         */
+        private final int index;
+
+        /**
+         * The number of children it had.
+         */
+        private final int hoisted;
+
+        /**
+         * Creates the edit.
+         *
+         * @param n The removed Node.
+         * @param parent Its parent.
+         * @param index Its index among its parent's children.
+         * @param hoisted The number of children it had.
+         */
+        private Removed(final Node n, final Node parent, final int index,
+                        final int hoisted) {
+            this.n = n;
+            this.parent = parent;
+            this.index = index;
+            this.hoisted = hoisted;
+        }
+
+        @Override
+        void undo() {
+            tree.unremove(n, parent, index, hoisted);
+        }
+
+        @Override
+        void redo() {
+            tree.removeHoisting(n);
+        }
+
+        @Override
+        long cost() {
+            return EDIT_COST + NODE_COST;
+        }
+    }
+
+    /**
+     * The name or content of a Node changed.
+     */
+    private final class TextChanged extends Edit {
+
+        /**
+         * The Node.
+         */
+        private final Node n;
+
+        /**
+         * Whether the name changed, rather than the content.
+         */
+        private final boolean name;
+
+        /**
+         * The text before the change.
+         */
+        private final String before;
+
+        /**
+         * The text after the change.
+         */
+        private String after;
+
+        /**
+         * When the last change merged into this edit was made.
+         */
+        private long time;
+
+        /**
+         * Creates the edit.
+         *
+         * @param n The Node.
+         * @param name Whether the name changed, rather than the content.
+         * @param before The text before the change.
+         * @param after The text after the change.
+         */
+        private TextChanged(final Node n, final boolean name,
+                            final String before, final String after) {
+            this.n = n;
+            this.name = name;
+            this.before = before;
+            this.after = after;
+            this.time = System.currentTimeMillis();
+        }
+
+        @Override
+        void undo() {
+            set(before);
+        }
+
+        @Override
+        void redo() {
+            set(after);
+        }
+
+        /**
+         * Puts text into the field this edit changed.
+         *
+         * @param text The text.
+         */
+        private void set(final String text) {
+            if (name) {
+                n.setName(text);
+            } else {
+                n.setContent(text);
+            }
+        }
+
+        @Override
+        long cost() {
+            return EDIT_COST + textCost(before) + textCost(after);
+        }
+
+        @Override
+        boolean absorb(final Edit next) {
+            if (!(next instanceof TextChanged)) {
+                return false;
+            }
+            TextChanged t = (TextChanged) next;
+            if (t.n != n || t.name != name
+                    || t.time - time >= coalesceMillis) {
+                return false;
+            }
+            after = t.after;
+            time = t.time;
+            return true;
+        }
+    }
+
+    /**
+     * The bounds of a Node changed.
+     */
+    private final class BoundsChanged extends Edit {
+
+        /**
+         * The Node.
+         */
+        private final Node n;
+
+        /**
+         * The bounds before the change.
+         */
+        private final Rectangle before;
+
+        /**
+         * The bounds after the change.
+         */
+        private final Rectangle after;
+
+        /**
+         * Creates the edit. The bounds are copied, as Rectangles can be
+         * changed in place.
+         *
+         * @param n The Node.
+         * @param before The bounds before the change.
+         * @param after The bounds after the change.
+         */
+        private BoundsChanged(final Node n, final Rectangle before,
+                              final Rectangle after) {
+            this.n = n;
+            this.before = before == null ? null : new Rectangle(before);
+            this.after = after == null ? null : new Rectangle(after);
+        }
+
+        @Override
+        void undo() {
+            n.setBounds(before == null ? null : new Rectangle(before));
+        }
+
+        @Override
+        void redo() {
+            n.setBounds(after == null ? null : new Rectangle(after));
+        }
+
+        @Override
+        long cost() {
+            return EDIT_COST + 64;
+        }
+    }
+}
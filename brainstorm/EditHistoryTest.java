@@ -0,0 +1,203 @@
+package brainstorm;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+/**
+ * This class contains the JUnit tests for the EditHistory class.
+ *
+ */
+public class EditHistoryTest {
+
+    /**
+     * This test makes one of each kind of change, undoes them all and
+     * checks the tree is back where it started, then redoes them all and
+     * checks the tree matches again.
+     *
+     * Tests the following methods:
+     * EditHistory.undo()
+     * EditHistory.redo()
+     * BPlusTree.add(Node, Node)
+     * BPlusTree.move(Node, Node)
+     * BPlusTree.remove(Node)
+     * BPlusTree.deleteBranch(Node)
+     */
+    @Test
+    public void testUndoRedo1() {
+        BPlusTree tree = new BPlusTree("R", "");
+        Node a = new Node("A", "");
+        Node b = new Node("B", "");
+        Node c = new Node("C", "");
+        Node d = new Node("D", "");
+        tree.add(a);
+        tree.add(b);
+        tree.add(a, c);
+        tree.add(a, d);
+        EditHistory history = tree.getHistory();
+        history.clear();
+        String start = shape(tree);
+
+        tree.move(b, c);
+        b.setName("B2");
+        d.setBounds(new Rectangle(1, 2, 3, 4));
+        tree.remove(a);
+        tree.deleteBranch(b);
+        String end = shape(tree);
+        assertEquals("R(D)", end);
+        assertEquals(2, tree.size());
+
+        while (history.undo()) {
+            continue;
+        }
+        assertEquals(start, shape(tree));
+        assertEquals(5, tree.size());
+        assertTrue(tree.contains(c));
+        assertEquals("B", tree.findTitle("B").get(0).getName());
+        assertFalse(history.canUndo());
+
+        while (history.redo()) {
+            continue;
+        }
+        assertEquals(end, shape(tree));
+        assertEquals(2, tree.size());
+        assertEquals(new Rectangle(1, 2, 3, 4), d.getBounds());
+        assertFalse(tree.contains(c));
+    }
+
+    /**
+     * This test types into a Node one letter at a time and checks that a
+     * single undo takes back all of it, and that a new change throws away
+     * what could have been redone.
+     *
+     * Tests the following methods:
+     * EditHistory.undo()
+     * EditHistory.canRedo()
+     * EditHistory.setCoalesceMillis(long)
+     */
+    @Test
+    public void testCoalesce1() {
+        BPlusTree tree = new BPlusTree("R", "");
+        Node a = new Node("", "");
+        tree.add(a);
+        EditHistory history = tree.getHistory();
+        history.clear();
+
+        String word = "brainstorm";
+        for (int i = 1; i <= word.length(); i++) {
+            a.setName(word.substring(0, i));
+        }
+        assertTrue(history.undo());
+        assertEquals("", a.getName());
+        assertFalse(history.canUndo());
+        assertTrue(history.canRedo());
+
+        a.setContent("new");
+        assertFalse(history.canRedo());
+
+        history.setCoalesceMillis(0);
+        a.setContent("newer");
+        assertTrue(history.undo());
+        assertEquals("new", a.getContent());
+    }
+
+    /**
+     * This test fills a small budget and checks that the oldest changes
+     * are forgotten.
+     *
+     * Tests the following methods:
+     * EditHistory.setBudget(long)
+     * EditHistory.getUsed()
+     */
+    @Test
+    public void testBudget1() {
+        BPlusTree tree = new BPlusTree("R", "");
+        EditHistory history = tree.getHistory();
+        history.setBudget(1000);
+        for (int i = 0; i < 1000; i++) {
+            tree.add(new Node("n" + i, ""));
+        }
+        assertTrue(history.getUsed() <= 1000);
+
+        int undone = 0;
+        while (history.undo()) {
+            undone++;
+        }
+        assertTrue(undone > 0 && undone < 1000);
+        assertEquals(1001 - undone, tree.size());
+    }
+
+    /**
+     * This test pauses the history on one thread, and checks that its
+     * changes are left out while a change another thread makes meanwhile
+     * is still recorded.
+     *
+     * Tests the following methods:
+     * EditHistory.pause()
+     * EditHistory.resume()
+     */
+    @Test
+    public void testPause1() throws InterruptedException {
+        final BPlusTree tree = new BPlusTree("R", "");
+        EditHistory history = tree.getHistory();
+        history.pause();
+        history.pause();
+        tree.add(new Node("quiet", ""));
+        Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                tree.add(new Node("other", ""));
+            }
+        });
+        other.start();
+        other.join();
+        history.resume();
+        tree.add(new Node("still quiet", ""));
+        history.resume();
+        tree.add(new Node("loud", ""));
+
+        assertTrue(history.undo());
+        assertTrue(history.undo());
+        assertTrue(!history.canUndo());
+        assertEquals(3, tree.size());
+        assertEquals("quiet", tree.getRoot().getChild(0).getName());
+        assertEquals("still quiet", tree.getRoot().getChild(1).getName());
+    }
+
+    /**
+     * Describes the shape of a tree, with each Node's children in
+     * brackets after its name.
+     *
+     * @param tree The tree.
+     * @return The description.
+     */
+    private String shape(final BPlusTree tree) {
+        StringBuilder sb = new StringBuilder();
+        Node last = null;
+        for (Iterator<Node> it = tree.preOrderIterator(); it.hasNext();) {
+            Node n = it.next();
+            if (last != null) {
+                if (n.getParent() == last) {
+                    sb.append('(');
+                } else {
+                    for (Node p = last; p.getParent() != n.getParent();
+                            p = p.getParent()) {
+                        sb.append(')');
+                    }
+                    sb.append(',');
+                }
+            }
+            sb.append(n.getName());
+            last = n;
+        }
+        for (Node p = last; p != null && p != tree.getRoot();
+                p = p.getParent()) {
+            sb.append(')');
+        }
+        return sb.toString();
+    }
+}
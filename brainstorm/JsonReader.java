@@ -0,0 +1,668 @@
+package brainstorm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads a JSON document from a stream one token at a time, decoding UTF-8
+ * straight out of a byte buffer. Only the token being read is held in
+ * memory, so a document of any size can be read without first building
+ * it as a tree of objects, and the caller builds whatever it wants from
+ * the tokens as they go by.
+ * <br>
+ * The reader keeps its own stack of the objects and arrays which are
+ * open, rather than recursing, so documents of any depth can be read. It
+ * checks that the commas, colons and brackets are where they should be,
+ * and throws an IOException saying where the document went wrong if
+ * they aren't.
+ */
+public class JsonReader {
+
+    /**
+     * The kinds of token a document is made of.
+     */
+    public enum Token {
+        /** The start of an object. */
+        BEGIN_OBJECT,
+        /** The end of an object. */
+        END_OBJECT,
+        /** The start of an array. */
+        BEGIN_ARRAY,
+        /** The end of an array. */
+        END_ARRAY,
+        /** The name of a field of an object. */
+        NAME,
+        /** A string value. */
+        STRING,
+        /** A number value. */
+        NUMBER,
+        /** A true or false value. */
+        BOOLEAN,
+        /** A null value. */
+        NULL,
+        /** The end of the document. */
+        END_DOCUMENT
+    }
+
+    /**
+     * The size of the buffer the stream is read into.
+     */
+    public static final int BUFFER_SIZE = 1 << 16;
+
+    /** Scope of an object with nothing read from it yet. */
+    private static final int EMPTY_OBJECT = 0;
+
+    /** Scope of an object with at least one field read from it. */
+    private static final int NONEMPTY_OBJECT = 1;
+
+    /** Scope of an object whose field name has been read but not value. */
+    private static final int DANGLING_NAME = 2;
+
+    /** Scope of an array with nothing read from it yet. */
+    private static final int EMPTY_ARRAY = 3;
+
+    /** Scope of an array with at least one value read from it. */
+    private static final int NONEMPTY_ARRAY = 4;
+
+    /** Scope of the document before its value has been read. */
+    private static final int EMPTY_DOCUMENT = 5;
+
+    /** Scope of the document after its value has been read. */
+    private static final int NONEMPTY_DOCUMENT = 6;
+
+    /**
+     * The stream the document is read from.
+     */
+    private final InputStream in;
+
+    /**
+     * The bytes read from the stream.
+     */
+    private final byte[] buffer;
+
+    /**
+     * The index of the next byte to read in the buffer.
+     */
+    private int pos;
+
+    /**
+     * The number of bytes in the buffer.
+     */
+    private int limit;
+
+    /**
+     * The number of bytes read from the stream before those in the
+     * buffer, so errors can say where they are in the document.
+     */
+    private long consumed;
+
+    /**
+     * The scopes of the open objects and arrays, innermost last.
+     */
+    private int[] stack = new int[32];
+
+    /**
+     * The number of scopes on the stack.
+     */
+    private int depth;
+
+    /**
+     * The token which has been looked at but not yet read, or null.
+     */
+    private Token peeked;
+
+    /**
+     * The characters of the string being read, kept from one string to
+     * the next.
+     */
+    private char[] text = new char[64];
+
+    /**
+     * Creates a reader of a stream.
+     *
+     * @param in The stream to read the document from.
+     */
+    public JsonReader(final InputStream in) {
+        this.in = in;
+        this.buffer = new byte[BUFFER_SIZE];
+        stack[depth++] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * Looks at the kind of the next token without reading it.
+     *
+     * @return The kind of the next token.
+     * @throws IOException If the stream can't be read, or the document
+     * isn't well formed.
+     */
+    public Token peek() throws IOException {
+        if (peeked != null) {
+            return peeked;
+        }
+        int scope = stack[depth - 1];
+        int c;
+        switch (scope) {
+            case EMPTY_ARRAY:
+            case NONEMPTY_ARRAY:
+                stack[depth - 1] = NONEMPTY_ARRAY;
+                c = nextClean();
+                if (c == ']') {
+                    peeked = Token.END_ARRAY;
+                    return peeked;
+                }
+                if (scope == NONEMPTY_ARRAY) {
+                    if (c != ',') {
+                        throw error("expected ',' or ']'");
+                    }
+                } else {
+                    pos--;
+                }
+                break;
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                stack[depth - 1] = DANGLING_NAME;
+                c = nextClean();
+                if (c == '}') {
+                    peeked = Token.END_OBJECT;
+                    return peeked;
+                }
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw error("expected ',' or '}'");
+                    }
+                    c = nextClean();
+                }
+                if (c != '"') {
+                    throw error("expected a name");
+                }
+                peeked = Token.NAME;
+                return peeked;
+            case DANGLING_NAME:
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                if (nextClean() != ':') {
+                    throw error("expected ':'");
+                }
+                break;
+            case EMPTY_DOCUMENT:
+                stack[depth - 1] = NONEMPTY_DOCUMENT;
+                break;
+            default:
+                if (nextClean() != -1) {
+                    throw error("expected the end of the document");
+                }
+                pos--;
+                peeked = Token.END_DOCUMENT;
+                return peeked;
+        }
+
+        c = nextClean();
+        switch (c) {
+            case '{':
+                peeked = Token.BEGIN_OBJECT;
+                break;
+            case '[':
+                peeked = Token.BEGIN_ARRAY;
+                break;
+            case '"':
+                peeked = Token.STRING;
+                break;
+            case 't':
+            case 'f':
+                pos--;
+                peeked = Token.BOOLEAN;
+                break;
+            case 'n':
+                pos--;
+                peeked = Token.NULL;
+                break;
+            default:
+                if (c != '-' && (c < '0' || c > '9')) {
+                    throw error("expected a value");
+                }
+                pos--;
+                peeked = Token.NUMBER;
+        }
+        return peeked;
+    }
+
+    /**
+     * Returns true if the object or array being read has another value.
+     *
+     * @return true if the next token is a name or value, false if it ends
+     * the object, array or document.
+     * @throws IOException If the stream can't be read, or the document
+     * isn't well formed.
+     */
+    public boolean hasNext() throws IOException {
+        Token t = peek();
+        return t != Token.END_OBJECT && t != Token.END_ARRAY
+               && t != Token.END_DOCUMENT;
+    }
+
+    /**
+     * Reads the start of an object.
+     *
+     * @throws IOException If the next token isn't the start of an object.
+     */
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    /**
+     * Reads the end of an object.
+     *
+     * @throws IOException If the next token isn't the end of an object.
+     */
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        depth--;
+    }
+
+    /**
+     * Reads the start of an array.
+     *
+     * @throws IOException If the next token isn't the start of an array.
+     */
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    /**
+     * Reads the end of an array.
+     *
+     * @throws IOException If the next token isn't the end of an array.
+     */
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        depth--;
+    }
+
+    /**
+     * Reads the name of a field.
+     *
+     * @return The name.
+     * @throws IOException If the next token isn't a name.
+     */
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        return readString();
+    }
+
+    /**
+     * Reads a string value.
+     *
+     * @return The string.
+     * @throws IOException If the next token isn't a string.
+     */
+    public String nextString() throws IOException {
+        expect(Token.STRING);
+        return readString();
+    }
+
+    /**
+     * Reads a number value as a whole number. A number with a fraction or
+     * exponent is rounded towards zero.
+     *
+     * @return The number.
+     * @throws IOException If the next token isn't a number, or the number
+     * is too big for a long.
+     */
+    public long nextLong() throws IOException {
+        expect(Token.NUMBER);
+        int length = 0;
+        boolean whole = true;
+        for (int c = read(); c != -1; c = read()) {
+            if (c >= '0' && c <= '9' || c == '-') {
+                length = append(length, (char) c);
+            } else if (c == '.' || c == 'e' || c == 'E' || c == '+') {
+                length = append(length, (char) c);
+                whole = false;
+            } else {
+                pos--;
+                break;
+            }
+        }
+        String number = new String(text, 0, length);
+        try {
+            if (whole) {
+                return Long.parseLong(number);
+            }
+            double d = Double.parseDouble(number);
+            if (d >= 0x1p63 || d < -0x1p63) {
+                throw new NumberFormatException();
+            }
+            return (long) d;
+        } catch (NumberFormatException e) {
+            throw error("bad number " + number);
+        }
+    }
+
+    /**
+     * Reads a true or false value.
+     *
+     * @return The value.
+     * @throws IOException If the next token isn't true or false.
+     */
+    public boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        if (buffer[pos] == 't') {
+            literal("true");
+            return true;
+        }
+        literal("false");
+        return false;
+    }
+
+    /**
+     * Reads a null value.
+     *
+     * @throws IOException If the next token isn't null.
+     */
+    public void nextNull() throws IOException {
+        expect(Token.NULL);
+        literal("null");
+    }
+
+    /**
+     * Reads a string value, or a null value.
+     *
+     * @return The string, or null.
+     * @throws IOException If the next token isn't a string or null.
+     */
+    public String nextStringOrNull() throws IOException {
+        if (peek() == Token.NULL) {
+            nextNull();
+            return null;
+        }
+        return nextString();
+    }
+
+    /**
+     * Reads and throws away the next value, along with everything inside
+     * it if it is an object or array. If the next token is a name, only
+     * the name is skipped.
+     *
+     * @throws IOException If the stream can't be read, or the document
+     * isn't well formed.
+     */
+    public void skipValue() throws IOException {
+        int open = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    open++;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    open++;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    open--;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    open--;
+                    break;
+                case NAME:
+                    nextName();
+                    break;
+                case STRING:
+                    nextString();
+                    break;
+                case NUMBER:
+                    nextLong();
+                    break;
+                case BOOLEAN:
+                    nextBoolean();
+                    break;
+                case NULL:
+                    nextNull();
+                    break;
+                default:
+                    throw error("nothing to skip");
+            }
+        } while (open > 0);
+    }
+
+    /**
+     * Closes the stream.
+     *
+     * @throws IOException If the stream can't be closed.
+     */
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Checks the kind of the next token and marks it as read.
+     *
+     * @param token The kind the next token must be.
+     * @throws IOException If the next token is of another kind.
+     */
+    private void expect(final Token token) throws IOException {
+        Token t = peek();
+        if (t != token) {
+            throw error("expected " + token + " but was " + t);
+        }
+        peeked = null;
+    }
+
+    /**
+     * Opens an object or array.
+     *
+     * @param scope The scope of the new object or array.
+     */
+    private void push(final int scope) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+        }
+        stack[depth++] = scope;
+    }
+
+    /**
+     * Reads the characters of a string up to its closing quote, decoding
+     * UTF-8 and escapes. The opening quote has already been read.
+     *
+     * @return The string.
+     * @throws IOException If the string isn't closed or has a bad escape.
+     */
+    private String readString() throws IOException {
+        int length = 0;
+        while (true) {
+            int c = read();
+            if (c == '"') {
+                return new String(text, 0, length);
+            } else if (c == '\\') {
+                length = append(length, readEscape());
+            } else if (c < 0) {
+                throw error("unterminated string");
+            } else if (c < 0x80) {
+                length = append(length, (char) c);
+            } else {
+                int cp = decode(c);
+                if (cp >= 0x10000) {
+                    length = append(length, Character.highSurrogate(cp));
+                    length = append(length, Character.lowSurrogate(cp));
+                } else {
+                    length = append(length, (char) cp);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the rest of an escape, after its backslash.
+     *
+     * @return The character the escape stands for.
+     * @throws IOException If the escape isn't valid.
+     */
+    private char readEscape() throws IOException {
+        int c = read();
+        switch (c) {
+            case 'n':
+                return '\n';
+            case 't':
+                return '\t';
+            case 'r':
+                return '\r';
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw error("bad unicode escape");
+                    }
+                    value = value << 4 | digit;
+                }
+                return (char) value;
+            default:
+                throw error("bad escape");
+        }
+    }
+
+    /**
+     * Decodes the rest of a UTF-8 sequence. A sequence which isn't valid
+     * becomes the replacement character.
+     *
+     * @param first The first byte of the sequence.
+     * @return The code point.
+     * @throws IOException If the stream can't be read.
+     */
+    private int decode(final int first) throws IOException {
+        int extra;
+        int cp;
+        if (first >= 0xF0 && first < 0xF8) {
+            extra = 3;
+            cp = first & 0x07;
+        } else if (first >= 0xE0) {
+            extra = 2;
+            cp = first & 0x0F;
+        } else if (first >= 0xC0) {
+            extra = 1;
+            cp = first & 0x1F;
+        } else {
+            return 0xFFFD;
+        }
+        if (first >= 0xF8) {
+            return 0xFFFD;
+        }
+        for (int i = 0; i < extra; i++) {
+            int c = read();
+            if ((c & 0xC0) != 0x80) {
+                if (c >= 0) {
+                    pos--;
+                }
+                return 0xFFFD;
+            }
+            cp = cp << 6 | c & 0x3F;
+        }
+        return cp > 0x10FFFF ? 0xFFFD : cp;
+    }
+
+    /**
+     * Reads the letters of true, false or null.
+     *
+     * @param word The word which must come next.
+     * @throws IOException If the next letters aren't the word.
+     */
+    private void literal(final String word) throws IOException {
+        for (int i = 0; i < word.length(); i++) {
+            if (read() != word.charAt(i)) {
+                throw error("expected " + word);
+            }
+        }
+    }
+
+    /**
+     * Adds a character to the text being read, making room if needed.
+     *
+     * @param length The number of characters of text so far.
+     * @param c The character.
+     * @return The new number of characters.
+     */
+    private int append(final int length, final char c) {
+        if (length == text.length) {
+            text = Arrays.copyOf(text, length * 2);
+        }
+        text[length] = c;
+        return length + 1;
+    }
+
+    /**
+     * Reads the next byte which isn't white space.
+     *
+     * @return The byte, or -1 at the end of the stream.
+     * @throws IOException If the stream can't be read.
+     */
+    private int nextClean() throws IOException {
+        while (true) {
+            int c = read();
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+        }
+    }
+
+    /**
+     * Reads the next byte. At the end of the stream the position is still
+     * moved on, so that a byte that was read can always be put back by
+     * moving the position back by one.
+     *
+     * @return The byte, or -1 at the end of the stream.
+     * @throws IOException If the stream can't be read.
+     */
+    private int read() throws IOException {
+        if (pos >= limit && !fill()) {
+            pos = limit + 1;
+            return -1;
+        }
+        return buffer[pos++] & 0xFF;
+    }
+
+    /**
+     * Reads more of the stream into the buffer, once every byte in it has
+     * been read.
+     *
+     * @return true if more bytes were read, false at the end of the
+     * stream.
+     * @throws IOException If the stream can't be read.
+     */
+    private boolean fill() throws IOException {
+        consumed += limit;
+        limit = 0;
+        pos = 0;
+        int n = in.read(buffer, 0, buffer.length);
+        while (n == 0) {
+            n = in.read(buffer, 0, buffer.length);
+        }
+        if (n < 0) {
+            return false;
+        }
+        limit = n;
+        return true;
+    }
+
+    /**
+     * Makes the exception thrown when the document isn't well formed.
+     *
+     * @param message What was wrong.
+     * @return The exception.
+     */
+    private IOException error(final String message) {
+        return new IOException(message + " at byte "
+                               + (consumed + Math.min(pos, limit)));
+    }
+}
@@ -0,0 +1,137 @@
+package brainstorm;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * This class contains the JUnit tests for the JsonReader class.
+ *
+ */
+public class JsonReaderTest {
+
+    /**
+     * This test reads a document with every kind of token, escapes and
+     * multi-byte characters, skipping some values, and checks each token.
+     *
+     * Tests the following methods:
+     * JsonReader.peek()
+     * JsonReader.nextName()
+     * JsonReader.nextString()
+     * JsonReader.nextLong()
+     * JsonReader.skipValue()
+     */
+    @Test
+    public void testTokens1() throws IOException {
+        JsonReader json = reader("{ \"a\\\"b\" : [1, -20, 3.5e1, true, false,"
+                + " null],\n\t\"s\":\"x\\n\\u00e9\\/\u00e9\u4e2d\ud83d\ude00\","
+                + " \"skip\": {\"deep\": [[{}], {\"x\": [1, \"]\"]}]},"
+                + " \"empty\": [] }");
+        assertEquals(JsonReader.Token.BEGIN_OBJECT, json.peek());
+        json.beginObject();
+        assertEquals(JsonReader.Token.NAME, json.peek());
+        assertEquals("a\"b", json.nextName());
+        json.beginArray();
+        assertEquals(1, json.nextLong());
+        assertEquals(-20, json.nextLong());
+        assertEquals(35, json.nextLong());
+        assertTrue(json.nextBoolean());
+        assertFalse(json.nextBoolean());
+        assertEquals(null, json.nextStringOrNull());
+        assertFalse(json.hasNext());
+        json.endArray();
+        assertEquals("s", json.nextName());
+        assertEquals("x\n\u00e9/\u00e9\u4e2d\ud83d\ude00", json.nextString());
+        assertEquals("skip", json.nextName());
+        json.skipValue();
+        assertEquals("empty", json.nextName());
+        json.beginArray();
+        json.endArray();
+        assertFalse(json.hasNext());
+        json.endObject();
+        assertEquals(JsonReader.Token.END_DOCUMENT, json.peek());
+    }
+
+    /**
+     * This test reads documents which are badly formed and checks that
+     * each one is refused.
+     *
+     * Tests the following methods:
+     * JsonReader.peek()
+     * JsonReader.nextString()
+     */
+    @Test
+    public void testErrors1() {
+        String[] bad = {
+            "{\"a\" 1}", "{\"a\":1,}", "[1 2]", "[1,]", "{1:2}", "[\"open",
+            "[tru]", "[1]]", "{\"a\":\"\\q\"}", "", "[--1]"
+        };
+        for (String s: bad) {
+            try {
+                JsonReader json = reader(s);
+                json.skipValue();
+                json.peek();
+                assertTrue("accepted " + s, false);
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("at byte"));
+            }
+        }
+    }
+
+    /**
+     * This test reads arrays nested far deeper than a recursive reader
+     * could manage, with long strings that cross the buffer, and checks
+     * that they are read in full.
+     *
+     * Tests the following methods:
+     * JsonReader.beginArray()
+     * JsonReader.skipValue()
+     */
+    @Test
+    public void testDeep1() throws IOException {
+        int depth = 200000;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            sb.append('[');
+        }
+        for (int i = 0; i < depth; i++) {
+            sb.append(']');
+        }
+        JsonReader json = reader(sb.toString());
+        json.skipValue();
+        assertEquals(JsonReader.Token.END_DOCUMENT, json.peek());
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            text.append((char) ('a' + i % 26)).append('\u00e9');
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter(bytes);
+        writer.beginArray();
+        writer.value(text.toString());
+        writer.value(text.toString());
+        writer.endArray();
+        writer.close();
+        json = new JsonReader(new ByteArrayInputStream(bytes.toByteArray()));
+        json.beginArray();
+        assertEquals(text.toString(), json.nextString());
+        assertEquals(text.toString(), json.nextString());
+        json.endArray();
+    }
+
+    /**
+     * Helper function which makes a reader of a document.
+     *
+     * @param s The document.
+     * @return The reader.
+     * @throws IOException If the document can't be encoded.
+     */
+    private JsonReader reader(final String s) throws IOException {
+        return new JsonReader(new ByteArrayInputStream(s.getBytes("UTF-8")));
+    }
+}
@@ -0,0 +1,470 @@
+package brainstorm;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes a JSON document to a stream one token at a time, encoding it as
+ * UTF-8 straight into a byte buffer. Nothing is built up in memory apart
+ * from the buffer, so a document of any size can be written without
+ * making a String for each field, and the stream is only written to when
+ * the buffer is full.
+ * <br>
+ * Strings are escaped as JSON requires: quotes, backslashes and control
+ * characters are written as escapes, and so are characters which can't
+ * be encoded, such as half of a surrogate pair, so the document can
+ * always be read back.
+ * <br>
+ * The writer keeps track of where it is, and puts in the commas between
+ * values and the colons between names and values by itself.
+ */
+public class JsonWriter {
+
+    /**
+     * The size of the buffer made when none is given.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The most bytes a single character can take, written as an escape.
+     */
+    private static final int MAX_CHAR_BYTES = 6;
+
+    /**
+     * The most bytes a whole number can take, with its sign.
+     */
+    private static final int MAX_NUMBER_BYTES = 20;
+
+    /**
+     * The digits of hexadecimal numbers, for escapes.
+     */
+    private static final byte[] HEX = {
+        '0', '1', '2', '3', '4', '5', '6', '7',
+        '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+    };
+
+    /**
+     * The stream the document is written to.
+     */
+    private final OutputStream out;
+
+    /**
+     * The bytes which haven't been written to the stream yet.
+     */
+    private final byte[] buffer;
+
+    /**
+     * The number of bytes in the buffer.
+     */
+    private int count;
+
+    /**
+     * For each object or array which is open, whether a value has been
+     * written into it yet, so the next one needs a comma before it.
+     */
+    private boolean[] filled = new boolean[16];
+
+    /**
+     * The number of objects and arrays which are open.
+     */
+    private int depth;
+
+    /**
+     * Whether a name has just been written, so the next value is its
+     * value and needs no comma.
+     */
+    private boolean afterName;
+
+    /**
+     * Creates a writer with a buffer of the default size.
+     *
+     * @param out The stream to write the document to.
+     */
+    public JsonWriter(final OutputStream out) {
+        this(out, new byte[DEFAULT_BUFFER_SIZE]);
+    }
+
+    /**
+     * Creates a writer which writes through the given buffer, so that one
+     * buffer can be used for writing one document after another.
+     *
+     * @param out The stream to write the document to.
+     * @param buffer The buffer, which must hold at least 32 bytes.
+     */
+    public JsonWriter(final OutputStream out, final byte[] buffer) {
+        if (buffer.length < 32) {
+            throw new IllegalArgumentException("buffer too small: "
+                                               + buffer.length);
+        }
+        this.out = out;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Starts an object.
+     *
+     * @throws IOException If the stream can't be written to.
+     */
+    public void beginObject() throws IOException {
+        open('{');
+    }
+
+    /**
+     * Ends the object which was started last.
+     *
+     * @throws IOException If the stream can't be written to.
+     */
+    public void endObject() throws IOException {
+        close('}');
+    }
+
+    /**
+     * Starts an array.
+     *
+     * @throws IOException If the stream can't be written to.
+     */
+    public void beginArray() throws IOException {
+        open('[');
+    }
+
+    /**
+     * Ends the array which was started last.
+     *
+     * @throws IOException If the stream can't be written to.
+     */
+    public void endArray() throws IOException {
+        close(']');
+    }
+
+    /**
+     * Writes the name of the next field of an object. The field's value
+     * must be written next.
+     *
+     * @param name The name of the field.
+     * @throws IOException If the stream can't be written to.
+     */
+    public void name(final String name) throws IOException {
+        separate();
+        string(name);
+        put(':');
+        afterName = true;
+    }
+
+    /**
+     * Writes a string, or null.
+     *
+     * @param value The string.
+     * @throws IOException If the stream can't be written to.
+     */
+    public void value(final String value) throws IOException {
+        separate();
+        if (value == null) {
+            ascii("null");
+        } else {
+            string(value);
+        }
+    }
+
+    /**
+     * Writes null.
+     *
+     * @throws IOException If the stream can't be written to.
+     */
+    public void nullValue() throws IOException {
+        separate();
+        ascii("null");
+    }
+
+    /**
+     * Writes a whole number.
+     *
+     * @param value The number.
+     * @throws IOException If the stream can't be written to.
+     */
+    public void value(final long value) throws IOException {
+        separate();
+        number(value);
+    }
+
+    /**
+     * Starts a string which is written in parts with stringPart(), so a
+     * string made up of several values needn't be built first.
+     *
+     * @throws IOException If the stream can't be written to.
+     */
+    public void beginString() throws IOException {
+        separate();
+        put('"');
+    }
+
+    /**
+     * Writes part of a string started with beginString().
+     *
+     * @param part The text to add to the string.
+     * @throws IOException If the stream can't be written to.
+     */
+    public void stringPart(final String part) throws IOException {
+        chars(part);
+    }
+
+    /**
+     * Writes a whole number as part of a string started with
+     * beginString().
+     *
+     * @param part The number to add to the string.
+     * @throws IOException If the stream can't be written to.
+     */
+    public void stringPart(final long part) throws IOException {
+        number(part);
+    }
+
+    /**
+     * Ends a string started with beginString().
+     *
+     * @throws IOException If the stream can't be written to.
+     */
+    public void endString() throws IOException {
+        put('"');
+    }
+
+    /**
+     * Writes everything in the buffer to the stream, and flushes it.
+     *
+     * @throws IOException If the stream can't be written to.
+     */
+    public void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    /**
+     * Writes everything in the buffer to the stream, and closes it.
+     *
+     * @throws IOException If the stream can't be written to.
+     */
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Starts an object or an array.
+     *
+     * @param bracket The opening bracket.
+     * @throws IOException If the stream can't be written to.
+     */
+    private void open(final char bracket) throws IOException {
+        separate();
+        put(bracket);
+        if (depth == filled.length) {
+            filled = Arrays.copyOf(filled, depth * 2);
+        }
+        filled[depth++] = false;
+    }
+
+    /**
+     * Ends an object or an array.
+     *
+     * @param bracket The closing bracket.
+     * @throws IOException If the stream can't be written to.
+     */
+    private void close(final char bracket) throws IOException {
+        if (depth == 0) {
+            throw new IllegalStateException("nothing to close");
+        }
+        depth--;
+        afterName = false;
+        put(bracket);
+    }
+
+    /**
+     * Writes the comma before a value, if one is needed, and notes that
+     * the innermost object or array has a value in it.
+     *
+     * @throws IOException If the stream can't be written to.
+     */
+    private void separate() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (filled[depth - 1]) {
+                put(',');
+            }
+            filled[depth - 1] = true;
+        }
+    }
+
+    /**
+     * Writes a string in quotes.
+     *
+     * @param s The string.
+     * @throws IOException If the stream can't be written to.
+     */
+    private void string(final String s) throws IOException {
+        put('"');
+        chars(s);
+        put('"');
+    }
+
+    /**
+     * Encodes and escapes the characters of a string, without quotes.
+     *
+     * @param s The string.
+     * @throws IOException If the stream can't be written to.
+     */
+    private void chars(final String s) throws IOException {
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            if (buffer.length - count < 2 * MAX_CHAR_BYTES) {
+                drain();
+            }
+            char c = s.charAt(i);
+            if (c >= 0x20 && c < 0x80) {
+                if (c == '"' || c == '\\') {
+                    buffer[count++] = '\\';
+                }
+                buffer[count++] = (byte) c;
+            } else if (c < 0x20) {
+                escapeControl(c);
+            } else if (c < 0x800) {
+                buffer[count++] = (byte) (0xC0 | c >> 6);
+                buffer[count++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                       && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buffer[count++] = (byte) (0xF0 | cp >> 18);
+                buffer[count++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                buffer[count++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                buffer[count++] = (byte) (0x80 | cp & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                // half a pair can't be encoded, but can be escaped
+                escapeUnicode(c);
+            } else {
+                buffer[count++] = (byte) (0xE0 | c >> 12);
+                buffer[count++] = (byte) (0x80 | c >> 6 & 0x3F);
+                buffer[count++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+    }
+
+    /**
+     * Writes the escape of a control character into the buffer, using the
+     * short form where there is one.
+     *
+     * @param c The character, below 0x20.
+     */
+    private void escapeControl(final char c) {
+        char code;
+        switch (c) {
+            case '\n':
+                code = 'n';
+                break;
+            case '\r':
+                code = 'r';
+                break;
+            case '\t':
+                code = 't';
+                break;
+            case '\b':
+                code = 'b';
+                break;
+            case '\f':
+                code = 'f';
+                break;
+            default:
+                escapeUnicode(c);
+                return;
+        }
+        buffer[count++] = '\\';
+        buffer[count++] = (byte) code;
+    }
+
+    /**
+     * Writes a character into the buffer as a unicode escape.
+     *
+     * @param c The character.
+     */
+    private void escapeUnicode(final char c) {
+        buffer[count++] = '\\';
+        buffer[count++] = 'u';
+        buffer[count++] = HEX[c >> 12 & 0xF];
+        buffer[count++] = HEX[c >> 8 & 0xF];
+        buffer[count++] = HEX[c >> 4 & 0xF];
+        buffer[count++] = HEX[c & 0xF];
+    }
+
+    /**
+     * Writes the digits of a whole number, without making a String.
+     *
+     * @param value The number.
+     * @throws IOException If the stream can't be written to.
+     */
+    private void number(final long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            // its digits can't be found by negating it
+            ascii(Long.toString(value));
+            return;
+        }
+        if (buffer.length - count < MAX_NUMBER_BYTES) {
+            drain();
+        }
+        long v = value;
+        if (v < 0) {
+            buffer[count++] = '-';
+            v = -v;
+        }
+        int digits = 1;
+        for (long rest = v / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        int end = count + digits;
+        for (int i = end - 1; i >= count; i--) {
+            buffer[i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        count = end;
+    }
+
+    /**
+     * Writes text which is known to need neither escaping nor encoding.
+     *
+     * @param s The text.
+     * @throws IOException If the stream can't be written to.
+     */
+    private void ascii(final String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            put(s.charAt(i));
+        }
+    }
+
+    /**
+     * Writes one ASCII character into the buffer.
+     *
+     * @param c The character.
+     * @throws IOException If the stream can't be written to.
+     */
+    private void put(final char c) throws IOException {
+        if (count == buffer.length) {
+            drain();
+        }
+        buffer[count++] = (byte) c;
+    }
+
+    /**
+     * Writes everything in the buffer to the stream and empties it.
+     *
+     * @throws IOException If the stream can't be written to.
+     */
+    private void drain() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+}
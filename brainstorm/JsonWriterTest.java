@@ -0,0 +1,116 @@
+package brainstorm;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Random;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Test;
+
+/**
+ * This class contains the JUnit tests for the JsonWriter class.
+ *
+ */
+public class JsonWriterTest {
+
+    /**
+     * This test writes strings full of characters that need escaping or
+     * encoding through a buffer small enough to be emptied many times,
+     * and checks that a JSON parser reads back the same strings.
+     *
+     * Tests the following methods:
+     * JsonWriter.name(String)
+     * JsonWriter.value(String)
+     * JsonWriter.value(long)
+     * JsonWriter.beginString()
+     * JsonWriter.stringPart(long)
+     */
+    @Test
+    public void testEscaping1() throws Exception {
+        String[] strings = {
+            "", "plain", "a \"quoted\" word", "back\\slash", "line\nbreak",
+            "tab\there\r\n", "\u0000\u0001\u001f\u007f", "caf\u00e9",
+            "\u20ac and \u4e2d", "\ud83d\ude00 face", "lone \ud800 half",
+            "end \udfff"
+        };
+        Random rand = new Random(350);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append((char) rand.nextInt(0x3000));
+        }
+        String noise = sb.toString();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JsonWriter json = new JsonWriter(bytes, new byte[32]);
+        json.beginObject();
+        json.name("strings");
+        json.beginArray();
+        for (String s: strings) {
+            json.value(s);
+        }
+        json.endArray();
+        json.name("noise \"key\"");
+        json.value(noise);
+        json.name("numbers");
+        json.beginArray();
+        json.value(0);
+        json.value(-42);
+        json.value(Long.MAX_VALUE);
+        json.value(Long.MIN_VALUE);
+        json.endArray();
+        json.name("parts");
+        json.beginString();
+        json.stringPart("x=");
+        json.stringPart(-7);
+        json.stringPart(",\"y\"=");
+        json.stringPart(1234567);
+        json.endString();
+        json.name("empty");
+        json.beginObject();
+        json.endObject();
+        json.name("none");
+        json.value(null);
+        json.endObject();
+        json.close();
+
+        JSONObject jo = (JSONObject) new JSONParser().parse(
+                new InputStreamReader(
+                        new ByteArrayInputStream(bytes.toByteArray()),
+                        "utf-8"));
+        JSONArray read = (JSONArray) jo.get("strings");
+        assertEquals(strings.length, read.size());
+        for (int i = 0; i < strings.length; i++) {
+            assertEquals(strings[i], read.get(i));
+        }
+        assertEquals(noise, jo.get("noise \"key\""));
+        JSONArray numbers = (JSONArray) jo.get("numbers");
+        assertEquals(0L, numbers.get(0));
+        assertEquals(-42L, numbers.get(1));
+        assertEquals(Long.MAX_VALUE, numbers.get(2));
+        assertEquals(Long.MIN_VALUE, numbers.get(3));
+        assertEquals("x=-7,\"y\"=1234567", jo.get("parts"));
+        assertTrue(((JSONObject) jo.get("empty")).isEmpty());
+        assertTrue(jo.containsKey("none"));
+        assertEquals(null, jo.get("none"));
+    }
+
+    /**
+     * This test checks that closing more than was opened is refused.
+     *
+     * Tests the following methods:
+     * JsonWriter.endArray()
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testUnbalanced1() throws IOException {
+        JsonWriter json = new JsonWriter(new ByteArrayOutputStream());
+        json.beginArray();
+        json.endArray();
+        json.endArray();
+    }
+}
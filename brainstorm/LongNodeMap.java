@@ -0,0 +1,190 @@
+package brainstorm;
+
+import java.util.Arrays;
+
+/**
+ * A map from positive long ids to Nodes. It keeps its keys in a plain
+ * array of longs and finds them by open addressing, so looking up an id
+ * doesn't box it into a Long or chase a chain of entries the way a
+ * HashMap would.
+ * <br>
+ * A key of 0 marks an empty slot, which is why ids must be positive.
+ * Collisions are resolved by probing the following slots in turn, and
+ * removing a key shifts back the keys that probed past it, so there are
+ * no tombstones and lookups stay short however many keys come and go.
+ *
+ */
+class LongNodeMap {
+
+    /**
+     * The number of slots a new map starts with. Always a power of two.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The keys, or 0 for an empty slot.
+     */
+    private long[] keys;
+
+    /**
+     * The Node stored under the key in the same slot.
+     */
+    private Node[] values;
+
+    /**
+     * The number of keys in the map.
+     */
+    private int size;
+
+    /**
+     * Constructor which creates an empty map.
+     */
+    LongNodeMap() {
+        keys = new long[INITIAL_CAPACITY];
+        values = new Node[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Finds the Node stored under a key.
+     *
+     * @param key The key.
+     * @return The Node, or null if there isn't one.
+     */
+    Node get(final long key) {
+        if (key <= 0) {
+            return null;
+        }
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); keys[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stores a Node under a key, replacing any Node already stored there.
+     *
+     * @param key The key, which must be positive.
+     * @param value The Node.
+     * @return The Node that was stored under the key before, or null.
+     */
+    Node put(final long key, final Node value) {
+        if (key <= 0) {
+            throw new IllegalArgumentException("key must be positive: "
+                                               + key);
+        }
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (keys[i] != 0) {
+            if (keys[i] == key) {
+                Node old = values[i];
+                values[i] = value;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        size++;
+        // keep the table at most half full so probe runs stay short
+        if (size * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * Removes a key and the Node stored under it.
+     *
+     * @param key The key.
+     * @return The Node that was stored under the key, or null.
+     */
+    Node remove(final long key) {
+        if (key <= 0) {
+            return null;
+        }
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (keys[i] != key) {
+            if (keys[i] == 0) {
+                return null;
+            }
+            i = (i + 1) & mask;
+        }
+        Node old = values[i];
+        size--;
+
+        // Shift back any key further along the run which would no longer
+        // be found once this slot is empty, that is any key whose home slot
+        // isn't between the gap and where the key sits.
+        int gap = i;
+        for (int j = (gap + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+            int home = slot(keys[j], mask);
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        keys[gap] = 0;
+        values[gap] = null;
+        return old;
+    }
+
+    /**
+     * Retrieves the number of keys in the map.
+     *
+     * @return The number of keys.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Removes every key from the map.
+     */
+    void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * Moves every key into a new table of the given size.
+     *
+     * @param capacity The new number of slots, a power of two.
+     */
+    private void resize(final int capacity) {
+        long[] oldKeys = keys;
+        Node[] oldValues = values;
+        keys = new long[capacity];
+        values = new Node[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != 0) {
+                int i = slot(oldKeys[j], mask);
+                while (keys[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    /**
+     * Finds the slot a key would sit in if nothing else were in the way.
+     * Ids are handed out in order, so the bits are mixed first to stop
+     * runs of ids filling runs of slots.
+     *
+     * @param key The key.
+     * @param mask One less than the number of slots.
+     * @return The home slot of the key.
+     */
+    private static int slot(final long key, final int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,51 @@
+package brainstorm;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * This class contains the JUnit tests for the LongNodeMap class.
+ *
+ */
+public class LongNodeMapTest {
+
+    /**
+     * This test makes random puts and removes, with keys from a small
+     * range so that probe runs collide and get shifted back, and checks
+     * the map against a HashMap after every step.
+     *
+     * Tests the following methods:
+     * LongNodeMap.put(long, Node)
+     * LongNodeMap.get(long)
+     * LongNodeMap.remove(long)
+     * LongNodeMap.size()
+     */
+    @Test
+    public void testRandomEdits1() {
+        Random rand = new Random(350);
+        LongNodeMap map = new LongNodeMap();
+        Map<Long, Node> expected = new HashMap<Long, Node>();
+
+        for (int step = 0; step < 50000; step++) {
+            long key = 1 + rand.nextInt(2000);
+            if (rand.nextInt(3) > 0) {
+                Node n = new Node("n" + step, "");
+                assertTrue(map.put(key, n) == expected.put(key, n));
+            } else {
+                assertTrue(map.remove(key) == expected.remove(key));
+            }
+            assertEquals(expected.size(), map.size());
+            long probe = 1 + rand.nextInt(2000);
+            assertTrue(map.get(probe) == expected.get(probe));
+        }
+        for (long key = 1; key <= 2000; key++) {
+            assertTrue(map.get(key) == expected.get(key));
+        }
+        assertTrue(map.get(0) == null);
+    }
+}
@@ -86,6 +86,12 @@ public class MenuBarController implements ActionListener {
             n.setBounds(new Rectangle(20, 20, 200, 100));
             TreeController.getInstance().addNodeAtRootOfTree(n);
             break;
+        case "Undo":
+            TreeController.getInstance().undo();
+            break;
+        case "Redo":
+            TreeController.getInstance().redo();
+            break;
         case "Edit Node":
             // TODO Figure out how to get the selected node so it can be edited
             break;
@@ -22,7 +22,8 @@ public class MenuBarView extends JMenuBar {
      * The menu items within the menu bar.
      */
     private JMenuItem newFile, openFile, saveFile, saveFileAs, saveImage,
-                    printFile, quit, createNode, /*editNode,*/ deleteNode;
+                    printFile, quit, undo, redo, createNode,
+                    /*editNode,*/ deleteNode;
     
     /**
      * A constructor for the menu bar. 
@@ -82,6 +83,14 @@ public class MenuBarView extends JMenuBar {
         editMenu.setMnemonic(KeyEvent.VK_E);
         this.add(editMenu);
         
+        undo = new JMenuItem("Undo");
+        undo.setMnemonic(KeyEvent.VK_U);
+        undo.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z,
+                                                    InputEvent.CTRL_DOWN_MASK));
+        redo = new JMenuItem("Redo");
+        redo.setMnemonic(KeyEvent.VK_R);
+        redo.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y,
+                                                    InputEvent.CTRL_DOWN_MASK));
         createNode = new JMenuItem("Create Node");
         createNode.setMnemonic(KeyEvent.VK_C);
         createNode.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_N,
@@ -95,6 +104,9 @@ public class MenuBarView extends JMenuBar {
         deleteNode.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_D,
                                                     InputEvent.CTRL_DOWN_MASK));
         
+        editMenu.add(undo);
+        editMenu.add(redo);
+        editMenu.addSeparator();
         editMenu.add(createNode);
 //        editMenu.add(editNode);
         editMenu.add(deleteNode);
@@ -115,6 +127,8 @@ public class MenuBarView extends JMenuBar {
         saveImage.addActionListener(al);
         printFile.addActionListener(al);
         quit.addActionListener(al);
+        undo.addActionListener(al);
+        redo.addActionListener(al);
         createNode.addActionListener(al);
 //        editNode.addActionListener(al);
         deleteNode.addActionListener(al);
@@ -1,6 +1,11 @@
 package brainstorm;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
 import java.awt.Rectangle;
 
 /**
@@ -22,9 +27,24 @@ public class Node {
     private String content;
 
     /**
-     * A List of all of this Node's children.
+     * A List of all of this Node's children. It stays a plain array while
+     * there are few children and becomes a balanced tree for Nodes with
+     * many, so that finding, adding and removing a child stays fast.
      */
-    private ArrayList<Node> children;
+    private ChildList children;
+    
+    /**
+     * This Node's entry in its parent's list of children, while that list
+     * is a balanced tree. Only ChildList uses this.
+     */
+    private ChildList.Slot childSlot;
+    
+    /**
+     * A read-only view of this Node's children. The view is backed by the
+     * children list itself, so it always reflects the current children and
+     * is created only once per Node.
+     */
+    private List<Node> childrenView;
     
     /**
      * A reference to this Node's parent. This is important when deleting
@@ -40,6 +60,48 @@ public class Node {
      * between sessions.
      */
     private Rectangle bounds;
+    
+    /**
+     * The tree that this Node currently belongs to, if any. The tree is
+     * told whenever this Node's fields change so that it can keep its
+     * indexes up to date.
+     */
+    private volatile BPlusTree tree;
+    
+    /**
+     * The frozen copy of this Node and its descendants taken by the last
+     * snapshot, or null if this Node or any Node below it has changed
+     * since. If a Node has no frozen copy, neither do its ancestors.
+     */
+    private NodeSnapshot snapshot;
+    
+    /**
+     * The number which identifies this Node within its tree, or 0 if it
+     * has never been in one. The id is kept when the Node leaves its tree,
+     * so that the Node has the same id if it is put back, and it is saved
+     * with the tree so that it survives being saved and opened again.
+     */
+    private long id;
+    
+    /**
+     * The number of Nodes, height and box of this Node's branch. It is
+     * exact apart from the children listed in pendingChildren, whose
+     * changes it hasn't taken in yet.
+     */
+    private BranchAggregate aggregate;
+    
+    /**
+     * A copy of this Node's branch summary as its parent last took it in,
+     * or null if the parent is up to date with this Node.
+     */
+    private BranchAggregate reported;
+    
+    /**
+     * The children which have changed since this Node's summary last took
+     * them in, or null if the summary is up to date. A child which has
+     * since left may still be listed, and is skipped.
+     */
+    private List<Node> pendingChildren;
 
     /**
      * Constructor that builds a new Node using the Strings given.
@@ -50,9 +112,11 @@ public class Node {
     Node(final String name, final String content) {
         this.name = name;
         this.content = content;
-        children = new ArrayList<Node>(5);
+        children = new ChildList();
+        childrenView = Collections.unmodifiableList(children);
         
         bounds = new Rectangle(10, 10, 100, 100);
+        aggregate = new BranchAggregate(bounds);
     }
     
     /**
@@ -64,9 +128,11 @@ public class Node {
     Node() {
         this.name = "Insert Name";
         this.content = "Insert Content";
-        children = new ArrayList<Node>(5);
+        children = new ChildList();
+        childrenView = Collections.unmodifiableList(children);
         
         bounds = new Rectangle(0, 0, 100, 100);
+        aggregate = new BranchAggregate(bounds);
     }
 
     /**
@@ -75,7 +141,17 @@ public class Node {
      * @param newName The desired name/title.
      */
     public void setName(final String newName) {
-        this.name = newName;
+        BPlusTree owner = lockTree();
+        try {
+            String oldName = this.name;
+            this.name = newName;
+            invalidateSnapshot();
+            if (tree != null) {
+                tree.nodeRenamed(this, oldName);
+            }
+        } finally {
+            unlockTree(owner);
+        }
     }
 
     /**
@@ -84,7 +160,17 @@ public class Node {
      * @param newContent The desired content/data.
      */
     public void setContent(final String newContent) {
-        this.content = newContent;
+        BPlusTree owner = lockTree();
+        try {
+            String oldContent = this.content;
+            this.content = newContent;
+            invalidateSnapshot();
+            if (tree != null) {
+                tree.nodeContentChanged(this, oldContent);
+            }
+        } finally {
+            unlockTree(owner);
+        }
     }
     
     /**
@@ -94,7 +180,149 @@ public class Node {
      * @param bounds The desired location and size.
      */
     public void setBounds(final Rectangle bounds) {
-        this.bounds = bounds;
+        BPlusTree owner = lockTree();
+        try {
+            Rectangle oldBounds = this.bounds;
+            this.bounds = bounds;
+            invalidateSnapshot();
+            aggregateChanging();
+            if (oldBounds == bounds) {
+                // changed in place, so the old bounds are gone
+                aggregate.markStale();
+            } else {
+                aggregate.lose(0, oldBounds);
+                aggregate.gain(0, bounds);
+            }
+            if (tree != null) {
+                tree.nodeBoundsChanged(this, oldBounds);
+            }
+        } finally {
+            unlockTree(owner);
+        }
+    }
+    
+    /**
+     * Retrieves this Node's entry in its parent's list of children.
+     * 
+     * @return The entry, or null if the list isn't a tree.
+     */
+    ChildList.Slot getChildSlot() {
+        return childSlot;
+    }
+    
+    /**
+     * Records this Node's entry in its parent's list of children. Only
+     * ChildList should call this.
+     * 
+     * @param slot The entry, or null.
+     */
+    void setChildSlot(final ChildList.Slot slot) {
+        this.childSlot = slot;
+    }
+    
+    /**
+     * Retrieves the frozen copy of this Node taken by the last snapshot.
+     * 
+     * @return The frozen copy, or null if this Node's branch has changed
+     * since.
+     */
+    NodeSnapshot getSnapshot() {
+        return snapshot;
+    }
+    
+    /**
+     * Records the frozen copy of this Node. Only NodeSnapshot should call
+     * this.
+     * 
+     * @param frozen The up to date frozen copy of this Node.
+     */
+    void setSnapshot(final NodeSnapshot frozen) {
+        this.snapshot = frozen;
+    }
+    
+    /**
+     * Throws away the frozen copies of this Node and its ancestors, as
+     * they no longer match. The walk up stops at the first ancestor that
+     * has already lost its copy, so a run of edits in one place costs
+     * little more than the first.
+     */
+    void invalidateSnapshot() {
+        for (Node n = this; n != null && n.snapshot != null; n = n.parent) {
+            n.snapshot = null;
+        }
+    }
+    
+    /**
+     * Retrieves the number which identifies this Node within its tree.
+     * 
+     * @return The id of this Node, or 0 if it has never been in a tree.
+     */
+    public long getId() {
+        return id;
+    }
+    
+    /**
+     * Sets the number which identifies this Node. Only BPlusTree, and code
+     * loading a saved tree, should call this, since ids must be unique
+     * within a tree.
+     * 
+     * @param newId The id, which should be positive.
+     */
+    void setId(final long newId) {
+        this.id = newId;
+    }
+    
+    /**
+     * Records which tree this Node belongs to. Only BPlusTree should call
+     * this, as it adds and removes Nodes.
+     * 
+     * @param owner The tree that now holds this Node, or null.
+     */
+    void setTree(final BPlusTree owner) {
+        this.tree = owner;
+    }
+    
+    /**
+     * Takes the write lock of the tree this Node belongs to, if any, before
+     * this Node is changed. The Node may be moved to another tree while
+     * waiting for the lock, so the lock is taken again if it was the wrong
+     * one.
+     * 
+     * @return The tree whose lock is now held, or null if this Node isn't
+     * in a tree.
+     */
+    private BPlusTree lockTree() {
+        while (true) {
+            BPlusTree owner = tree;
+            if (owner == null) {
+                return null;
+            }
+            owner.writeLock().lock();
+            if (owner == tree) {
+                return owner;
+            }
+            owner.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Releases the lock taken by lockTree().
+     * 
+     * @param owner The tree returned by lockTree().
+     */
+    private void unlockTree(final BPlusTree owner) {
+        if (owner != null) {
+            owner.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Retrieves the tree that this Node belongs to.
+     * 
+     * @return The tree holding this Node, or null if it isn't in a tree.
+     */
+    public BPlusTree getTree() {
+        return tree;
     }
     
     /**
@@ -135,7 +363,8 @@ public class Node {
     }
     
     /**
-     * Adds child to the list of this node's children.
+     * Adds child to the list of this node's children. If the child already
+     * had a parent, it is removed from that parent's children first.
      * 
      * returns true upon success
      * returns false if child is null
@@ -144,41 +373,444 @@ public class Node {
      * @return Whether or not the add was successful
      */
     public boolean addChild(final Node child) {
-        if (child == null || child == this) {
-            return false;
+        BPlusTree owner = lockTree();
+        try {
+            if (child == null || child == this || child.isAncestorOf(this)) {
+                return false;
+            }
+            if (child.parent == this) {
+                // Already one of our children.
+                return true;
+            }
+            return addChild(this.children.size(), child);
+        } finally {
+            unlockTree(owner);
+        }
+    }
+    
+    /**
+     * Adds child to this node's children at the requested index. If the
+     * child already had a parent, it is removed from that parent's children
+     * first, so the index counts the children after that removal. This is
+     * also how a child is moved to another place among its siblings.
+     * 
+     * returns true upon success
+     * returns false if child is null or is this node or one of its ancestors
+     * 
+     * @param index The index the child will have. Indexes past the end
+     * add the child at the end.
+     * @param child The node to be added
+     * @return Whether or not the add was successful
+     */
+    public boolean addChild(final int index, final Node child) {
+        BPlusTree owner = lockTree();
+        try {
+            if (child == null || child == this || child.isAncestorOf(this)) {
+                return false;
+            }
+
+            // Break the child's ties with its old parent
+            if (child.parent != null) {
+                child.parent.removeChild(child);
+            }
+
+            this.children.add(
+                    Math.max(0, Math.min(index, this.children.size())), child);
+            invalidateSnapshot();
+
+            // Set the child's parent to this
+            child.parent = this;
+            aggregateChanging();
+            aggregate.size += child.aggregate.size;
+            aggregate.gainChild(child.aggregate);
+            if (child.pendingChildren != null) {
+                // the child's own summary is still behind, so catch up later
+                child.reported = new BranchAggregate(child.aggregate);
+                pendingChildren.add(child);
+            }
+            if (tree != null) {
+                tree.nodeAdded(child);
+            }
+
+            return true;
+        } finally {
+            unlockTree(owner);
         }
-        
-        this.children.add(child);
-        
-        // Set the child's parent to this
-        child.setParent(this);
-        
-        return true;
     }
     
     /**
-     * Removes the requested node from among this node's children.
+     * Removes the requested node from among this node's children. For a
+     * node with many children this takes time proportional to the log of
+     * the number of children.
      * 
      * @param child The child node that is desired to be removed from this
      * node's list of children.
      * @return <code>true</code> if this node had child among its children
      */
     public boolean removeChild(final Node child) {
-    	
-    	if (child == null) {
-    		return false;
-    	}
-    	
-    	return this.children.remove(child);
+        BPlusTree owner = lockTree();
+        try {
+            if (child == null || child.parent != this) {
+                return false;
+            }
+
+            if (this.children.remove(child)) {
+                if (tree != null) {
+                    tree.nodeMoving(child);
+                }
+                child.parent = null;
+                invalidateSnapshot();
+                aggregateChanging();
+                BranchAggregate known = child.reported != null
+                                        ? child.reported : child.aggregate;
+                aggregate.size -= known.size;
+                aggregate.loseChild(known);
+                child.reported = null;
+                return true;
+            }
+            return false;
+        } finally {
+            unlockTree(owner);
+        }
+    }
+    
+    /**
+     * Takes this node out of its parent's children and puts its own
+     * children in its place, in the same order. This node is left with no
+     * parent and no children. The children are spliced in with one shift
+     * of the parent's list, so this takes time proportional to the number
+     * of children and siblings, rather than moving each child separately.
+     * 
+     * @return true if the children were hoisted, false if this node has no
+     * parent.
+     */
+    public boolean hoistChildren() {
+        BPlusTree owner = lockTree();
+        try {
+            Node p = this.parent;
+            if (p == null) {
+                return false;
+            }
+            int index = p.children.indexOf(this);
+            p.refreshAggregate();
+            p.aggregateChanging();
+            p.aggregate.size--;
+            p.aggregate.loseChild(this.aggregate);
+            for (Node child: this.children) {
+                p.aggregate.gainChild(child.aggregate);
+            }
+            this.aggregate = new BranchAggregate(bounds);
+            // The children must leave this list before they join the parent's.
+            List<Node> moved = new ArrayList<Node>(this.children);
+            if (p.tree != null) {
+                p.tree.nodeMoving(this);
+                for (Node child: moved) {
+                    p.tree.nodeMoving(child);
+                }
+            }
+            this.children.clear();
+            p.children.remove(index);
+            p.children.addAll(index, moved);
+            for (int i = 0; i < moved.size(); i++) {
+                moved.get(i).parent = p;
+            }
+            this.parent = null;
+            this.snapshot = null;
+            p.invalidateSnapshot();
+            if (p.tree != null) {
+                for (Node child: moved) {
+                    p.tree.nodeAdded(child);
+                }
+            }
+            return true;
+        } finally {
+            unlockTree(owner);
+        }
+    }
+    
+    /**
+     * Reverses hoistChildren(). A run of this node's children is replaced
+     * by wrapper, and the run becomes wrapper's children, in the same
+     * order.
+     * 
+     * @param index The index of the first child of the run.
+     * @param count The number of children in the run.
+     * @param wrapper A node with no parent and no children.
+     * @return true if the children were wrapped, false if wrapper already
+     * has a parent or children or the run is out of range.
+     */
+    public boolean wrapChildren(final int index, final int count,
+                                final Node wrapper) {
+        BPlusTree owner = lockTree();
+        try {
+            if (wrapper == null || wrapper.parent != null
+                    || !wrapper.children.isEmpty() || wrapper == this
+                    || index < 0 || count < 0
+                    || index + count > this.children.size()) {
+                return false;
+            }
+            refreshAggregate();
+            aggregateChanging();
+            wrapper.refreshAggregate();
+            List<Node> run = this.children.subList(index, index + count);
+            for (Node child: run) {
+                aggregate.loseChild(child.aggregate);
+                wrapper.aggregate.size += child.aggregate.size;
+                wrapper.aggregate.gainChild(child.aggregate);
+            }
+            aggregate.size++;
+            aggregate.gainChild(wrapper.aggregate);
+            // The run must leave this list before it joins the wrapper's.
+            List<Node> moved = new ArrayList<Node>(run);
+            if (tree != null) {
+                for (Node child: moved) {
+                    tree.nodeMoving(child);
+                }
+            }
+            run.clear();
+            wrapper.children.addAll(moved);
+            for (int i = 0; i < moved.size(); i++) {
+                moved.get(i).parent = wrapper;
+            }
+            this.children.add(index, wrapper);
+            wrapper.parent = this;
+            wrapper.snapshot = null;
+            invalidateSnapshot();
+            if (tree != null) {
+                tree.nodeAdded(wrapper);
+            }
+            return true;
+        } finally {
+            unlockTree(owner);
+        }
+    }
+    
+    /**
+     * Retrieves the number of descendants of this node: its children,
+     * their children, and so on. This takes constant time unless the
+     * branch has changed since it was last asked about.
+     * 
+     * @return The number of descendants.
+     */
+    public int getDescendantCount() {
+        return readAggregate().size - 1;
+    }
+    
+    /**
+     * Retrieves the number of levels of descendants below this node, so a
+     * node with children but no grandchildren has a height of 1. This
+     * takes constant time unless the branch has changed since it was last
+     * asked about.
+     * 
+     * @return The height of this node's branch.
+     */
+    public int getBranchHeight() {
+        return readAggregate().height;
+    }
+    
+    /**
+     * Retrieves the smallest box around the bounds of this node and all of
+     * its descendants, such as the area to scroll to or export for a
+     * branch. This takes constant time unless the branch has changed since
+     * it was last asked about.
+     * 
+     * @return The box, or null if no node of the branch has bounds.
+     */
+    public Rectangle getBranchBounds() {
+        return readAggregate().getBox();
+    }
+    
+    /**
+     * Brings this node's branch summary up to date and copies it. If the
+     * node is in a tree, this is done under the tree's read lock and cache
+     * lock, so that other readers bringing summaries up to date at the
+     * same time don't get in each other's way.
+     * 
+     * @return A copy of the summary.
+     */
+    private BranchAggregate readAggregate() {
+        BPlusTree owner = tree;
+        if (owner == null) {
+            refreshAggregate();
+            return new BranchAggregate(aggregate);
+        }
+        owner.readLock().lock();
+        try {
+            synchronized (owner.getCacheLock()) {
+                refreshAggregate();
+                return new BranchAggregate(aggregate);
+            }
+        } finally {
+            owner.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Retrieves the summary of this node's branch. Only BranchAggregate
+     * should call this, once the summary has been refreshed.
+     * 
+     * @return The summary.
+     */
+    BranchAggregate getAggregate() {
+        return aggregate;
+    }
+    
+    /**
+     * Must be called before this node's branch summary is changed. The
+     * summary each ancestor's parent last took in is kept, and each
+     * ancestor is listed as changed with its parent, up to the first
+     * ancestor already listed. Like invalidateSnapshot(), a run of edits
+     * in one place costs little more than the first.
+     */
+    private void aggregateChanging() {
+        for (Node n = this; n.parent != null && n.reported == null;
+                n = n.parent) {
+            n.reported = new BranchAggregate(n.aggregate);
+            Node p = n.parent;
+            if (p.pendingChildren == null) {
+                p.pendingChildren = new ArrayList<Node>();
+            } else if (p.pendingChildren.size()
+                       > 2 * p.children.size() + 8) {
+                // Children moving in and out leave entries behind, so
+                // drop those and any repeats before the list grows more.
+                Set<Node> live = new LinkedHashSet<Node>();
+                for (Node child: p.pendingChildren) {
+                    if (child.parent == p && child.reported != null) {
+                        live.add(child);
+                    }
+                }
+                p.pendingChildren = new ArrayList<Node>(live);
+            }
+            p.pendingChildren.add(n);
+        }
+        if (pendingChildren == null) {
+            pendingChildren = new ArrayList<Node>();
+        }
+    }
+    
+    /**
+     * Brings this node's branch summary up to date. Only the changed
+     * Nodes below it are visited, deepest first, and each swaps the
+     * summaries its changed children reported before for their new ones.
+     * A Node only looks at all of its children when it has lost the last
+     * child reaching its height or an edge of its box.
+     */
+    private void refreshAggregate() {
+        if (pendingChildren == null) {
+            return;
+        }
+        // Gather the changed Nodes top down, skipping entries left behind
+        // by children which have moved away and repeats of the same child.
+        List<Node> changed = new ArrayList<Node>();
+        Set<Node> seen = new HashSet<Node>();
+        changed.add(this);
+        for (int i = 0; i < changed.size(); i++) {
+            Node n = changed.get(i);
+            if (n.pendingChildren == null) {
+                continue;
+            }
+            for (Node child: n.pendingChildren) {
+                if (child.parent == n && child.reported != null
+                        && seen.add(child)) {
+                    changed.add(child);
+                }
+            }
+        }
+        for (int i = changed.size() - 1; i >= 0; i--) {
+            Node n = changed.get(i);
+            if (n.pendingChildren == null) {
+                continue;
+            }
+            for (Node child: n.pendingChildren) {
+                if (child.parent == n && child.reported != null) {
+                    n.aggregate.size += child.aggregate.size
+                                        - child.reported.size;
+                    n.aggregate.loseChild(child.reported);
+                    n.aggregate.gainChild(child.aggregate);
+                    child.reported = null;
+                }
+            }
+            n.pendingChildren = null;
+            if (n.aggregate.isStale()) {
+                n.aggregate.rescan(n, n.children);
+            }
+        }
     }
     
     /**
-     * Retrieves the list of this node's children.
+     * Retrieves a copy of the list of this node's children. Changes to
+     * the tree after this call are not reflected in the returned list.
+     * Use getChildrenView() when a snapshot isn't needed.
+     * 
      * @return A List containing the children of this node.
      */
     public List<Node> getChildren() {
         return new ArrayList<Node>(this.children);
     }
+    
+    /**
+     * Retrieves a read-only view of this node's children. Nothing is
+     * copied, so the view changes as the children change. The view must
+     * not be iterated while children are being added or removed.
+     * 
+     * @return An unmodifiable List backed by the children of this node.
+     */
+    public List<Node> getChildrenView() {
+        return this.childrenView;
+    }
+    
+    /**
+     * Retrieves the position of child among this node's children. For a
+     * node with many children this takes time proportional to the log of
+     * the number of children.
+     * 
+     * @param child The child node whose index is wanted.
+     * @return The index of child, or -1 if child is not a child of this node.
+     */
+    public int indexOfChild(final Node child) {
+        if (child == null || child.parent != this) {
+            return -1;
+        }
+        return this.children.indexOf(child);
+    }
+    
+    /**
+     * Calls the visitor on each of this node's children in order. The
+     * visitor can stop the walk early by returning false.
+     * 
+     * @param visitor The visitor to call for each child.
+     * @return false if the visitor stopped the walk, true otherwise.
+     */
+    public boolean forEachChild(final NodeVisitor visitor) {
+        for (int i = 0; i < this.children.size(); i++) {
+            if (!visitor.visit(this.children.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Calls the visitor on each of this node's descendants. Children are
+     * visited before their own children, and a node's descendants are
+     * visited before its next sibling, so no node is visited before its
+     * parent. The visitor can stop the walk early by returning false.
+     * <br>
+     * The walk keeps its own stack, so branches of any depth can be
+     * visited.
+     * 
+     * @param visitor The visitor to call for each descendant.
+     * @return false if the visitor stopped the walk, true otherwise.
+     */
+    public boolean visitDescendants(final NodeVisitor visitor) {
+        Iterator<Node> it = TreeTraversal.preOrder(this, false);
+        while (it.hasNext()) {
+            if (!visitor.visit(it.next())) {
+                return false;
+            }
+        }
+        return true;
+    }
 
     /**
      * Retrieves the child at the requested index.
@@ -211,17 +843,57 @@ public class Node {
     	return this.parent;
     }
     
+    /**
+     * Returns whether this node is an ancestor of the argument, that is,
+     * whether this node can be reached by following the argument's chain of
+     * parents. A node is not its own ancestor.
+     * <br>
+     * This walks the parent chain, so it takes time proportional to the
+     * depth of the argument and allocates nothing.
+     * 
+     * @param n The possible descendant of this node.
+     * @return true if this node is an ancestor of n, false otherwise.
+     */
+    public boolean isAncestorOf(final Node n) {
+        if (n == null || this.children.isEmpty()) {
+            // Without children, this node can't be anyone's ancestor.
+            return false;
+        }
+        for (Node p = n.parent; p != null; p = p.parent) {
+            if (p == this) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Returns the number of parents between this node and the top of its
+     * tree. A node without a parent has a depth of zero.
+     * 
+     * @return The depth of this node.
+     */
+    public int getDepth() {
+        int depth = 0;
+        for (Node p = this.parent; p != null; p = p.parent) {
+            depth++;
+        }
+        return depth;
+    }
+    
     /**
      * Returns a list containing all of this node's descendants.
      * 
      * @return A list containing all of this node's descendants.
      */
     public List<Node> getAllDescendants() {
-        ArrayList<Node> retVal = new ArrayList<Node>();
-        for (Node n: this.children) {
-            retVal.add(n);
-            retVal.addAll(n.getAllDescendants());
-        }
+        final ArrayList<Node> retVal = new ArrayList<Node>();
+        visitDescendants(new NodeVisitor() {
+            @Override
+            public boolean visit(final Node n) {
+                return retVal.add(n);
+            }
+        });
         return retVal;
     }
     
@@ -232,26 +904,24 @@ public class Node {
      * false otherwise.
      */
     public boolean setParent(final Node parent) {
-        if (parent == this.parent) {
-            // Already done, so return true.
-            return true;
-        }
-        // Break ties with the old parent
-        if (this.parent != null) {
-            this.parent.removeChild(this);
-        }
-        if (parent == null) {
-            this.parent = null;
-            return true;
+        BPlusTree owner = lockTree();
+        try {
+            if (parent == this.parent) {
+                // Already done, so return true.
+                return true;
+            }
+            // We don't want any Futurama Fry incidents...
+            if (parent == this || this.isAncestorOf(parent)) {
+                return false;
+            }
+            if (parent == null) {
+                // Break ties with the old parent
+                return this.parent.removeChild(this);
+            }
+            return parent.addChild(this);
+        } finally {
+            unlockTree(owner);
         }
-        // We don't want any Futurama Fry incidents...
-    	if (parent != this && !this.getAllDescendants().contains(parent)) {
-    	    this.parent = parent;
-        	if (!this.parent.getChildren().contains(this)) {
-        	    return this.parent.addChild(this);
-        	}
-    	}
-    	return false;
     }
 
 }
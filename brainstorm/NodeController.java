@@ -130,7 +130,9 @@ public class NodeController implements MouseListener,
             if (this.node != null) {
                 this.view.setName(this.node.getName());
                 this.view.setContent(this.node.getContent());
-                this.view.setBounds(this.node.getBounds());
+                if (this.node.getBounds() != null) {
+                    this.view.setBounds(this.node.getBounds());
+                }
             }
             this.parentLine.setChildNodeView(this.view);
         }
@@ -148,10 +150,47 @@ public class NodeController implements MouseListener,
         if (this.node != null && this.view != null) {
             this.view.setName(this.node.getName());
             this.view.setContent(this.node.getContent());
+            if (this.node.getBounds() != null) {
+                this.view.setBounds(this.node.getBounds());
+            }
+        }
+    }
+
+    /**
+     * Shows the Node's current name, content and bounds in the view. Only
+     * the parts that differ are set, so text being typed into the view
+     * isn't disturbed. A Node with no name or content shows an empty
+     * field.
+     */
+    public void refreshView() {
+        if (this.node == null || this.view == null) {
+            return;
+        }
+        if (!sameText(this.node.getName(), this.view.getName())) {
+            this.view.setName(this.node.getName());
+        }
+        if (!sameText(this.node.getContent(), this.view.getContent())) {
+            this.view.setContent(this.node.getContent());
+        }
+        if (this.node.getBounds() != null
+                && !this.node.getBounds().equals(this.view.getBounds())) {
             this.view.setBounds(this.node.getBounds());
         }
     }
 
+    /**
+     * Compares a Node's text with the text shown for it, where null is
+     * shown as an empty field.
+     * 
+     * @param text The Node's text, which may be null.
+     * @param shown The text in the view.
+     * @return true if the view already shows the text.
+     */
+    private static boolean sameText(final String text, final String shown) {
+        return text == null ? shown == null || shown.isEmpty()
+                            : text.equals(shown);
+    }
+
     /**
      * Returns the NodeView view object that is associated with this
      * controller.
@@ -231,6 +270,16 @@ public class NodeController implements MouseListener,
         return false;
     }
     
+    /**
+     * Stops listening to this controller's view and stops the line to the
+     * parent from following either view. Call this when the node is
+     * deleted, so the views it was watching don't keep it reachable.
+     */
+    public void dispose() {
+        parentLine.setParentNodeView(null);
+        associateView(null);
+    }
+    
     /**
      * Adds the child in the model, and establishes the link for the line.
      * 
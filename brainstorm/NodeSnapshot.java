@@ -0,0 +1,189 @@
+package brainstorm;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * A frozen copy of a Node and its descendants, as they were when a
+ * snapshot was taken. A NodeSnapshot never changes once it is made, so it
+ * can be read from any thread while the live tree keeps being edited.
+ * <br>
+ * Snapshots share structure. A live Node keeps its frozen copy until it or
+ * something below it changes, and the next snapshot reuses every copy that
+ * is still valid. Only the Nodes on the paths from an edit up to the root
+ * are copied again, so consecutive snapshots of a large tree hold the same
+ * objects for everything that wasn't edited in between.
+ */
+public final class NodeSnapshot {
+
+    /**
+     * The name/title of the Node.
+     */
+    private final String name;
+
+    /**
+     * The content/data of the Node.
+     */
+    private final String content;
+
+    /**
+     * The location and size of the Node.
+     */
+    private final int x, y, width, height;
+
+    /**
+     * Whether the Node had bounds, without which x, y, width and height
+     * are all 0.
+     */
+    private final boolean hasBounds;
+
+    /**
+     * The frozen copies of the Node's children.
+     */
+    private final NodeSnapshot[] children;
+
+    /**
+     * The number of Nodes in this branch, including this one.
+     */
+    private final int size;
+
+    /**
+     * Creates a frozen copy of a Node whose children already have theirs.
+     *
+     * @param n The live Node.
+     * @param children The frozen copies of its children, in order.
+     */
+    private NodeSnapshot(final Node n, final NodeSnapshot[] children) {
+        this.name = n.getName();
+        this.content = n.getContent();
+        Rectangle b = n.getBounds();
+        this.hasBounds = b != null;
+        this.x = hasBounds ? b.x : 0;
+        this.y = hasBounds ? b.y : 0;
+        this.width = hasBounds ? b.width : 0;
+        this.height = hasBounds ? b.height : 0;
+        this.children = children;
+        int total = 1;
+        for (NodeSnapshot child: children) {
+            total += child.size;
+        }
+        this.size = total;
+    }
+
+    /**
+     * Brings the frozen copy of a branch up to date and returns it. Only
+     * the Nodes which lost their copies since the last call are copied
+     * again; the rest are reused. This must be called on the thread that
+     * edits the tree.
+     *
+     * @param base The base Node of the branch.
+     * @return The frozen copy of the branch.
+     */
+    static NodeSnapshot freeze(final Node base) {
+        if (base.getSnapshot() != null) {
+            return base.getSnapshot();
+        }
+
+        // Walk down only into branches without a frozen copy, copying each
+        // Node once all of its children have their copies. The walk keeps
+        // its own stack so that deep trees can be frozen.
+        Node[] path = new Node[16];
+        int[] nextChild = new int[16];
+        int top = 0;
+        path[0] = base;
+        while (top >= 0) {
+            Node n = path[top];
+            int i = nextChild[top];
+            while (i < n.getNumChildren()
+                    && n.getChild(i).getSnapshot() != null) {
+                i++;
+            }
+            if (i < n.getNumChildren()) {
+                nextChild[top] = i + 1;
+                top++;
+                if (top == path.length) {
+                    path = Arrays.copyOf(path, top * 2);
+                    nextChild = Arrays.copyOf(nextChild, top * 2);
+                }
+                path[top] = n.getChild(i);
+                nextChild[top] = 0;
+            } else {
+                NodeSnapshot[] kids = new NodeSnapshot[n.getNumChildren()];
+                for (int k = 0; k < kids.length; k++) {
+                    kids[k] = n.getChild(k).getSnapshot();
+                }
+                n.setSnapshot(new NodeSnapshot(n, kids));
+                path[top--] = null;
+            }
+        }
+        return base.getSnapshot();
+    }
+
+    /**
+     * Retrieves the name/title of the Node.
+     *
+     * @return The name/title.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Retrieves the content/data of the Node.
+     *
+     * @return The content/data.
+     */
+    public String getContent() {
+        return content;
+    }
+
+    /**
+     * Retrieves the location and size of the Node.
+     *
+     * @return A new Rectangle holding the bounds, or null if the Node had
+     * none.
+     */
+    public Rectangle getBounds() {
+        return hasBounds ? new Rectangle(x, y, width, height) : null;
+    }
+
+    /**
+     * Retrieves the number of children of the Node.
+     *
+     * @return The number of children.
+     */
+    public int getNumChildren() {
+        return children.length;
+    }
+
+    /**
+     * Retrieves the frozen copy of a child of the Node.
+     *
+     * @param index The index of the child.
+     * @return The child, or null if the index is out of range.
+     */
+    public NodeSnapshot getChild(final int index) {
+        if (index < 0 || index >= children.length) {
+            return null;
+        }
+        return children[index];
+    }
+
+    /**
+     * Returns the number of Nodes in this branch.
+     *
+     * @return The number of Nodes, including this one.
+     */
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        String retVal = getName();
+        if (getContent() != null && !getContent().equals("")) {
+            retVal += ": " + getContent();
+        }
+        return retVal;
+    }
+}
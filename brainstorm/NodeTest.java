@@ -3,6 +3,11 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
 import org.junit.Test;
 
 /**
@@ -103,4 +108,153 @@ public class NodeTest {
 		assertEquals(parent.getNumChildren(), 3);
 	}
 
+	/**
+	 * This test makes sure that ancestor checks follow the parent chain
+	 * and that a node can't be made a child of its own descendant.
+	 * 
+	 * Tests the following methods:
+	 * Node.isAncestorOf(Node)
+	 * Node.getDepth()
+	 * Node.setParent(Node)
+	 * Node.addChild(Node)
+	 */
+	@Test
+	public void testAncestors1() {
+		Node grandparent = new Node("Grandparent", "");
+		Node parent = new Node("Parent", "");
+		Node child = new Node("Child", "");
+		grandparent.addChild(parent);
+		parent.addChild(child);
+		
+		assertTrue(grandparent.isAncestorOf(child));
+		assertFalse(child.isAncestorOf(grandparent));
+		assertFalse(child.isAncestorOf(child));
+		assertEquals(child.getDepth(), 2);
+		
+		assertFalse(grandparent.setParent(child));
+		assertFalse(child.addChild(grandparent));
+		assertEquals(child.getNumChildren(), 0);
+	}
+
+	/**
+	 * This test moves, removes, hoists, wraps and resizes nodes at random,
+	 * asking some nodes about their branches in between, and checks every
+	 * answer against a walk of the branch.
+	 * 
+	 * Tests the following methods:
+	 * Node.getDescendantCount()
+	 * Node.getBranchHeight()
+	 * Node.getBranchBounds()
+	 */
+	@Test
+	public void testAggregates1() {
+		Random rand = new Random(350);
+		List<Node> nodes = new ArrayList<Node>();
+		Node root = new Node("Root", "");
+		nodes.add(root);
+		for (int step = 0; step < 4000; step++) {
+			Node n = nodes.get(rand.nextInt(nodes.size()));
+			Node other = nodes.get(rand.nextInt(nodes.size()));
+			int action = rand.nextInt(10);
+			if (action < 4 || nodes.size() < 10) {
+				Node child = new Node("n" + step, "");
+				child.setBounds(new Rectangle(rand.nextInt(50),
+						rand.nextInt(50), rand.nextInt(20), rand.nextInt(20)));
+				n.addChild(rand.nextInt(n.getNumChildren() + 1), child);
+				nodes.add(child);
+			} else if (action < 6) {
+				other.addChild(n);
+			} else if (action == 6) {
+				n.setBounds(rand.nextBoolean() ? null
+						: new Rectangle(rand.nextInt(50), rand.nextInt(50),
+								rand.nextInt(20), rand.nextInt(20)));
+			} else if (action == 7 && n != root) {
+				n.hoistChildren();
+			} else if (action == 8 && n.getNumChildren() > 0) {
+				int index = rand.nextInt(n.getNumChildren());
+				int count = rand.nextInt(n.getNumChildren() - index + 1);
+				Node wrapper = new Node("w" + step, "");
+				n.wrapChildren(index, count, wrapper);
+				nodes.add(wrapper);
+			} else if (n.getParent() != null) {
+				n.getParent().removeChild(n);
+			}
+			if (step % 7 == 0) {
+				checkAggregates(nodes.get(rand.nextInt(nodes.size())));
+			}
+		}
+		for (Node n: nodes) {
+			checkAggregates(n);
+		}
+	}
+
+	/**
+	 * This test changes nodes' bounds in place, then gives them new
+	 * children, and checks that the boxes of their branches catch up.
+	 * 
+	 * Tests the following methods:
+	 * Node.setBounds(Rectangle)
+	 * Node.getBranchBounds()
+	 */
+	@Test
+	public void testAggregates2() {
+		Node root = new Node("Root", "");
+		Node a = new Node("A", "");
+		a.setBounds(new Rectangle(10, 0, 100, 100));
+		root.addChild(a);
+		checkAggregates(root);
+		a.getBounds().x = 500;
+		a.setBounds(a.getBounds());
+		a.addChild(new Node("B", ""));
+		checkAggregates(root);
+		checkAggregates(a);
+
+		Random rand = new Random(350);
+		List<Node> nodes = new ArrayList<Node>();
+		nodes.add(root);
+		nodes.add(a);
+		for (int step = 0; step < 2000; step++) {
+			Node n = nodes.get(rand.nextInt(nodes.size()));
+			if (rand.nextBoolean() && n.getBounds() != null) {
+				n.getBounds().x = rand.nextInt(1000) - 500;
+				n.getBounds().height = rand.nextInt(50);
+				n.setBounds(n.getBounds());
+			} else {
+				Node child = new Node("n" + step, "");
+				child.setBounds(new Rectangle(rand.nextInt(50),
+						rand.nextInt(50), rand.nextInt(20), rand.nextInt(20)));
+				n.addChild(child);
+				nodes.add(child);
+			}
+			checkAggregates(root);
+		}
+	}
+
+	/**
+	 * Checks a node's branch count, height and box against a walk of the
+	 * branch.
+	 * 
+	 * @param n The node to check.
+	 */
+	private void checkAggregates(final Node n) {
+		List<Node> branch = n.getAllDescendants();
+		int height = 0;
+		Rectangle box = n.getBounds() == null ? null
+				: new Rectangle(n.getBounds());
+		for (Node d: branch) {
+			int depth = 0;
+			for (Node p = d; p != n; p = p.getParent()) {
+				depth++;
+			}
+			height = Math.max(height, depth);
+			if (d.getBounds() != null) {
+				box = box == null ? new Rectangle(d.getBounds())
+						: box.union(d.getBounds());
+			}
+		}
+		assertEquals(branch.size(), n.getDescendantCount());
+		assertEquals(height, n.getBranchHeight());
+		assertEquals(box, n.getBranchBounds());
+	}
+
 }
@@ -0,0 +1,16 @@
+package brainstorm;
+
+/**
+ * A callback used to walk over Nodes without building lists of them.
+ * See Node.forEachChild() and Node.visitDescendants().
+ */
+public interface NodeVisitor {
+
+    /**
+     * Called once for each Node that is visited.
+     * 
+     * @param n The Node being visited.
+     * @return true to keep walking, false to stop the walk early.
+     */
+    boolean visit(Node n);
+}
@@ -104,6 +104,9 @@ public final class PopupMenuController {
         case "Delete This Node":
             tc.removeNode(tc.findController(nv));
             break;
+        case "Delete This Branch":
+            tc.deleteBranch(tc.findController(nv));
+            break;
         case "Move This Node":
             System.out.println("\"Move This Node\" Clicked!");
             break;
@@ -114,6 +117,8 @@ public final class PopupMenuController {
             // Do nothing
             break;
         }
+        // Don't hold on to a view that may have just been deleted.
+        lastClicked = null;
     }
     
     /**
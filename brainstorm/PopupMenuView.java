@@ -18,7 +18,8 @@ public final class PopupMenuView extends JPopupMenu {
     /**
      * Menu options.
      */
-	private JMenuItem deleteNodeItem,  moveNodeItem, createChildNode;
+	private JMenuItem deleteNodeItem, deleteBranchItem, moveNodeItem,
+	                  createChildNode;
 	
 	/**
 	 * Constructor. Builds the menu.
@@ -34,6 +35,9 @@ public final class PopupMenuView extends JPopupMenu {
         deleteNodeItem = new JMenuItem("Delete This Node");
         add(deleteNodeItem);
         
+        deleteBranchItem = new JMenuItem("Delete This Branch");
+        add(deleteBranchItem);
+        
         moveNodeItem = new JMenuItem("Move This Node");
         add(moveNodeItem);
 	}
@@ -45,6 +49,7 @@ public final class PopupMenuView extends JPopupMenu {
 	 */
 	public void associateActionListener(final ActionListener al) {
 	    deleteNodeItem.addActionListener(al);
+	    deleteBranchItem.addActionListener(al);
         moveNodeItem.addActionListener(al);
         createChildNode.addActionListener(al);
 	}
@@ -0,0 +1,407 @@
+package brainstorm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An inverted index over the names and contents of the Nodes in a tree.
+ * The index is kept up to date one Node at a time by the BPlusTree that
+ * owns it, so searching never has to walk the tree.
+ * <br>
+ * Three maps are kept:
+ * <ul>
+ * <li>words (runs of letters and digits) mapped to the Nodes that use
+ * them, sorted so that every word with a given prefix can be found with
+ * one range lookup,</li>
+ * <li>three-character sequences mapped to the Nodes that contain them,
+ * which narrows substring searches down to a few candidates, and</li>
+ * <li>the exact content of every Node, for BPlusTree.search().</li>
+ * </ul>
+ * All matching ignores case except the exact content lookup. Node does not
+ * override equals(), so every set here is keyed on Node identity.
+ */
+public class SearchIndex {
+
+    /**
+     * The length of the character sequences in the substring index.
+     */
+    private static final int GRAM = 3;
+
+    /**
+     * Lower case words mapped to the Nodes whose name or content contain
+     * them.
+     */
+    private TreeMap<String, Set<Node>> words;
+
+    /**
+     * Lower case three-character sequences mapped to the Nodes whose name
+     * or content contain them.
+     */
+    private Map<String, Set<Node>> trigrams;
+
+    /**
+     * Exact contents mapped to the Nodes that have that content. The sets
+     * remember the order the Nodes were indexed in.
+     */
+    private Map<String, Set<Node>> contents;
+
+    /**
+     * Creates an empty index.
+     */
+    public SearchIndex() {
+        clear();
+    }
+
+    /**
+     * Removes every Node from the index.
+     */
+    public void clear() {
+        words = new TreeMap<String, Set<Node>>();
+        trigrams = new HashMap<String, Set<Node>>();
+        contents = new HashMap<String, Set<Node>>();
+    }
+
+    /**
+     * Adds a Node's name and content to the index.
+     *
+     * @param n The Node to index.
+     */
+    public void add(final Node n) {
+        addText(n, n.getName());
+        addText(n, n.getContent());
+        put(contents, text(n.getContent()), n);
+    }
+
+    /**
+     * Removes a Node from the index.
+     *
+     * @param n The Node to remove. Its name and content must be the same as
+     * when it was indexed.
+     */
+    public void remove(final Node n) {
+        // Nothing of the Node stays, so words and sequences found in both
+        // its name and its content go too.
+        removeText(n, n.getName(), null);
+        removeText(n, n.getContent(), null);
+        take(contents, text(n.getContent()), n);
+    }
+
+    /**
+     * Updates the index after a Node's name has changed.
+     *
+     * @param n The renamed Node.
+     * @param oldName The name the Node was indexed under.
+     */
+    public void nameChanged(final Node n, final String oldName) {
+        removeText(n, oldName, n.getContent());
+        addText(n, n.getName());
+    }
+
+    /**
+     * Updates the index after a Node's content has changed.
+     *
+     * @param n The changed Node.
+     * @param oldContent The content the Node was indexed under.
+     */
+    public void contentChanged(final Node n, final String oldContent) {
+        removeText(n, oldContent, n.getName());
+        addText(n, n.getContent());
+        take(contents, text(oldContent), n);
+        put(contents, text(n.getContent()), n);
+    }
+
+    /**
+     * Returns the first indexed Node whose content is exactly the argument.
+     *
+     * @param content The content being searched for.
+     * @return The Node indexed first with that content, or null if there
+     * isn't one.
+     */
+    public Node findContent(final String content) {
+        Set<Node> found = contents.get(text(content));
+        if (found == null || found.isEmpty()) {
+            return null;
+        }
+        return found.iterator().next();
+    }
+
+    /**
+     * Returns every indexed Node whose name or content contains the query
+     * anywhere, ignoring case.
+     *
+     * @param query The text being searched for.
+     * @return A List of the matching Nodes.
+     */
+    public List<Node> findSubstring(final String query) {
+        List<Node> retVal = new ArrayList<Node>();
+        if (query == null || query.isEmpty()) {
+            return retVal;
+        }
+        String q = query.toLowerCase();
+
+        Collection<Node> candidates;
+        if (q.length() >= GRAM) {
+            // Only nodes that contain every sequence of the query can match.
+            List<Set<Node>> postings = new ArrayList<Set<Node>>();
+            for (int i = 0; i + GRAM <= q.length(); i++) {
+                Set<Node> posting = trigrams.get(q.substring(i, i + GRAM));
+                if (posting == null) {
+                    return retVal;
+                }
+                postings.add(posting);
+            }
+            candidates = intersect(postings);
+        } else {
+            // Too short for the sequence index, so look through the keys.
+            // There are far fewer distinct keys than there are nodes.
+            candidates = new LinkedHashSet<Node>();
+            for (Map.Entry<String, Set<Node>> e: trigrams.entrySet()) {
+                if (e.getKey().contains(q)) {
+                    candidates.addAll(e.getValue());
+                }
+            }
+            for (Map.Entry<String, Set<Node>> e: words.entrySet()) {
+                if (e.getKey().contains(q)) {
+                    candidates.addAll(e.getValue());
+                }
+            }
+        }
+
+        for (Node n: candidates) {
+            if (containsIgnoreCase(n.getName(), q)
+                    || containsIgnoreCase(n.getContent(), q)) {
+                retVal.add(n);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Returns every indexed Node with a word in its name or content that
+     * starts with the prefix, ignoring case.
+     *
+     * @param prefix The start of the words being searched for.
+     * @return A List of the matching Nodes.
+     */
+    public List<Node> findPrefix(final String prefix) {
+        if (prefix == null || prefix.isEmpty()) {
+            return new ArrayList<Node>();
+        }
+        return new ArrayList<Node>(prefixMatches(prefix.toLowerCase()));
+    }
+
+    /**
+     * Returns every indexed Node which has, for each word of the query,
+     * a word in its name or content that starts with that query word.
+     * This is what find-as-you-type needs, since the last word is usually
+     * only partly typed.
+     *
+     * @param query One or more words separated by spaces or punctuation.
+     * @return A List of the matching Nodes.
+     */
+    public List<Node> findAllTerms(final String query) {
+        List<String> terms = tokenize(query);
+        if (terms.isEmpty()) {
+            return new ArrayList<Node>();
+        }
+        List<Set<Node>> postings = new ArrayList<Set<Node>>();
+        for (String term: terms) {
+            Set<Node> matches = prefixMatches(term);
+            if (matches.isEmpty()) {
+                return new ArrayList<Node>();
+            }
+            postings.add(matches);
+        }
+        return new ArrayList<Node>(intersect(postings));
+    }
+
+    /**
+     * Collects every Node that has a word starting with the prefix.
+     *
+     * @param prefix A lower case prefix.
+     * @return The Set of matching Nodes.
+     */
+    private Set<Node> prefixMatches(final String prefix) {
+        Set<Node> retVal = new LinkedHashSet<Node>();
+        for (Set<Node> posting: words.subMap(prefix, true,
+                prefix + Character.MAX_VALUE, true).values()) {
+            retVal.addAll(posting);
+        }
+        return retVal;
+    }
+
+    /**
+     * Finds the Nodes that are in every one of the sets. The smallest set
+     * is walked and the rest are probed.
+     *
+     * @param sets The sets to intersect. There must be at least one.
+     * @return The Nodes common to all of the sets.
+     */
+    private static Set<Node> intersect(final List<Set<Node>> sets) {
+        Set<Node> smallest = sets.get(0);
+        for (Set<Node> s: sets) {
+            if (s.size() < smallest.size()) {
+                smallest = s;
+            }
+        }
+        Set<Node> retVal = new LinkedHashSet<Node>();
+        for (Node n: smallest) {
+            boolean inAll = true;
+            for (Set<Node> s: sets) {
+                if (s != smallest && !s.contains(n)) {
+                    inAll = false;
+                    break;
+                }
+            }
+            if (inAll) {
+                retVal.add(n);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Adds the words and sequences of a piece of text to the index.
+     *
+     * @param n The Node that the text belongs to.
+     * @param str The text. May be null.
+     */
+    private void addText(final Node n, final String str) {
+        String lower = text(str).toLowerCase();
+        for (String word: tokenize(lower)) {
+            put(words, word, n);
+        }
+        for (int i = 0; i + GRAM <= lower.length(); i++) {
+            put(trigrams, lower.substring(i, i + GRAM), n);
+        }
+    }
+
+    /**
+     * Removes the words and sequences of a piece of text from the index,
+     * except for the ones the Node still uses in its other text.
+     *
+     * @param n The Node that the text belonged to.
+     * @param str The text being removed. May be null.
+     * @param other The Node's other text, which stays in the index.
+     */
+    private void removeText(final Node n, final String str,
+                            final String other) {
+        String lower = text(str).toLowerCase();
+        String keep = text(other).toLowerCase();
+        List<String> keepWords = tokenize(keep);
+        for (String word: tokenize(lower)) {
+            if (!keepWords.contains(word)) {
+                take(words, word, n);
+            }
+        }
+        for (int i = 0; i + GRAM <= lower.length(); i++) {
+            String gram = lower.substring(i, i + GRAM);
+            if (!keep.contains(gram)) {
+                take(trigrams, gram, n);
+            }
+        }
+    }
+
+    /**
+     * Splits text into lower case words made of letters and digits.
+     *
+     * @param str The text to split. May be null.
+     * @return The List of words in the text.
+     */
+    static List<String> tokenize(final String str) {
+        List<String> retVal = new ArrayList<String>();
+        String lower = text(str).toLowerCase();
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean wordChar = i < lower.length()
+                    && Character.isLetterOrDigit(lower.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                retVal.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Checks whether str contains the lower case query, ignoring case,
+     * without making a lower case copy of str.
+     *
+     * @param str The text to look in. May be null.
+     * @param lowerQuery The lower case text to look for.
+     * @return true if the query was found in the text.
+     */
+    private static boolean containsIgnoreCase(final String str,
+                                              final String lowerQuery) {
+        if (str == null) {
+            return false;
+        }
+        int last = str.length() - lowerQuery.length();
+        for (int i = 0; i <= last; i++) {
+            if (str.regionMatches(true, i, lowerQuery, 0,
+                                  lowerQuery.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Treats a missing name or content as empty text.
+     *
+     * @param str The text. May be null.
+     * @return The text, or an empty String if it was null.
+     */
+    private static String text(final String str) {
+        if (str == null) {
+            return "";
+        }
+        return str;
+    }
+
+    /**
+     * Adds a Node to the set kept under a key.
+     *
+     * @param map The map to add to.
+     * @param key The key.
+     * @param n The Node.
+     */
+    private static void put(final Map<String, Set<Node>> map,
+                            final String key, final Node n) {
+        Set<Node> set = map.get(key);
+        if (set == null) {
+            // Keep the order so results come back in the order the Nodes
+            // were indexed.
+            set = new LinkedHashSet<Node>(4);
+            map.put(key, set);
+        }
+        set.add(n);
+    }
+
+    /**
+     * Removes a Node from the set kept under a key, and drops the key when
+     * its set becomes empty.
+     *
+     * @param map The map to remove from.
+     * @param key The key.
+     * @param n The Node.
+     */
+    private static void take(final Map<String, Set<Node>> map,
+                             final String key, final Node n) {
+        Set<Node> set = map.get(key);
+        if (set != null) {
+            set.remove(n);
+            if (set.isEmpty()) {
+                map.remove(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,674 @@
+package brainstorm;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * An R-tree over the bounds of the Nodes of a tree, so that the Nodes in
+ * an area of the screen, the Nodes under a point and the Node nearest a
+ * point can be found without looking at every Node.
+ * <br>
+ * Every page of the R-tree holds between MIN_ENTRIES and MAX_ENTRIES
+ * items, except the top page, and knows the smallest box around all of
+ * them. Leaf pages hold one entry per Node. A search only walks down into
+ * pages whose box touches the area searched, so it costs O(log n) plus
+ * the number of results when the Nodes are spread out. Pages which
+ * overflow are split in two by Guttman's quadratic split, and pages which
+ * underflow after a removal are dissolved and their entries put back in.
+ * <br>
+ * Boxes are closed, so a Node with zero width or height can still be
+ * found, and two Nodes which only share an edge touch. The index keeps
+ * its own copy of each Node's bounds, so it must be told through
+ * update() when a Node is given new bounds. Nodes with no bounds aren't
+ * indexed.
+ */
+public class SpatialIndex {
+
+    /**
+     * The most items a page holds.
+     */
+    private static final int MAX_ENTRIES = 16;
+
+    /**
+     * The fewest items a page other than the top page holds.
+     */
+    private static final int MIN_ENTRIES = 6;
+
+    /**
+     * The top page of the tree.
+     */
+    private Page top;
+
+    /**
+     * The entry that each indexed Node is stored under.
+     */
+    private Map<Node, Entry> entries;
+
+    /**
+     * Creates an empty index.
+     */
+    public SpatialIndex() {
+        clear();
+    }
+
+    /**
+     * Removes every Node from the index.
+     */
+    public void clear() {
+        top = new Page(true);
+        entries = new IdentityHashMap<Node, Entry>();
+    }
+
+    /**
+     * Retrieves the number of Nodes in the index.
+     *
+     * @return The number of Nodes.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Adds a Node to the index under its current bounds. Nothing happens if
+     * the Node is already indexed or has no bounds.
+     *
+     * @param n The Node to add.
+     * @return true if the Node was added, false otherwise.
+     */
+    public boolean add(final Node n) {
+        if (n == null || n.getBounds() == null || entries.containsKey(n)) {
+            return false;
+        }
+        Entry e = new Entry(n);
+        entries.put(n, e);
+        insert(e);
+        return true;
+    }
+
+    /**
+     * Removes a Node from the index.
+     *
+     * @param n The Node to remove.
+     * @return true if the Node was in the index, false otherwise.
+     */
+    public boolean remove(final Node n) {
+        Entry e = entries.remove(n);
+        if (e == null) {
+            return false;
+        }
+        delete(e);
+        return true;
+    }
+
+    /**
+     * Moves a Node to its current bounds within the index, adding or
+     * removing it if it has gained or lost its bounds. When the Node stays
+     * inside the box of its leaf page, as it does after a short drag, the
+     * entry is changed where it is.
+     *
+     * @param n The Node which has been given new bounds.
+     */
+    public void update(final Node n) {
+        Entry e = entries.get(n);
+        Rectangle b = n.getBounds();
+        if (e == null) {
+            add(n);
+        } else if (b == null) {
+            remove(n);
+        } else if (!e.sameAs(b)) {
+            Page leaf = e.parent;
+            if (leaf.covers(b)) {
+                // the box of the leaf page, and so of every page above it,
+                // still covers the entry
+                e.set(b);
+            } else {
+                delete(e);
+                e.set(b);
+                insert(e);
+            }
+        }
+    }
+
+    /**
+     * Lists every Node whose bounds touch an area.
+     *
+     * @param area The area.
+     * @return The Nodes touching the area, in no particular order.
+     */
+    public List<Node> intersecting(final Rectangle area) {
+        List<Node> found = new ArrayList<Node>();
+        if (area == null || top.count == 0) {
+            return found;
+        }
+        int minX = area.x;
+        int minY = area.y;
+        int maxX = area.x + area.width;
+        int maxY = area.y + area.height;
+
+        List<Page> pending = new ArrayList<Page>();
+        pending.add(top);
+        while (!pending.isEmpty()) {
+            Page p = pending.remove(pending.size() - 1);
+            for (int i = 0; i < p.count; i++) {
+                Item item = p.items[i];
+                if (item.touches(minX, minY, maxX, maxY)) {
+                    if (p.leaf) {
+                        found.add(((Entry) item).node);
+                    } else {
+                        pending.add((Page) item);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Lists every Node whose bounds hold a point, which is how a click is
+     * matched to the Nodes under it.
+     *
+     * @param x The x coordinate of the point.
+     * @param y The y coordinate of the point.
+     * @return The Nodes under the point, in no particular order.
+     */
+    public List<Node> containing(final int x, final int y) {
+        return intersecting(new Rectangle(x, y, 0, 0));
+    }
+
+    /**
+     * Finds the Node whose bounds are closest to a point. Pages are opened
+     * in order of how close their boxes are to the point, so the search
+     * stops as soon as the closest entry seen is nearer than every page
+     * not yet opened.
+     *
+     * @param x The x coordinate of the point.
+     * @param y The y coordinate of the point.
+     * @return The nearest Node, one holding the point if there is one, or
+     * null if the index is empty.
+     */
+    public Node nearest(final int x, final int y) {
+        if (top.count == 0) {
+            return null;
+        }
+        PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>();
+        queue.add(new Candidate(top, 0));
+        while (!queue.isEmpty()) {
+            Candidate c = queue.poll();
+            if (c.item instanceof Entry) {
+                return ((Entry) c.item).node;
+            }
+            Page p = (Page) c.item;
+            for (int i = 0; i < p.count; i++) {
+                queue.add(new Candidate(p.items[i],
+                                        p.items[i].distance(x, y)));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Puts an entry into the leaf page whose box grows least to take it,
+     * splitting pages on the way back up as needed.
+     *
+     * @param e The entry.
+     */
+    private void insert(final Entry e) {
+        Page p = top;
+        while (!p.leaf) {
+            Page best = null;
+            long bestGrowth = 0;
+            long bestArea = 0;
+            for (int i = 0; i < p.count; i++) {
+                Page child = (Page) p.items[i];
+                long area = child.area();
+                long growth = child.areaWith(e) - area;
+                if (best == null || growth < bestGrowth
+                        || (growth == bestGrowth && area < bestArea)) {
+                    best = child;
+                    bestGrowth = growth;
+                    bestArea = area;
+                }
+            }
+            p = best;
+        }
+        p.append(e);
+
+        while (p != null) {
+            Page parent = p.parent;
+            if (p.count > MAX_ENTRIES) {
+                Page sibling = split(p);
+                if (parent == null) {
+                    parent = new Page(false);
+                    parent.append(p);
+                    parent.append(sibling);
+                    parent.fit();
+                    top = parent;
+                } else {
+                    parent.append(sibling);
+                }
+            } else {
+                p.include(e);
+            }
+            p = parent;
+        }
+    }
+
+    /**
+     * Takes an entry out of its leaf page. Pages left with too few items
+     * are dropped and everything under them is put back in, and the boxes
+     * of the pages above are shrunk to fit.
+     *
+     * @param e The entry.
+     */
+    private void delete(final Entry e) {
+        Page p = e.parent;
+        p.drop(e);
+        List<Entry> orphans = new ArrayList<Entry>();
+        while (p.parent != null) {
+            Page parent = p.parent;
+            if (p.count < MIN_ENTRIES) {
+                parent.drop(p);
+                collect(p, orphans);
+            } else {
+                p.fit();
+            }
+            p = parent;
+        }
+        p.fit();
+        while (!top.leaf && top.count == 1) {
+            top = (Page) top.items[0];
+            top.parent = null;
+        }
+        if (top.count == 0) {
+            top = new Page(true);
+        }
+        for (Entry orphan: orphans) {
+            insert(orphan);
+        }
+    }
+
+    /**
+     * Gathers every entry under a page.
+     *
+     * @param page The page.
+     * @param into The list to add the entries to.
+     */
+    private static void collect(final Page page, final List<Entry> into) {
+        List<Page> pending = new ArrayList<Page>();
+        pending.add(page);
+        while (!pending.isEmpty()) {
+            Page p = pending.remove(pending.size() - 1);
+            for (int i = 0; i < p.count; i++) {
+                if (p.leaf) {
+                    into.add((Entry) p.items[i]);
+                } else {
+                    pending.add((Page) p.items[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits an overfull page in two using Guttman's quadratic split. The
+     * two items which would waste the most space in one box start the two
+     * groups, then the rest are handed out one at a time, the item with
+     * the strongest preference first, until one group must take all that
+     * are left to reach MIN_ENTRIES.
+     *
+     * @param p The overfull page, which keeps the first group.
+     * @return A new page holding the second group.
+     */
+    private static Page split(final Page p) {
+        Item[] items = new Item[p.count];
+        System.arraycopy(p.items, 0, items, 0, p.count);
+        int n = items.length;
+
+        int seedA = 0;
+        int seedB = 1;
+        long worst = Long.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                long waste = items[i].areaWith(items[j]) - items[i].area()
+                             - items[j].area();
+                if (waste > worst) {
+                    worst = waste;
+                    seedA = i;
+                    seedB = j;
+                }
+            }
+        }
+
+        Page a = p;
+        Page b = new Page(p.leaf);
+        Arrays.fill(a.items, null);
+        a.count = 0;
+        a.append(items[seedA]);
+        a.fit();
+        b.append(items[seedB]);
+        b.fit();
+        items[seedA] = null;
+        items[seedB] = null;
+
+        for (int left = n - 2; left > 0; left--) {
+            if (a.count + left == MIN_ENTRIES) {
+                takeRest(items, a);
+                break;
+            }
+            if (b.count + left == MIN_ENTRIES) {
+                takeRest(items, b);
+                break;
+            }
+            int pick = -1;
+            long pickA = 0;
+            long pickB = 0;
+            for (int i = 0; i < n; i++) {
+                if (items[i] != null) {
+                    long growA = a.areaWith(items[i]) - a.area();
+                    long growB = b.areaWith(items[i]) - b.area();
+                    if (pick < 0 || Math.abs(growA - growB)
+                                    > Math.abs(pickA - pickB)) {
+                        pick = i;
+                        pickA = growA;
+                        pickB = growB;
+                    }
+                }
+            }
+            Page into;
+            if (pickA != pickB) {
+                into = pickA < pickB ? a : b;
+            } else if (a.area() != b.area()) {
+                into = a.area() < b.area() ? a : b;
+            } else {
+                into = a.count <= b.count ? a : b;
+            }
+            into.append(items[pick]);
+            into.include(items[pick]);
+            items[pick] = null;
+        }
+        return b;
+    }
+
+    /**
+     * Puts every item not yet handed out by a split into one page.
+     *
+     * @param items The items, with those already handed out set to null.
+     * @param into The page.
+     */
+    private static void takeRest(final Item[] items, final Page into) {
+        for (int i = 0; i < items.length; i++) {
+            if (items[i] != null) {
+                into.append(items[i]);
+                into.include(items[i]);
+                items[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Anything held by a page, along with the box around it.
+     */
+    private abstract static class Item {
+
+        /**
+         * The left edge of the box.
+         */
+        int minX;
+
+        /**
+         * The top edge of the box.
+         */
+        int minY;
+
+        /**
+         * The right edge of the box.
+         */
+        int maxX;
+
+        /**
+         * The bottom edge of the box.
+         */
+        int maxY;
+
+        /**
+         * The page holding this item, or null for the top page.
+         */
+        Page parent;
+
+        /**
+         * Returns true if this item's box touches a box.
+         *
+         * @param x1 The left edge of the other box.
+         * @param y1 The top edge of the other box.
+         * @param x2 The right edge of the other box.
+         * @param y2 The bottom edge of the other box.
+         * @return true if the boxes touch, false otherwise.
+         */
+        boolean touches(final int x1, final int y1,
+                        final int x2, final int y2) {
+            return minX <= x2 && x1 <= maxX && minY <= y2 && y1 <= maxY;
+        }
+
+        /**
+         * Retrieves the area of this item's box.
+         *
+         * @return The area.
+         */
+        long area() {
+            return (long) (maxX - minX) * (maxY - minY);
+        }
+
+        /**
+         * Retrieves the area of the smallest box around both this item and
+         * another.
+         *
+         * @param other The other item.
+         * @return The area.
+         */
+        long areaWith(final Item other) {
+            long w = Math.max(maxX, other.maxX) - Math.min(minX, other.minX);
+            long h = Math.max(maxY, other.maxY) - Math.min(minY, other.minY);
+            return w * h;
+        }
+
+        /**
+         * Retrieves the squared distance from a point to this item's box,
+         * which is 0 if the point is inside it.
+         *
+         * @param x The x coordinate of the point.
+         * @param y The y coordinate of the point.
+         * @return The squared distance.
+         */
+        long distance(final int x, final int y) {
+            long dx = Math.max(0, Math.max(minX - x, x - maxX));
+            long dy = Math.max(0, Math.max(minY - y, y - maxY));
+            return dx * dx + dy * dy;
+        }
+    }
+
+    /**
+     * The entry for one Node, holding a copy of its bounds.
+     */
+    private static final class Entry extends Item {
+
+        /**
+         * The indexed Node.
+         */
+        final Node node;
+
+        /**
+         * Creates an entry for a Node at its current bounds.
+         *
+         * @param n The Node, which must have bounds.
+         */
+        Entry(final Node n) {
+            node = n;
+            set(n.getBounds());
+        }
+
+        /**
+         * Copies a Node's bounds into this entry.
+         *
+         * @param b The bounds.
+         */
+        void set(final Rectangle b) {
+            minX = b.x;
+            minY = b.y;
+            maxX = b.x + b.width;
+            maxY = b.y + b.height;
+        }
+
+        /**
+         * Returns true if this entry already holds the given bounds.
+         *
+         * @param b The bounds.
+         * @return true if nothing has changed, false otherwise.
+         */
+        boolean sameAs(final Rectangle b) {
+            return minX == b.x && minY == b.y && maxX == b.x + b.width
+                   && maxY == b.y + b.height;
+        }
+    }
+
+    /**
+     * A page of the R-tree. A leaf page holds entries and any other page
+     * holds pages.
+     */
+    private static final class Page extends Item {
+
+        /**
+         * Whether this page holds entries rather than pages.
+         */
+        final boolean leaf;
+
+        /**
+         * The items, with room for one more than MAX_ENTRIES so that a
+         * page can overflow before it is split.
+         */
+        final Item[] items = new Item[MAX_ENTRIES + 1];
+
+        /**
+         * The number of items.
+         */
+        int count;
+
+        /**
+         * Creates an empty page.
+         *
+         * @param leaf Whether the page will hold entries.
+         */
+        Page(final boolean leaf) {
+            this.leaf = leaf;
+        }
+
+        /**
+         * Adds an item to this page without touching its box.
+         *
+         * @param item The item.
+         */
+        void append(final Item item) {
+            items[count++] = item;
+            item.parent = this;
+        }
+
+        /**
+         * Takes an item out of this page without touching its box.
+         *
+         * @param item The item.
+         */
+        void drop(final Item item) {
+            for (int i = 0; i < count; i++) {
+                if (items[i] == item) {
+                    items[i] = items[--count];
+                    items[count] = null;
+                    item.parent = null;
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Grows this page's box to take in an item's box, or takes on the
+         * item's box if this page holds only that item.
+         *
+         * @param item The item.
+         */
+        void include(final Item item) {
+            if (count == 1) {
+                fit();
+                return;
+            }
+            minX = Math.min(minX, item.minX);
+            minY = Math.min(minY, item.minY);
+            maxX = Math.max(maxX, item.maxX);
+            maxY = Math.max(maxY, item.maxY);
+        }
+
+        /**
+         * Shrinks this page's box to the smallest one around its items.
+         */
+        void fit() {
+            if (count == 0) {
+                minX = 0;
+                minY = 0;
+                maxX = 0;
+                maxY = 0;
+                return;
+            }
+            minX = items[0].minX;
+            minY = items[0].minY;
+            maxX = items[0].maxX;
+            maxY = items[0].maxY;
+            for (int i = 1; i < count; i++) {
+                include(items[i]);
+            }
+        }
+
+        /**
+         * Returns true if this page's box covers a Node's bounds.
+         *
+         * @param b The bounds.
+         * @return true if the bounds fit inside the box, false otherwise.
+         */
+        boolean covers(final Rectangle b) {
+            return minX <= b.x && minY <= b.y && b.x + b.width <= maxX
+                   && b.y + b.height <= maxY;
+        }
+    }
+
+    /**
+     * An item waiting to be looked at by a nearest Node search.
+     */
+    private static final class Candidate implements Comparable<Candidate> {
+
+        /**
+         * The item.
+         */
+        final Item item;
+
+        /**
+         * The squared distance from the point searched to the item's box.
+         */
+        final long distance;
+
+        /**
+         * Creates a candidate.
+         *
+         * @param item The item.
+         * @param distance The squared distance to the item's box.
+         */
+        Candidate(final Item item, final long distance) {
+            this.item = item;
+            this.distance = distance;
+        }
+
+        @Override
+        public int compareTo(final Candidate other) {
+            return Long.compare(distance, other.distance);
+        }
+    }
+}
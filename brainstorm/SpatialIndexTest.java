@@ -0,0 +1,173 @@
+package brainstorm;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * This class contains the JUnit tests for the SpatialIndex class.
+ *
+ */
+public class SpatialIndexTest {
+
+    /**
+     * This test adds, moves and removes Nodes at random and checks area,
+     * point and nearest Node queries against a scan of every Node.
+     *
+     * Tests the following methods:
+     * SpatialIndex.add(Node)
+     * SpatialIndex.remove(Node)
+     * SpatialIndex.update(Node)
+     * SpatialIndex.intersecting(Rectangle)
+     * SpatialIndex.containing(int, int)
+     * SpatialIndex.nearest(int, int)
+     */
+    @Test
+    public void testRandomEdits1() {
+        Random rand = new Random(350);
+        SpatialIndex index = new SpatialIndex();
+        List<Node> nodes = new ArrayList<Node>();
+
+        for (int step = 0; step < 6000; step++) {
+            int action = rand.nextInt(10);
+            if (action < 5 || nodes.isEmpty()) {
+                Node n = new Node("n" + step, "");
+                n.setBounds(randomBounds(rand));
+                assertTrue(index.add(n));
+                nodes.add(n);
+            } else if (action < 8) {
+                Node n = nodes.get(rand.nextInt(nodes.size()));
+                Rectangle b = n.getBounds();
+                if (action == 5) {
+                    // a short drag, which usually stays inside its page
+                    n.setBounds(new Rectangle(b.x + rand.nextInt(5) - 2,
+                                              b.y + rand.nextInt(5) - 2,
+                                              b.width, b.height));
+                } else {
+                    n.setBounds(randomBounds(rand));
+                }
+                index.update(n);
+            } else {
+                Node n = nodes.remove(rand.nextInt(nodes.size()));
+                assertTrue(index.remove(n));
+            }
+            assertEquals(nodes.size(), index.size());
+
+            if (step % 50 == 0) {
+                Rectangle area = randomBounds(rand);
+                check(index.intersecting(area), nodes, area);
+                int x = rand.nextInt(2000);
+                int y = rand.nextInt(2000);
+                check(index.containing(x, y), nodes,
+                      new Rectangle(x, y, 0, 0));
+                Node near = index.nearest(x, y);
+                long best = Long.MAX_VALUE;
+                for (Node n: nodes) {
+                    best = Math.min(best, distance(n.getBounds(), x, y));
+                }
+                assertEquals(best, distance(near.getBounds(), x, y));
+            }
+        }
+        for (Node n: new ArrayList<Node>(nodes)) {
+            assertTrue(index.remove(n));
+        }
+        assertEquals(0, index.size());
+        assertEquals(null, index.nearest(0, 0));
+    }
+
+    /**
+     * This test moves Nodes of a tree and checks the tree finds them in
+     * their new place, and in their old place again after an undo.
+     *
+     * Tests the following methods:
+     * BPlusTree.findInArea(Rectangle)
+     * BPlusTree.findAt(int, int)
+     * BPlusTree.findNearest(int, int)
+     */
+    @Test
+    public void testTree1() {
+        BPlusTree tree = new BPlusTree("R", "");
+        tree.getRoot().setBounds(new Rectangle(0, 0, 10, 10));
+        Node a = new Node("A", "");
+        Node b = new Node("B", "");
+        a.setBounds(new Rectangle(100, 100, 50, 50));
+        b.setBounds(new Rectangle(300, 100, 50, 50));
+        tree.add(a);
+        tree.add(a, b);
+
+        assertEquals(Collections.singletonList(a), tree.findAt(120, 120));
+        assertTrue(tree.findNearest(290, 90) == b);
+        b.setBounds(new Rectangle(1000, 1000, 50, 50));
+        assertEquals(0, tree.findInArea(new Rectangle(200, 0, 200, 200))
+                            .size());
+        assertEquals(Collections.singletonList(b),
+                     tree.findAt(1000, 1050));
+        assertTrue(tree.getHistory().undo());
+        assertTrue(tree.findNearest(290, 90) == b);
+
+        tree.deleteBranch(a);
+        assertEquals(Collections.singletonList(tree.getRoot()),
+                     tree.findInArea(new Rectangle(0, 0, 2000, 2000)));
+    }
+
+    /**
+     * Checks a query result holds exactly the Nodes touching an area.
+     *
+     * @param found The Nodes the index found.
+     * @param nodes Every Node in the index.
+     * @param area The area searched.
+     */
+    private void check(final List<Node> found, final List<Node> nodes,
+                       final Rectangle area) {
+        Map<Node, Boolean> seen = new IdentityHashMap<Node, Boolean>();
+        for (Node n: found) {
+            assertEquals(null, seen.put(n, true));
+        }
+        int expected = 0;
+        for (Node n: nodes) {
+            Rectangle b = n.getBounds();
+            boolean touches = b.x <= area.x + area.width
+                              && area.x <= b.x + b.width
+                              && b.y <= area.y + area.height
+                              && area.y <= b.y + b.height;
+            if (touches) {
+                expected++;
+                assertTrue(seen.containsKey(n));
+            }
+        }
+        assertEquals(expected, found.size());
+    }
+
+    /**
+     * Finds the squared distance from a point to a box.
+     *
+     * @param b The box.
+     * @param x The x coordinate of the point.
+     * @param y The y coordinate of the point.
+     * @return The squared distance, or 0 if the box holds the point.
+     */
+    private long distance(final Rectangle b, final int x, final int y) {
+        long dx = Math.max(0, Math.max(b.x - x, x - (b.x + b.width)));
+        long dy = Math.max(0, Math.max(b.y - y, y - (b.y + b.height)));
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Makes a box somewhere in a 2000 by 2000 area.
+     *
+     * @param rand The source of random numbers.
+     * @return The box.
+     */
+    private Rectangle randomBounds(final Random rand) {
+        return new Rectangle(rand.nextInt(2000), rand.nextInt(2000),
+                             rand.nextInt(120), rand.nextInt(80));
+    }
+}
@@ -0,0 +1,723 @@
+package brainstorm;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A B+ tree that orders the Nodes of a tree by their name/title. Leaf
+ * pages are linked together, so once the first match of a query has been
+ * found by walking down from the top page, every further match is read by
+ * stepping along the leaves. Looking up a title, listing every title with
+ * a prefix, and listing the titles in a range all cost O(log n) plus the
+ * number of results.
+ * <br>
+ * Titles are ordered alphabetically ignoring case, then by case. Many
+ * Nodes may share a title, so every entry also carries a serial number
+ * which keeps entries unique and keeps Nodes with the same title in the
+ * order they were indexed.
+ * <br>
+ * When entries are removed, pages that become empty are freed but pages
+ * that are merely under-full are not merged with their neighbors. Searches
+ * stay correct either way, and brainstorming trees are edited far more
+ * often than they shrink.
+ */
+public class TitleIndex implements Iterable<Node> {
+
+    /**
+     * The fan-out used when none is given.
+     */
+    public static final int DEFAULT_FANOUT = 64;
+
+    /**
+     * The most entries a leaf page holds, and the most children an inner
+     * page holds.
+     */
+    private final int fanout;
+
+    /**
+     * The top page of the tree.
+     */
+    private Page top;
+
+    /**
+     * The leftmost leaf page, where in-order walks start.
+     */
+    private Leaf first;
+
+    /**
+     * The entry that each indexed Node is stored under.
+     */
+    private Map<Node, Entry> entries;
+
+    /**
+     * The serial number given to the next entry.
+     */
+    private long nextSerial;
+
+    /**
+     * Creates an empty index with the default fan-out.
+     */
+    public TitleIndex() {
+        this(DEFAULT_FANOUT);
+    }
+
+    /**
+     * Creates an empty index.
+     *
+     * @param fanout The most entries per leaf page and children per inner
+     * page. Must be at least 3.
+     */
+    public TitleIndex(final int fanout) {
+        if (fanout < 3) {
+            throw new IllegalArgumentException("Fan-out must be at least 3");
+        }
+        this.fanout = fanout;
+        clear();
+    }
+
+    /**
+     * Removes every Node from the index.
+     */
+    public void clear() {
+        first = new Leaf(fanout);
+        top = first;
+        entries = new IdentityHashMap<Node, Entry>();
+        nextSerial = 0;
+    }
+
+    /**
+     * Returns the fan-out of this index.
+     *
+     * @return The most entries per leaf page and children per inner page.
+     */
+    public int getFanout() {
+        return fanout;
+    }
+
+    /**
+     * Returns the number of Nodes in the index.
+     *
+     * @return The number of indexed Nodes.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Adds a Node to the index under its current name. Adding a Node which
+     * is already indexed does nothing.
+     *
+     * @param n The Node to add.
+     */
+    public void add(final Node n) {
+        if (entries.containsKey(n)) {
+            return;
+        }
+        Entry e = new Entry(title(n.getName()), nextSerial++, n);
+        entries.put(n, e);
+        Page sibling = insert(top, e);
+        if (sibling != null) {
+            // The top page split, so the tree grows one level taller.
+            Inner newTop = new Inner(fanout);
+            newTop.kids[0] = top;
+            newTop.kids[1] = sibling;
+            newTop.keys[0] = sibling.lowest();
+            newTop.size = 2;
+            top = newTop;
+        }
+    }
+
+    /**
+     * Removes a Node from the index.
+     *
+     * @param n The Node to remove.
+     */
+    public void remove(final Node n) {
+        Entry e = entries.remove(n);
+        if (e != null) {
+            delete(e);
+        }
+    }
+
+    /**
+     * Moves a Node to the position of its current name. Call this after
+     * the Node is renamed.
+     *
+     * @param n The renamed Node.
+     */
+    public void update(final Node n) {
+        Entry e = entries.get(n);
+        if (e != null && !e.title.equals(title(n.getName()))) {
+            remove(n);
+            add(n);
+        }
+    }
+
+    /**
+     * Finds the Nodes whose title is exactly the argument.
+     *
+     * @param title The title being searched for.
+     * @return The matching Nodes, in the order they were indexed.
+     */
+    public List<Node> find(final String title) {
+        String t = title(title);
+        List<Node> retVal = new ArrayList<Node>();
+        Cursor c = seek(t, true);
+        while (c.valid() && c.entry().title.equals(t)) {
+            retVal.add(c.entry().node);
+            c.advance();
+        }
+        return retVal;
+    }
+
+    /**
+     * Finds the Nodes whose title starts with the prefix, ignoring case.
+     *
+     * @param prefix The start of the titles being searched for.
+     * @return The matching Nodes in title order.
+     */
+    public List<Node> findPrefix(final String prefix) {
+        String p = title(prefix);
+        List<Node> retVal = new ArrayList<Node>();
+        Cursor c = seek(p, false);
+        while (c.valid()
+               && c.entry().title.regionMatches(true, 0, p, 0, p.length())) {
+            retVal.add(c.entry().node);
+            c.advance();
+        }
+        return retVal;
+    }
+
+    /**
+     * Finds the Nodes whose title comes at or after <i>from</i> and before
+     * <i>to</i>, ignoring case.
+     *
+     * @param from The lowest title to include.
+     * @param to The title to stop before. If null, every title from
+     * <i>from</i> onwards is included.
+     * @return The matching Nodes in title order.
+     */
+    public List<Node> findRange(final String from, final String to) {
+        List<Node> retVal = new ArrayList<Node>();
+        Cursor c = seek(title(from), false);
+        while (c.valid() && (to == null || String.CASE_INSENSITIVE_ORDER
+                .compare(c.entry().title, to) < 0)) {
+            retVal.add(c.entry().node);
+            c.advance();
+        }
+        return retVal;
+    }
+
+    /**
+     * Walks every indexed Node in title order by stepping along the leaf
+     * pages. The index must not change during the walk.
+     *
+     * @return An Iterator over the Nodes in title order.
+     */
+    @Override
+    public Iterator<Node> iterator() {
+        final Cursor c = new Cursor(first, 0);
+        c.skipEmpty();
+        return new Iterator<Node>() {
+            @Override
+            public boolean hasNext() {
+                return c.valid();
+            }
+
+            @Override
+            public Node next() {
+                if (!c.valid()) {
+                    throw new NoSuchElementException();
+                }
+                Node n = c.entry().node;
+                c.advance();
+                return n;
+            }
+        };
+    }
+
+    /**
+     * Inserts an entry into the branch below a page.
+     *
+     * @param page The top of the branch.
+     * @param e The entry to insert.
+     * @return The new right-hand sibling of the page if it had to split,
+     * or null if it didn't.
+     */
+    private Page insert(final Page page, final Entry e) {
+        if (page instanceof Leaf) {
+            Leaf leaf = (Leaf) page;
+            int pos = upperBound(leaf, e);
+            if (leaf.size < fanout) {
+                leaf.insertAt(pos, e);
+                return null;
+            }
+            Leaf right = leaf.split();
+            if (pos <= leaf.size) {
+                leaf.insertAt(pos, e);
+            } else {
+                right.insertAt(pos - leaf.size, e);
+            }
+            return right;
+        }
+
+        Inner inner = (Inner) page;
+        int pos = upperBound(inner, e);
+        Page newKid = insert(inner.kids[pos], e);
+        if (newKid == null) {
+            return null;
+        }
+        if (inner.size < fanout) {
+            inner.insertAt(pos + 1, newKid);
+            return null;
+        }
+        Inner right = inner.split();
+        if (pos + 1 <= inner.size) {
+            inner.insertAt(pos + 1, newKid);
+        } else {
+            right.insertAt(pos + 1 - inner.size, newKid);
+        }
+        return right;
+    }
+
+    /**
+     * Deletes an entry from the tree, freeing any pages left empty.
+     *
+     * @param e The entry to delete.
+     */
+    private void delete(final Entry e) {
+        // Remember the path down so that empty pages can be unhooked.
+        List<Inner> path = new ArrayList<Inner>();
+        List<Integer> slots = new ArrayList<Integer>();
+        Page page = top;
+        while (page instanceof Inner) {
+            Inner inner = (Inner) page;
+            int pos = upperBound(inner, e);
+            path.add(inner);
+            slots.add(pos);
+            page = inner.kids[pos];
+        }
+        Leaf leaf = (Leaf) page;
+        int pos = upperBound(leaf, e) - 1;
+        if (pos < 0 || leaf.keys[pos] != e) {
+            return;
+        }
+        leaf.removeAt(pos);
+        if (leaf.size > 0 || leaf == top) {
+            return;
+        }
+
+        // The leaf is empty. Take it out of the leaf chain...
+        if (leaf.prev != null) {
+            leaf.prev.next = leaf.next;
+        } else {
+            first = leaf.next;
+        }
+        if (leaf.next != null) {
+            leaf.next.prev = leaf.prev;
+        }
+        // ...and out of its parents, for as far up as they become empty.
+        for (int level = path.size() - 1; level >= 0; level--) {
+            Inner parent = path.get(level);
+            parent.removeAt(slots.get(level));
+            if (parent.size > 0) {
+                break;
+            }
+        }
+        // Drop top pages that only have one child.
+        while (top instanceof Inner && ((Inner) top).size == 1) {
+            top = ((Inner) top).kids[0];
+        }
+    }
+
+    /**
+     * Finds the first entry whose title is not before the probe.
+     *
+     * @param probe The title to look for.
+     * @param matchCase Whether titles that only differ from the probe by
+     * case should be ordered by case, or treated as equal to the probe.
+     * @return A Cursor at the first such entry.
+     */
+    private Cursor seek(final String probe, final boolean matchCase) {
+        Page page = top;
+        while (page instanceof Inner) {
+            Inner inner = (Inner) page;
+            int i = 0;
+            while (i < inner.size - 1
+                   && compare(inner.keys[i].title, probe, matchCase) < 0) {
+                i++;
+            }
+            page = inner.kids[i];
+        }
+        Leaf leaf = (Leaf) page;
+        int i = 0;
+        while (i < leaf.size
+               && compare(leaf.keys[i].title, probe, matchCase) < 0) {
+            i++;
+        }
+        Cursor c = new Cursor(leaf, i);
+        c.skipEmpty();
+        return c;
+    }
+
+    /**
+     * Finds the slot after the last key of a page which is not after the
+     * entry. For an inner page this is the child to descend into.
+     *
+     * @param page The page to look in.
+     * @param e The entry.
+     * @return The slot number.
+     */
+    private static int upperBound(final Page page, final Entry e) {
+        int lo = 0;
+        int hi = page.keyCount();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (order(page.keys[mid], e) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * The total order of the entries: title ignoring case, then title,
+     * then serial number.
+     *
+     * @param a The first entry.
+     * @param b The second entry.
+     * @return A negative number, zero or a positive number as a is before,
+     * the same as, or after b.
+     */
+    private static int order(final Entry a, final Entry b) {
+        int c = compare(a.title, b.title, true);
+        if (c != 0) {
+            return c;
+        }
+        return Long.compare(a.serial, b.serial);
+    }
+
+    /**
+     * Compares two titles.
+     *
+     * @param a The first title.
+     * @param b The second title.
+     * @param matchCase Whether to break ties between titles that only
+     * differ by case.
+     * @return A negative number, zero or a positive number as a is before,
+     * the same as, or after b.
+     */
+    private static int compare(final String a, final String b,
+                               final boolean matchCase) {
+        int c = String.CASE_INSENSITIVE_ORDER.compare(a, b);
+        if (c != 0 || !matchCase) {
+            return c;
+        }
+        return a.compareTo(b);
+    }
+
+    /**
+     * Treats a missing title as empty.
+     *
+     * @param str The title. May be null.
+     * @return The title, or an empty String if it was null.
+     */
+    private static String title(final String str) {
+        if (str == null) {
+            return "";
+        }
+        return str;
+    }
+
+    /**
+     * An entry of the index.
+     */
+    private static final class Entry {
+
+        /**
+         * The title the Node was indexed under.
+         */
+        private final String title;
+
+        /**
+         * Keeps entries with the same title unique and in order.
+         */
+        private final long serial;
+
+        /**
+         * The indexed Node.
+         */
+        private final Node node;
+
+        /**
+         * Creates an entry.
+         *
+         * @param title The title.
+         * @param serial The serial number.
+         * @param node The Node.
+         */
+        private Entry(final String title, final long serial, final Node node) {
+            this.title = title;
+            this.serial = serial;
+            this.node = node;
+        }
+    }
+
+    /**
+     * A page of the tree. Leaf pages hold entries, inner pages hold
+     * children and the keys that separate them.
+     */
+    private abstract static class Page {
+
+        /**
+         * The keys of this page. In a leaf page these are the entries.
+         * In an inner page, keys[i] is no greater than any entry below
+         * child i + 1 and greater than every entry below child i.
+         */
+        protected Entry[] keys;
+
+        /**
+         * The number of entries in a leaf page, or children in an inner
+         * page.
+         */
+        protected int size;
+
+        /**
+         * Returns how many of the keys are in use.
+         *
+         * @return The number of keys in use.
+         */
+        protected abstract int keyCount();
+
+        /**
+         * Returns the lowest entry in the branch below this page.
+         *
+         * @return The lowest entry.
+         */
+        protected abstract Entry lowest();
+    }
+
+    /**
+     * A leaf page, holding entries in order.
+     */
+    private static final class Leaf extends Page {
+
+        /**
+         * The leaf pages on either side of this one.
+         */
+        private Leaf prev, next;
+
+        /**
+         * Creates an empty leaf page.
+         *
+         * @param fanout The most entries the page can hold.
+         */
+        private Leaf(final int fanout) {
+            keys = new Entry[fanout];
+        }
+
+        @Override
+        protected int keyCount() {
+            return size;
+        }
+
+        @Override
+        protected Entry lowest() {
+            return keys[0];
+        }
+
+        /**
+         * Inserts an entry at a position, shifting later entries up.
+         *
+         * @param pos The position.
+         * @param e The entry.
+         */
+        private void insertAt(final int pos, final Entry e) {
+            System.arraycopy(keys, pos, keys, pos + 1, size - pos);
+            keys[pos] = e;
+            size++;
+        }
+
+        /**
+         * Removes the entry at a position, shifting later entries down.
+         *
+         * @param pos The position.
+         */
+        private void removeAt(final int pos) {
+            System.arraycopy(keys, pos + 1, keys, pos, size - pos - 1);
+            keys[--size] = null;
+        }
+
+        /**
+         * Moves the upper half of this page's entries into a new page,
+         * which is linked in after this one.
+         *
+         * @return The new page.
+         */
+        private Leaf split() {
+            Leaf right = new Leaf(keys.length);
+            int keep = (size + 1) / 2;
+            right.size = size - keep;
+            System.arraycopy(keys, keep, right.keys, 0, right.size);
+            java.util.Arrays.fill(keys, keep, size, null);
+            size = keep;
+
+            right.next = next;
+            right.prev = this;
+            if (next != null) {
+                next.prev = right;
+            }
+            next = right;
+            return right;
+        }
+    }
+
+    /**
+     * An inner page, holding children and the keys between them.
+     */
+    private static final class Inner extends Page {
+
+        /**
+         * The children of this page.
+         */
+        private Page[] kids;
+
+        /**
+         * Creates an empty inner page.
+         *
+         * @param fanout The most children the page can hold.
+         */
+        private Inner(final int fanout) {
+            keys = new Entry[fanout - 1];
+            kids = new Page[fanout];
+        }
+
+        @Override
+        protected int keyCount() {
+            return size - 1;
+        }
+
+        @Override
+        protected Entry lowest() {
+            return kids[0].lowest();
+        }
+
+        /**
+         * Inserts a child at a position. The key before the child becomes
+         * the lowest entry below it. The position must not be zero.
+         *
+         * @param pos The position.
+         * @param kid The child.
+         */
+        private void insertAt(final int pos, final Page kid) {
+            System.arraycopy(kids, pos, kids, pos + 1, size - pos);
+            System.arraycopy(keys, pos - 1, keys, pos, size - pos);
+            kids[pos] = kid;
+            keys[pos - 1] = kid.lowest();
+            size++;
+        }
+
+        /**
+         * Removes the child at a position along with one of the keys next
+         * to it.
+         *
+         * @param pos The position.
+         */
+        private void removeAt(final int pos) {
+            System.arraycopy(kids, pos + 1, kids, pos, size - pos - 1);
+            kids[size - 1] = null;
+            int key = Math.max(pos - 1, 0);
+            if (size > 1) {
+                System.arraycopy(keys, key + 1, keys, key, size - key - 2);
+                keys[size - 2] = null;
+            }
+            size--;
+        }
+
+        /**
+         * Moves the upper half of this page's children into a new page.
+         *
+         * @return The new page.
+         */
+        private Inner split() {
+            Inner right = new Inner(kids.length);
+            int keep = (size + 1) / 2;
+            right.size = size - keep;
+            System.arraycopy(kids, keep, right.kids, 0, right.size);
+            System.arraycopy(keys, keep, right.keys, 0, right.size - 1);
+            java.util.Arrays.fill(kids, keep, size, null);
+            java.util.Arrays.fill(keys, keep - 1, size - 1, null);
+            size = keep;
+            return right;
+        }
+    }
+
+    /**
+     * A position in the leaf chain.
+     */
+    private static final class Cursor {
+
+        /**
+         * The current leaf page.
+         */
+        private Leaf leaf;
+
+        /**
+         * The position within the leaf page.
+         */
+        private int pos;
+
+        /**
+         * Creates a cursor.
+         *
+         * @param leaf The leaf page.
+         * @param pos The position within the page.
+         */
+        private Cursor(final Leaf leaf, final int pos) {
+            this.leaf = leaf;
+            this.pos = pos;
+        }
+
+        /**
+         * Returns whether the cursor is at an entry.
+         *
+         * @return false once the cursor has passed the last entry.
+         */
+        private boolean valid() {
+            return leaf != null;
+        }
+
+        /**
+         * Returns the entry at the cursor.
+         *
+         * @return The current entry.
+         */
+        private Entry entry() {
+            return leaf.keys[pos];
+        }
+
+        /**
+         * Steps to the next entry.
+         */
+        private void advance() {
+            pos++;
+            skipEmpty();
+        }
+
+        /**
+         * Steps over the ends of leaf pages.
+         */
+        private void skipEmpty() {
+            while (leaf != null && pos >= leaf.size) {
+                leaf = leaf.next;
+                pos = 0;
+            }
+        }
+    }
+}
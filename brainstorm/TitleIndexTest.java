@@ -0,0 +1,131 @@
+package brainstorm;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * This class contains the JUnit tests for the TitleIndex class.
+ *
+ */
+public class TitleIndexTest {
+
+    /**
+     * Orders Nodes the same way the index does, apart from the serial
+     * number.
+     */
+    private static final Comparator<Node> BY_TITLE = new Comparator<Node>() {
+        @Override
+        public int compare(final Node a, final Node b) {
+            int c = String.CASE_INSENSITIVE_ORDER.compare(a.getName(),
+                                                          b.getName());
+            if (c != 0) {
+                return c;
+            }
+            return a.getName().compareTo(b.getName());
+        }
+    };
+
+    /**
+     * This test adds, renames and removes random nodes in an index with
+     * the smallest fan-out, so pages split and empty often, and checks the
+     * index against a sorted list after every step.
+     *
+     * Tests the following methods:
+     * TitleIndex.add(Node)
+     * TitleIndex.remove(Node)
+     * TitleIndex.update(Node)
+     * TitleIndex.iterator()
+     * TitleIndex.find(String)
+     * TitleIndex.findPrefix(String)
+     */
+    @Test
+    public void testRandomEdits1() {
+        Random rand = new Random(350);
+        TitleIndex index = new TitleIndex(3);
+        List<Node> expected = new ArrayList<Node>();
+
+        for (int step = 0; step < 3000; step++) {
+            int action = rand.nextInt(4);
+            if (action < 2 || expected.isEmpty()) {
+                Node n = new Node(randomTitle(rand), "");
+                index.add(n);
+                expected.add(n);
+            } else if (action == 2) {
+                Node n = expected.get(rand.nextInt(expected.size()));
+                n.setName(randomTitle(rand));
+                index.update(n);
+            } else {
+                Node n = expected.remove(rand.nextInt(expected.size()));
+                index.remove(n);
+            }
+
+            if (step % 50 == 0) {
+                checkOrder(index, expected);
+            }
+        }
+        checkOrder(index, expected);
+
+        String title = expected.get(0).getName();
+        int same = 0;
+        int prefixed = 0;
+        for (Node n: expected) {
+            if (n.getName().equals(title)) {
+                same++;
+            }
+            if (n.getName().toLowerCase().startsWith("b")) {
+                prefixed++;
+            }
+        }
+        assertEquals(same, index.find(title).size());
+        assertEquals(prefixed, index.findPrefix("B").size());
+
+        for (Node n: new ArrayList<Node>(expected)) {
+            index.remove(n);
+        }
+        assertEquals(0, index.size());
+        assertEquals(false, index.iterator().hasNext());
+    }
+
+    /**
+     * Checks that walking the index gives the same titles as sorting.
+     *
+     * @param index The index under test.
+     * @param nodes The nodes that should be in the index.
+     */
+    private void checkOrder(final TitleIndex index, final List<Node> nodes) {
+        List<Node> sorted = new ArrayList<Node>(nodes);
+        Collections.sort(sorted, BY_TITLE);
+        List<String> expected = new ArrayList<String>();
+        for (Node n: sorted) {
+            expected.add(n.getName());
+        }
+        List<String> actual = new ArrayList<String>();
+        for (Node n: index) {
+            actual.add(n.getName());
+        }
+        assertEquals(expected, actual);
+        assertEquals(nodes.size(), index.size());
+    }
+
+    /**
+     * Makes a short random title, with plenty of repeats.
+     *
+     * @param rand The random number generator.
+     * @return The title.
+     */
+    private String randomTitle(final Random rand) {
+        String letters = "abcABC";
+        StringBuilder sb = new StringBuilder();
+        int length = 1 + rand.nextInt(3);
+        for (int i = 0; i < length; i++) {
+            sb.append(letters.charAt(rand.nextInt(letters.length())));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,334 @@
+package brainstorm;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Saves trees to and loads them from Brainstorm archives, the .bstrm
+ * files the application opens and saves. An archive is a JSON document
+ * holding the root's children under the name of the root, with each Node
+ * written as an object of its fields and a list of its children.
+ * <br>
+ * Archives are versioned by a "Version" field next to the root. Version 1
+ * archives, written before the field existed, hold a Node's bounds as the
+ * text of Rectangle.toString(). From version 2 the bounds are an array of
+ * the four numbers x, y, width and height, which is smaller and is read
+ * without any parsing of text. Both are read, by the type of the value.
+ * The bounds of a Node which has none are written as null.
+ * <br>
+ * Both directions stream: a save writes each Node as it is reached, and
+ * a load builds each Node as soon as its fields have been read, so
+ * nothing but the tree itself is held in memory. Both walk the tree with
+ * an explicit stack, so trees of any depth can be saved and loaded.
+ */
+public final class TreeArchive {
+
+    /**
+     * The version of the archives this class writes.
+     */
+    public static final int VERSION = 2;
+
+    /**
+     * This class only holds static methods.
+     */
+    private TreeArchive() { }
+
+    /**
+     * Writes a tree as an archive. The caller should hold the tree's read
+     * lock if other threads may change it.
+     * <br>
+     * The tree is walked with an explicit stack holding the path from the
+     * root down to the Node being written and the next child to write at
+     * each level, so trees of any depth can be saved.
+     *
+     * @param json The writer of the file.
+     * @param tree The tree to write.
+     * @throws IOException If the file can't be written to.
+     */
+    public static void write(final JsonWriter json, final BPlusTree tree)
+                             throws IOException {
+        Node root = tree.getRoot();
+        json.beginObject();
+        json.name("Version");
+        json.value(VERSION);
+        json.name(root.getName());
+        json.beginObject();
+        json.name("Children");
+        json.beginArray();
+
+        Node[] path = new Node[16];
+        int[] nextChild = new int[16];
+        int depth = 1;
+        path[0] = root;
+        while (depth > 0) {
+            int top = depth - 1;
+            Node parent = path[top];
+            int i = nextChild[top];
+            if (i < parent.getNumChildren()) {
+                // begin writing the next child, then its children
+                nextChild[top] = i + 1;
+                Node node = parent.getChild(i);
+                writeNode(json, node);
+                if (depth == path.length) {
+                    path = Arrays.copyOf(path, depth * 2);
+                    nextChild = Arrays.copyOf(nextChild, depth * 2);
+                }
+                path[depth] = node;
+                nextChild[depth] = 0;
+                depth++;
+            } else {
+                // all children written, so finish writing this node
+                path[top] = null;
+                depth--;
+                if (parent != root) {
+                    json.endArray();
+                    json.endObject();
+                }
+            }
+        }
+
+        json.endArray();
+        json.endObject();
+        json.endObject();
+    }
+
+    /**
+     * Writes the fields of a Node, up to the opening of its list of
+     * children.
+     *
+     * @param json The writer of the file.
+     * @param node The Node being written.
+     * @throws IOException If the file can't be written to.
+     */
+    private static void writeNode(final JsonWriter json, final Node node)
+                                  throws IOException {
+        json.beginObject();
+        json.name("Id");
+        json.value(node.getId());
+        json.name("Name");
+        json.value(node.getName());
+        json.name("Content");
+        json.value(node.getContent());
+        Rectangle b = node.getBounds();
+        json.name("Bounds");
+        if (b == null) {
+            json.nullValue();
+        } else {
+            json.beginArray();
+            json.value(b.x);
+            json.value(b.y);
+            json.value(b.width);
+            json.value(b.height);
+            json.endArray();
+        }
+        json.name("Children");
+        json.beginArray();
+    }
+
+    /**
+     * Reads a tree from an archive. The stream is read to the end but not
+     * closed.
+     * <br>
+     * Each Node is made as soon as its object starts, and is given to its
+     * parent before its own children are read. The only state kept is
+     * the path of Nodes from the root's child down to the one being read,
+     * so memory doesn't grow with the size of the file beyond the tree
+     * being built. Each of the root's children is added to the tree once
+     * its whole branch has been read, in one batch, so the tree's indexes
+     * are left to be built by the first query that needs them.
+     *
+     * @param in The stream to read.
+     * @return The tree.
+     * @throws IOException If the stream can't be read, isn't an archive, or
+     * is an archive from a newer version.
+     */
+    public static BPlusTree read(final InputStream in) throws IOException {
+        BPlusTree tree = new BPlusTree();
+        JsonReader json = new JsonReader(in);
+        json.beginObject();
+        tree.beginBatch();
+        try {
+            while (json.hasNext()) {
+                String field = json.nextName();
+                if (field.equals("Root")) {
+                    readRoot(json, tree);
+                } else if (field.equals("Version")) {
+                    long version = json.nextLong();
+                    if (version > VERSION) {
+                        throw new IOException("archive version " + version
+                                + " is newer than " + VERSION);
+                    }
+                } else {
+                    json.skipValue();
+                }
+            }
+        } finally {
+            tree.commitBatch();
+        }
+        json.endObject();
+        if (json.peek() != JsonReader.Token.END_DOCUMENT) {
+            throw new IOException("more than one document");
+        }
+
+        // Loading the file isn't something the user should undo.
+        tree.getHistory().clear();
+        return tree;
+    }
+
+    /**
+     * Reads the object of the root, adding the branches in its list of
+     * children to the tree.
+     *
+     * @param json The reader of the file.
+     * @param tree The tree being loaded.
+     * @throws IOException If the stream can't be read, or isn't an archive.
+     */
+    private static void readRoot(final JsonReader json, final BPlusTree tree)
+                                 throws IOException {
+        Node[] path = new Node[16];
+        int depth = 0;
+        json.beginObject();
+        while (readFields(json, null)) {
+            while (true) {
+                if (json.hasNext()) {
+                    // the next child of the Node at the top of the path
+                    json.beginObject();
+                    Node node = new Node();
+                    if (depth > 0) {
+                        path[depth - 1].addChild(node);
+                    }
+                    if (readFields(json, node)) {
+                        if (depth == path.length) {
+                            path = Arrays.copyOf(path, depth * 2);
+                        }
+                        path[depth++] = node;
+                    } else if (depth == 0) {
+                        tree.add(node);
+                    }
+                } else {
+                    // the list of children has ended, so finish the Node
+                    json.endArray();
+                    if (depth == 0) {
+                        break;
+                    }
+                    Node node = path[--depth];
+                    path[depth] = null;
+                    if (readFields(json, node)) {
+                        path[depth++] = node;
+                    } else if (depth == 0) {
+                        tree.add(node);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the fields of an object into a Node until its list of
+     * children starts or the object ends.
+     *
+     * @param json The reader of the file.
+     * @param node The Node to fill in, or null to skip the fields.
+     * @return true if a list of children was started, false if the
+     * object ended.
+     * @throws IOException If the stream can't be read, or isn't an archive.
+     */
+    private static boolean readFields(final JsonReader json, final Node node)
+                                      throws IOException {
+        while (json.hasNext()) {
+            String field = json.nextName();
+            if (field.equals("Children")) {
+                json.beginArray();
+                return true;
+            } else if (node == null) {
+                json.skipValue();
+            } else if (field.equals("Id")) {
+                // Files saved before Nodes had ids have none, so the tree
+                // gives them new ones as they are added.
+                node.setId(json.nextLong());
+            } else if (field.equals("Name")) {
+                node.setName(json.nextStringOrNull());
+            } else if (field.equals("Content")) {
+                node.setContent(json.nextStringOrNull());
+            } else if (field.equals("Bounds")) {
+                if (json.peek() == JsonReader.Token.BEGIN_ARRAY) {
+                    node.setBounds(readBounds(json));
+                } else if (json.peek() == JsonReader.Token.NULL) {
+                    json.nextNull();
+                    node.setBounds(null);
+                } else {
+                    node.setBounds(readBounds(json.nextString()));
+                }
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        return false;
+    }
+
+    /**
+     * Reads bounds written as an array of x, y, width and height.
+     *
+     * @param json The reader of the file, at the start of the array.
+     * @return The bounds.
+     * @throws IOException If the array doesn't hold four whole numbers.
+     */
+    private static Rectangle readBounds(final JsonReader json)
+                                        throws IOException {
+        int[] values = new int[4];
+        json.beginArray();
+        for (int i = 0; i < values.length; i++) {
+            long value = json.nextLong();
+            if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                throw new IOException("bounds out of range: " + value);
+            }
+            values[i] = (int) value;
+        }
+        json.endArray();
+        return new Rectangle(values[0], values[1], values[2], values[3]);
+    }
+
+    /**
+     * Reads bounds written by version 1 archives, as by
+     * Rectangle.toString(), which is
+     * "java.awt.Rectangle[x=1,y=2,width=3,height=4]". The four numbers
+     * are taken in order from after each '='.
+     *
+     * @param text The written bounds.
+     * @return The bounds.
+     * @throws IOException If the text doesn't hold four numbers.
+     */
+    static Rectangle readBounds(final String text) throws IOException {
+        int[] values = new int[4];
+        int found = 0;
+        int i = text.indexOf('=');
+        while (i >= 0 && found < values.length) {
+            i++;
+            boolean negative = i < text.length() && text.charAt(i) == '-';
+            if (negative) {
+                i++;
+            }
+            long most = negative ? -(long) Integer.MIN_VALUE
+                                 : Integer.MAX_VALUE;
+            int start = i;
+            long value = 0;
+            while (i < text.length() && text.charAt(i) >= '0'
+                   && text.charAt(i) <= '9' && value <= most) {
+                value = value * 10 + text.charAt(i) - '0';
+                i++;
+            }
+            if (i == start || value > most) {
+                throw new IOException("bad bounds " + text);
+            }
+            values[found++] = (int) (negative ? -value : value);
+            i = text.indexOf('=', i);
+        }
+        if (found < values.length) {
+            throw new IOException("bad bounds " + text);
+        }
+        return new Rectangle(values[0], values[1], values[2], values[3]);
+    }
+}
@@ -0,0 +1,193 @@
+package brainstorm;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+/**
+ * This class contains the JUnit tests for the TreeArchive class.
+ *
+ */
+public class TreeArchiveTest {
+
+    /**
+     * This test saves a tree with awkward names and contents and loads it
+     * back, and checks that every Node comes back in the same place with
+     * the same fields and id.
+     *
+     * Tests the following methods:
+     * TreeArchive.write(JsonWriter, BPlusTree)
+     * TreeArchive.read(InputStream)
+     */
+    @Test
+    public void testRoundTrip1() throws IOException {
+        BPlusTree tree = new BPlusTree();
+        Node a = new Node("a \"quoted\" name", "line\nbreak and \\ slash");
+        Node b = new Node("caf\u00e9 \ud83d\ude00", "tab\there");
+        Node c = new Node("", "");
+        a.setBounds(new Rectangle(-5, 7, 120, 80));
+        tree.add(a);
+        tree.add(a, b);
+        tree.add(b, c);
+        tree.add(new Node("last", "x"));
+        Node bare = new Node("no bounds", "");
+        bare.setBounds(null);
+        tree.add(c, bare);
+
+        BPlusTree loaded = TreeArchive.read(save(tree));
+        assertEquals(tree.size(), loaded.size());
+        Iterator<Node> expected = tree.preOrderIterator();
+        Iterator<Node> actual = loaded.preOrderIterator();
+        while (expected.hasNext()) {
+            Node e = expected.next();
+            Node n = actual.next();
+            assertEquals(e.getName(), n.getName());
+            assertEquals(e.getContent(), n.getContent());
+            assertEquals(e.getBounds(), n.getBounds());
+            assertEquals(e.getNumChildren(), n.getNumChildren());
+            if (e != tree.getRoot()) {
+                assertEquals(e.getId(), n.getId());
+                assertTrue(loaded.findById(n.getId()) == n);
+            }
+        }
+        assertTrue(loaded.search("tab\there") != null);
+        assertTrue(!loaded.getHistory().canUndo());
+    }
+
+    /**
+     * This test saves and loads a tree far deeper than a recursive reader
+     * or writer could manage.
+     *
+     * Tests the following methods:
+     * TreeArchive.write(JsonWriter, BPlusTree)
+     * TreeArchive.read(InputStream)
+     */
+    @Test
+    public void testDeepTree1() throws IOException {
+        BPlusTree tree = new BPlusTree();
+        Node parent = tree.getRoot();
+        for (int i = 0; i < 50000; i++) {
+            Node n = new Node("n" + i, "");
+            tree.add(parent, n);
+            parent = n;
+        }
+        BPlusTree loaded = TreeArchive.read(save(tree));
+        assertEquals(50001, loaded.size());
+        assertEquals(50000, loaded.getHeight());
+        assertTrue(loaded.search("") != null);
+    }
+
+    /**
+     * This test loads archives written by hand and by older versions, with
+     * fields in other orders, fields it doesn't know, and no ids.
+     *
+     * Tests the following methods:
+     * TreeArchive.read(InputStream)
+     * TreeArchive.readBounds(String)
+     */
+    @Test
+    public void testOtherFiles1() throws IOException {
+        String bounds = "\"java.awt.Rectangle[x=1,y=-2,width=30,height=40]\"";
+        String file = "{\"Extra\": [1, {\"a\": null}], \"Root\": {"
+                + "\"Children\": [{\"Children\": [{\"Name\": \"kid\","
+                + " \"Content\": \"k\", \"Bounds\": " + bounds
+                + ", \"Children\": []}], \"Name\": \"top\", \"Color\": 5,"
+                + " \"Content\": null, \"Bounds\": " + bounds + "}],"
+                + " \"After\": true}}";
+        BPlusTree loaded = TreeArchive.read(
+                new ByteArrayInputStream(file.getBytes("UTF-8")));
+        assertEquals(3, loaded.size());
+        Node top = loaded.getRoot().getChild(0);
+        assertEquals("top", top.getName());
+        assertEquals(null, top.getContent());
+        assertEquals(new Rectangle(1, -2, 30, 40), top.getBounds());
+        assertEquals("kid", top.getChild(0).getName());
+        assertTrue(top.getId() > 0 && top.getChild(0).getId() > 0);
+
+        String[] bad = {"{\"Root\": {\"Children\": [{\"Bounds\": \"x\","
+                        + " \"Children\": []}]}}", "{\"Root\": {", "[]"};
+        for (String s: bad) {
+            try {
+                TreeArchive.read(new ByteArrayInputStream(s.getBytes("UTF-8")));
+                assertTrue("accepted " + s, false);
+            } catch (IOException e) {
+                assertTrue(e.getMessage() != null);
+            }
+        }
+    }
+
+    /**
+     * This test checks that bounds are saved as numbers under the current
+     * version, that both ways of writing bounds are read, and that an
+     * archive from a newer version is refused.
+     *
+     * Tests the following methods:
+     * TreeArchive.write(JsonWriter, BPlusTree)
+     * TreeArchive.read(InputStream)
+     */
+    @Test
+    public void testVersions1() throws IOException {
+        BPlusTree tree = new BPlusTree();
+        Node a = new Node("a", "");
+        a.setBounds(new Rectangle(Integer.MIN_VALUE, -1, 0, Integer.MAX_VALUE));
+        tree.add(a);
+        ByteArrayInputStream saved = save(tree);
+        byte[] bytes = new byte[saved.available()];
+        saved.read(bytes);
+        String text = new String(bytes, "UTF-8");
+        assertTrue(text.startsWith("{\"Version\":" + TreeArchive.VERSION));
+        assertTrue(text.contains("\"Bounds\":[-2147483648,-1,0,2147483647]"));
+        assertEquals(a.getBounds(), TreeArchive.read(
+                new ByteArrayInputStream(bytes)).getRoot().getChild(0)
+                .getBounds());
+
+        String file = "{\"Version\": 2, \"Root\": {\"Children\": ["
+                + "{\"Bounds\": [1, 2, 3, 4], \"Children\": []},"
+                + "{\"Bounds\": \"java.awt.Rectangle[x=5,y=6,width=7,"
+                + "height=8]\", \"Children\": []}]}}";
+        Node root = TreeArchive.read(new ByteArrayInputStream(
+                file.getBytes("UTF-8"))).getRoot();
+        assertEquals(new Rectangle(1, 2, 3, 4), root.getChild(0).getBounds());
+        assertEquals(new Rectangle(5, 6, 7, 8), root.getChild(1).getBounds());
+
+        String[] bad = {
+            "{\"Version\": 3, \"Root\": {\"Children\": []}}",
+            "{\"Root\": {\"Children\": [{\"Bounds\": [1, 2, 3],"
+                + " \"Children\": []}]}}",
+            "{\"Root\": {\"Children\": [{\"Bounds\": [1, 2, 3, 4, 5],"
+                + " \"Children\": []}]}}",
+            "{\"Root\": {\"Children\": [{\"Bounds\": [1, 2, 3,"
+                + " 2147483648], \"Children\": []}]}}"
+        };
+        for (String s: bad) {
+            try {
+                TreeArchive.read(new ByteArrayInputStream(s.getBytes("UTF-8")));
+                assertTrue("accepted " + s, false);
+            } catch (IOException e) {
+                assertTrue(e.getMessage() != null);
+            }
+        }
+    }
+
+    /**
+     * Helper function which saves a tree into memory.
+     *
+     * @param tree The tree.
+     * @return A stream of the saved archive.
+     * @throws IOException If the tree can't be written.
+     */
+    private ByteArrayInputStream save(final BPlusTree tree)
+                                      throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JsonWriter json = new JsonWriter(bytes);
+        TreeArchive.write(json, tree);
+        json.close();
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+}
@@ -1,17 +1,39 @@
 package brainstorm;
 
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import javax.swing.Timer;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 
 /**
  * A controller class for the tree module. This class works with the TreeView
  * class which acts as the viewing class and the BPlusTree class which acts
  * as the model class.
+ * <br>
+ * The controller listens to the tree, so changes made to the model by any
+ * means, such as undo and redo, are shown in the GUI without rebuilding
+ * it. Changes the controller makes itself are shown straight away, and
+ * the events for them find nothing left to do.
  * 
  * @author Brian Gilbert
  *
  */
-public final class TreeController {
+public final class TreeController implements TreeListener {
+    
+    /**
+     * How long the tree gathers changes before they are shown, which is
+     * about one frame at 60 frames per second.
+     */
+    private static final int FRAME_MILLIS = 16;
 
     /**
      * This is the global instance of the singleton tree controller.
@@ -34,16 +56,34 @@ public final class TreeController {
     private NodeController root;
     
     /**
-     * A list of all of the NodeControllers so we have
-     * references we can use to remove them if needed.
+     * All of the NodeControllers, other than the root's, keyed by their
+     * Node so we have references we can use to find or remove them in
+     * constant time.
      */
-    private List<NodeController> nodeControllers;
+    private Map<Node, NodeController> nodeControllers;
+    
+    /**
+     * Hands the tree's change events to the event thread once per frame.
+     */
+    private final Executor frameDispatcher = new Executor() {
+        @Override
+        public void execute(final Runnable task) {
+            Timer timer = new Timer(FRAME_MILLIS, new ActionListener() {
+                @Override
+                public void actionPerformed(final ActionEvent e) {
+                    task.run();
+                }
+            });
+            timer.setRepeats(false);
+            timer.start();
+        }
+    };
     
     /**
      * Private constructor. This is a Singleton class.
      */
     private TreeController() {
-        nodeControllers = new ArrayList<NodeController>();
+        nodeControllers = new IdentityHashMap<Node, NodeController>();
     }
     
     /**
@@ -64,9 +104,15 @@ public final class TreeController {
      */
     public void associateTree(final BPlusTree tree) {
         if (tree != null) {
+            if (this.tree != null) {
+                this.tree.removeTreeListener(this);
+            }
             this.tree = tree;
+            tree.setEventDispatcher(frameDispatcher);
+            tree.addTreeListener(this);
             root = new NodeController(this.tree.getRoot(), null);
             buildTreeInGUI();
+            loadVisible();
         }
     }
 
@@ -79,7 +125,29 @@ public final class TreeController {
     public void associateView(final TreeView view) {
         if (view != null) {
             this.view = view;
+            view.addScrollListener(new ChangeListener() {
+                @Override
+                public void stateChanged(final ChangeEvent e) {
+                    loadVisible();
+                }
+            });
             buildTreeInGUI();
+            loadVisible();
+        }
+    }
+
+    /**
+     * Reads the branches which have come into view from the archive the
+     * tree was opened from, when it was opened lazily. The new Nodes are
+     * added to the GUI when the tree reports them.
+     */
+    private void loadVisible() {
+        if (tree != null && view != null) {
+            try {
+                tree.loadBranchesIn(view.getVisibleArea());
+            } catch (IOException e) {
+                System.out.println("Caught Error: loadVisible");
+            }
         }
     }
 
@@ -90,17 +158,24 @@ public final class TreeController {
      */
     private void buildTreeInGUI() {
         if (tree != null && view != null) {
-            // Remove all viewers from the GUI
-            Object[] ncArray = nodeControllers.toArray();
-            for (Object o: ncArray) {
-                NodeController nc = (NodeController) o;
-                view.removeFromDocument(nc.getView());
-                view.removeFromDocument(nc.getLineToParent().getView());
-                nodeControllers.remove(nc);
-            }
-            
-            for (Node n: tree.getAllNodesInOrder()) {
-                buildNodeInGUI(n);
+            // Filling in the new views echoes each Node's text back into
+            // it, which isn't a change the user made.
+            tree.getHistory().pause();
+            view.holdLayout();
+            try {
+                // Remove all viewers from the GUI
+                for (NodeController nc: nodeControllers.values()) {
+                    view.removeFromDocument(nc.getView());
+                    view.removeFromDocument(nc.getLineToParent().getView());
+                }
+                nodeControllers.clear();
+                
+                for (Node n: tree.getAllNodesInOrder()) {
+                    buildNodeInGUI(n);
+                }
+            } finally {
+                view.releaseLayout();
+                tree.getHistory().resume();
             }
         }
     }
@@ -113,7 +188,7 @@ public final class TreeController {
      */
     private void buildNodeInGUI(final Node n) {
         NodeController nc = new NodeController(n, new NodeView());
-        nodeControllers.add(nc);
+        nodeControllers.put(n, nc);
         view.addToDocumentFront(nc.getView());
         
         NodeController parent = findController(n.getParent());
@@ -133,13 +208,7 @@ public final class TreeController {
         if (n == root.getNode()) {
             return root;
         }
-        
-        for (NodeController nc: nodeControllers) {
-            if (nc.getNode().equals(n)) {
-                return nc;
-            }
-        }
-        return null;
+        return nodeControllers.get(n);
     }
     
     /**
@@ -153,7 +222,7 @@ public final class TreeController {
             return null;
         }
         
-        for (NodeController nc: nodeControllers) {
+        for (NodeController nc: nodeControllers.values()) {
             if (nc.getView().equals(nv)) {
                 return nc;
             }
@@ -170,6 +239,109 @@ public final class TreeController {
         return tree;
     }
 
+    /**
+     * Undoes the last change to the tree. The GUI catches up when the
+     * tree reports the change.
+     */
+    public void undo() {
+        if (tree != null) {
+            tree.getHistory().undo();
+        }
+    }
+
+    /**
+     * Redoes the last undone change to the tree. The GUI catches up when
+     * the tree reports the change.
+     */
+    public void redo() {
+        if (tree != null) {
+            tree.getHistory().redo();
+        }
+    }
+    
+    /**
+     * Brings the GUI up to date with changes to the tree. Each change is
+     * checked against what the GUI already shows, so a change that has
+     * already been shown, or undone since, is left alone.
+     * 
+     * @param events The changes, one per Node.
+     */
+    @Override
+    public void treeChanged(final List<TreeEvent> events) {
+        if (tree == null || view == null || events.isEmpty()
+                || events.get(0).getTree() != tree) {
+            return;
+        }
+        // Filling in the views echoes text back into the Nodes, which
+        // isn't a change the user made.
+        tree.getHistory().pause();
+        view.holdLayout();
+        try {
+            showChanges(events);
+        } finally {
+            view.releaseLayout();
+            tree.getHistory().resume();
+        }
+    }
+
+    /**
+     * Brings the controllers and views up to date with a batch of changes
+     * to the tree, for treeChanged().
+     * 
+     * @param events The changes, one per Node.
+     */
+    private void showChanges(final List<TreeEvent> events) {
+        for (TreeEvent e: events) {
+            if (e.is(TreeEvent.Kind.REMOVED) && !tree.contains(e.getNode())) {
+                dropController(e.getNode());
+            }
+        }
+        for (TreeEvent e: events) {
+            if (e.is(TreeEvent.Kind.ADDED)) {
+                showController(e.getNode());
+            }
+        }
+        for (TreeEvent e: events) {
+            NodeController nc = findController(e.getNode());
+            if (nc == null || nc == root) {
+                continue;
+            }
+            if (e.is(TreeEvent.Kind.MOVED)) {
+                NodeController parent = showController(
+                        e.getNode().getParent());
+                if (parent != null) {
+                    showNewParent(parent, nc);
+                }
+            }
+            if (e.is(TreeEvent.Kind.RENAMED)
+                    || e.is(TreeEvent.Kind.CONTENT_CHANGED)
+                    || e.is(TreeEvent.Kind.BOUNDS_CHANGED)) {
+                nc.refreshView();
+            }
+        }
+    }
+    
+    /**
+     * Finds the controller of a Node of the tree, first building the
+     * controllers and views of the Node and any of its ancestors which
+     * aren't shown yet.
+     * 
+     * @param n The Node.
+     * @return The Node's controller, or null if the Node isn't in the tree.
+     */
+    private NodeController showController(final Node n) {
+        List<Node> missing = new ArrayList<Node>();
+        Node p = n;
+        while (p != null && tree.contains(p) && findController(p) == null) {
+            missing.add(p);
+            p = p.getParent();
+        }
+        for (int i = missing.size() - 1; i >= 0; i--) {
+            buildNodeInGUI(missing.get(i));
+        }
+        return n != null && tree.contains(n) ? findController(n) : null;
+    }
+
     /**
      * Returns the TreeView view object.
      * 
@@ -252,7 +424,7 @@ public final class TreeController {
             
             if (tree.add(parent.getNode(), child.getNode())) {
                 // Child was successfully added to parent in the tree
-                nodeControllers.add(child);
+                nodeControllers.put(child.getNode(), child);
                 child.setParent(parent);
                 view.addToDocumentFront(child.getView());
                 if (parent != root) {
@@ -274,19 +446,168 @@ public final class TreeController {
                 || child == null || parent == child) {
             return;
         }
+        if (tree.isAncestor(child.getNode(), parent.getNode())) {
+            // Moving a node underneath its own descendant would make a loop.
+            return;
+        }
         if (tree.contains(parent.getNode())
                 && tree.contains(child.getNode())) {
             if (tree.move(parent.getNode(), child.getNode())) {
                 // Child was successfully added to parent in the tree.
                 // Now, let's reflect that in the GUI.
-                
-                child.setParent(parent);
-                
-                // We only display the line if the parent is not root
-                view.removeFromDocument(child.getLineToParent().getView());
-                if (parent != root) {
-                    view.addToDocumentRear(child.getLineToParent().getView());
+                showNewParent(parent, child);
+            }
+        }
+    }
+    
+    /**
+     * Points a child's line at its new parent in the GUI, after the child
+     * has been moved in the tree.
+     * 
+     * @param parent New parent.
+     * @param child The child node that was moved.
+     */
+    private void showNewParent(final NodeController parent,
+                               final NodeController child) {
+        child.setParent(parent);
+        
+        // We only display the line if the parent is not root
+        view.removeFromDocument(child.getLineToParent().getView());
+        if (parent != root) {
+            view.addToDocumentRear(child.getLineToParent().getView());
+        }
+    }
+    
+    /**
+     * Deletes a node and all of its descendants, along with their
+     * controllers, views and lines. See BPlusTree.deleteBranch().
+     * 
+     * @param nc The controller of the base node of the branch.
+     */
+    public void deleteBranch(final NodeController nc) {
+        if (tree == null || nc == null || nc == root) {
+            return;
+        }
+        Node base = nc.getNode();
+        if (tree.deleteBranch(base)) {
+            view.holdLayout();
+            try {
+                dropController(base);
+                Iterator<Node> it = TreeTraversal.preOrder(base, false);
+                while (it.hasNext()) {
+                    dropController(it.next());
                 }
+            } finally {
+                view.releaseLayout();
+            }
+        }
+    }
+    
+    /**
+     * Removes the view and line of a deleted or removed node from the GUI,
+     * and forgets and disposes of its controller.
+     * 
+     * @param n The node which has left the tree.
+     */
+    private void dropController(final Node n) {
+        NodeController nc = nodeControllers.remove(n);
+        if (nc != null) {
+            view.removeFromDocument(nc.getView());
+            view.removeFromDocument(nc.getLineToParent().getView());
+            nc.dispose();
+        }
+    }
+    
+    /**
+     * Adds several pre-existing branches under the same parent as one
+     * change, and creates their controllers and views. The tree checks
+     * all of the branches first and adds either all or none of them, and
+     * the GUI is laid out once at the end. See BPlusTree.addAll().
+     * 
+     * @param parent The controller of the parent node.
+     * @param nodes The base Nodes of the branches to add.
+     */
+    public void addAll(final NodeController parent, final List<Node> nodes) {
+        if (tree == null || parent == null || nodes == null) {
+            return;
+        }
+        if (tree.addAll(parent.getNode(), nodes)) {
+            view.holdLayout();
+            try {
+                for (Node n: nodes) {
+                    buildNodeInGUI(n);
+                    Iterator<Node> it = TreeTraversal.preOrder(n, false);
+                    while (it.hasNext()) {
+                        buildNodeInGUI(it.next());
+                    }
+                }
+            } finally {
+                view.releaseLayout();
+            }
+        }
+    }
+    
+    /**
+     * Moves several nodes to the same new parent as one change. The tree
+     * checks all of the moves first and makes either all or none of them,
+     * and the GUI is laid out once at the end. See BPlusTree.moveAll().
+     * 
+     * @param parent The controller of the new parent.
+     * @param children The controllers of the nodes to move.
+     */
+    public void moveAll(final NodeController parent,
+                        final List<NodeController> children) {
+        if (tree == null || parent == null || children == null) {
+            return;
+        }
+        List<Node> nodes = new ArrayList<Node>(children.size());
+        for (NodeController nc: children) {
+            nodes.add(nc.getNode());
+        }
+        if (tree.moveAll(parent.getNode(), nodes)) {
+            view.holdLayout();
+            try {
+                for (NodeController nc: children) {
+                    showNewParent(parent, nc);
+                }
+            } finally {
+                view.releaseLayout();
+            }
+        }
+    }
+    
+    /**
+     * Removes several nodes as one change, moving the children of each to
+     * its parent, and removes their views. The tree checks all of the
+     * nodes first and removes either all or none of them, and the GUI is
+     * laid out once at the end. See BPlusTree.removeAll().
+     * 
+     * @param ncs The controllers of the nodes to remove.
+     */
+    public void removeAll(final List<NodeController> ncs) {
+        if (tree == null || ncs == null) {
+            return;
+        }
+        List<Node> nodes = new ArrayList<Node>(ncs.size());
+        List<Node> hoisted = new ArrayList<Node>();
+        for (NodeController nc: ncs) {
+            nodes.add(nc.getNode());
+            hoisted.addAll(nc.getNode().getChildrenView());
+        }
+        if (tree.removeAll(nodes)) {
+            view.holdLayout();
+            try {
+                for (NodeController nc: ncs) {
+                    dropController(nc.getNode());
+                }
+                for (Node n: hoisted) {
+                    if (tree.contains(n)) {
+                        showNewParent(findController(n.getParent()),
+                                      findController(n));
+                    }
+                }
+            } finally {
+                view.releaseLayout();
             }
         }
     }
@@ -297,13 +618,18 @@ public final class TreeController {
      */
     public void removeNode(final NodeController nc) {
         List<Node> children = nc.getNode().getChildren();
+        NodeController parent = findController(nc.getNode().getParent());
         if (tree.remove(nc.getNode())) {
-            view.removeFromDocument(nc.getView());
-            view.removeFromDocument(nc.getLineToParent().getView());
-            nodeControllers.remove(nc);
-            for (Node nChild: children) {
-                moveNode(findController(nChild.getParent()),
-                         findController(nChild));
+            view.holdLayout();
+            try {
+                dropController(nc.getNode());
+                // The tree has already given the children to the parent, so
+                // only their lines need to change.
+                for (Node nChild: children) {
+                    showNewParent(parent, findController(nChild));
+                }
+            } finally {
+                view.releaseLayout();
             }
         }
     }
@@ -0,0 +1,228 @@
+package brainstorm;
+
+import java.awt.Rectangle;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Describes how one Node of a tree has changed since the tree last told
+ * its listeners about it. See BPlusTree.addTreeListener().
+ * <br>
+ * Changes are gathered up and handed out together, so a Node that is
+ * renamed once for every key typed, or moved and then moved back, gets
+ * a single event. The event says what is different between the Node as
+ * it was before the first of the changes and the Node as it is when the
+ * event is handed out. A Node that joins the tree and leaves it again in
+ * between gets no event at all.
+ */
+public class TreeEvent {
+
+    /**
+     * The kinds of change a Node can go through.
+     */
+    public enum Kind {
+        /** The Node has joined the tree. */
+        ADDED,
+        /** The Node has left the tree. */
+        REMOVED,
+        /** The Node has a new parent or a new place among its siblings. */
+        MOVED,
+        /** The Node's name is different. */
+        RENAMED,
+        /** The Node's content is different. */
+        CONTENT_CHANGED,
+        /** The Node's bounds are different. */
+        BOUNDS_CHANGED
+    }
+
+    /**
+     * The tree the Node belongs to, or belonged to.
+     */
+    private final BPlusTree tree;
+
+    /**
+     * The Node that has changed.
+     */
+    private final Node node;
+
+    /**
+     * Whether the Node was in the tree before the changes.
+     */
+    private final boolean wasInTree;
+
+    /**
+     * The Node's parent before the changes.
+     */
+    private final Node oldParent;
+
+    /**
+     * The Node's name before the changes.
+     */
+    String oldName;
+
+    /**
+     * The Node's content before the changes.
+     */
+    String oldContent;
+
+    /**
+     * A copy of the Node's bounds before the changes, or null if they were
+     * changed in place before a copy could be made.
+     */
+    Rectangle oldBounds;
+
+    /**
+     * Whether the Node has been taken from its parent's children or put
+     * among them at any point during the changes.
+     */
+    boolean moved;
+
+    /**
+     * The kinds of change found when the event was handed out.
+     */
+    private Set<Kind> kinds;
+
+    /**
+     * Creates an event for a Node which is about to change, and remembers
+     * how the Node is now.
+     *
+     * @param tree The tree the Node belongs to, or is joining.
+     * @param node The Node.
+     */
+    TreeEvent(final BPlusTree tree, final Node node) {
+        this.tree = tree;
+        this.node = node;
+        this.wasInTree = node.getTree() == tree;
+        this.oldParent = node.getParent();
+        this.oldName = node.getName();
+        this.oldContent = node.getContent();
+        this.oldBounds = node.getBounds() == null
+                         ? null : new Rectangle(node.getBounds());
+    }
+
+    /**
+     * Compares the Node as it is now with how it was before the changes,
+     * and works out which kinds of change to report.
+     *
+     * @return true if there is anything to report, false if the changes
+     * cancelled each other out.
+     */
+    boolean settle() {
+        boolean inTree = node.getTree() == tree;
+        EnumSet<Kind> found = EnumSet.noneOf(Kind.class);
+        if (wasInTree && !inTree) {
+            found.add(Kind.REMOVED);
+        } else if (!wasInTree && inTree) {
+            found.add(Kind.ADDED);
+        } else if (inTree) {
+            if (moved || node.getParent() != oldParent) {
+                found.add(Kind.MOVED);
+            }
+            if (!equal(oldName, node.getName())) {
+                found.add(Kind.RENAMED);
+            }
+            if (!equal(oldContent, node.getContent())) {
+                found.add(Kind.CONTENT_CHANGED);
+            }
+            if (oldBounds == null || !oldBounds.equals(node.getBounds())) {
+                found.add(Kind.BOUNDS_CHANGED);
+            }
+        }
+        kinds = Collections.unmodifiableSet(found);
+        return !found.isEmpty();
+    }
+
+    /**
+     * Returns true if two Strings are both null or hold the same text.
+     *
+     * @param a One String.
+     * @param b The other String.
+     * @return true if the Strings are equal, false otherwise.
+     */
+    private static boolean equal(final String a, final String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Retrieves the tree the Node belongs to, or belonged to before it was
+     * removed.
+     *
+     * @return The tree.
+     */
+    public BPlusTree getTree() {
+        return tree;
+    }
+
+    /**
+     * Retrieves the Node that has changed.
+     *
+     * @return The Node.
+     */
+    public Node getNode() {
+        return node;
+    }
+
+    /**
+     * Retrieves every kind of change the Node has gone through. A Node
+     * that was added or removed has no other kinds, since everything about
+     * it is new to the tree or gone from it.
+     *
+     * @return The kinds of change.
+     */
+    public Set<Kind> getKinds() {
+        return kinds;
+    }
+
+    /**
+     * Returns true if the Node has gone through a kind of change.
+     *
+     * @param kind The kind of change.
+     * @return true if the Node has changed in that way, false otherwise.
+     */
+    public boolean is(final Kind kind) {
+        return kinds.contains(kind);
+    }
+
+    /**
+     * Retrieves the Node's parent before the changes.
+     *
+     * @return The old parent, or null if the Node had none.
+     */
+    public Node getOldParent() {
+        return oldParent;
+    }
+
+    /**
+     * Retrieves the Node's name before the changes.
+     *
+     * @return The old name.
+     */
+    public String getOldName() {
+        return oldName;
+    }
+
+    /**
+     * Retrieves the Node's content before the changes.
+     *
+     * @return The old content.
+     */
+    public String getOldContent() {
+        return oldContent;
+    }
+
+    /**
+     * Retrieves the Node's bounds before the changes.
+     *
+     * @return The old bounds, or null if they were changed in place and
+     * aren't known.
+     */
+    public Rectangle getOldBounds() {
+        return oldBounds;
+    }
+
+    @Override
+    public String toString() {
+        return node + " " + kinds;
+    }
+}
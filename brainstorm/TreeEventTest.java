@@ -0,0 +1,252 @@
+package brainstorm;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+/**
+ * This class contains the JUnit tests for the TreeEvent class and the
+ * listeners of BPlusTree.
+ *
+ */
+public class TreeEventTest {
+
+    /**
+     * The tasks handed to the dispatcher which haven't been run yet.
+     */
+    private List<Runnable> tasks = new ArrayList<Runnable>();
+
+    /**
+     * Every notification the listener has been given.
+     */
+    private List<List<TreeEvent>> heard = new ArrayList<List<TreeEvent>>();
+
+    /**
+     * The listener, which records what it hears.
+     */
+    private TreeListener listener = new TreeListener() {
+        @Override
+        public void treeChanged(final List<TreeEvent> events) {
+            heard.add(events);
+        }
+    };
+
+    /**
+     * This test makes bursts of changes and checks that each burst is
+     * handed out once, with one event per Node saying what is different
+     * about it, and that changes which cancel out aren't reported.
+     *
+     * Tests the following methods:
+     * BPlusTree.addTreeListener(TreeListener)
+     * BPlusTree.setEventDispatcher(Executor)
+     * TreeEvent.getKinds()
+     * TreeEvent.getOldParent()
+     * TreeEvent.getOldName()
+     */
+    @Test
+    public void testCoalescing1() {
+        BPlusTree tree = listenedTree();
+        Node a = new Node("A", "");
+        Node b = new Node("B", "");
+        tree.add(a);
+        tree.add(b);
+        assertEquals(0, heard.size());
+        assertEquals(1, tasks.size());
+        List<TreeEvent> events = deliver();
+        assertEquals(2, events.size());
+        assertTrue(events.get(0).getNode() == a);
+        assertEquals(EnumSet.of(TreeEvent.Kind.ADDED),
+                     events.get(0).getKinds());
+
+        // Typing a name is one change.
+        for (String s: new String[] {"H", "He", "Hel", "Hello"}) {
+            a.setName(s);
+        }
+        assertEquals(1, tasks.size());
+        events = deliver();
+        assertEquals(1, events.size());
+        assertEquals(EnumSet.of(TreeEvent.Kind.RENAMED),
+                     events.get(0).getKinds());
+        assertEquals("A", events.get(0).getOldName());
+
+        // Changes which are undone before they are handed out vanish.
+        a.setName("Help");
+        a.setName("Hello");
+        Node c = new Node("C", "");
+        tree.add(b, c);
+        tree.deleteBranch(c);
+        assertEquals(0, deliver().size());
+
+        // Moving reports the old parent, and moving back still counts,
+        // since the place among the siblings may be different.
+        tree.move(b, a);
+        events = deliver();
+        assertEquals(EnumSet.of(TreeEvent.Kind.MOVED),
+                     events.get(0).getKinds());
+        assertTrue(events.get(0).getOldParent() == tree.getRoot());
+        tree.move(tree.getRoot(), a);
+        assertTrue(deliver().get(0).is(TreeEvent.Kind.MOVED));
+
+        a.setContent("text");
+        a.setBounds(new Rectangle(5, 5, 10, 10));
+        b.getBounds().x += 3;
+        b.setBounds(b.getBounds());
+        events = deliver();
+        assertEquals(2, events.size());
+        assertEquals(EnumSet.of(TreeEvent.Kind.CONTENT_CHANGED,
+                                TreeEvent.Kind.BOUNDS_CHANGED),
+                     events.get(0).getKinds());
+        assertEquals(null, events.get(1).getOldBounds());
+        assertTrue(events.get(1).is(TreeEvent.Kind.BOUNDS_CHANGED));
+        assertEquals(5, heard.size());
+    }
+
+    /**
+     * This test removes a node and deletes a branch, and checks that the
+     * children given to the parent are reported as moved, that every Node
+     * of a deleted branch is reported as removed, and that undo reports
+     * them as added again.
+     *
+     * Tests the following methods:
+     * BPlusTree.remove(Node)
+     * BPlusTree.deleteBranch(Node)
+     * BPlusTree.flushEvents()
+     */
+    @Test
+    public void testStructure1() {
+        BPlusTree tree = listenedTree();
+        Node hub = new Node("hub", "");
+        Node x = new Node("x", "");
+        Node y = new Node("y", "");
+        Node z = new Node("z", "");
+        tree.add(hub);
+        tree.add(hub, x);
+        tree.add(hub, y);
+        tree.add(y, z);
+        tree.flushEvents();
+        assertEquals(1, heard.size());
+        assertEquals(4, heard.get(0).size());
+
+        tree.remove(hub);
+        List<TreeEvent> events = deliver();
+        assertEquals(3, events.size());
+        assertTrue(events.get(0).getNode() == hub);
+        assertTrue(events.get(0).is(TreeEvent.Kind.REMOVED));
+        assertTrue(events.get(1).getNode() == x);
+        assertTrue(events.get(1).is(TreeEvent.Kind.MOVED));
+        assertTrue(events.get(1).getOldParent() == hub);
+        assertTrue(x.getParent() == tree.getRoot());
+
+        tree.deleteBranch(y);
+        events = deliver();
+        assertEquals(2, events.size());
+        assertTrue(events.get(0).is(TreeEvent.Kind.REMOVED));
+        assertTrue(events.get(1).getNode() == z);
+        assertTrue(events.get(1).getOldParent() == y);
+
+        assertTrue(tree.getHistory().undo());
+        assertTrue(tree.getHistory().undo());
+        events = deliver();
+        assertEquals(4, events.size());
+        int added = 0;
+        for (TreeEvent e: events) {
+            if (e.is(TreeEvent.Kind.ADDED)) {
+                added++;
+            } else {
+                assertEquals(EnumSet.of(TreeEvent.Kind.MOVED), e.getKinds());
+            }
+        }
+        assertEquals(3, added);
+        assertTrue(x.getParent() == hub);
+
+        // Nothing is gathered while nobody is listening.
+        tree.removeTreeListener(listener);
+        tree.add(new Node("w", ""));
+        assertEquals(0, tasks.size());
+        tree.flushEvents();
+        assertEquals(4, heard.size());
+    }
+
+    /**
+     * This test gives a Node of the tree children without going through
+     * the tree, and checks that refreshing the list of Nodes takes them in
+     * without telling the listener or touching the history.
+     *
+     * Tests the following methods:
+     * BPlusTree.refreshNodeList()
+     */
+    @Test
+    public void testRefresh1() {
+        BPlusTree tree = listenedTree();
+        Node a = new Node("A", "");
+        tree.add(a);
+        deliver();
+        tree.getHistory().clear();
+        assertEquals(1, tree.searchText("A").size());
+
+        Node b = new Node("B", "");
+        Node c = new Node("C", "");
+        b.addChild(c);
+        a.addChild(b);
+        tree.refreshNodeList();
+        assertTrue(tree.contains(c));
+        assertEquals(4, tree.size());
+        assertTrue(tree.findById(c.getId()) == c);
+        assertTrue(tree.searchText("C").get(0) == c);
+        assertTrue(tree.isAncestor(a, c));
+        assertEquals(0, deliver().size());
+        assertTrue(!tree.getHistory().canUndo());
+
+        // Nodes taken out without going through the tree are let go.
+        a.removeChild(b);
+        tree.refreshNodeList();
+        assertTrue(!tree.contains(b));
+        assertEquals(2, tree.size());
+        b.setName("D");
+        assertEquals(0, tree.searchText("D").size());
+    }
+
+    /**
+     * Helper function which builds an empty tree whose changes are heard
+     * by the listener, and handed out only when deliver() is called.
+     *
+     * @return The tree.
+     */
+    private BPlusTree listenedTree() {
+        BPlusTree tree = new BPlusTree("R", "");
+        tree.setEventDispatcher(new Executor() {
+            @Override
+            public void execute(final Runnable task) {
+                tasks.add(task);
+            }
+        });
+        tree.addTreeListener(listener);
+        return tree;
+    }
+
+    /**
+     * Helper function which runs the tasks handed to the dispatcher and
+     * returns what the listener was told.
+     *
+     * @return The events handed out, or an empty list if there were none.
+     */
+    private List<TreeEvent> deliver() {
+        int before = heard.size();
+        List<Runnable> run = new ArrayList<Runnable>(tasks);
+        tasks.clear();
+        for (Runnable task: run) {
+            task.run();
+        }
+        assertTrue(heard.size() <= before + 1);
+        if (heard.size() == before) {
+            return new ArrayList<TreeEvent>();
+        }
+        return heard.get(heard.size() - 1);
+    }
+}
@@ -0,0 +1,22 @@
+package brainstorm;
+
+import java.util.List;
+
+/**
+ * A callback which is told about the changes made to a tree, such as a
+ * view or an autosave that only needs to look at the Nodes that changed.
+ * See BPlusTree.addTreeListener().
+ */
+public interface TreeListener {
+
+    /**
+     * Called with every Node that has changed since the last call. Each
+     * Node appears once, in the order in which the Nodes were first
+     * changed. The tree may have been changed again since the events were
+     * gathered, so a listener should look at the Nodes as they are now
+     * and not rely on seeing every step.
+     *
+     * @param events The changes, one per Node.
+     */
+    void treeChanged(List<TreeEvent> events);
+}
@@ -0,0 +1,443 @@
+package brainstorm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Runs bulk queries over a tree on several threads at once using
+ * fork/join. Counting matches, collecting matches and map/reduce are
+ * supported, over the whole tree or over one branch.
+ * <br>
+ * When a TreeQuery is created it takes a snapshot of the tree with
+ * BPlusTree.snapshot(), and lists the Nodes in pre-order along with the
+ * frozen copy of each one. Only the Nodes which changed since the last
+ * snapshot are copied again. Queries only read the frozen copies, so the
+ * live tree can keep changing while a query runs, and results are
+ * reported as the live Nodes the copies were taken from.
+ * Because every branch is a contiguous run of the pre-order list, work is
+ * split by cutting runs in half until they are small enough for one thread.
+ * <br>
+ * Predicates and mappers are called from several threads at once, so they
+ * must not change any shared state.
+ */
+public class TreeQuery {
+
+    /**
+     * Runs below this many Nodes are not split any further.
+     */
+    private static final int MIN_SPLIT = 2048;
+
+    /**
+     * The pool that runs the queries.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * The live Nodes of the tree in pre-order, as they were when the
+     * snapshot was taken.
+     */
+    private final Node[] live;
+
+    /**
+     * The frozen copy of each live Node, taken with the snapshot.
+     */
+    private final NodeSnapshot[] copies;
+
+    /**
+     * For the Node at each position, the position just past the end of
+     * its branch.
+     */
+    private final int[] branchEnd;
+
+    /**
+     * The position of each live Node in the snapshot.
+     */
+    private final Map<Node, Integer> positions;
+
+    /**
+     * The size of the runs that are handed to a single thread.
+     */
+    private final int threshold;
+
+    /**
+     * Takes a snapshot of a tree to query using the common fork/join pool.
+     * The tree's read lock is held while the snapshot is taken, so this may
+     * be called from any thread.
+     *
+     * @param tree The tree to query.
+     */
+    public TreeQuery(final BPlusTree tree) {
+        this(tree, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Takes a snapshot of a tree to query using the given fork/join pool.
+     * The tree's read lock is held while the snapshot is taken, so this may
+     * be called from any thread.
+     *
+     * @param tree The tree to query.
+     * @param pool The pool whose threads run the queries.
+     */
+    public TreeQuery(final BPlusTree tree, final ForkJoinPool pool) {
+        this.pool = pool;
+        Lock lock = tree.readLock();
+        lock.lock();
+        try {
+            int n = tree.size();
+            live = new Node[n];
+            copies = new NodeSnapshot[n];
+            // Every Node of the tree has its frozen copy after this.
+            tree.snapshot();
+            branchEnd = new int[n];
+            positions = new IdentityHashMap<Node, Integer>(n);
+
+            // Walk the tree once, keeping the path of open branches on a
+            // stack so that each branch can be closed off when the walk
+            // leaves it.
+            int[] open = new int[16];
+            int depth = 0;
+            int pos = 0;
+            Iterator<Node> it = tree.preOrderIterator();
+            while (it.hasNext()) {
+                Node node = it.next();
+
+                // Close the branches that this Node is not part of.
+                while (depth > 0
+                       && live[open[depth - 1]] != node.getParent()) {
+                    branchEnd[open[--depth]] = pos;
+                }
+                if (depth == open.length) {
+                    open = Arrays.copyOf(open, depth * 2);
+                }
+                open[depth++] = pos;
+
+                live[pos] = node;
+                copies[pos] = node.getSnapshot();
+                positions.put(node, pos);
+                pos++;
+            }
+            while (depth > 0) {
+                branchEnd[open[--depth]] = pos;
+            }
+        } finally {
+            lock.unlock();
+        }
+        threshold = Math.max(MIN_SPLIT,
+                             live.length / (pool.getParallelism() * 8 + 1));
+    }
+
+    /**
+     * Returns the number of Nodes in the snapshot.
+     *
+     * @return The number of Nodes, including the root.
+     */
+    public int size() {
+        return live.length;
+    }
+
+    /**
+     * Returns the number of Nodes in a branch of the snapshot.
+     *
+     * @param branch The live base Node of the branch.
+     * @return The number of Nodes in the branch, including its base, or
+     * zero if the Node was not in the tree when the snapshot was taken.
+     */
+    public int branchSize(final Node branch) {
+        Integer pos = positions.get(branch);
+        if (pos == null) {
+            return 0;
+        }
+        return branchEnd[pos] - pos;
+    }
+
+    /**
+     * Counts the Nodes of the tree which match a test.
+     *
+     * @param test The test, applied to the frozen copy of each Node.
+     * @return The number of matching Nodes.
+     */
+    public int count(final Predicate<NodeSnapshot> test) {
+        return count(null, test);
+    }
+
+    /**
+     * Counts the Nodes of a branch which match a test.
+     *
+     * @param branch The live base Node of the branch, or null for the
+     * whole tree.
+     * @param test The test, applied to the frozen copy of each Node.
+     * @return The number of matching Nodes.
+     */
+    public int count(final Node branch, final Predicate<NodeSnapshot> test) {
+        int[] range = range(branch);
+        if (range == null) {
+            return 0;
+        }
+        return pool.invoke(new CountTask(range[0], range[1], test));
+    }
+
+    /**
+     * Collects the Nodes of the tree which match a test.
+     *
+     * @param test The test, applied to the frozen copy of each Node.
+     * @return The live matching Nodes, in pre-order.
+     */
+    public List<Node> collect(final Predicate<NodeSnapshot> test) {
+        return collect(null, test);
+    }
+
+    /**
+     * Collects the Nodes of a branch which match a test.
+     *
+     * @param branch The live base Node of the branch, or null for the
+     * whole tree.
+     * @param test The test, applied to the frozen copy of each Node.
+     * @return The live matching Nodes, in pre-order.
+     */
+    public List<Node> collect(final Node branch,
+                              final Predicate<NodeSnapshot> test) {
+        int[] range = range(branch);
+        if (range == null) {
+            return new ArrayList<Node>();
+        }
+        return pool.invoke(new CollectTask(range[0], range[1], test));
+    }
+
+    /**
+     * Maps every Node of a branch to a value and combines the values.
+     *
+     * @param <R> The type of the values.
+     * @param branch The live base Node of the branch, or null for the
+     * whole tree.
+     * @param mapper Maps the frozen copy of a Node to a value.
+     * @param identity The value of an empty branch. Combining it with any
+     * value must give back that value.
+     * @param reducer Combines two values. It must be associative, because
+     * the values are combined in whatever grouping the threads finish in.
+     * @return The combined value.
+     */
+    public <R> R mapReduce(final Node branch,
+                           final Function<NodeSnapshot, ? extends R> mapper,
+                           final R identity,
+                           final BinaryOperator<R> reducer) {
+        int[] range = range(branch);
+        if (range == null) {
+            return identity;
+        }
+        return pool.invoke(new ReduceTask<R>(range[0], range[1], mapper,
+                                             identity, reducer));
+    }
+
+    /**
+     * Finds the run of positions that a branch covers.
+     *
+     * @param branch The live base Node of the branch, or null for the
+     * whole tree.
+     * @return The first position and the position after the last, or null
+     * if the branch was not in the snapshot.
+     */
+    private int[] range(final Node branch) {
+        if (branch == null) {
+            return new int[] {0, live.length};
+        }
+        Integer pos = positions.get(branch);
+        if (pos == null) {
+            return null;
+        }
+        return new int[] {pos, branchEnd[pos]};
+    }
+
+    /**
+     * Maps and reduces a run of positions, splitting it in two while it is
+     * large.
+     *
+     * @param <R> The type of the values.
+     */
+    @SuppressWarnings("serial")
+    private final class ReduceTask<R> extends RecursiveTask<R> {
+
+        /**
+         * The first position of the run.
+         */
+        private final int from;
+
+        /**
+         * The position after the last of the run.
+         */
+        private final int to;
+
+        /**
+         * Maps a Node to a value.
+         */
+        private final Function<NodeSnapshot, ? extends R> mapper;
+
+        /**
+         * The value of an empty run.
+         */
+        private final R identity;
+
+        /**
+         * Combines two values.
+         */
+        private final BinaryOperator<R> reducer;
+
+        /**
+         * Creates a task.
+         *
+         * @param from The first position of the run.
+         * @param to The position after the last of the run.
+         * @param mapper Maps a Node to a value.
+         * @param identity The value of an empty run.
+         * @param reducer Combines two values.
+         */
+        private ReduceTask(final int from, final int to,
+                           final Function<NodeSnapshot, ? extends R> mapper,
+                           final R identity, final BinaryOperator<R> reducer) {
+            this.from = from;
+            this.to = to;
+            this.mapper = mapper;
+            this.identity = identity;
+            this.reducer = reducer;
+        }
+
+        @Override
+        protected R compute() {
+            if (to - from <= threshold) {
+                R result = identity;
+                for (int i = from; i < to; i++) {
+                    result = reducer.apply(result, mapper.apply(copies[i]));
+                }
+                return result;
+            }
+            int mid = (from + to) >>> 1;
+            ReduceTask<R> left = new ReduceTask<R>(from, mid, mapper,
+                                                   identity, reducer);
+            left.fork();
+            R right = new ReduceTask<R>(mid, to, mapper, identity, reducer)
+                    .compute();
+            return reducer.apply(left.join(), right);
+        }
+    }
+
+    /**
+     * Counts the matching Nodes of a run of positions, splitting it in two
+     * while it is large.
+     */
+    @SuppressWarnings("serial")
+    private final class CountTask extends RecursiveTask<Integer> {
+
+        /**
+         * The first position of the run.
+         */
+        private final int from;
+
+        /**
+         * The position after the last of the run.
+         */
+        private final int to;
+
+        /**
+         * The test a Node must pass to be counted.
+         */
+        private final Predicate<NodeSnapshot> test;
+
+        /**
+         * Creates a task.
+         *
+         * @param from The first position of the run.
+         * @param to The position after the last of the run.
+         * @param test The test a Node must pass to be counted.
+         */
+        private CountTask(final int from, final int to,
+                          final Predicate<NodeSnapshot> test) {
+            this.from = from;
+            this.to = to;
+            this.test = test;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to - from <= threshold) {
+                int found = 0;
+                for (int i = from; i < to; i++) {
+                    if (test.test(copies[i])) {
+                        found++;
+                    }
+                }
+                return found;
+            }
+            int mid = (from + to) >>> 1;
+            CountTask left = new CountTask(from, mid, test);
+            left.fork();
+            int right = new CountTask(mid, to, test).compute();
+            return left.join() + right;
+        }
+    }
+
+    /**
+     * Collects the matching Nodes of a run of positions, splitting it in
+     * two while it is large.
+     */
+    @SuppressWarnings("serial")
+    private final class CollectTask extends RecursiveTask<List<Node>> {
+
+        /**
+         * The first position of the run.
+         */
+        private final int from;
+
+        /**
+         * The position after the last of the run.
+         */
+        private final int to;
+
+        /**
+         * The test a Node must pass to be collected.
+         */
+        private final Predicate<NodeSnapshot> test;
+
+        /**
+         * Creates a task.
+         *
+         * @param from The first position of the run.
+         * @param to The position after the last of the run.
+         * @param test The test a Node must pass to be collected.
+         */
+        private CollectTask(final int from, final int to,
+                            final Predicate<NodeSnapshot> test) {
+            this.from = from;
+            this.to = to;
+            this.test = test;
+        }
+
+        @Override
+        protected List<Node> compute() {
+            if (to - from <= threshold) {
+                List<Node> found = new ArrayList<Node>();
+                for (int i = from; i < to; i++) {
+                    if (test.test(copies[i])) {
+                        found.add(live[i]);
+                    }
+                }
+                return found;
+            }
+            int mid = (from + to) >>> 1;
+            CollectTask left = new CollectTask(from, mid, test);
+            left.fork();
+            List<Node> right = new CollectTask(mid, to, test).compute();
+            List<Node> found = left.join();
+            found.addAll(right);
+            return found;
+        }
+    }
+}
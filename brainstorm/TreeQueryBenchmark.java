@@ -0,0 +1,109 @@
+package brainstorm;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+
+/**
+ * Measures how TreeQuery speeds up as it is given more threads. A large
+ * random tree is built, then the same keyword count and collect queries
+ * are run on pools of 1, 2, 4 and 8 threads.
+ * <br>
+ * Run with an optional argument giving the number of Nodes in the tree
+ * (500,000 by default). The speedup can't go past the number of cores the
+ * machine really has.
+ */
+public final class TreeQueryBenchmark {
+
+    /**
+     * How many times each query is run before timing starts.
+     */
+    private static final int WARMUP = 5;
+
+    /**
+     * How many timed runs each measurement is the average of.
+     */
+    private static final int RUNS = 10;
+
+    /**
+     * This class only holds static methods.
+     */
+    private TreeQueryBenchmark() { }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args An optional number of Nodes for the tree.
+     */
+    public static void main(final String[] args) {
+        int size = 500000;
+        if (args.length > 0) {
+            size = Integer.parseInt(args[0]);
+        }
+
+        BPlusTree tree = buildTree(size);
+        final Predicate<NodeSnapshot> keyword =
+                new Predicate<NodeSnapshot>() {
+            @Override
+            public boolean test(final NodeSnapshot n) {
+                return n.getContent().toLowerCase().contains("budget")
+                        || n.getName().toLowerCase().contains("budget");
+            }
+        };
+
+        System.out.println("Nodes: " + tree.size() + ", available cores: "
+                + Runtime.getRuntime().availableProcessors());
+        System.out.println("threads  count(ms)  collect(ms)  speedup");
+        double base = 0;
+        for (int threads = 1; threads <= 8; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            TreeQuery query = new TreeQuery(tree, pool);
+            for (int i = 0; i < WARMUP; i++) {
+                query.count(keyword);
+                query.collect(keyword);
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < RUNS; i++) {
+                query.count(keyword);
+            }
+            double countMs = (System.nanoTime() - start) / 1e6 / RUNS;
+
+            start = System.nanoTime();
+            for (int i = 0; i < RUNS; i++) {
+                query.collect(keyword);
+            }
+            double collectMs = (System.nanoTime() - start) / 1e6 / RUNS;
+            pool.shutdown();
+
+            if (threads == 1) {
+                base = countMs + collectMs;
+            }
+            System.out.printf("%7d  %9.2f  %11.2f  %6.2fx%n", threads,
+                    countMs, collectMs, base / (countMs + collectMs));
+        }
+    }
+
+    /**
+     * Builds a random tree with a mix of wide and deep branches.
+     *
+     * @param size The number of Nodes, not counting the root.
+     * @return The tree.
+     */
+    private static BPlusTree buildTree(final int size) {
+        String[] words = {"idea", "budget", "plan", "risk", "goal", "team",
+                          "cost", "design", "review", "launch"};
+        Random rand = new Random(350);
+        BPlusTree tree = new BPlusTree();
+        Node[] nodes = new Node[size + 1];
+        nodes[0] = tree.getRoot();
+        for (int i = 1; i <= size; i++) {
+            String name = words[rand.nextInt(words.length)] + " " + i;
+            String content = words[rand.nextInt(words.length)] + " and "
+                    + words[rand.nextInt(words.length)];
+            nodes[i] = new Node(name, content);
+            tree.add(nodes[rand.nextInt(i)], nodes[i]);
+        }
+        return tree;
+    }
+}
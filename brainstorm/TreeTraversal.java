@@ -0,0 +1,252 @@
+package brainstorm;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterators that walk a branch of Nodes in pre-order, post-order or
+ * breadth-first order. They keep their own stack or queue instead of
+ * calling themselves, so a branch of any depth can be walked without
+ * running out of call stack, and they hand out Nodes one at a time
+ * instead of building a List.
+ * <br>
+ * The branch must not be changed while it is being walked.
+ */
+public final class TreeTraversal {
+
+    /**
+     * This class only holds static methods.
+     */
+    private TreeTraversal() { }
+
+    /**
+     * Walks a branch so that every Node comes before its children, and
+     * all of a Node's descendants come before its next sibling.
+     *
+     * @param start The base Node of the branch.
+     * @param includeStart Whether the base Node itself is returned.
+     * @return An Iterator over the branch in pre-order.
+     */
+    public static Iterator<Node> preOrder(final Node start,
+                                          final boolean includeStart) {
+        return new DepthFirst(start, includeStart, false);
+    }
+
+    /**
+     * Walks a branch so that every Node comes after all of its descendants.
+     *
+     * @param start The base Node of the branch.
+     * @param includeStart Whether the base Node itself is returned.
+     * @return An Iterator over the branch in post-order.
+     */
+    public static Iterator<Node> postOrder(final Node start,
+                                           final boolean includeStart) {
+        return new DepthFirst(start, includeStart, true);
+    }
+
+    /**
+     * Walks a branch one level at a time, so that every Node comes before
+     * any Node that is deeper in the branch.
+     *
+     * @param start The base Node of the branch.
+     * @param includeStart Whether the base Node itself is returned.
+     * @return An Iterator over the branch in breadth-first order.
+     */
+    public static Iterator<Node> breadthFirst(final Node start,
+                                              final boolean includeStart) {
+        return new BreadthFirst(start, includeStart);
+    }
+
+    /**
+     * Walks a branch depth first. The stack holds the path from the base
+     * Node down to the current Node, along with the next child to visit
+     * at each level of that path.
+     */
+    private static final class DepthFirst implements Iterator<Node> {
+
+        /**
+         * The base Node of the branch.
+         */
+        private final Node start;
+
+        /**
+         * Whether the base Node is returned.
+         */
+        private final boolean includeStart;
+
+        /**
+         * Whether Nodes are returned after, rather than before, their
+         * descendants.
+         */
+        private final boolean postOrder;
+
+        /**
+         * The Nodes on the path from the base Node to the current Node.
+         */
+        private Node[] path = new Node[16];
+
+        /**
+         * The index of the next child to visit for each Node in the path.
+         */
+        private int[] nextChild = new int[16];
+
+        /**
+         * The index of the last Node in the path, or -1 if it is empty.
+         */
+        private int top = -1;
+
+        /**
+         * Whether the walk has started.
+         */
+        private boolean started;
+
+        /**
+         * The Node that next() returns next, or null if it hasn't been
+         * found yet.
+         */
+        private Node upcoming;
+
+        /**
+         * Whether the walk is over.
+         */
+        private boolean done;
+
+        /**
+         * Creates a depth first walk.
+         *
+         * @param start The base Node of the branch.
+         * @param includeStart Whether the base Node is returned.
+         * @param postOrder Whether Nodes come after their descendants.
+         */
+        private DepthFirst(final Node start, final boolean includeStart,
+                           final boolean postOrder) {
+            this.start = start;
+            this.includeStart = includeStart;
+            this.postOrder = postOrder;
+            this.done = start == null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (upcoming == null && !done) {
+                upcoming = findNext();
+                done = upcoming == null;
+            }
+            return upcoming != null;
+        }
+
+        @Override
+        public Node next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Node n = upcoming;
+            upcoming = null;
+            return n;
+        }
+
+        /**
+         * Moves the walk forward to the next Node to return.
+         *
+         * @return The next Node, or null if the walk is over.
+         */
+        private Node findNext() {
+            if (!started) {
+                started = true;
+                push(start);
+                if (includeStart && !postOrder) {
+                    return start;
+                }
+            }
+            while (top >= 0) {
+                Node n = path[top];
+                int i = nextChild[top];
+                if (i < n.getNumChildren()) {
+                    nextChild[top]++;
+                    Node child = n.getChild(i);
+                    push(child);
+                    if (!postOrder) {
+                        return child;
+                    }
+                } else {
+                    path[top--] = null;
+                    if (postOrder && (n != start || includeStart)) {
+                        return n;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Adds a Node to the end of the path.
+         *
+         * @param n The Node.
+         */
+        private void push(final Node n) {
+            top++;
+            if (top == path.length) {
+                path = Arrays.copyOf(path, path.length * 2);
+                nextChild = Arrays.copyOf(nextChild, nextChild.length * 2);
+            }
+            path[top] = n;
+            nextChild[top] = 0;
+        }
+    }
+
+    /**
+     * Walks a branch breadth first using a queue.
+     */
+    private static final class BreadthFirst implements Iterator<Node> {
+
+        /**
+         * The Nodes that have been reached but not yet returned.
+         */
+        private final ArrayDeque<Node> queue = new ArrayDeque<Node>();
+
+        /**
+         * Creates a breadth first walk.
+         *
+         * @param start The base Node of the branch.
+         * @param includeStart Whether the base Node is returned.
+         */
+        private BreadthFirst(final Node start, final boolean includeStart) {
+            if (start == null) {
+                return;
+            }
+            if (includeStart) {
+                queue.add(start);
+            } else {
+                enqueueChildren(start);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public Node next() {
+            Node n = queue.poll();
+            if (n == null) {
+                throw new NoSuchElementException();
+            }
+            enqueueChildren(n);
+            return n;
+        }
+
+        /**
+         * Adds the children of a Node to the back of the queue.
+         *
+         * @param n The Node.
+         */
+        private void enqueueChildren(final Node n) {
+            for (int i = 0; i < n.getNumChildren(); i++) {
+                queue.add(n.getChild(i));
+            }
+        }
+    }
+}
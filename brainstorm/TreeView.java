@@ -2,12 +2,14 @@ package brainstorm;
 
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.event.ChangeListener;
 
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.Image;
+import java.awt.Rectangle;
 
 /**
  * A viewing class for the BPlusTree.
@@ -32,6 +34,13 @@ public class TreeView {
      */
     private DocumentView documentPanel;
 
+    /**
+     * The number of calls to holdLayout() which haven't been matched by
+     * releaseLayout(). While this is above zero, components are added and
+     * removed without laying out the document each time.
+     */
+    private int layoutHolds;
+
     /**
      * Constructor that creates a JPanel for displaying the tree.
      */
@@ -70,8 +79,7 @@ public class TreeView {
      */
     public void addToDocumentFront(final Component comp) {
         documentPanel.add(comp, 0);
-        documentPanel.revalidate();
-        documentPanel.repaint(comp.getBounds());
+        changed(comp);
     }
     
     /**
@@ -82,8 +90,7 @@ public class TreeView {
      */
     public void addToDocumentRear(final Component comp) {
         documentPanel.add(comp);
-        documentPanel.revalidate();
-        documentPanel.repaint(comp.getBounds());
+        changed(comp);
     }
     
     /**
@@ -93,8 +100,41 @@ public class TreeView {
      */
     public void removeFromDocument(final Component comp) {
         documentPanel.remove(comp);
-        documentPanel.revalidate();
-        documentPanel.repaint(comp.getBounds());
+        changed(comp);
+    }
+    
+    /**
+     * Stops laying out and repainting the document after every add or
+     * remove, until releaseLayout() is called. Use this around a large
+     * number of changes so the document is only laid out once. Calls can
+     * be nested.
+     */
+    public void holdLayout() {
+        layoutHolds++;
+    }
+    
+    /**
+     * Ends a holdLayout() call. When the last hold is released, the
+     * document is laid out and repainted once.
+     */
+    public void releaseLayout() {
+        if (layoutHolds > 0 && --layoutHolds == 0) {
+            documentPanel.revalidate();
+            documentPanel.repaint();
+        }
+    }
+    
+    /**
+     * Lays out the document and repaints the area of a component that
+     * was added or removed, unless layout is being held.
+     * 
+     * @param comp The component that was added or removed.
+     */
+    private void changed(final Component comp) {
+        if (layoutHolds == 0) {
+            documentPanel.revalidate();
+            documentPanel.repaint(comp.getBounds());
+        }
     }
     
     /**
@@ -118,6 +158,25 @@ public class TreeView {
         }
     }
     
+    /**
+     * Returns the part of the document which is in view.
+     * 
+     * @return The area of the document shown in the scrolling container.
+     */
+    public Rectangle getVisibleArea() {
+        return this.scrollPane.getViewport().getViewRect();
+    }
+    
+    /**
+     * Adds a listener which is told whenever the document is scrolled, or
+     * the part of it in view changes size.
+     * 
+     * @param listener The listener.
+     */
+    public void addScrollListener(final ChangeListener listener) {
+        this.scrollPane.getViewport().addChangeListener(listener);
+    }
+    
     /**
      * Refreshes the documentPanel.
      */